@@ -0,0 +1,72 @@
+package uk.ac.ceh.dynamo;
+
+import java.util.ArrayList;
+import java.util.List;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.springframework.web.servlet.handler.HandlerInterceptorAdapter;
+import uk.ac.ceh.dynamo.bread.BreadLease;
+
+/**
+ * A spring mvc interceptor which closes the bread leases held by a request
+ * once the request has completed, whether or not it was rendered and whichever
+ * thread completed it. For async requests this happens after the async
+ * processing has finished, so leases can be taken on one thread and the map
+ * rendered on another.
+ *
+ * Controllers hold a lease for the rest of the request with #hold. The 
+ * MapServerView releases them as soon as the map has been rendered, this 
+ * interceptor catches the requests which never get that far.
+ * @see BreadLease
+ * @author Christopher Johnson
+ */
+public class BreadLeaseInterceptor extends HandlerInterceptorAdapter {
+    public static final String LEASES_ATTRIBUTE = BreadLeaseInterceptor.class.getName() + ".leases";
+
+    /**
+     * Hold the given lease until the request completes
+     * @param request which the lease was taken for
+     * @param lease to close once the request has completed
+     * @return the given lease
+     */
+    public static <T> BreadLease<T> hold(HttpServletRequest request, BreadLease<T> lease) {
+        synchronized(request) {
+            List<BreadLease<?>> leases = getLeases(request);
+            if(leases == null) {
+                leases = new ArrayList<>();
+                request.setAttribute(LEASES_ATTRIBUTE, leases);
+            }
+            leases.add(lease);
+        }
+        return lease;
+    }
+
+    /**
+     * Close the leases which are held by the given request. Any lease which is
+     * held after this will be closed when the request completes
+     * @param request which has finished with its leases
+     */
+    public static void release(HttpServletRequest request) {
+        List<BreadLease<?>> leases;
+        synchronized(request) {
+            leases = getLeases(request);
+            request.removeAttribute(LEASES_ATTRIBUTE);
+        }
+        if(leases != null) {
+            for(BreadLease<?> lease: leases) {
+                lease.close();
+            }
+        }
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+        release(request);
+    }
+    
+    //The attribute is only ever set by #hold, so it is always a list of leases
+    @SuppressWarnings("unchecked")
+    private static List<BreadLease<?>> getLeases(HttpServletRequest request) {
+        return (List<BreadLease<?>>)request.getAttribute(LEASES_ATTRIBUTE);
+    }
+}
@@ -34,6 +34,9 @@ import uk.ac.ceh.dynamo.bread.BreadSlice;
  * along with any other request parameters which may have been supplied in the 
  * HttpServletRequest which initialised the creation of this view.
  * 
+ * Once rendered, the bread leases which the request holds are closed.
+ * @see BreadLeaseInterceptor#hold(HttpServletRequest, uk.ac.ceh.dynamo.bread.BreadLease)
+ * 
  * @author Christopher Johnson
  */
 public class MapServerView implements View {    
@@ -82,7 +85,11 @@ public class MapServerView implements View {
         }
         finally {
             mapFile.delete();
-            BreadSlice.finishedEating(); //We can get rid of any breadslices which were used now
+            //We can get rid of any breadslices which were used now. Leased 
+            //slices can be let go of on whichever thread renders the map, 
+            //slices from Bakery#getData only if this is the thread which ate them
+            BreadLeaseInterceptor.release(request);
+            BreadSlice.finishedEating();
         }
     }
     
@@ -0,0 +1,84 @@
+package uk.ac.ceh.dynamo.bread;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Adapts the stale time of each mix to how often its data actually changes. 
+ * When a refresh bakes exactly what was there before (as decided by the
+ * fingerprints of a FingerprintingOven), the bakery keeps the stale slice in
+ * action, renews it and multiplies its stale time by the growth factor, up to
+ * a maximum. When a refresh finds the data has changed, the stale time is
+ * divided by the growth factor again, down to the bakery's stale time.
+ *
+ * Data which does not change is then refreshed less and less often, without
+ * its files being replaced each time.
+ * @see Bakery
+ * @author Christopher Johnson
+ */
+public class AdaptiveStaleTime {
+    public static final double DEFAULT_GROWTH = 2;
+
+    private final double growth;
+    private final long maximumStaleTime;
+    private final AtomicLong unchanged = new AtomicLong(), changed = new AtomicLong();
+
+    /**
+     * Create an adaptive stale time which doubles up to the given maximum
+     * @param maximumStaleTime the longest time in milliseconds a slice can go
+     *  without being refreshed
+     */
+    public AdaptiveStaleTime(long maximumStaleTime) {
+        this(DEFAULT_GROWTH, maximumStaleTime);
+    }
+
+    /**
+     * Create an adaptive stale time
+     * @param growth the factor to multiply the stale time of an unchanged mix
+     *  by, and divide the stale time of a changed mix by
+     * @param maximumStaleTime the longest time in milliseconds a slice can go
+     *  without being refreshed
+     */
+    public AdaptiveStaleTime(double growth, long maximumStaleTime) {
+        if(growth <= 1 || maximumStaleTime < 1) {
+            throw new IllegalArgumentException("The growth must be greater than 1 and the maximum stale time positive");
+        }
+        this.growth = growth;
+        this.maximumStaleTime = maximumStaleTime;
+    }
+
+    /**
+     * A refresh baked the same as the stale slice
+     * @param staleTime the current stale time of the mix
+     * @return the stale time to renew the stale slice with
+     */
+    public long unchanged(long staleTime) {
+        unchanged.incrementAndGet();
+        return Math.max(staleTime, Math.min(maximumStaleTime, (long)(staleTime * growth)));
+    }
+
+    /**
+     * A refresh baked something different to the stale slice
+     * @param staleTime the current stale time of the mix
+     * @param minimumStaleTime the stale time of the bakery
+     * @return the stale time to give the replacement slice
+     */
+    public long changed(long staleTime, long minimumStaleTime) {
+        changed.incrementAndGet();
+        return Math.max(minimumStaleTime, (long)(staleTime / growth));
+    }
+
+    /**
+     * @return the amount of refreshes which found nothing had changed, each of
+     *  these saved replacing the files of a slice
+     */
+    public long getUnchangedCount() {
+        return unchanged.get();
+    }
+
+    /**
+     * @return the amount of refreshes which found that the data had changed
+     */
+    public long getChangedCount() {
+        return changed.get();
+    }
+}
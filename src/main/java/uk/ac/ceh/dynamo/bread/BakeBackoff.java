@@ -0,0 +1,146 @@
+package uk.ac.ceh.dynamo.bread;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Remembers which mixes have recently failed to bake, so that a broken query
+ * or an unavailable database does not result in every request forking a new
+ * bake which is going to fail anyway.
+ *
+ * After a mix fails to bake, it will not be baked again until its backoff has
+ * passed. Each consecutive failure doubles the backoff (up to a maximum) and a
+ * random jitter is applied so that mixes which failed together do not all
+ * retry together. Requests made during the backoff are given the exception
+ * which the last bake failed with.
+ *
+ * Only a limited amount of retries of failed mixes can be baking at once. If
+ * all the retries are in use, a failed mix continues to back off.
+ * @author Christopher Johnson
+ */
+public class BakeBackoff {
+    public static final long DEFAULT_INITIAL_BACKOFF = 1000;
+    public static final long DEFAULT_MAXIMUM_BACKOFF = 300000;
+    public static final int DEFAULT_SIMULTANEOUS_RETRIES = 2;
+
+    private final ConcurrentMap<String, Failure> failures = new ConcurrentHashMap<>();
+    private final Semaphore retries;
+    private final long initialBackoff, maximumBackoff;
+
+    /**
+     * Create a bake backoff with the default backoff times and retries
+     */
+    public BakeBackoff() {
+        this(DEFAULT_INITIAL_BACKOFF, DEFAULT_MAXIMUM_BACKOFF, DEFAULT_SIMULTANEOUS_RETRIES);
+    }
+
+    /**
+     * Create a bake backoff
+     * @param initialBackoff the time in milliseconds to back off after the
+     *  first failure of a mix
+     * @param maximumBackoff the longest time in milliseconds to back off for
+     * @param simultaneousRetries the maximum amount of failed mixes which can
+     *  be retried at once
+     */
+    public BakeBackoff(long initialBackoff, long maximumBackoff, int simultaneousRetries) {
+        if(initialBackoff < 1 || maximumBackoff < initialBackoff || simultaneousRetries < 1) {
+            throw new IllegalArgumentException("Backoffs must be positive, the maximum no less than the initial and at least one retry allowed");
+        }
+        this.initialBackoff = initialBackoff;
+        this.maximumBackoff = maximumBackoff;
+        this.retries = new Semaphore(simultaneousRetries);
+    }
+
+    /**
+     * Check if the given mix can be baked now.
+     * @param mixName of the bake which is about to start
+     * @param now the current time in milliseconds
+     * @return true if the mix has failed before, in which case a retry has been
+     *  taken which must be given back with #finishedRetry(). False if the mix
+     *  has not recently failed
+     * @throws BreadException the exception the mix last failed with, if the mix
+     *  is still backing off or there are no retries available
+     */
+    public boolean startBake(String mixName, long now) throws BreadException {
+        Failure failure = failures.get(mixName);
+        if(failure == null || failure.exception == null) {
+            return false; //Not failed, or the failure is still being recorded
+        }
+        if(now < failure.retryAt || !retries.tryAcquire()) {
+            throw failure.exception;
+        }
+        return true;
+    }
+
+    /**
+     * Give back a retry which was taken by #startBake(String, long)
+     */
+    public void finishedRetry() {
+        retries.release();
+    }
+
+    /**
+     * Record that a mix has failed to bake, the mix will back off for longer
+     * than it did the last time it failed.
+     * @param mixName of the failed bake
+     * @param ex the reason the bake failed
+     * @param now the current time in milliseconds
+     */
+    public void failed(String mixName, BreadException ex, long now) {
+        Failure failure = failures.get(mixName);
+        if(failure == null) {
+            Failure existing = failures.putIfAbsent(mixName, failure = new Failure());
+            failure = existing != null ? existing : failure;
+        }
+        synchronized(failure) {
+            long backoff = initialBackoff;
+            for(int i=0; i<failure.failures && backoff < maximumBackoff; i++) {
+                backoff *= 2;
+            }
+            backoff = Math.min(backoff, maximumBackoff);
+            failure.failures++;
+            long halfBackoff = backoff / 2;
+            failure.retryAt = now + halfBackoff + ThreadLocalRandom.current().nextLong(backoff - halfBackoff + 1);
+            failure.exception = ex;
+        }
+    }
+
+    /**
+     * Record that a mix has baked successfully, so it no longer needs to back
+     * off
+     * @param mixName of the successful bake
+     */
+    public void succeeded(String mixName) {
+        failures.remove(mixName);
+    }
+
+    /**
+     * Forget about mixes which have not been retried in a long time. If these
+     * fail again they will start backing off from the initial backoff.
+     * @param now the current time in milliseconds
+     */
+    public void cleanUp(long now) {
+        Iterator<Failure> iterator = failures.values().iterator();
+        while(iterator.hasNext()) {
+            if(iterator.next().retryAt + maximumBackoff < now) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * @return the amount of mixes which have recently failed to bake
+     */
+    public int getFailingMixCount() {
+        return failures.size();
+    }
+
+    private static class Failure {
+        private int failures;
+        private volatile long retryAt;
+        private volatile BreadException exception;
+    }
+}
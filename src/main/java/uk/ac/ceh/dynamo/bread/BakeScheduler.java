@@ -0,0 +1,565 @@
+package uk.ac.ceh.dynamo.bread;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded set of bread ovens which bakes are scheduled on to. Unlike a plain
+ * thread pool, bakes are given a priority:
+ *
+ *  - FOREGROUND bakes have requests waiting on them and are always taken first
+ *  - REFRESH bakes replace stale slices, the most eaten slices are taken first
+ *  - WARMUP bakes are speculative and only taken when nothing else is queued
+ *
+ * Only a limited number of ovens may be occupied by background (refresh and
+ * warmup) bakes at any one time. The remaining ovens are kept free for
+ * foreground bakes, so user facing bakes never queue behind background ones.
+ * An oven which limits its own processes can check #isRunningBackgroundBake()
+ * to keep some of them free for foreground bakes in the same way.
+ *
+ * Background bakes are also limited in how many can be queued. When the queue
+ * is full the scheduler will either drop the new bake or the coldest queued
+ * bake. A dropped stale refresh is not lost, the stale slice will simply be
+ * refreshed on its next request.
+ *
+ * Several bakeries can share one set of ovens by each taking a partition of a
+ * scheduler. Each partition is guaranteed its weighted share of the ovens and
+ * can borrow ovens which the other partitions are not using. Whilst there are
+ * more bakes than ovens, partitions take turns in proportion to their weights
+ * (stride scheduling, a form of weighted fair queuing), so one partition's
+ * refresh storm can not starve the others. Each partition has its own queue
+ * depth of background bakes.
+ * @author Christopher Johnson
+ */
+public class BakeScheduler {
+    public static final int DEFAULT_OVENS = 4;
+    public static final int DEFAULT_BACKGROUND_OVENS = 2;
+    public static final int DEFAULT_QUEUE_DEPTH = 1000;
+    private static final long KEEP_ALIVE_MILLIS = 60000;
+    private static final AtomicInteger SCHEDULER_ID = new AtomicInteger();
+    private static final ThreadLocal<Boolean> RUNNING_BACKGROUND = new ThreadLocal<>();
+
+    /**
+     * The priority classes of bakes, in the order that they will be taken
+     */
+    public enum Priority { FOREGROUND, REFRESH, WARMUP }
+
+    /**
+     * The policy applied when a background bake is submitted and the queue of
+     * background bakes is full
+     */
+    public enum WhenSaturated {
+        /** The newly submitted bake is dropped */
+        DROP_NEWEST,
+        /** The coldest queued bake is dropped, if it is colder than the new bake */
+        DROP_COLDEST
+    }
+
+    /**
+     * A bake which can be submitted to this scheduler. If the scheduler decides
+     * not to run the bake, it will be told so that it can tidy up.
+     */
+    public interface Bake extends Runnable {
+        /**
+         * Called when this bake has been dropped and will never be run.
+         */
+        void discarded();
+    }
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition ovenFree = lock.newCondition();
+    private final Condition terminated = lock.newCondition();
+    private final List<Partition> partitions = new ArrayList<>();
+    private final int ovens, backgroundOvens, queueDepth;
+    private final WhenSaturated whenSaturated;
+    private final String name;
+    private final AtomicLong dropped = new AtomicLong();
+    private final BakeScheduler root;   //the scheduler which owns the ovens
+    private final Partition partition;  //null for the root, which submits to its default partition
+
+    private Partition defaultPartition;
+    private long sequence, totalWeight;
+    private double pass; //the pass of the last partition to be given an oven
+    private int workers, idleWorkers, wakeups, runningBackground; //wakeups are signalled to idle workers which have not woken yet
+    private boolean shutdown;
+
+    /**
+     * Creates a bake scheduler with the default amount of ovens and queue depth
+     */
+    public BakeScheduler() {
+        this(DEFAULT_OVENS, DEFAULT_BACKGROUND_OVENS, DEFAULT_QUEUE_DEPTH, WhenSaturated.DROP_NEWEST);
+    }
+
+    /**
+     * Creates a bake scheduler.
+     * @param ovens the maximum amount of bakes which can happen simultaneously
+     * @param backgroundOvens the maximum amount of refresh and warmup bakes
+     *  which can happen simultaneously. This should be less than ovens so that
+     *  foreground bakes can always get started
+     * @param queueDepth the maximum amount of background bakes which can be
+     *  queued up
+     * @param whenSaturated the policy to apply when the queue is full
+     */
+    public BakeScheduler(int ovens, int backgroundOvens, int queueDepth, WhenSaturated whenSaturated) {
+        if(ovens < 1 || backgroundOvens < 0 || backgroundOvens > ovens || queueDepth < 0) {
+            throw new IllegalArgumentException("There must be at least one oven and no more background ovens than ovens");
+        }
+        this.ovens = ovens;
+        this.backgroundOvens = backgroundOvens;
+        this.queueDepth = queueDepth;
+        this.whenSaturated = whenSaturated;
+        this.name = "bread-oven-" + SCHEDULER_ID.incrementAndGet();
+        this.root = this;
+        this.partition = null;
+    }
+
+    /**
+     * Creates a partition of the given scheduler
+     */
+    private BakeScheduler(BakeScheduler root, Partition partition) {
+        this.ovens = root.ovens;
+        this.backgroundOvens = root.backgroundOvens;
+        this.queueDepth = root.queueDepth;
+        this.whenSaturated = root.whenSaturated;
+        this.name = root.name;
+        this.root = root;
+        this.partition = partition;
+    }
+
+    /**
+     * @return true if the calling thread is one of the ovens of a bake 
+     *  scheduler and is running a refresh or warmup bake. Foreground bakes,
+     *  including those which a bakery runs on the requesting thread, are not
+     */
+    public static boolean isRunningBackgroundBake() {
+        return Boolean.TRUE.equals(RUNNING_BACKGROUND.get());
+    }
+
+    /**
+     * Create a partition of this scheduler's ovens, which can be given to a
+     * bakery in place of a scheduler of its own. The partition is guaranteed
+     * ovens * weight / total weight of the ovens, where the total weight is of
+     * all the partitions (including bakes submitted directly to this scheduler,
+     * which have a weight of 1). Shutting down a partition shuts down the
+     * whole scheduler.
+     * @param weight the share of the ovens which the partition should get
+     * @return a scheduler which bakes in this scheduler's ovens
+     */
+    public BakeScheduler partition(int weight) {
+        if(weight < 1) {
+            throw new IllegalArgumentException("A partition must have a weight of at least 1");
+        }
+        BakeScheduler scheduler = root;
+        scheduler.lock.lock();
+        try {
+            return new BakeScheduler(scheduler, scheduler.addPartition(weight));
+        }
+        finally {
+            scheduler.lock.unlock();
+        }
+    }
+
+    /**
+     * Submit a bake to be put in an oven.
+     * @param bake the bake to perform
+     * @param priority the priority class of the bake
+     * @param rank how hot the bake is within its priority class, higher ranks
+     *  are baked first. Stale refreshes use how many times the slice was eaten
+     * @return true if the bake was accepted, false if it was dropped. Dropped
+     *  bakes will have been told that they were discarded
+     */
+    public boolean submit(Bake bake, Priority priority, long rank) {
+        return root.submit(partition, bake, priority, rank);
+    }
+
+    private boolean submit(Partition target, Bake bake, Priority priority, long rank) {
+        Bake discard = null;
+        lock.lock();
+        try {
+            if(target == null) {
+                if(defaultPartition == null) {
+                    defaultPartition = addPartition(1);
+                }
+                target = defaultPartition;
+            }
+            Order order = new Order(bake, priority, rank, target);
+            order.sequence = sequence++;
+            if(shutdown) {
+                discard = bake;
+            }
+            else if(order.isBackground() && target.queuedBackground >= queueDepth) {
+                discard = bake;
+                if(whenSaturated == WhenSaturated.DROP_COLDEST) {
+                    Order coldest = target.findColdestBackground();
+                    if(coldest != null && target.queue.comparator().compare(order, coldest) < 0) {
+                        target.queue.remove(coldest);
+                        target.queuedBackground--;
+                        discard = coldest.bake;
+                    }
+                }
+            }
+
+            if(discard != bake) {
+                if(target.queue.isEmpty() && target.running == 0) {
+                    target.pass = Math.max(target.pass, pass); //Idle partitions can't save up turns
+                }
+                target.queue.add(order);
+                if(order.isBackground()) {
+                    target.queuedBackground++;
+                }
+                //An idle worker which has already been woken will not take this
+                //order, so start a new worker if every idle one is spoken for
+                if(!wakeIdleWorker() && workers < ovens && canStart(order)) {
+                    startWorker();
+                }
+            }
+            if(discard != null) {
+                target.dropped++; //the discarded bake was either new or queued in the target
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+
+        if(discard != null) {
+            dropped.incrementAndGet();
+            discard.discarded();
+        }
+        return discard != bake;
+    }
+
+    /**
+     * @return the amount of bakes waiting for an oven. For the scheduler which
+     *  owns the ovens, this includes the bakes of all of its partitions
+     */
+    public int getQueueLength() {
+        root.lock.lock();
+        try {
+            if(partition != null) {
+                return partition.queue.size();
+            }
+            int queued = 0;
+            for(Partition p: partitions) {
+                queued += p.queue.size();
+            }
+            return queued;
+        }
+        finally {
+            root.lock.unlock();
+        }
+    }
+
+    /**
+     * @return the amount of background bakes which have been dropped as this
+     *  scheduler was saturated or shutdown. For the scheduler which owns the 
+     *  ovens, this includes the bakes of all of its partitions
+     */
+    public long getDroppedCount() {
+        if(partition != null) {
+            root.lock.lock();
+            try {
+                return partition.dropped;
+            }
+            finally {
+                root.lock.unlock();
+            }
+        }
+        return dropped.get();
+    }
+
+    /**
+     * Stop accepting new bakes. Bakes which have already been queued will still
+     * be baked.
+     */
+    public void shutdown() {
+        if(root != this) {
+            root.shutdown();
+            return;
+        }
+        lock.lock();
+        try {
+            shutdown = true;
+            wakeups = idleWorkers;
+            ovenFree.signalAll();
+            if(workers == 0) {
+                terminated.signalAll();
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Wait for all the queued bakes to complete after a shutdown.
+     * @return true if all the bakes completed in the given time
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        if(root != this) {
+            return root.awaitTermination(timeout, unit);
+        }
+        long nanos = unit.toNanos(timeout);
+        lock.lock();
+        try {
+            while(!(shutdown && workers == 0 && !hasQueuedOrders())) {
+                if(nanos <= 0) {
+                    return false;
+                }
+                nanos = terminated.awaitNanos(nanos);
+            }
+            return true;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    //Must be called whilst holding the lock
+    private boolean canStart(Order order) {
+        return !order.isBackground() || runningBackground < backgroundOvens;
+    }
+
+    //Must be called whilst holding the lock
+    private Partition addPartition(int weight) {
+        Partition added = new Partition(weight);
+        partitions.add(added);
+        totalWeight += weight;
+        return added;
+    }
+
+    //Must be called whilst holding the lock
+    private boolean hasQueuedOrders() {
+        for(Partition p: partitions) {
+            if(!p.queue.isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Take the next order which can be started. Partitions which are using 
+     * less than their share of the ovens go first, then orders are taken by 
+     * priority class and finally the partition which is furthest behind on its
+     * turns goes. Must be called whilst holding the lock
+     * @return the order, or null if none can be started
+     */
+    private Order pollOrder() {
+        Partition next = null;
+        for(Partition candidate: partitions) {
+            Order head = candidate.queue.peek();
+            //Foreground orders are always at the head of a partition's queue, so
+            //if the head can not be started there is nothing in it to take
+            if(head != null && canStart(head) && (next == null || compare(candidate, next) < 0)) {
+                next = candidate;
+            }
+        }
+        if(next == null) {
+            return null;
+        }
+        Order order = next.queue.poll();
+        if(order.isBackground()) {
+            next.queuedBackground--;
+            runningBackground++;
+        }
+        next.running++;
+        pass = next.pass;
+        next.pass += 1.0 / next.weight;
+        return order;
+    }
+
+    //Must be called whilst holding the lock
+    private int compare(Partition p1, Partition p2) {
+        boolean guaranteed1 = p1.isWithinShare(), guaranteed2 = p2.isWithinShare();
+        if(guaranteed1 != guaranteed2) {
+            return guaranteed1 ? -1 : 1;
+        }
+        Order o1 = p1.queue.peek(), o2 = p2.queue.peek();
+        int priority = o1.priority.compareTo(o2.priority);
+        if(priority != 0) {
+            return priority;
+        }
+        int turns = Double.compare(p1.pass, p2.pass);
+        if(turns != 0) {
+            return turns;
+        }
+        return o1.sequence < o2.sequence ? -1 : (o1.sequence > o2.sequence ? 1 : 0);
+    }
+
+    //Must be called whilst holding the lock
+    private void finished(Order order) {
+        order.partition.running--;
+        if(order.isBackground()) {
+            runningBackground--;
+        }
+    }
+
+    /**
+     * Wake up an idle worker which has not already been woken. Must be called
+     * whilst holding the lock
+     * @return false if there was no such worker
+     */
+    private boolean wakeIdleWorker() {
+        if(idleWorkers > wakeups) {
+            wakeups++;
+            ovenFree.signal();
+            return true;
+        }
+        return false;
+    }
+
+    //Must be called whilst holding the lock
+    private void startWorker() {
+        Thread thread = new Thread(new Worker(), name + "-" + workers);
+        thread.setDaemon(true);
+        workers++;
+        thread.start();
+    }
+
+    private class Worker implements Runnable {
+        @Override
+        public void run() {
+            Order order = null;
+            try {
+                while((order = takeOrder(order)) != null) {
+                    RUNNING_BACKGROUND.set(order.isBackground());
+                    order.bake.run();
+                }
+            }
+            finally {
+                RUNNING_BACKGROUND.remove();
+                lock.lock();
+                try {
+                    if(order != null) {
+                        finished(order); //The bake threw, release its oven
+                    }
+                    workers--;
+                    if(workers == 0) {
+                        terminated.signalAll();
+                    }
+                    wakeIdleWorker();
+                }
+                finally {
+                    lock.unlock();
+                }
+            }
+        }
+
+        /**
+         * Release the oven used for the last order and wait for the next order
+         * which this worker is allowed to bake
+         * @return the next order or null if this worker should retire
+         */
+        private Order takeOrder(Order finished) {
+            lock.lock();
+            try {
+                if(finished != null) {
+                    finished(finished);
+                    if(finished.isBackground()) {
+                        wakeIdleWorker(); //A background oven has been freed up
+                    }
+                }
+                long nanos = TimeUnit.MILLISECONDS.toNanos(KEEP_ALIVE_MILLIS);
+                while(true) {
+                    Order next = pollOrder();
+                    if(next != null) {
+                        return next;
+                    }
+                    if(shutdown && !hasQueuedOrders() || nanos <= 0) {
+                        return null;
+                    }
+                    idleWorkers++;
+                    try {
+                        nanos = ovenFree.awaitNanos(nanos);
+                    }
+                    catch(InterruptedException ie) {
+                        return null;
+                    }
+                    finally {
+                        idleWorkers--;
+                        wakeups = Math.max(0, wakeups - 1);
+                    }
+                }
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * The queue of a partition and how much of the ovens it is using
+     */
+    private class Partition {
+        private final PriorityQueue<Order> queue = new PriorityQueue<>(11, new OrderComparator());
+        private final int weight;
+        private int queuedBackground, running;
+        private long dropped;
+        private double pass;
+
+        private Partition(int weight) {
+            this.weight = weight;
+        }
+
+        private boolean isWithinShare() {
+            return running * totalWeight < (long)ovens * weight;
+        }
+
+        private Order findColdestBackground() {
+            Order coldest = null;
+            Iterator<Order> iterator = queue.iterator();
+            while(iterator.hasNext()) {
+                Order order = iterator.next();
+                if(order.isBackground() && (coldest == null || queue.comparator().compare(order, coldest) > 0)) {
+                    coldest = order;
+                }
+            }
+            return coldest;
+        }
+    }
+
+    private static class Order {
+        private final Bake bake;
+        private final Priority priority;
+        private final long rank;
+        private final Partition partition;
+        private long sequence;
+
+        private Order(Bake bake, Priority priority, long rank, Partition partition) {
+            this.bake = bake;
+            this.priority = priority;
+            this.rank = rank;
+            this.partition = partition;
+        }
+
+        private boolean isBackground() {
+            return priority != Priority.FOREGROUND;
+        }
+    }
+
+    /**
+     * Orders by priority class, then by highest rank and finally by the order
+     * in which they were submitted.
+     */
+    private static class OrderComparator implements Comparator<Order> {
+        @Override
+        public int compare(Order o1, Order o2) {
+            int priority = o1.priority.compareTo(o2.priority);
+            if(priority != 0) {
+                return priority;
+            }
+            if(o1.rank != o2.rank) {
+                return o1.rank > o2.rank ? -1 : 1;
+            }
+            return o1.sequence < o2.sequence ? -1 : (o1.sequence > o2.sequence ? 1 : 0);
+        }
+    }
+}
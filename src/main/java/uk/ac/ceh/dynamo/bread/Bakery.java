@@ -1,17 +1,25 @@
 package uk.ac.ceh.dynamo.bread;
 
-import java.io.UnsupportedEncodingException;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.io.Closeable;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.Comparator;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import lombok.AllArgsConstructor;
-import org.apache.commons.codec.binary.Hex;
+import uk.ac.ceh.dynamo.bread.BakeScheduler.Priority;
 
 /**
  * The following is an instance of a bakery. Bakery's bake bread slices and put 
@@ -21,24 +29,87 @@ import org.apache.commons.codec.binary.Hex;
  * a given string statement, it is thread safe and intended to be used in a dynamo 
  * mapping web application.
  * 
+ * Lookups are performed against concurrent maps so that requests for bread 
+ * slices which are already baked (fresh or stale) do not block each other. Only
+ * the first request for a missing mix name will bake it, any others will wait 
+ * upon that slice. Likewise only one stale refresh will be put into a bread oven
+ * per mix name. The bread bin is the only structure which is guarded by a lock.
+ * 
+ * Mouldy slices are cleaned out of the bread bin periodically by a janitor 
+ * rather than by requests, so requests only need to check whether the slice 
+ * they have found is stale or mouldy. Once a bakery is no longer needed it 
+ * should be closed to stop the janitor.
+ * 
+ * Slices can also be evicted before they go mouldy by the eviction policy of
+ * the bread bin. Each request records the slice it was served in the bread bin,
+ * without waiting for the bread bin lock.
+ * 
+ * A bakery with a StreamingOven can be reloaded in the background, so that it
+ * can start serving as soon as it is constructed. Whilst the reload is going 
+ * on, a request which misses the cache first asks the oven to find the slice
+ * on the work surface before baking it.
+ * 
+ * Hot slices can be refreshed a little before they go stale by giving the 
+ * bakery an EarlyRefresh, so that slices which were baked together do not all
+ * need refreshing at once.
+ * 
+ * A bakery can be warmed up with a list of ingredients, either straight away or
+ * on a schedule. These are baked in the background at WARMUP priority so that
+ * the requests which follow do not have to wait.
+ * 
+ * If the oven is a SharedOven, the ids of new slices are allocated by the oven
+ * so that they do not clash with those of the other bakeries on the work 
+ * surface.
+ * 
+ * With a FingerprintingOven, the bakery can adapt the stale time of each mix 
+ * to how often it changes. A refresh which bakes the same as the stale slice 
+ * renews the stale slice rather than replacing it.
+ * 
+ * With a Tagger, the bakery indexes its slices by the tags of their 
+ * ingredients. Every slice with a tag can then be invalidated at once when 
+ * the data behind the tag changes, for example by a ChangeSource.
+ * 
+ * A BakeryListener can be given to the bakery to find out what it is up to,
+ * for example a BakeryRecorder which exposes the bakery over JMX.
+ * 
  * The baker will manage the removal of mouldy shapefiles.
  * @author Christopher Johnson
  */
-public class Bakery<T, I, W> {
-    private final Object lock = new Object();
+public class Bakery<T, I, W> implements Closeable {
+    public static final long DEFAULT_CLEANING_PERIOD = 1000;
+    private static final Logger LOGGER = Logger.getLogger(Bakery.class.getName());
+    
+    private final ReentrantLock breadBinLock = new ReentrantLock();
     
     private final W workSurface;
     private final Oven<T, I, W> oven;
+    private final SharedOven<T, I, W> sharedOven;
     private final DustBin<W> dustbin;
-    private final ExecutorService breadOvens;
+    private final BakeScheduler breadOvens;
+    private final BakeBackoff backoff;
+    private final Mixer<I> mixer;
+    private final IngredientNormaliser<I> normaliser;
+    private final EarlyRefresh earlyRefresh;
+    private final BakeryListener<T, W> listener;
+    private final AdaptiveStaleTime adaptiveStaleTime;
+    private final Tagger<? super I> tagger;
+    private final TagIndex<T, W> tagIndex = new TagIndex<>();
+    private final LeaseTracker leaseTracker = new LeaseTracker();
+    private final ScheduledExecutorService janitor;
     private final BreadBin<T, W> breadBin;
-    private final Map<String, BreadSlice<T, W>> cache;
-    private final Map<String, BreadSlice<T, W>> bakingCache;
+    private final ConcurrentMap<String, BreadSlice<T, W>> cache;
+    private final ConcurrentMap<String, BreadSlice<T, W>> bakingCache;
     private final ClimateMeter<T, I, W> climate;
     private final Clock clock;
     private final long staleTime, bestBeforeTime;
     
-    private int breadSliceId;
+    private final AtomicInteger breadSliceId;
+    
+    private final Thread reloader;
+    private final CountDownLatch idsReserved = new CountDownLatch(1);
+    private final AtomicInteger reloadedSlices = new AtomicInteger();
+    private volatile boolean reloading;
+    private volatile long reloadStarted, reloadFinished;
     
     /**
      * Constructs a Baker with a default LinkedListBreadBin, ShapefileRemover
@@ -54,7 +125,17 @@ public class Bakery<T, I, W> {
      * as long as they are not stale or mouldy.
      */
     public Bakery(W workSurface, ClimateMeter<T,I,W> climate, BreadBin<T, W> breadBin, DustBin<W> dustbin, Oven<T, I, W> oven, Clock clock, long staleTime, long bestBeforeTime) {
-        this(workSurface, climate, breadBin, dustbin, oven, clock, staleTime, bestBeforeTime, new HashMap<String, BreadSlice<T,W>>(), new HashMap<String, BreadSlice<T,W>>(), Executors.newCachedThreadPool());
+        this(workSurface, climate, breadBin, dustbin, oven, clock, staleTime, bestBeforeTime, new BakeryOptions<T, I, W>());
+    }
+    
+    /**
+     * Construct a Bakery in a given scrachpad, as above, with the given 
+     * optional collaborators, e.g. the bread ovens which background bakes are
+     * put into
+     * @see BakeryOptions
+     */
+    public Bakery(W workSurface, ClimateMeter<T,I,W> climate, BreadBin<T, W> breadBin, DustBin<W> dustbin, Oven<T, I, W> oven, Clock clock, long staleTime, long bestBeforeTime, BakeryOptions<T, I, W> options) {
+        this(workSurface, climate, breadBin, dustbin, oven, clock, staleTime, bestBeforeTime, new ConcurrentHashMap<String, BreadSlice<T,W>>(), new ConcurrentHashMap<String, BreadSlice<T,W>>(), Executors.newSingleThreadScheduledExecutor(new JanitorThreadFactory()), options);
     }
     
     /**
@@ -74,92 +155,685 @@ public class Bakery<T, I, W> {
      *  after it has been baked
      * @param bestBeforeTime the time which when multipled by the current climate
      *  dictates if a bread slice is mouldy
-     * @param cache An implementation of a Map which will be used for storing breadslices
-     *  against there hash key
-     * @param bakingCache An implementation of a Map which will be used for storing 
-     *  the breadslices which are currently in a bread oven
-     * @param breadOvens an executer which Baker instances will be submitted to
+     * @param cache An implementation of a ConcurrentMap which will be used for 
+     *  storing breadslices against there hash key
+     * @param bakingCache An implementation of a ConcurrentMap which will be used
+     *  for storing the breadslices which are currently in a bread oven
+     * @param janitor an executor which will periodically clean out the bread
+     *  bin. This will be shutdown when the bakery is closed
+     * @param options the optional collaborators of the bakery. If a listener
+     *  is given, the dust bin is wrapped so that the listener hears about 
+     *  deletions
+     * @throws IllegalArgumentException if a streaming reload is requested but
+     *  the oven is not a StreamingOven, or an adaptive stale time is given but
+     *  the oven is not a FingerprintingOven
      */
-    protected Bakery(W workSurface, ClimateMeter<T,I,W> climate, BreadBin<T, W> breadBin, DustBin<W> dustbin, Oven<T, I, W> oven, Clock clock, long staleTime, long bestBeforeTime, Map<String, BreadSlice<T,W>> cache, Map<String, BreadSlice<T,W>> bakingCache, ExecutorService breadOvens) {
+    protected Bakery(W workSurface, ClimateMeter<T,I,W> climate, BreadBin<T, W> breadBin, DustBin<W> dustbin, Oven<T, I, W> oven, Clock clock, long staleTime, long bestBeforeTime, ConcurrentMap<String, BreadSlice<T,W>> cache, ConcurrentMap<String, BreadSlice<T,W>> bakingCache, ScheduledExecutorService janitor, BakeryOptions<T, I, W> options) {
+        boolean streamingReload = options.streamingReload();
+        BakeryListener<T, W> listener = options.listener();
+        AdaptiveStaleTime adaptiveStaleTime = options.adaptiveStaleTime();
+        if(streamingReload && !(oven instanceof StreamingOven)) {
+            throw new IllegalArgumentException("Only a StreamingOven can be reloaded in the background");
+        }
+        if(adaptiveStaleTime != null && !(oven instanceof FingerprintingOven)) {
+            throw new IllegalArgumentException("Only a FingerprintingOven can tell if the data of a slice has changed");
+        }
         this.workSurface = workSurface;
         this.oven = oven;
+        this.sharedOven = oven instanceof SharedOven ? (SharedOven<T, I, W>)oven : null;
         this.breadBin = breadBin;
-        this.dustbin = dustbin;
-        this.breadSliceId = 0;
+        this.dustbin = listener != null ? new ListeningDustBin<>(dustbin, listener) : dustbin;
+        this.breadSliceId = new AtomicInteger(0);
         this.cache = cache;
         this.bakingCache = bakingCache;
         this.clock = clock;
         this.staleTime = staleTime;
         this.bestBeforeTime = bestBeforeTime;
         this.climate = climate;
-        this.breadOvens = breadOvens;
+        this.breadOvens = options.breadOvens() != null ? options.breadOvens() : new BakeScheduler();
+        this.janitor = janitor;
+        this.backoff = options.backoff() != null ? options.backoff() : new BakeBackoff();
+        this.mixer = options.mixer() != null ? options.mixer() : new Sha1Mixer<I>();
+        this.normaliser = options.normaliser();
+        this.earlyRefresh = options.earlyRefresh();
+        this.listener = listener;
+        this.adaptiveStaleTime = adaptiveStaleTime;
+        this.tagger = options.tagger();
         
-         //The oven may contain existing built caches, we can bring this 
-        //baker back into action based upon the data there.
-        List<BreadSlice<T, W>> existingSlices = new ArrayList<>(oven.reload(clock, workSurface, dustbin, staleTime));
-        Collections.sort(existingSlices); //Sort into order
-        for(BreadSlice slice: existingSlices) {
-            cache.put(slice.getMixName(), slice); //Put the slice into the cache
-            breadBin.add(slice);               //and the bread bin
-            breadSliceId = slice.getId() + 1;
+        if(streamingReload) {
+            reloading = true;
+            reloadStarted = System.nanoTime();
+            reloader = new Thread(new Reloader((StreamingOven<T, I, W>)oven), "bread-reloader");
+            reloader.setDaemon(true);
+        }
+        else {
+            //The oven may contain existing built caches, we can bring this 
+            //baker back into action based upon the data there.
+            reloader = null;
+            List<BreadSlice<T, W>> existingSlices = new ArrayList<>(oven.reload(clock, workSurface, this.dustbin, staleTime));
+            Collections.sort(existingSlices); //Sort into order
+            for(BreadSlice slice: existingSlices) {
+                cache.put(slice.getMixName(), slice); //Put the slice into the cache
+                breadBin.add(slice);               //and the bread bin
+                breadSliceId.set(slice.getId() + 1);
+            }
+            reloadedSlices.set(existingSlices.size());
         }
         cleanOutBreadBin(); //The baker may have been stoped for some time, clean out preemptively
+        
+        janitor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                //An exception would stop the janitor from ever running again
+                try {
+                    cleanOutBreadBin();
+                }
+                catch(RuntimeException ex) {
+                    LOGGER.log(Level.WARNING, "Failed to clean out the bread bin, will try again next time", ex);
+                }
+            }
+        }, options.cleaningPeriod(), options.cleaningPeriod(), TimeUnit.MILLISECONDS);
+        
+        if(reloader != null) {
+            reloader.start();
+        }
+        if(listener != null) {
+            listener.attached(this);
+        }
     }
         
     /**
      * Provide ingredients to the breadbin and get an instance of T, if a bread 
      * slice exists in this bin which has not gone rotten then we can return 
      * straight away. Otherwise we will block until a one has been created.
+     * 
+     * If the slice needs to be baked, it will be baked on the calling thread.
+     * The calling thread eats the slice until BreadSlice#finishedEating() is
+     * called, use #lease(Object) for a slice which is not tied to the thread.
      * @param ingredients to query against the oven
      * @return an instance of T generated by the oven
      */
     public T getData(I ingredients) throws BreadException {
+        return order(ingredients, false).getBaked();
+    }
+    
+    /**
+     * Provide ingredients to the breadbin and get an instance of T, waiting no
+     * longer than the given timeout for it to be baked. If the slice needs to
+     * be baked, it will be put into a bread oven so that the bake can carry on
+     * for other requests if this one gives up waiting.
+     * @param ingredients to query against the oven
+     * @param timeout the maximum time to wait for a bake
+     * @param unit the time unit of the timeout
+     * @return an instance of T generated by the oven
+     * @throws BreadTimeoutException if the slice was not baked in time
+     */
+    public T getData(I ingredients, long timeout, TimeUnit unit) throws BreadException {
+        return order(ingredients, true).getBaked(timeout, unit);
+    }
+    
+    /**
+     * Provide ingredients to the breadbin and obtain a future for an instance
+     * of T. This method will never block waiting for a bake. If the ingredients
+     * need to be baked they will be put into a bread oven and the returned 
+     * future will be completed once the oven is done.
+     * 
+     * As with #getData(Object) the calling thread is registered as eating the 
+     * returned slice.
+     * @param ingredients to query against the oven
+     * @return a future for an instance of T generated by the oven
+     */
+    public BreadFuture<T> getDataAsync(I ingredients) {
+        return order(ingredients, true);
+    }
+    
+    /**
+     * Provide several sets of ingredients at once and get an instance of T for
+     * each, in the same order. Every missing slice is started before waiting 
+     * on any of them, so this takes as long as the slowest bake rather than 
+     * the sum of them. One of the missing slices is baked on the calling 
+     * thread, the rest are put into the bread ovens.
+     * @param ingredients to query against the oven
+     * @return the instances of T generated by the oven, in order
+     * @throws BreadException the first failure of any of the slices
+     */
+    public List<T> getData(Collection<? extends I> ingredients) throws BreadException {
+        return orderAll(ingredients, false, null).getBaked();
+    }
+    
+    /**
+     * Provide several sets of ingredients at once, as above, waiting no longer
+     * than the given timeout for all of them to be baked. All of the missing
+     * slices are put into the bread ovens.
+     * @param ingredients to query against the oven
+     * @param timeout the maximum time to wait for all of the bakes
+     * @param unit the time unit of the timeout
+     * @return the instances of T generated by the oven, in order
+     * @throws BreadTimeoutException if the slices were not all baked in time
+     */
+    public List<T> getData(Collection<? extends I> ingredients, long timeout, TimeUnit unit) throws BreadException {
+        return orderAll(ingredients, true, null).getBaked(timeout, unit);
+    }
+    
+    /**
+     * Provide several sets of ingredients at once and obtain a future for the
+     * instances of T. This method will never block waiting for a bake.
+     * @param ingredients to query against the oven
+     * @return a future of the instances of T generated by the oven, in order
+     * @see BreadFuture#allOf(Collection) 
+     */
+    public BreadFuture<List<T>> getDataAsync(Collection<? extends I> ingredients) {
+        return orderAll(ingredients, true, null);
+    }
+    
+    /**
+     * Provide ingredients to the breadbin and lease the instance of T, as 
+     * #getData(Object) does. Rather than the calling thread eating the slice,
+     * the slice is held by the returned lease until the lease is closed.
+     * @param ingredients to query against the oven
+     * @return a lease on the instance of T generated by the oven, whose data
+     *  has been baked
+     * @throws BreadException if the slice failed to bake, in which case no 
+     *  lease is held
+     */
+    public BreadLease<T> lease(I ingredients) throws BreadException {
+        List<BreadSlice<T, W>> leased = new ArrayList<>(1);
+        return baked(new BreadLease<>(order(ingredients, false, null, leased), leased, leaseTracker), 0, null);
+    }
+    
+    /**
+     * Lease the instance of T for some ingredients, as above, waiting no 
+     * longer than the given timeout for it to be baked
+     * @param ingredients to query against the oven
+     * @param timeout the maximum time to wait for a bake
+     * @param unit the time unit of the timeout
+     * @return a lease on the instance of T generated by the oven, whose data
+     *  has been baked
+     * @throws BreadTimeoutException if the slice was not baked in time
+     */
+    public BreadLease<T> lease(I ingredients, long timeout, TimeUnit unit) throws BreadException {
+        List<BreadSlice<T, W>> leased = new ArrayList<>(1);
+        return baked(new BreadLease<>(order(ingredients, true, null, leased), leased, leaseTracker), timeout, unit);
+    }
+    
+    /**
+     * Lease the instance of T for some ingredients without waiting for it to
+     * be baked. The lease can be handed to whichever thread completes the 
+     * request, which must close it even if the bake fails.
+     * @param ingredients to query against the oven
+     * @return a lease on the future instance of T generated by the oven
+     */
+    public BreadLease<T> leaseAsync(I ingredients) {
+        List<BreadSlice<T, W>> leased = new ArrayList<>(1);
+        return new BreadLease<>(order(ingredients, true, null, leased), leased, leaseTracker);
+    }
+    
+    /**
+     * Lease the instances of T for several sets of ingredients at once, as 
+     * #getData(Collection) does. One lease holds all of the slices.
+     * @param ingredients to query against the oven
+     * @return a lease on the instances of T generated by the oven, in order
+     * @throws BreadException the first failure of any of the slices, in which
+     *  case no lease is held
+     */
+    public BreadLease<List<T>> lease(Collection<? extends I> ingredients) throws BreadException {
+        List<BreadSlice<T, W>> leased = new ArrayList<>(ingredients.size());
+        return baked(new BreadLease<>(orderAll(ingredients, false, leased), leased, leaseTracker), 0, null);
+    }
+    
+    /**
+     * Lease the instances of T for several sets of ingredients at once without
+     * waiting for any of them to be baked
+     * @param ingredients to query against the oven
+     * @return a lease on the future instances of T generated by the oven, in
+     *  order
+     */
+    public BreadLease<List<T>> leaseAsync(Collection<? extends I> ingredients) {
+        List<BreadSlice<T, W>> leased = new ArrayList<>(ingredients.size());
+        return new BreadLease<>(orderAll(ingredients, true, leased), leased, leaseTracker);
+    }
+    
+    /**
+     * Wait for the data of a lease to be baked, closing the lease if it fails
+     * @param unit of the timeout, or null to wait for as long as it takes
+     */
+    private <L> BreadLease<L> baked(BreadLease<L> lease, long timeout, TimeUnit unit) throws BreadException {
+        try {
+            if(unit != null) {
+                lease.get(timeout, unit);
+            }
+            else {
+                lease.get();
+            }
+            return lease;
+        }
+        catch(BreadException ex) {
+            lease.close();
+            throw ex;
+        }
+    }
+    
+    /**
+     * Locate or create the bread slices for several sets of ingredients. The
+     * eaten slices are handed to the bread bin once, and the missing slices
+     * are only started once all of the ingredients have been looked up.
+     * @param ingredients to query against the oven
+     * @param bakeInOven should all of the new slices be put into a bread oven, 
+     *  rather than baking the last one on the calling thread
+     * @param leased if not null, the slices are pinned and added to this list
+     *  rather than being eaten by the calling thread
+     * @return a future of all of the matching bread slices
+     */
+    private BreadFuture<List<T>> orderAll(Collection<? extends I> ingredients, boolean bakeInOven, List<BreadSlice<T, W>> leased) {
+        List<BreadFuture<T>> futures = new ArrayList<>(ingredients.size());
+        List<Baker> bakes = new ArrayList<>();
+        for(I ingredient: ingredients) {
+            futures.add(order(ingredient, bakeInOven, bakes, leased));
+        }
+        drainEaten();
+        
+        int ovenBakes = bakeInOven ? bakes.size() : bakes.size() - 1;
+        for(int i=0; i<ovenBakes; i++) {
+            breadOvens.submit(bakes.get(i), Priority.FOREGROUND, 0);
+        }
+        if(!bakeInOven && !bakes.isEmpty()) {
+            bakes.get(bakes.size() - 1).run(); //Bake synchronously whilst the ovens bake the rest
+        }
+        return BreadFuture.allOf(futures);
+    }
+    
+    /**
+     * Locate or create the bread slice for the given ingredients and register
+     * the calling thread as eating it.
+     * @param ingredients to query against the oven
+     * @param bakeInOven if a new slice needs baking, should it be put into a 
+     *  bread oven rather than baked on the calling thread
+     * @return the future of the matching bread slice
+     */
+    private BreadFuture<T> order(I ingredients, boolean bakeInOven) {
+        return order(ingredients, bakeInOven, null, null);
+    }
+    
+    /**
+     * Locate or create the bread slice for the given ingredients, as above.
+     * @param bakes if not null, a new slice is not baked but its baker is 
+     *  added to this list. The caller is then responsible for baking it and
+     *  draining the eaten slices of the bread bin
+     * @param leased if not null, the slice is pinned and added to this list 
+     *  rather than being eaten by the calling thread
+     */
+    private BreadFuture<T> order(I ingredients, boolean bakeInOven, List<Baker> bakes, List<BreadSlice<T, W>> leased) {
+        if(normaliser != null) {
+            ingredients = normaliser.normalise(ingredients); //bake the normal form
+        }
         String hash = getMixName(ingredients); //get the hash of the query
+        if(reloading && !cache.containsKey(hash) && !bakingCache.containsKey(hash)) {
+            findOnWorkSurface(hash); //The slice may be on the work surface, just not reloaded yet
+        }
         BreadSlice<T, W> slice;
-        boolean bake = false; //assume that we don't need to bake
+        boolean bake, retrying, stale;
         
-        synchronized (lock) {
-            // Before we create any more breadslices, lets make sure that the bread
-            // bin is as clean as possible
-            cleanOutBreadBin();
-
+        do {
+            bake = false; //assume that we don't need to bake
+            retrying = false;
+            stale = false;
+            
             //If the given queryHash is not in our cache then create a new breadslice
-            //unless a new slice is currently being baked. Then we can just wait on that            
-            if(cache.containsKey(hash)) {
-                slice = cache.get(hash);
-                if(slice.isStale() && !bakingCache.containsKey(hash)) {
-                    //The given slice is stale, but not rotten.
-                    BreadSlice<T, W> staleReplacement = new BreadSlice<>(breadSliceId++, hash, staleTime, clock, workSurface, dustbin);
-                    bakingCache.put(hash, staleReplacement);
-                    breadOvens.submit(new Baker(staleReplacement, ingredients));
+            //unless a new slice is currently being baked. Then we can just wait on that
+            slice = cache.get(hash);
+            if(slice != null) {
+                if(!slice.isMixOf(ingredients)) {
+                    return failed(new BreadException("Different ingredients share the mix name " + hash));
                 }
+                stale = slice.isStale() || (earlyRefresh != null && earlyRefresh.shouldRefresh(slice, clock.getTimeInMillis()));
             }
-            else if(bakingCache.containsKey(hash)) {
-                //The given slice is not in the main cache, but it is being
-                //populated in a BreadOven. Lets wait upon that.
+            else {
+                //The given slice is not in the main cache, but it may be being
+                //populated in a BreadOven. If so, lets wait upon that.
                 slice = bakingCache.get(hash);
-            }
-            else { //Neither the main cache or the baking cache contain a matching slice of bread
-                slice = new BreadSlice<>(breadSliceId++, hash, staleTime, clock, workSurface, dustbin);
-                cache.put(slice.getMixName(), slice); //Put the slice into the cache
-                bake = true; // Bake the new slice outside of the sync block.
+                if(slice == null) { //Neither the main cache or the baking cache contain a matching slice of bread
+                    int id;
+                    try {
+                        id = nextId();
+                        retrying = backoff.startBake(hash, clock.getTimeInMillis());
+                    }
+                    catch(BreadException ex) {
+                        return failed(ex); //The mix recently failed to bake, don't try again yet
+                    }
+                    BreadSlice<T, W> newSlice = new BreadSlice<>(id, hash, ingredients, staleTime, clock, workSurface, dustbin);
+                    slice = cache.putIfAbsent(hash, newSlice);
+                    if(slice == null) {
+                        slice = newSlice;
+                        bake = true; // We won the race to put the slice in the cache, so bake it
+                    }
+                    else if(retrying) {
+                        backoff.finishedRetry();
+                    }
+                }
+                if(!bake && !slice.isMixOf(ingredients)) {
+                    return failed(new BreadException("Different ingredients share the mix name " + hash));
+                }
             }
             
-            slice.startEating(); //Register that a thread is using this bread slice
+            //Register that a thread is using this bread slice. If the slice
+            //went mouldy before we managed to, make sure it has left the caches
+            //and try again
+        } while(!tryStartEating(hash, slice, leased));
+        
+        if(breadBin.eaten(slice) && bakes == null) {
+            drainEaten();
+        }
+        
+        if(!bake && slice.isBaked()) {
+            tag(slice, ingredients); //Reloaded slices are only tagged once eaten
+        }
+        
+        if(listener != null) {
+            if(!bake && slice.isBaked()) {
+                listener.hit(slice, stale);
+            }
+            else {
+                listener.miss(hash);
+            }
+        }
+        
+        //Only refresh once eating, so that a quick refresh can not throw the
+        //stale slice away before this thread gets to it
+        if(stale && !bakingCache.containsKey(hash)) {
+            refresh(hash, ingredients, slice);
         }
         
         if(bake) {
-            new Baker(slice, ingredients).bake(); //Bake synchronously
+            Baker baker = new Baker(slice, ingredients, false, retrying);
+            if(bakes != null) {
+                bakes.add(baker);
+            }
+            else if(bakeInOven) {
+                breadOvens.submit(baker, Priority.FOREGROUND, 0);
+            }
+            else {
+                baker.run(); //Bake synchronously
+            }
+        }
+        return slice.getFuture();
+    }
+    
+    /**
+     * The given slice is stale, but not rotten. Only the thread which manages 
+     * to register the replacement will bake it. If the mix is backing off from
+     * a failure, keep serving the stale slice
+     */
+    private void refresh(String hash, I ingredients, BreadSlice<T, W> slice) {
+        try {
+            int id = nextId();
+            boolean retryingRefresh = backoff.startBake(hash, clock.getTimeInMillis());
+            BreadSlice<T, W> staleReplacement = new BreadSlice<>(id, hash, ingredients, slice.getStaleTime(), clock, workSurface, dustbin);
+            //A replacement may have been swapped in since we read the cache, in
+            //which case there is nothing to refresh
+            if(bakingCache.putIfAbsent(hash, staleReplacement) == null && cache.get(hash) == slice) {
+                //Hot slices get refreshed first
+                if(listener != null) {
+                    listener.refreshStarted(slice, staleReplacement);
+                }
+                breadOvens.submit(new Baker(staleReplacement, ingredients, true, retryingRefresh), Priority.REFRESH, slice.getTimesEaten());
+            }
+            else {
+                bakingCache.remove(hash, staleReplacement);
+                if(retryingRefresh) {
+                    backoff.finishedRetry();
+                }
+            }
+        }
+        catch(BreadException ex) {
+            //Stale if error, the stale slice is better than nothing
         }
-        return slice.getBaked();
     }
     
     /**
-     * Obtain the next id which will be assigned to a bread slice
+     * Bake the given ingredients in the background, so that they are ready for
+     * the requests which follow. Ingredients which already have a fresh slice
+     * are skipped, unless they are to be rebaked.
+     * @param ingredients to bake, these are only read as bakes finish
+     * @param concurrency the maximum amount of bakes to have in the bread ovens
+     *  at once
+     * @param rebake if true, ingredients whose slices are still fresh are baked
+     *  again
+     * @return the progress of the warm up
+     */
+    public WarmUp<I> warmUp(Iterable<? extends I> ingredients, int concurrency, boolean rebake) {
+        WarmUp<I> warmUp = new WarmUp<>(ingredients, concurrency, new Prebaker(rebake));
+        warmUp.start();
+        return warmUp;
+    }
+    
+    /**
+     * Rebake some ingredients on a cron schedule. The ingredients are obtained
+     * each time the schedule fires. The schedule runs on the janitor, so stops
+     * when this bakery is closed.
+     * @param cronExpression a spring style cron expression, e.g. "0 0 3 * * *"
+     * @param ingredients obtains the ingredients to bake, for example 
+     *  #getHottestIngredients(int)
+     * @param concurrency the maximum amount of bakes to have in the bread ovens
+     *  at once
+     * @return the schedule, which can be cancelled
+     * @see WarmUpSchedule
+     */
+    public WarmUpSchedule<I> scheduleWarmUp(String cronExpression, Callable<? extends Iterable<? extends I>> ingredients, int concurrency) {
+        WarmUpSchedule<I> schedule = new WarmUpSchedule<>(this, cronExpression, ingredients, concurrency, janitor);
+        schedule.schedule();
+        return schedule;
+    }
+    
+    /**
+     * Invalidate every slice whose ingredients carry the given tag, e.g. 
+     * because the data behind the tag has been reloaded. Only the slices with
+     * the tag are visited, not the whole cache.
+     * 
+     * Stale slices carry on being served whilst the next request for them 
+     * refreshes them. Mouldy slices are thrown away, so the next request has 
+     * to wait for a bake. Slices which are still baking may have read the old 
+     * data, so these are made stale whichever is asked for.
+     * 
+     * Slices which were reloaded from the work surface do not know their 
+     * ingredients, so are only tagged once they have been eaten.
+     * @param tag of the slices to invalidate
+     * @param mouldy true to throw the slices away, false to make them stale
+     * @return the amount of slices which were invalidated
+     * @throws IllegalStateException if this bakery has no tagger
+     */
+    public int invalidate(String tag, boolean mouldy) {
+        if(tagger == null) {
+            throw new IllegalStateException("Only a bakery with a tagger can invalidate slices by tag");
+        }
+        int staled = 0;
+        List<BreadSlice<T, W>> tagged = new ArrayList<>();
+        for(BreadSlice<T, W> slice: tagIndex.get(tag)) {
+            String hash = slice.getMixName();
+            if(cache.get(hash) != slice && bakingCache.get(hash) != slice) {
+                tagIndex.remove(slice); //Already left the bakery
+            }
+            else if(mouldy && slice.isBaked() && cache.get(hash) == slice) {
+                tagged.add(slice);
+            }
+            else {
+                slice.expire();
+                staled++;
+            }
+        }
+        
+        List<BreadSlice<T, W>> mouldySlices = new ArrayList<>();
+        breadBinLock.lock();
+        try {
+            for(BreadSlice<T, W> slice: tagged) {
+                if(breadBin.remove(slice)) { //Not already thrown away
+                    mouldySlices.add(slice);
+                }
+            }
+        }
+        finally {
+            breadBinLock.unlock();
+        }
+        throwAway(mouldySlices);
+        return staled + mouldySlices.size();
+    }
+    
+    /**
+     * Tag the given slice with its ingredients and add it to the tag index, 
+     * if this has not been done already
+     */
+    private void tag(BreadSlice<T, W> slice, I ingredients) {
+        if(tagger != null && slice.getTags() == null) {
+            slice.setTags(tagger.getTags(ingredients));
+            tagIndex.add(slice);
+        }
+    }
+    
+    /**
+     * @return the tracker of the leases taken from this bakery, which counts 
+     *  the leases which leaked
+     */
+    public LeaseTracker getLeaseTracker() {
+        return leaseTracker;
+    }
+    
+    /**
+     * Obtain the ingredients of the slices which have been eaten the most. 
+     * Slices which were reloaded from the work surface do not know their 
+     * ingredients, so are left out. These can be stored before shutting down 
+     * and used to warm up the next bakery.
+     * @param amount the maximum amount of ingredients to return
+     * @return the ingredients, the most eaten first
+     */
+    public List<I> getHottestIngredients(int amount) {
+        List<BreadSlice<T, W>> slices = new ArrayList<>();
+        for(BreadSlice<T, W> slice: cache.values()) {
+            if(slice.getIngredients() != null) {
+                slices.add(slice);
+            }
+        }
+        Collections.sort(slices, new Comparator<BreadSlice<T, W>>() {
+            @Override
+            public int compare(BreadSlice<T, W> o1, BreadSlice<T, W> o2) {
+                return Long.compare(o2.getTimesEaten(), o1.getTimesEaten());
+            }
+        });
+        List<I> ingredients = new ArrayList<>();
+        for(BreadSlice<T, W> slice: slices.subList(0, Math.min(amount, slices.size()))) {
+            //Slices are only ever baked from the ingredients given to this bakery
+            @SuppressWarnings("unchecked")
+            I sliceIngredients = (I)slice.getIngredients();
+            ingredients.add(sliceIngredients);
+        }
+        return ingredients;
+    }
+    
+    /**
+     * Ask the streaming oven for a slice of the given mix which it has not 
+     * reloaded yet. This waits until the oven has reserved the ids of the 
+     * slices on the work surface, so that a new bake can not reuse one
+     */
+    private void findOnWorkSurface(String hash) {
+        try {
+            idsReserved.await();
+            BreadSlice<T, W> slice = ((StreamingOven<T, I, W>)oven).find(clock, workSurface, dustbin, staleTime, hash);
+            if(slice != null) {
+                restock(slice);
+            }
+        }
+        catch(InterruptedException ie) {
+            Thread.currentThread().interrupt(); //Just bake the slice
+        }
+    }
+    
+    /**
+     * Put a slice which was reloaded from the work surface into the bread bin.
+     * Reloaded slices can be older than ones which have been baked since the
+     * bakery started, so they are slotted into the bread bin in baked order.
+     * The slice is only put in the cache once the bread bin has taken it. If 
+     * the cache already has a slice of the same mix, the reloaded slice only 
+     * replaces it if it was baked more recently.
+     */
+    private void restock(BreadSlice<T, W> slice) {
+        List<BreadSlice<T, W>> evictedSlices;
+        breadBinLock.lock();
+        try {
+            breadBin.restock(slice);
+            BreadSlice<T, W> existing = cache.putIfAbsent(slice.getMixName(), slice);
+            if(existing != null && existing.isBaked() && existing.compareTo(slice) < 0) {
+                cache.replace(slice.getMixName(), existing, slice);
+            }
+            evictedSlices = breadBin.removeEvicted();
+        }
+        finally {
+            breadBinLock.unlock();
+        }
+        throwAway(evictedSlices);
+        reloadedSlices.incrementAndGet();
+    }
+    
+    /**
+     * Obtain the id for a new slice, from the shared oven if there is one
+     */
+    private int nextId() throws BreadException {
+        if(sharedOven == null) {
+            return breadSliceId.getAndIncrement();
+        }
+        int id = sharedOven.allocateId();
+        reserveIds(id);
+        return id;
+    }
+    
+    /**
+     * Make sure that the next id is greater than the given id
+     */
+    private void reserveIds(int maximumId) {
+        int next;
+        do {
+            next = breadSliceId.get();
+        } while(next <= maximumId && !breadSliceId.compareAndSet(next, maximumId + 1));
+    }
+    
+    private BreadFuture<T> failed(BreadException ex) {
+        BreadFuture<T> failed = new BreadFuture<>();
+        failed.setException(ex);
+        return failed;
+    }
+    
+    private boolean tryStartEating(String hash, BreadSlice<T, W> slice, List<BreadSlice<T, W>> leased) {
+        if(leased == null ? slice.tryStartEating() : slice.tryPin()) {
+            if(leased != null) {
+                leased.add(slice);
+            }
+            return true;
+        }
+        cache.remove(hash, slice);
+        bakingCache.remove(hash, slice);
+        return false;
+    }
+    
+    /**
+     * Hand the slices which have been eaten over to the eviction policy, unless
+     * another thread is already using the bread bin.
+     */
+    private void drainEaten() {
+        if(breadBinLock.tryLock()) {
+            try {
+                breadBin.drainEaten();
+            }
+            finally {
+                breadBinLock.unlock();
+            }
+        }
+    }
+    
+    /**
+     * Obtain the next id which will be assigned to a bread slice. If the oven
+     * is shared, this is only known to be greater than the ids which this 
+     * bakery has assigned so far.
      * @return the next id for a bread slice
      */
     public int getNextId() {
-        return breadSliceId;
+        return breadSliceId.get();
     }
     
     /**
@@ -168,8 +842,49 @@ public class Bakery<T, I, W> {
      * @return the cache and baking cache sizes combined
      */
     public int getBreadSliceCount() {
-        synchronized(lock) {
-            return cache.size() + bakingCache.size();
+        return cache.size() + bakingCache.size();
+    }
+    
+    /**
+     * @return true whilst the slices on the work surface are being reloaded in
+     *  the background
+     */
+    public boolean isReloading() {
+        return reloading;
+    }
+    
+    /**
+     * @return the amount of slices which have been reloaded from the work 
+     *  surface so far
+     */
+    public int getReloadedSliceCount() {
+        return reloadedSlices.get();
+    }
+    
+    /**
+     * @return the time in milliseconds that the background reload took, or has
+     *  taken so far if it is still going. 0 if the bakery was not reloaded in
+     *  the background
+     */
+    public long getReloadDuration() {
+        if(reloader == null) {
+            return 0;
+        }
+        long finished = reloading ? System.nanoTime() : reloadFinished;
+        return TimeUnit.NANOSECONDS.toMillis(finished - reloadStarted);
+    }
+    
+    /**
+     * Stop the janitor from cleaning the bread bin and stop any reload which
+     * is still going on. Bread slices which are currently in the bread bin will
+     * remain on the work surface so that they can be reloaded by a future 
+     * bakery.
+     */
+    @Override
+    public void close() {
+        janitor.shutdownNow();
+        if(reloader != null) {
+            reloader.interrupt();
         }
     }
     
@@ -183,13 +898,22 @@ public class Bakery<T, I, W> {
     
     /**
      * Returns the dustbin which is used by this bakery. This is used to throw 
-     * away old slices of bread.
+     * away old slices of bread. If the bakery has a listener, this wraps the
+     * dust bin which the bakery was given.
      * @return This bakery's dust bin
      */
     public DustBin<W> getDustbin() {
         return dustbin;
     }
     
+    /**
+     * Obtain the scheduler which background bakes are put into
+     * @return the bakery's bread ovens
+     */
+    public BakeScheduler getBreadOvens() {
+        return breadOvens;
+    }
+    
     /**
      * Obtain the clock used by this bakery
      * @return the bakery's clock
@@ -207,14 +931,18 @@ public class Bakery<T, I, W> {
     }
     
     @AllArgsConstructor
-    protected class Baker implements Runnable {
+    protected class Baker implements BakeScheduler.Bake {
         private final BreadSlice<T, W> slice;
         private final I ingredients;
+        private final boolean replacingStaleSlice;
+        private final boolean retrying; //holds one of the backoffs retries
         
         /**
          * A wrapper around the baking method for use in the background. Bread 
          * slices which have been submitted to the bakingCache (the double buffer)
-         * can be put in a bread oven which is cooked in the background
+         * can be put in a bread oven which is cooked in the background. 
+         * 
+         * Any exception is reported through the slice's future
          */
         @Override
         public void run() {
@@ -226,17 +954,119 @@ public class Bakery<T, I, W> {
                 //baked. We can check this in the finally block
             }
             finally {
-                synchronized(lock) {
-                    bakingCache.remove(slice.getMixName()); //remove from the baking list
-                    if(slice.isBaked()) { //if this slice managed to bake, put in to action
-                        BreadSlice<T, W> oldBreadslice = cache.put(slice.getMixName(), slice); //add to the real cache
-                        if (oldBreadslice != null) { //check if a slice was already in action. If it was, we can remove it
-                            breadBin.remove(oldBreadslice);
-                            oldBreadslice.markAsMouldy(); //bread is no use, delete at earliest convienience
-                        }
+                if(replacingStaleSlice) {
+                    swapStaleSlice();
+                }
+                if(retrying) {
+                    backoff.finishedRetry();
+                }
+            }
+        }
+        
+        /**
+         * The bread ovens are not going to bake this slice, report this to 
+         * anyone waiting on the slice and tidy up as if the bake had failed
+         */
+        @Override
+        public void discarded() {
+            burn(new BreadException("The bread ovens were unable to accept the bake"));
+            if(replacingStaleSlice) {
+                swapStaleSlice();
+            }
+            if(retrying) {
+                backoff.finishedRetry();
+            }
+        }
+        
+        /**
+         * Once a stale replacement has finished in the bread oven, put it into
+         * action in place of the stale slice (if it baked successfully)
+         */
+        private void swapStaleSlice() {
+            if(slice.isBaked() && adaptiveStaleTime != null && renewUnchangedSlice()) {
+                bakingCache.remove(slice.getMixName(), slice); //the stale slice carries on
+            }
+            else if(slice.isBaked()) { //if this slice managed to bake, put in to action
+                //Add to the real cache before leaving the baking cache so 
+                //that no other thread sees the stale slice without a replacement
+                BreadSlice<T, W> oldBreadslice = cache.put(slice.getMixName(), slice);
+                bakingCache.remove(slice.getMixName(), slice); //remove from the baking list
+                if (oldBreadslice != null && oldBreadslice != slice) { //check if a slice was already in action. If it was, we can remove it
+                    breadBinLock.lock();
+                    try {
+                        breadBin.remove(oldBreadslice);
+                    }
+                    finally {
+                        breadBinLock.unlock();
+                    }
+                    tagIndex.remove(oldBreadslice);
+                    oldBreadslice.markAsMouldy(); //bread is no use, delete at earliest convienience
+                    if(listener != null) {
+                        listener.mouldy(oldBreadslice);
                     }
                 }
             }
+            else {
+                bakingCache.remove(slice.getMixName(), slice); //remove from the baking list
+            }
+            if(listener != null) {
+                listener.refreshFinished(slice);
+            }
+        }
+        
+        /**
+         * Compare this replacement with the slice in action. If they baked the
+         * same, the slice in action is renewed with a longer stale time and
+         * this replacement is thrown away. Otherwise this replacement is given
+         * a shorter stale time.
+         * @return true if the slice in action was renewed
+         */
+        private boolean renewUnchangedSlice() {
+            BreadSlice<T, W> stale = cache.get(slice.getMixName());
+            if(stale == null || stale == slice || !stale.isBaked()) {
+                return false; //Nothing to compare with
+            }
+            String fingerprint = fingerprint(slice);
+            if(fingerprint == null || !fingerprint.equals(fingerprint(stale))) {
+                slice.setStaleTime(adaptiveStaleTime.changed(stale.getStaleTime(), staleTime));
+                return false;
+            }
+            
+            breadBinLock.lock();
+            try {
+                //The stale slice may have gone mouldy whilst fingerprinting
+                if(cache.get(slice.getMixName()) != stale || !breadBin.renew(stale, adaptiveStaleTime.unchanged(stale.getStaleTime()))) {
+                    return false;
+                }
+                breadBin.remove(slice);
+            }
+            finally {
+                breadBinLock.unlock();
+            }
+            ((FingerprintingOven<T, I, W>)oven).renewed(stale);
+            tagIndex.remove(slice);
+            slice.markAsMouldy();
+            if(listener != null) {
+                listener.mouldy(slice);
+            }
+            return true;
+        }
+        
+        /**
+         * Obtain the fingerprint of a baked slice, fingerprinting it if this 
+         * has not been done before
+         * @return the fingerprint or null if it could not be obtained
+         */
+        private String fingerprint(BreadSlice<T, W> baked) {
+            if(baked.getFingerprint() == null) {
+                try {
+                    baked.setFingerprint(((FingerprintingOven<T, I, W>)oven).fingerprint(baked));
+                }
+                catch(BreadException ex) {
+                    return null; //Assume that it has changed
+                }
+            }
+            return baked.getFingerprint();
         }
         
         /**
@@ -247,24 +1077,49 @@ public class Bakery<T, I, W> {
          */
         public void bake() throws BreadException {
             try {
+                tag(slice, ingredients);
+                long started = System.nanoTime();
                 T cooked = oven.cook(slice, ingredients);
-                synchronized (lock) {
-                    slice.setBaked(cooked);
+                slice.setBakeDuration(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+                List<BreadSlice<T, W>> evictedSlices;
+                breadBinLock.lock();
+                try {
+                    slice.setOutput(cooked); //timed under the lock, so the bin stays in baked order
                     breadBin.add(slice); //once the slice has been baked, add to the bin
+                    evictedSlices = breadBin.removeEvicted(); //which may push others out
+                }
+                finally {
+                    breadBinLock.unlock();
+                }
+                slice.serve(); //only now let the waiters go, so callbacks never run under the lock
+                throwAway(evictedSlices);
+                backoff.succeeded(slice.getMixName());
+                if(listener != null) {
+                    listener.baked(slice);
                 }
             }
             catch(BreadException ex) {
-                slice.setException(ex);
-                synchronized (lock) {
-                    //If this slice was already put into the cache, we need to remove it
-                    BreadSlice<T, W> cachedSlice = cache.get(slice.getMixName());
-                    if(cachedSlice == slice) {  //if the cached slice is EXACTLY the same as this slice
-                        cache.remove(slice.getMixName());
-                    }
-                }
+                //Back off before leaving the cache, so that the next request 
+                //does not just bake again
+                backoff.failed(slice.getMixName(), ex, clock.getTimeInMillis());
+                burn(ex);
                 throw ex;
             }
         }
+        
+        /**
+         * Fail the slice with the given exception
+         */
+        private void burn(BreadException ex) {
+            //If this slice was already put into the cache, we need to remove it.
+            //Only remove if the cached slice is EXACTLY the same as this slice
+            cache.remove(slice.getMixName(), slice);
+            tagIndex.remove(slice);
+            slice.setException(ex);
+            if(listener != null) {
+                listener.failed(slice, ex);
+            }
+        }
     }
             
     /**
@@ -273,31 +1128,187 @@ public class Bakery<T, I, W> {
      * again. Other threads may be using these slices so we can't always delete them
      * straight away. However we can flag these as rotten, which means we can
      * delete them when the usage hits zero
+     * 
+     * This is called periodically by the janitor.
+     */
+    protected void cleanOutBreadBin() {
+        List<BreadSlice<T, W>> mouldySlices = new ArrayList<>();
+        breadBinLock.lock();
+        try {
+            long earliestBakeTime = clock.getTimeInMillis() - (long)(bestBeforeTime * getCurrentClimate());
+            mouldySlices.addAll(breadBin.removeMouldy(earliestBakeTime));
+            mouldySlices.addAll(breadBin.removeEvicted());
+        }
+        finally {
+            breadBinLock.unlock();
+        }
+        throwAway(mouldySlices);
+        backoff.cleanUp(clock.getTimeInMillis());
+        leaseTracker.reclaimLeaked(); //Leaked leases may be holding on to mouldy slices
+    }
+    
+    /**
+     * Throw away slices which have been taken out of the bread bin
      */
-    private void cleanOutBreadBin() {
-        long earliestBakeTime = clock.getTimeInMillis() - (long)(bestBeforeTime * getCurrentClimate());
-        for(BreadSlice slice: breadBin.removeMouldy(earliestBakeTime)) {
+    private void throwAway(List<BreadSlice<T, W>> mouldySlices) {
+        for(BreadSlice<T, W> slice: mouldySlices) {
+            //Take out of the cache before marking as mouldy, threads which find
+            //the slice mouldy will then go back to the cache for a replacement
+            cache.remove(slice.getMixName(), slice);
+            tagIndex.remove(slice);
             slice.markAsMouldy();
-            cache.remove(slice.getMixName());
+            if(listener != null) {
+                listener.mouldy(slice);
+            }
         }
     }
     
     /**
-     * This is the default method for obtaining a mix for some given ingredients.
-     * It will call the objects toString method and then obtain a sha1 hash
+     * Obtain the mix name for some given ingredients using the mixer of this
+     * bakery. By default this is the sha1 hash of the ingredients toString 
+     * method.
      * @param ingredients The generically typed ingredients
-     * @return The sha1 of the ingredients toString method
+     * @return The mix name of the ingredients
+     * @see Mixer
      */
     protected String getMixName(I ingredients) {
-        try {
-            MessageDigest messageDigest = MessageDigest.getInstance("SHA-1");
-            return Hex.encodeHexString(messageDigest.digest(ingredients.toString().getBytes("utf8")));
+        return mixer.getMixName(ingredients);
+    }
+    
+    /**
+     * Reloads the slices of a streaming oven in the background, putting each
+     * one into the bread bin as it is handed over
+     */
+    @AllArgsConstructor
+    private class Reloader implements Runnable, SliceCollector<T, W> {
+        private final StreamingOven<T, I, W> oven;
+        
+        @Override
+        public void run() {
+            try {
+                oven.reload(clock, workSurface, dustbin, staleTime, this);
+            }
+            catch(InterruptedException ie) {
+                //The bakery has been closed
+            }
+            finally {
+                idsReserved.countDown(); //In case the oven failed before reserving
+                reloadFinished = System.nanoTime();
+                reloading = false;
+            }
         }
-        catch(NoSuchAlgorithmException nsae) {
-            throw new RuntimeException("Sha-1 is not present as a message digest");
+
+        @Override
+        public void reserveIds(int maximumId) {
+            Bakery.this.reserveIds(maximumId);
+            idsReserved.countDown();
+        }
+
+        @Override
+        public void reloaded(BreadSlice<T, W> slice) {
+            restock(slice);
         }
-        catch(UnsupportedEncodingException uee) {
-            throw new RuntimeException("UTF8 is not available as encodding format");
+    }
+    
+    /**
+     * Starts the bakes of a warm up. A missing slice is baked in to the cache, 
+     * so that requests for it wait on the warm up rather than baking it again.
+     * A slice which is to be replaced is baked in to the baking cache in the 
+     * same way as a stale refresh.
+     */
+    @AllArgsConstructor
+    private class Prebaker implements WarmUp.Starter<I> {
+        private final boolean rebake;
+        
+        @Override
+        public boolean start(I ingredients, WarmUp<I> warmUp) {
+            if(normaliser != null) {
+                ingredients = normaliser.normalise(ingredients);
+            }
+            String hash = getMixName(ingredients);
+            BreadSlice<T, W> slice = cache.get(hash);
+            if(bakingCache.containsKey(hash) || (slice != null && (!slice.isBaked() || !slice.isMixOf(ingredients) || !(rebake || slice.isStale())))) {
+                return false; //Already baking, fresh enough or not ours to replace
+            }
+            
+            try {
+                int id = nextId();
+                boolean retrying = backoff.startBake(hash, clock.getTimeInMillis());
+                boolean replacing = slice != null;
+                BreadSlice<T, W> newSlice = new BreadSlice<>(id, hash, ingredients, replacing ? slice.getStaleTime() : staleTime, clock, workSurface, dustbin);
+                if(replacing ? bakingCache.putIfAbsent(hash, newSlice) == null : cache.putIfAbsent(hash, newSlice) == null) {
+                    if(!replacing || cache.get(hash) == slice) {
+                        breadOvens.submit(new WarmUpBake(new Baker(newSlice, ingredients, replacing, retrying), newSlice, warmUp), Priority.WARMUP, 0);
+                        return true;
+                    }
+                    bakingCache.remove(hash, newSlice);
+                }
+                if(retrying) {
+                    backoff.finishedRetry();
+                }
+            }
+            catch(BreadException ex) {
+                //Backing off from a failure, the warm up will not help
+            }
+            return false;
+        }
+    }
+    
+    /**
+     * A bake which reports back to the warm up which started it
+     */
+    @AllArgsConstructor
+    private class WarmUpBake implements BakeScheduler.Bake {
+        private final Baker baker;
+        private final BreadSlice<T, W> slice;
+        private final WarmUp<I> warmUp;
+        
+        @Override
+        public void run() {
+            try {
+                baker.run();
+            }
+            finally {
+                warmUp.finished(slice.isBaked());
+            }
+        }
+
+        @Override
+        public void discarded() {
+            try {
+                baker.discarded();
+            }
+            finally {
+                warmUp.finished(false);
+            }
+        }
+    }
+    
+    /**
+     * A dust bin which tells the listener about each slice before passing it
+     * on to the real dust bin
+     */
+    @AllArgsConstructor
+    private static class ListeningDustBin<W> implements DustBin<W> {
+        private final DustBin<W> dustbin;
+        private final BakeryListener<?, W> listener;
+        
+        @Override
+        public void delete(BreadSlice<?, W> slice) {
+            listener.deleted(slice);
+            dustbin.delete(slice);
+        }
+    }
+    
+    /**
+     * Creates the daemon thread which the janitor will clean the bread bin on
+     */
+    private static class JanitorThreadFactory implements ThreadFactory {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "bread-bin-janitor");
+            thread.setDaemon(true);
+            return thread;
         }
     }
 }
@@ -0,0 +1,75 @@
+package uk.ac.ceh.dynamo.bread;
+
+/**
+ * A listener which a bakery tells about what it is doing, for example to
+ * record metrics about the bakery.
+ *
+ * The methods are called on the thread which did the work, often whilst a
+ * request is waiting, so should be quick and must not throw. Bakeries without
+ * a listener do not pay for any of these calls.
+ * @see BakeryRecorder
+ * @author Christopher Johnson
+ */
+public interface BakeryListener<T, W> {
+    /**
+     * Called once the bakery which this listener has been given to has been
+     * constructed
+     * @param bakery the bakery which will be calling this listener
+     */
+    void attached(Bakery<T, ?, W> bakery);
+
+    /**
+     * A request was served a slice which had already been baked
+     * @param slice the slice which was served
+     * @param stale true if the slice is stale (or due an early refresh), in
+     *  which case it is being refreshed
+     */
+    void hit(BreadSlice<T, W> slice, boolean stale);
+
+    /**
+     * A request found no baked slice for its mix, so has to wait for one to be
+     * baked. Either by itself or by whoever is already baking it.
+     * @param mixName the mix name of the request
+     */
+    void miss(String mixName);
+
+    /**
+     * A replacement for a stale slice has been put into a bread oven
+     * @param stale the slice which is being replaced
+     * @param replacement the slice which will replace it
+     */
+    void refreshStarted(BreadSlice<T, W> stale, BreadSlice<T, W> replacement);
+
+    /**
+     * A replacement for a stale slice has come out of the bread oven. If it
+     * did not bake, the stale slice will continue to be served
+     * @param replacement the slice which was started in #refreshStarted
+     */
+    void refreshFinished(BreadSlice<T, W> replacement);
+
+    /**
+     * A slice has been baked successfully
+     * @param slice the slice, whose bake duration has been set
+     */
+    void baked(BreadSlice<T, W> slice);
+
+    /**
+     * A slice failed to bake, or the bread ovens were unable to take it
+     * @param slice the slice which failed
+     * @param ex the reason the slice failed
+     */
+    void failed(BreadSlice<T, W> slice, BreadException ex);
+
+    /**
+     * A slice has been taken out of action, because it went mouldy, was
+     * evicted or replaced. It will be deleted once nobody is eating it
+     * @param slice the slice which has been taken out of action
+     */
+    void mouldy(BreadSlice<T, W> slice);
+
+    /**
+     * A slice has been handed to the dust bin for deletion
+     * @param slice the slice which is being deleted
+     */
+    void deleted(BreadSlice<?, W> slice);
+}
@@ -0,0 +1,82 @@
+package uk.ac.ceh.dynamo.bread;
+
+import lombok.Data;
+import lombok.experimental.Accessors;
+
+/**
+ * The optional collaborators of a Bakery. Anything which is not set is left as
+ * the default, so a bakery only needs to be told about the parts it wants to
+ * change, e.g.
+ *
+ *      new BakeryOptions<String, String, File>()
+ *          .breadOvens(scheduler.partition(2))
+ *          .earlyRefresh(new EarlyRefresh())
+ *          .streamingReload(true);
+ *
+ * The same options can be given to several bakeries, the bakeries do not
+ * change them.
+ * @see Bakery
+ * @author Christopher Johnson
+ */
+@Data
+@Accessors(fluent = true)
+public class BakeryOptions<T, I, W> {
+    /**
+     * The scheduler which background bakes are submitted to, or null for a
+     * new BakeScheduler of the bakery's own
+     */
+    private BakeScheduler breadOvens;
+
+    /**
+     * The time in milliseconds between cleans of the bread bin
+     */
+    private long cleaningPeriod = Bakery.DEFAULT_CLEANING_PERIOD;
+
+    /**
+     * Remembers the mixes which have failed to bake, or null for a new
+     * BakeBackoff of the bakery's own
+     */
+    private BakeBackoff backoff;
+
+    /**
+     * Decides the mix names of ingredients, or null for a Sha1Mixer
+     */
+    private Mixer<I> mixer;
+
+    /**
+     * Which ingredients are passed through before they are mixed and baked, or
+     * null if the ingredients should be used as given
+     */
+    private IngredientNormaliser<I> normaliser;
+
+    /**
+     * If true, the slices on the work surface are reloaded in the background
+     * rather than before the bakery is constructed. This requires the oven to
+     * be a StreamingOven.
+     */
+    private boolean streamingReload;
+
+    /**
+     * Decides when to refresh slices before they go stale, or null if slices
+     * should only be refreshed once stale
+     */
+    private EarlyRefresh earlyRefresh;
+
+    /**
+     * Is told what the bakery is doing, or null if nothing needs to know
+     */
+    private BakeryListener<T, W> listener;
+
+    /**
+     * Adapts the stale time of each mix to how often its data changes, or null
+     * if stale slices should always be replaced. This requires the oven to be a
+     * FingerprintingOven.
+     */
+    private AdaptiveStaleTime adaptiveStaleTime;
+
+    /**
+     * Tags the ingredients so that slices can be invalidated by tag, or null if
+     * they can not be
+     */
+    private Tagger<? super I> tagger;
+}
@@ -0,0 +1,313 @@
+package uk.ac.ceh.dynamo.bread;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * A bakery listener which keeps count of what a bakery has been doing and how
+ * long its bakes take. Counters are atomic and the bake times are kept in a
+ * LatencyHistogram, so recording never takes a lock.
+ *
+ * The recorder can be registered as an MBean, one per bakery, so that the
+ * bakery can be watched over JMX. As well as the recorded counts, this exposes
+ * the queue length of the bakery's bread ovens, its slice count and its
+ * current climate.
+ *
+ * Optionally, the time bakes spend waiting for the oven can be exposed too.
+ * For a ShapefileGenerator this is the time spent waiting for one of the
+ * simultaneous ogr2ogr processes to become free. As can the backlog of the
+ * Reclaimer which deletes the shapefiles of mouldy slices.
+ * @see ShapefileGenerator#getPermitWaits()
+ * @see ShapefileGenerator#getReclaimer()
+ * @author Christopher Johnson
+ */
+public class BakeryRecorder<T, W> implements BakeryListener<T, W>, BakeryRecorderMBean {
+    public static final String DOMAIN = "uk.ac.ceh.dynamo.bread";
+
+    private final AtomicLong hits = new AtomicLong(), staleHits = new AtomicLong(), misses = new AtomicLong();
+    private final AtomicLong refreshes = new AtomicLong(), failedRefreshes = new AtomicLong();
+    private final AtomicLong bakeFailures = new AtomicLong(), mouldy = new AtomicLong(), deleted = new AtomicLong();
+    private final LatencyHistogram bakeTimes = new LatencyHistogram();
+    private final LatencyHistogram ovenWaits;
+    private final Reclaimer reclaimer;
+
+    private volatile Bakery<T, ?, W> bakery;
+    private volatile ObjectName objectName;
+
+    /**
+     * Create a recorder which does not know how long bakes wait for the oven
+     */
+    public BakeryRecorder() {
+        this(new LatencyHistogram());
+    }
+
+    /**
+     * Create a recorder which exposes the given wait times of the oven
+     * @param ovenWaits the times in milliseconds which bakes have waited for
+     *  the oven
+     */
+    public BakeryRecorder(LatencyHistogram ovenWaits) {
+        this(ovenWaits, null);
+    }
+
+    /**
+     * Create a recorder which exposes the given wait times of the oven and the
+     * backlog of the given reclaimer
+     * @param ovenWaits the times in milliseconds which bakes have waited for
+     *  the oven
+     * @param reclaimer which deletes the slices of the bakery, or null
+     */
+    public BakeryRecorder(LatencyHistogram ovenWaits, Reclaimer reclaimer) {
+        this.ovenWaits = ovenWaits;
+        this.reclaimer = reclaimer;
+    }
+
+    /**
+     * Register this recorder with the platform MBean server
+     * @param bakeryName distinguishes the bakery from any others in the jvm
+     * @return the name which the recorder was registered under
+     * @throws JMException if the recorder could not be registered, e.g. a
+     *  bakery with the same name is already registered
+     */
+    public ObjectName register(String bakeryName) throws JMException {
+        ObjectName name = new ObjectName(DOMAIN + ":type=Bakery,name=" + ObjectName.quote(bakeryName));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+        objectName = name;
+        return name;
+    }
+
+    /**
+     * Remove this recorder from the platform MBean server, if it was registered
+     * @throws JMException if the recorder could not be unregistered
+     */
+    public void unregister() throws JMException {
+        ObjectName name = objectName;
+        if(name != null) {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if(server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            objectName = null;
+        }
+    }
+
+    @Override
+    public void attached(Bakery<T, ?, W> bakery) {
+        this.bakery = bakery;
+    }
+
+    @Override
+    public void hit(BreadSlice<T, W> slice, boolean stale) {
+        (stale ? staleHits : hits).incrementAndGet();
+    }
+
+    @Override
+    public void miss(String mixName) {
+        misses.incrementAndGet();
+    }
+
+    @Override
+    public void refreshStarted(BreadSlice<T, W> stale, BreadSlice<T, W> replacement) {
+        refreshes.incrementAndGet();
+    }
+
+    @Override
+    public void refreshFinished(BreadSlice<T, W> replacement) {
+        if(!replacement.isBaked()) {
+            failedRefreshes.incrementAndGet();
+        }
+    }
+
+    @Override
+    public void baked(BreadSlice<T, W> slice) {
+        bakeTimes.record(slice.getBakeDuration());
+    }
+
+    @Override
+    public void failed(BreadSlice<T, W> slice, BreadException ex) {
+        bakeFailures.incrementAndGet();
+    }
+
+    @Override
+    public void mouldy(BreadSlice<T, W> slice) {
+        mouldy.incrementAndGet();
+    }
+
+    @Override
+    public void deleted(BreadSlice<?, W> slice) {
+        deleted.incrementAndGet();
+    }
+
+    @Override
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    @Override
+    public long getStaleHitCount() {
+        return staleHits.get();
+    }
+
+    @Override
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * @return the fraction of requests which were served a baked slice, stale
+     *  or not. 0 if there have been no requests
+     */
+    @Override
+    public double getHitRatio() {
+        long served = hits.get() + staleHits.get();
+        long requests = served + misses.get();
+        return requests > 0 ? (double)served / requests : 0;
+    }
+
+    @Override
+    public long getRefreshCount() {
+        return refreshes.get();
+    }
+
+    @Override
+    public long getFailedRefreshCount() {
+        return failedRefreshes.get();
+    }
+
+    @Override
+    public long getBakeCount() {
+        return bakeTimes.getCount();
+    }
+
+    @Override
+    public long getBakeFailureCount() {
+        return bakeFailures.get();
+    }
+
+    @Override
+    public double getBakeTimeMean() {
+        return bakeTimes.getMean();
+    }
+
+    @Override
+    public long getBakeTime50thPercentile() {
+        return bakeTimes.getPercentile(50);
+    }
+
+    @Override
+    public long getBakeTime99thPercentile() {
+        return bakeTimes.getPercentile(99);
+    }
+
+    @Override
+    public long getBakeTimeMaximum() {
+        return bakeTimes.getMaximum();
+    }
+
+    @Override
+    public long getOvenWait50thPercentile() {
+        return ovenWaits.getPercentile(50);
+    }
+
+    @Override
+    public long getOvenWait99thPercentile() {
+        return ovenWaits.getPercentile(99);
+    }
+
+    @Override
+    public long getOvenWaitMaximum() {
+        return ovenWaits.getMaximum();
+    }
+
+    @Override
+    public long getMouldyCount() {
+        return mouldy.get();
+    }
+
+    @Override
+    public long getDeletedCount() {
+        return deleted.get();
+    }
+
+    /**
+     * @return the amount of slices which have been taken out of action but are
+     *  still being eaten, so have not been deleted yet
+     */
+    @Override
+    public long getPendingDeletionCount() {
+        return Math.max(0, mouldy.get() - deleted.get());
+    }
+
+    /**
+     * @return the amount of deletions waiting for the reclaimer, or 0 if this
+     *  recorder was not given a reclaimer
+     */
+    @Override
+    public int getReclaimBacklog() {
+        return reclaimer != null ? reclaimer.getBacklog() : 0;
+    }
+
+    /**
+     * @return the bytes which the deletions waiting for the reclaimer will free
+     *  up, or 0 if this recorder was not given a reclaimer
+     */
+    @Override
+    public long getReclaimBacklogBytes() {
+        return reclaimer != null ? reclaimer.getBacklogBytes() : 0;
+    }
+
+    /**
+     * @return the amount of leases on the bakery's slices which are open, or 0
+     *  if this recorder has not been attached to a bakery
+     */
+    @Override
+    public int getOpenLeaseCount() {
+        Bakery<T, ?, W> attached = bakery;
+        return attached != null ? attached.getLeaseTracker().getOpenCount() : 0;
+    }
+
+    /**
+     * @return the amount of leases which were garbage collected without being
+     *  closed, or 0 if this recorder has not been attached to a bakery
+     */
+    @Override
+    public long getLeakedLeaseCount() {
+        Bakery<T, ?, W> attached = bakery;
+        return attached != null ? attached.getLeaseTracker().getLeakedCount() : 0;
+    }
+
+    /**
+     * @return the amount of bakes waiting for a bread oven, or 0 if this
+     *  recorder has not been attached to a bakery
+     */
+    @Override
+    public int getQueueLength() {
+        Bakery<T, ?, W> attached = bakery;
+        return attached != null ? attached.getBreadOvens().getQueueLength() : 0;
+    }
+
+    @Override
+    public long getDroppedBakeCount() {
+        Bakery<T, ?, W> attached = bakery;
+        return attached != null ? attached.getBreadOvens().getDroppedCount() : 0;
+    }
+
+    @Override
+    public int getBreadSliceCount() {
+        Bakery<T, ?, W> attached = bakery;
+        return attached != null ? attached.getBreadSliceCount() : 0;
+    }
+
+    /**
+     * @return the current climate of the bakery, or 1 if this recorder has not
+     *  been attached to a bakery
+     */
+    @Override
+    public double getCurrentClimate() {
+        Bakery<T, ?, W> attached = bakery;
+        return attached != null ? attached.getCurrentClimate() : 1;
+    }
+}
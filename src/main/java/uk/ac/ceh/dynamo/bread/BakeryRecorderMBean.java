@@ -0,0 +1,39 @@
+package uk.ac.ceh.dynamo.bread;
+
+/**
+ * The management interface of a BakeryRecorder. Times are in milliseconds.
+ * @see BakeryRecorder
+ * @author Christopher Johnson
+ */
+public interface BakeryRecorderMBean {
+    long getHitCount();
+    long getStaleHitCount();
+    long getMissCount();
+    double getHitRatio();
+    
+    long getRefreshCount();
+    long getFailedRefreshCount();
+    long getBakeCount();
+    long getBakeFailureCount();
+    double getBakeTimeMean();
+    long getBakeTime50thPercentile();
+    long getBakeTime99thPercentile();
+    long getBakeTimeMaximum();
+    
+    long getOvenWait50thPercentile();
+    long getOvenWait99thPercentile();
+    long getOvenWaitMaximum();
+    
+    long getMouldyCount();
+    long getDeletedCount();
+    long getPendingDeletionCount();
+    int getReclaimBacklog();
+    long getReclaimBacklogBytes();
+    int getOpenLeaseCount();
+    long getLeakedLeaseCount();
+    
+    int getQueueLength();
+    long getDroppedBakeCount();
+    int getBreadSliceCount();
+    double getCurrentClimate();
+}
@@ -1,30 +1,55 @@
 package uk.ac.ceh.dynamo.bread;
 
+import java.util.ArrayDeque;
 import java.util.Deque;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * A Bread Bin is a utility for a baker to help keep track of which slices of 
  * bread a baker has baked. As is the nature with these things, at a given time
  * bread will go mouldy. Bread bins have a method to remove old mouldy pieces
  * of bread. We can also remove arbitrary bread slices if they are no longer needed.
+ * 
+ * Bread slices may also be evicted before they go mouldy, as decided by an
+ * eviction policy. Whenever a slice is eaten, this is recorded in a small lossy
+ * buffer which can be written to without holding the bread bin lock. The buffer
+ * is handed over to the eviction policy in batches.
  * @see Bakery
+ * @see EvictionPolicy
  * @author Christopher Johnson
  */
 public class BreadBin<T, W> {
+    private static final int EATEN_BUFFER_SIZE = 128; //must be a power of two
+    
+    private final AtomicReferenceArray<BreadSlice<T, W>> eaten = new AtomicReferenceArray<>(EATEN_BUFFER_SIZE);
+    private final AtomicLong eatenCount = new AtomicLong();
+    private final EvictionPolicy<T, W> evictionPolicy;
     private Deque<BreadSlice<T,W>> breadSlices;
     
     /**
      * A linked list based implementation of a bread bin. This implementation makes
-     * use of LinkedLists O(1) insertion time and O(1) removal time for pulling 
-     * mouldy slices of bread from the top of the linked list
+     * use of a SliceDeque's O(1) insertion time, O(1) removal time for pulling 
+     * mouldy slices of bread from the top of the list and O(1) removal of any 
+     * other slice, e.g. one which has been replaced or evicted
      * 
-     * This is the default implementation of a bread bin and is used by the Baker
+     * This is the default implementation of a bread bin and is used by the Baker.
+     * Slices will only leave this bread bin when they go mouldy.
      */
     public BreadBin() {
-        breadSlices = new LinkedList<>();
+        this(new FifoEvictionPolicy<T, W>());
+    }
+    
+    /**
+     * Construct a linked list based bread bin which evicts slices according to
+     * the given eviction policy
+     * @param evictionPolicy which decides which slices to evict
+     */
+    public BreadBin(EvictionPolicy<T, W> evictionPolicy) {
+        this(new SliceDeque<T, W>(), evictionPolicy);
     }
     
     /**
@@ -32,12 +57,22 @@ public class BreadBin<T, W> {
      * @param breadSlices 
      */
     protected BreadBin(Deque<BreadSlice<T,W>> breadSlices) {
+        this(breadSlices, new FifoEvictionPolicy<T, W>());
+    }
+    
+    /**
+     * Constructs a bread bin with a given backing list of bread slices and
+     * eviction policy
+     */
+    protected BreadBin(Deque<BreadSlice<T,W>> breadSlices, EvictionPolicy<T, W> evictionPolicy) {
         this.breadSlices = breadSlices;
+        this.evictionPolicy = evictionPolicy;
     }
 
     /**
      * Remove and obtain the list of BreadSlices which are considered mouldy and
-     * not fit for eating.
+     * not fit for eating. The bread bin is in baked order, so only the mouldy 
+     * slices and the first fresh one are looked at.
      * @param latestBakeTime The time which if baked before, the bread slice would
      *  be considered mouldy
      * @return A list of mouldy bread slices taken out of this bread bin
@@ -47,11 +82,12 @@ public class BreadBin<T, W> {
         
         Iterator<BreadSlice<T,W>> iterator = breadSlices.iterator();
         while(iterator.hasNext()) {
-            BreadSlice slice = iterator.next();
+            BreadSlice<T, W> slice = iterator.next();
             
             if (slice.getTimeBaked() < latestBakeTime) {
                 rottenBreadSlices.add(slice);
                 iterator.remove();
+                evictionPolicy.removed(slice);
             }
             else {
                 break;
@@ -71,14 +107,102 @@ public class BreadBin<T, W> {
             throw new IllegalArgumentException("The given slice has either not been baked or is older than the latest in the list");
         }
         breadSlices.add(slice);
+        evictionPolicy.baked(slice);
     }
-    
+
+    /**
+     * Adds a bread slice which was baked some time ago, e.g. one reloaded from
+     * the work surface, to the bread bin. Unlike add, the slice may be older
+     * than the latest in the bread bin, it is slotted in behind any slices
+     * which were baked after it so that the bread bin stays in baked order.
+     * Reloaded slices are mostly handed over in baked order, so only a few
+     * slices at the end of the bread bin are ever moved.
+     * @param slice which has been baked
+     */
+    public void restock(BreadSlice<T, W> slice) {
+        if(!slice.isBaked()) {
+            throw new IllegalArgumentException("The given slice has not been baked");
+        }
+        Deque<BreadSlice<T, W>> younger = new ArrayDeque<>();
+        while(!breadSlices.isEmpty() && breadSlices.peekLast().getTimeBaked() > slice.getTimeBaked()) {
+            younger.push(breadSlices.pollLast());
+        }
+        breadSlices.add(slice);
+        breadSlices.addAll(younger);
+        evictionPolicy.baked(slice);
+    }
+
     /**
      * A slice of bread may need to be pulled out from the middle of the bread bin
      * @param slice
      * @return if the slice of bread was removed
      */
     public boolean remove(BreadSlice<T, W> slice) {
-        return breadSlices.remove(slice);
+        if(breadSlices.remove(slice)) {
+            evictionPolicy.removed(slice);
+            return true;
+        }
+        return false;
+    }
+    
+    /**
+     * Renew a slice of bread which is in the bread bin, it then goes mouldy as
+     * if it had just been baked. The slice is moved to the end of the bread
+     * bin, the eviction policy carries on with it as before.
+     * @param slice to renew
+     * @param staleTime the new stale time of the slice
+     * @return false if the slice was not in the bread bin, in which case it 
+     *  has not been renewed
+     * @see BreadSlice#renew(long)
+     */
+    public boolean renew(BreadSlice<T, W> slice, long staleTime) {
+        if(!breadSlices.remove(slice)) {
+            return false;
+        }
+        slice.renew(staleTime);
+        breadSlices.add(slice);
+        return true;
+    }
+    
+    /**
+     * Remove and obtain the slices of bread which the eviction policy has 
+     * decided should be thrown out. Any eaten slices which have been recorded 
+     * are handed to the eviction policy first.
+     * @return A list of evicted bread slices taken out of this bread bin
+     */
+    public List<BreadSlice<T, W>> removeEvicted() {
+        drainEaten();
+        List<BreadSlice<T, W>> evicted = evictionPolicy.evict();
+        for(BreadSlice<T, W> slice: evicted) {
+            breadSlices.remove(slice);
+        }
+        return evicted;
+    }
+    
+    /**
+     * Record that a slice of bread has been eaten. Unlike the other methods of 
+     * the bread bin, this can be called without holding the bread bin lock. 
+     * Eatings are recorded in a fixed size buffer and may be lost if the buffer
+     * is not drained often enough.
+     * @param slice which was eaten
+     * @return true if the buffer has filled up and should now be drained
+     * @see #drainEaten()
+     */
+    public boolean eaten(BreadSlice<T, W> slice) {
+        long count = eatenCount.getAndIncrement();
+        eaten.lazySet((int)count & (EATEN_BUFFER_SIZE - 1), slice);
+        return ((count + 1) & (EATEN_BUFFER_SIZE - 1)) == 0;
+    }
+    
+    /**
+     * Hand the recorded eatings over to the eviction policy
+     */
+    public void drainEaten() {
+        for(int i=0; i<EATEN_BUFFER_SIZE; i++) {
+            BreadSlice<T, W> slice = eaten.getAndSet(i, null);
+            if(slice != null) {
+                evictionPolicy.eaten(slice);
+            }
+        }
     }
 }
@@ -0,0 +1,24 @@
+package uk.ac.ceh.dynamo.bread;
+
+/**
+ * A callback which can be registered on a BreadFuture. Once the bread has been
+ * baked (or burnt) exactly one of these methods will be called.
+ *
+ * Callbacks are executed on the thread which completes the bake, so
+ * implementations should be quick and never block.
+ * @see BreadFuture#addCallback(BreadCallback)
+ * @author Christopher Johnson
+ */
+public interface BreadCallback<T> {
+    /**
+     * Called when the bread has been successfully baked
+     * @param baked the output of the bake
+     */
+    void baked(T baked);
+
+    /**
+     * Called when the bread failed to bake
+     * @param ex the reason the bake failed
+     */
+    void failed(BreadException ex);
+}
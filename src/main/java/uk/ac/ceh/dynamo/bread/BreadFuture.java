@@ -0,0 +1,246 @@
+package uk.ac.ceh.dynamo.bread;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A future for a slice of bread which is being baked. The future will be
+ * completed by the baker when the bread slice has either been baked or failed
+ * to bake.
+ *
+ * Rather than parking a thread until the bread has been baked, callbacks can be
+ * registered which will be notified upon completion. This allows a thread to
+ * be released whilst a long running bake is in progress.
+ *
+ * Bakes can not be cancelled, other requests may be waiting upon the same
+ * slice of bread.
+ * @see Bakery#getDataAsync(Object)
+ * @author Christopher Johnson
+ */
+public class BreadFuture<T> implements Future<T> {
+    private final CountDownLatch latch;
+    private final List<BreadCallback<T>> callbacks;
+    private final Object lock = new Object();
+
+    private volatile T baked;
+    private volatile BreadException exception;
+
+    /**
+     * Create a bread future which is yet to be baked
+     */
+    public BreadFuture() {
+        this.latch = new CountDownLatch(1);
+        this.callbacks = new ArrayList<>();
+    }
+
+    /**
+     * Creates a bread future which has already been baked
+     * @param baked the already baked output
+     */
+    public BreadFuture(T baked) {
+        this();
+        setBaked(baked);
+    }
+
+    /**
+     * Complete this future with the baked output. Only the first completion of
+     * this future will have any effect.
+     * @param output the baked output
+     * @return true if this call completed the future
+     */
+    public boolean setBaked(T output) {
+        List<BreadCallback<T>> toNotify;
+        synchronized(lock) {
+            if(isDone()) {
+                return false;
+            }
+            baked = output;
+            latch.countDown();
+            toNotify = new ArrayList<>(callbacks);
+            callbacks.clear();
+        }
+        for(BreadCallback<T> callback : toNotify) {
+            callback.baked(output);
+        }
+        return true;
+    }
+
+    /**
+     * Complete this future with an exception. Only the first completion of
+     * this future will have any effect.
+     * @param ex the reason the bake failed
+     * @return true if this call completed the future
+     */
+    public boolean setException(BreadException ex) {
+        List<BreadCallback<T>> toNotify;
+        synchronized(lock) {
+            if(isDone()) {
+                return false;
+            }
+            exception = ex;
+            latch.countDown();
+            toNotify = new ArrayList<>(callbacks);
+            callbacks.clear();
+        }
+        for(BreadCallback<T> callback : toNotify) {
+            callback.failed(ex);
+        }
+        return true;
+    }
+
+    /**
+     * Register a callback to be notified when this future completes. If the
+     * future has already completed, the callback will be called straight away
+     * on the calling thread.
+     * @param callback to notify
+     */
+    public void addCallback(BreadCallback<T> callback) {
+        synchronized(lock) {
+            if(!isDone()) {
+                callbacks.add(callback);
+                return;
+            }
+        }
+        if(exception != null) {
+            callback.failed(exception);
+        }
+        else {
+            callback.baked(baked);
+        }
+    }
+
+    /**
+     * Block until this future has been completed.
+     * @return the baked output
+     * @throws BreadException if the bake failed or the thread was interrupted
+     *  whilst waiting
+     */
+    public T getBaked() throws BreadException {
+        try {
+            latch.await(); //block until the latch is down to zero
+            return getCompleted();
+        }
+        catch(InterruptedException ie) {
+            throw new BreadException("Interrupted whilst waiting", ie);
+        }
+    }
+
+    /**
+     * Block until this future has been completed or the timeout has passed.
+     * Giving up waiting does not stop the bake, which carries on for anyone
+     * else who is waiting on it.
+     * @param timeout the maximum time to wait
+     * @param unit the time unit of the timeout
+     * @return the baked output
+     * @throws BreadTimeoutException if the bake was not completed in time
+     * @throws BreadException if the bake failed or the thread was interrupted
+     *  whilst waiting
+     */
+    public T getBaked(long timeout, TimeUnit unit) throws BreadException {
+        try {
+            if(!latch.await(timeout, unit)) {
+                throw new BreadTimeoutException("The bread was not baked in time");
+            }
+            return getCompleted();
+        }
+        catch(InterruptedException ie) {
+            throw new BreadException("Interrupted whilst waiting", ie);
+        }
+    }
+
+    @Override
+    public T get() throws InterruptedException, ExecutionException {
+        latch.await();
+        return getOrWrapException();
+    }
+
+    @Override
+    public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        if(!latch.await(timeout, unit)) {
+            throw new TimeoutException("The bread was not baked in time");
+        }
+        return getOrWrapException();
+    }
+
+    /**
+     * Bakes are shared between requests and can not be cancelled
+     * @return always false
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return false;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return false;
+    }
+
+    @Override
+    public boolean isDone() {
+        return latch.getCount() == 0;
+    }
+
+    private T getCompleted() throws BreadException {
+        if(exception != null) {
+            throw exception;
+        }
+        return baked;
+    }
+
+    private T getOrWrapException() throws ExecutionException {
+        try {
+            return getCompleted();
+        }
+        catch(BreadException ex) {
+            throw new ExecutionException(ex);
+        }
+    }
+
+    /**
+     * Creates a future which completes when all of the supplied futures have
+     * been baked. The list of outputs will be in the same order as the supplied
+     * futures. If any of the futures fail, the returned future will fail with
+     * the first exception to be reported.
+     * @param futures to wait upon
+     * @return a future of all the baked outputs
+     */
+    public static <T> BreadFuture<List<T>> allOf(Collection<? extends BreadFuture<T>> futures) {
+        final BreadFuture<List<T>> all = new BreadFuture<>();
+        final Object[] outputs = new Object[futures.size()];
+        final AtomicInteger remaining = new AtomicInteger(outputs.length);
+        if(outputs.length == 0) {
+            all.setBaked(new ArrayList<T>());
+            return all;
+        }
+
+        int i = 0;
+        for(BreadFuture<T> future : futures) {
+            final int index = i++;
+            future.addCallback(new BreadCallback<T>() {
+                @Override
+                @SuppressWarnings("unchecked")
+                public void baked(T baked) {
+                    outputs[index] = baked;
+                    if(remaining.decrementAndGet() == 0) {
+                        all.setBaked((List<T>)Arrays.asList(outputs));
+                    }
+                }
+
+                @Override
+                public void failed(BreadException ex) {
+                    all.setException(ex);
+                }
+            });
+        }
+        return all;
+    }
+}
@@ -0,0 +1,115 @@
+package uk.ac.ceh.dynamo.bread;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A lease on the slices of bread which back some data obtained from a bakery.
+ * Whilst the lease is open, the slices will not be thrown away, even if they go
+ * mouldy. Closing the lease lets them go.
+ * 
+ * Unlike the slices which a thread eats through Bakery#getData(Object), a 
+ * lease is not tied to a thread. It can be handed between threads, e.g. to 
+ * the thread which completes an async request, and closed by any of them. 
+ * Leases should be closed in a try-with-resources block or when the request 
+ * they were taken for ends. A lease which is garbage collected without being
+ * closed is reported as leaked by the LeaseTracker of the bakery, which then
+ * lets its slices go.
+ * @see Bakery#lease(Object)
+ * @see LeaseTracker
+ * @author Christopher Johnson
+ */
+public class BreadLease<T> implements AutoCloseable {
+    private final BreadFuture<T> future;
+    private final Pins pins;
+    private final LeaseTracker.Tracked tracked;
+    
+    /**
+     * Create a lease on slices which have already been pinned
+     * @param future of the leased data
+     * @param slices which have been pinned for this lease
+     * @param tracker to keep track of the lease in case it leaks, or null if
+     *  it should not be tracked
+     * @see BreadSlice#tryPin()
+     */
+    BreadLease(BreadFuture<T> future, List<? extends BreadSlice<?, ?>> slices, LeaseTracker tracker) {
+        this.future = future;
+        this.pins = new Pins(slices);
+        this.tracked = tracker != null ? tracker.track(this, pins) : null;
+    }
+    
+    /**
+     * Obtain the leased data, waiting for it to be baked if need be
+     * @return the leased data
+     * @throws BreadException if the data failed to bake
+     */
+    public T get() throws BreadException {
+        return future.getBaked();
+    }
+    
+    /**
+     * Obtain the leased data, waiting no longer than the given timeout for it
+     * to be baked
+     * @param timeout the maximum time to wait for a bake
+     * @param unit the time unit of the timeout
+     * @return the leased data
+     * @throws BreadTimeoutException if the data was not baked in time
+     */
+    public T get(long timeout, TimeUnit unit) throws BreadException {
+        return future.getBaked(timeout, unit);
+    }
+    
+    /**
+     * @return the future of the leased data, for registering callbacks. The 
+     *  lease must still be closed once the data has been used
+     */
+    public BreadFuture<T> getFuture() {
+        return future;
+    }
+    
+    /**
+     * @return true if this lease has been closed
+     */
+    public boolean isClosed() {
+        return pins.released.get();
+    }
+    
+    /**
+     * Let the leased slices go. Closing a lease more than once does nothing.
+     */
+    @Override
+    public void close() {
+        if(tracked != null) {
+            tracked.closed();
+        }
+        pins.release();
+    }
+    
+    /**
+     * The slices which a lease has pinned. These are kept apart from the lease
+     * so that they can be let go of once the lease has been garbage collected
+     */
+    static class Pins {
+        private final List<? extends BreadSlice<?, ?>> slices;
+        private final AtomicBoolean released = new AtomicBoolean();
+        
+        Pins(List<? extends BreadSlice<?, ?>> slices) {
+            this.slices = slices;
+        }
+        
+        /**
+         * Unpin the slices, if they have not been unpinned already
+         * @return true if this call unpinned the slices
+         */
+        boolean release() {
+            if(!released.compareAndSet(false, true)) {
+                return false;
+            }
+            for(BreadSlice<?, ?> slice: slices) {
+                slice.unpin();
+            }
+            return true;
+        }
+    }
+}
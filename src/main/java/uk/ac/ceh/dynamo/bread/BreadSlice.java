@@ -1,8 +1,11 @@
 package uk.ac.ceh.dynamo.bread;
 
-import java.util.LinkedList;
-import java.util.concurrent.CountDownLatch;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * The following class represents a slice of bread. A slice of bread is something
@@ -21,27 +24,33 @@ import java.util.concurrent.atomic.AtomicInteger;
  * @author Christopher Johnson
  */
 public class BreadSlice<T, W> implements Comparable<BreadSlice<T, W>> {
-    private static final ThreadLocal<LinkedList<BreadSlice>> SLICES_USED_BY_THREAD = new ThreadLocal<LinkedList<BreadSlice>>() {
+    private static final ThreadLocal<List<BreadSlice>> SLICES_USED_BY_THREAD = new ThreadLocal<List<BreadSlice>>() {
         @Override
-        protected LinkedList<BreadSlice> initialValue() {
-            return new LinkedList<>(); //initial empty list
+        protected List<BreadSlice> initialValue() {
+            return new ArrayList<>(); //reused by each request on the thread
         }
     };
     
     private final int id;
     private final String mixName;
     private final AtomicInteger useCounter;
-    private long bakedTime;
-    private final CountDownLatch latch;
+    private final AtomicLong timesEaten;
+    private volatile long bakedTime, staleAt, staleTime, size, bakeDuration;
+    private final BreadFuture<T> future;
     private final DustBin<W> dustBin;
     private final W workSurface;
-    private final long staleTime;
     private final Clock clock;
+    private final Object ingredients;
     private final Object lock = new Object();
     
-    private T baked;
-    private BreadException exception;
-    private boolean isRotten;
+    private volatile T baked;
+    private volatile String fingerprint;
+    private volatile Set<String> tags;
+    private volatile boolean isRotten, isExpired;
+    
+    //The links of the SliceDeque which this slice is in, guarded by its lock
+    SliceDeque<T, W> deque;
+    BreadSlice<T, W> previousInDeque, nextInDeque;
     
     /**
      * The Bread Slice constructor for creating a bread slice which is not yet baked
@@ -55,7 +64,18 @@ public class BreadSlice<T, W> implements Comparable<BreadSlice<T, W>> {
      * @param remover the shapefile remover for deleteing the full set of shapefile parts
      */
     public BreadSlice(int id, String queryHash, long staleTime, Clock clock, W workSurface, DustBin<W> dustBin) {
+        this(id, queryHash, null, staleTime, clock, workSurface, dustBin);
+    }
+    
+    /**
+     * The Bread Slice constructor for creating a bread slice which is not yet 
+     * baked and remembers the ingredients it is to be baked from.
+     * @param ingredients which this slice is to be baked from
+     * @see #isMixOf(Object)
+     */
+    public BreadSlice(int id, String queryHash, Object ingredients, long staleTime, Clock clock, W workSurface, DustBin<W> dustBin) {
         this.id = id;
+        this.ingredients = ingredients;
         this.mixName = queryHash;
         this.dustBin = dustBin;
         this.staleTime = staleTime;
@@ -63,7 +83,8 @@ public class BreadSlice<T, W> implements Comparable<BreadSlice<T, W>> {
         this.workSurface = workSurface;
         this.isRotten = false;
         this.useCounter = new AtomicInteger(0);
-        this.latch = new CountDownLatch(1);
+        this.timesEaten = new AtomicLong(0);
+        this.future = new BreadFuture<>();
     }
     
     /**
@@ -76,17 +97,20 @@ public class BreadSlice<T, W> implements Comparable<BreadSlice<T, W>> {
     public BreadSlice(T preBaked, long bakedTime, int id, String mixName, long staleTime, Clock clock, W workSurface, DustBin<W> dustBin) {
         this.id = id;
         this.mixName = mixName;
+        this.ingredients = null; //Not known for pre baked slices
         this.dustBin = dustBin;
         this.staleTime = staleTime;
         this.clock = clock;
         this.workSurface = workSurface;
         this.isRotten = false;
         this.useCounter = new AtomicInteger(0);
-        this.latch = new CountDownLatch(0); //already generated shapefile, no need to wait
+        this.timesEaten = new AtomicLong(0);
         
         //Set location and usage time
-        this.baked = preBaked;
         this.bakedTime = bakedTime;
+        this.staleAt = bakedTime + staleTime;
+        this.baked = preBaked;
+        this.future = new BreadFuture<>(preBaked); //already generated shapefile, no need to wait
     }
     
     /**
@@ -96,6 +120,26 @@ public class BreadSlice<T, W> implements Comparable<BreadSlice<T, W>> {
         return mixName;
     }
     
+    /**
+     * @return the ingredients which this slice was baked from, or null if this
+     *  slice was pre baked
+     */
+    public Object getIngredients() {
+        return ingredients;
+    }
+    
+    /**
+     * Check if this slice was baked from the given ingredients. Slices which 
+     * were pre baked do not know their ingredients, these are assumed to match
+     * anything with the same mix name.
+     * @param ingredients to compare with the ingredients of this slice
+     * @return false if this slice is known to have been baked from different
+     *  ingredients
+     */
+    public boolean isMixOf(Object ingredients) {
+        return this.ingredients == null || this.ingredients.equals(ingredients);
+    }
+    
     /**
      * @return the time in milliseconds when this bread slice was baked
      */
@@ -103,6 +147,89 @@ public class BreadSlice<T, W> implements Comparable<BreadSlice<T, W>> {
         return bakedTime;
     }
     
+    /**
+     * @return the time in milliseconds when this bread slice goes stale
+     */
+    public long getStaleAt() {
+        return staleAt;
+    }
+    
+    /**
+     * @return the time in milliseconds it takes (after baking) for this slice
+     *  to go stale
+     */
+    public long getStaleTime() {
+        return staleTime;
+    }
+    
+    /**
+     * Change how long it takes this slice to go stale. If the slice has already
+     * been baked, it goes stale this long after it was baked.
+     * @param staleTime in milliseconds
+     */
+    public void setStaleTime(long staleTime) {
+        this.staleTime = staleTime;
+        if(isBaked()) {
+            this.staleAt = bakedTime + staleTime;
+        }
+    }
+    
+    /**
+     * Treat this baked slice as if it had just been baked again, with the 
+     * given stale time. This is used when a refresh found that nothing had
+     * changed, rather than replacing the slice.
+     * @param staleTime in milliseconds
+     */
+    public void renew(long staleTime) {
+        this.isExpired = false;
+        this.bakedTime = clock.getTimeInMillis();
+        this.staleTime = staleTime;
+        this.staleAt = bakedTime + staleTime;
+    }
+    
+    /**
+     * @return the fingerprint of what this slice baked, or null if it has not
+     *  been fingerprinted
+     * @see FingerprintingOven
+     */
+    public String getFingerprint() {
+        return fingerprint;
+    }
+    
+    /**
+     * Record the fingerprint of what this slice baked
+     * @param fingerprint from the oven
+     */
+    public void setFingerprint(String fingerprint) {
+        this.fingerprint = fingerprint;
+    }
+    
+    /**
+     * @return the tags of the ingredients of this slice, or null if it has not
+     *  been tagged
+     * @see Tagger
+     */
+    public Set<String> getTags() {
+        return tags;
+    }
+    
+    /**
+     * Record the tags of the ingredients of this slice
+     * @param tags from the tagger
+     */
+    public void setTags(Set<String> tags) {
+        this.tags = tags;
+    }
+    
+    /**
+     * Make this slice stale now, whatever its stale time. If the slice has not
+     * been baked yet, it will be stale as soon as it is.
+     * @see Bakery#invalidate(String, boolean)
+     */
+    public void expire() {
+        this.isExpired = true;
+    }
+    
     /**
      * @return if this breadslice is already baked
      */
@@ -130,11 +257,52 @@ public class BreadSlice<T, W> implements Comparable<BreadSlice<T, W>> {
      */
     public boolean isStale() {
         if(isBaked()) {
-            return (getTimeBaked() + staleTime) < clock.getTimeInMillis();
+            return isExpired || staleAt < clock.getTimeInMillis();
         }
         return false;
     }
     
+    /**
+     * @return the amount of bytes which this slice takes up on the work surface,
+     *  or 0 if the oven does not measure its bread
+     */
+    public long getSize() {
+        return size;
+    }
+    
+    /**
+     * Record how many bytes this slice takes up on the work surface. This is 
+     * set by the oven once the slice has been baked.
+     * @param size in bytes
+     */
+    public void setSize(long size) {
+        this.size = size;
+    }
+    
+    /**
+     * @return the time in milliseconds it took to bake this slice, or 0 if 
+     *  this slice was reloaded and so its bake was not measured
+     */
+    public long getBakeDuration() {
+        return bakeDuration;
+    }
+    
+    /**
+     * Record how long it took to bake this slice. This is set by the bakery 
+     * before the slice is put into the bread bin.
+     * @param bakeDuration in milliseconds
+     */
+    public void setBakeDuration(long bakeDuration) {
+        this.bakeDuration = bakeDuration;
+    }
+    
+    /**
+     * @return the amount of times that this slice has been started on
+     */
+    public long getTimesEaten() {
+        return timesEaten.get();
+    }
+    
     /**
      * Obtain this location of the baked file which represents this bread slice.
      * This method may return immediately if the bread slice has already been
@@ -150,18 +318,25 @@ public class BreadSlice<T, W> implements Comparable<BreadSlice<T, W>> {
      * @throws BreadException if setException has been called
      */
     public T getBaked() throws BreadException {
-        try {
-            latch.await(); //block until the latch is down to zero
-            if(exception != null) {
-                throw exception;
-            }
-            else {
-                return baked;
-            }
-        }
-        catch(InterruptedException ie) {
-            throw new BreadException("Interrupted whilst waiting", ie);
-        }
+        return future.getBaked();
+    }
+    
+    /**
+     * Like #getBaked() but gives up waiting after the given timeout
+     * @throws BreadTimeoutException if the slice was not baked in time
+     * @see BreadFuture#getBaked(long, TimeUnit)
+     */
+    public T getBaked(long timeout, TimeUnit unit) throws BreadException {
+        return future.getBaked(timeout, unit);
+    }
+    
+    /**
+     * Obtain the future which will be completed when this bread slice has been
+     * either baked or failed to bake. Unlike #getBaked() this will never block.
+     * @return the future for this slice of bread
+     */
+    public BreadFuture<T> getFuture() {
+        return future;
     }
     
     /**
@@ -172,10 +347,26 @@ public class BreadSlice<T, W> implements Comparable<BreadSlice<T, W>> {
      * The baker will call this method on a threads behalf.
      */
     public void startEating() {
-        useCounter.getAndIncrement();
+        pin();
         SLICES_USED_BY_THREAD.get().add(this); //register this breadslice to the thread
     }
     
+    /**
+     * Register that the current thread is eating this bread slice, as long as
+     * it has not already gone mouldy. Checking and registering happen 
+     * atomically with respect to #markAsMouldy() so a slice which is handed out 
+     * by this method will never have been submitted to the dust bin.
+     * @return true if the thread is now eating this slice, false if the slice
+     *  had already gone mouldy
+     */
+    public boolean tryStartEating() {
+        if(tryPin()) {
+            SLICES_USED_BY_THREAD.get().add(this);
+            return true;
+        }
+        return false;
+    }
+    
     /**
      * A thread should call this method to state that it has finished eating the
      * bread slices is was chomping on. 
@@ -184,11 +375,44 @@ public class BreadSlice<T, W> implements Comparable<BreadSlice<T, W>> {
      * @see uk.ac.ceh.dynamo.MapServerView
      */
     public static void finishedEating() {
-        for(BreadSlice slice : SLICES_USED_BY_THREAD.get()) {
-            slice.useCounter.decrementAndGet();
-            slice.submitForDeletionIfReady();
+        List<BreadSlice> slices = SLICES_USED_BY_THREAD.get();
+        for(BreadSlice slice : slices) {
+            slice.unpin();
         }
-        SLICES_USED_BY_THREAD.set(new LinkedList<BreadSlice>());
+        slices.clear();
+    }
+    
+    /**
+     * Pin this slice so that it is not thrown away, as long as it has not 
+     * already gone mouldy. Unlike #tryStartEating() the pin is not tied to the
+     * current thread, it must be given back with #unpin(). Checking and pinning
+     * happen atomically with respect to #markAsMouldy().
+     * @return true if the slice has been pinned, false if it had already gone
+     *  mouldy
+     * @see BreadLease
+     */
+    public boolean tryPin() {
+        synchronized(lock) {
+            if(isRotten) {
+                return false;
+            }
+            pin();
+            return true;
+        }
+    }
+    
+    /**
+     * Give back a pin taken by #tryPin(). If the slice has gone mouldy and 
+     * this was the last pin, the slice is submitted to the dust bin.
+     */
+    public void unpin() {
+        useCounter.decrementAndGet();
+        submitForDeletionIfReady();
+    }
+    
+    private void pin() {
+        useCounter.getAndIncrement();
+        timesEaten.incrementAndGet();
     }
     
     /**
@@ -198,8 +422,10 @@ public class BreadSlice<T, W> implements Comparable<BreadSlice<T, W>> {
      * the slice of bread away.
      */
     public void markAsMouldy() {
-        isRotten = true;
-        submitForDeletionIfReady();
+        synchronized(lock) {
+            isRotten = true;
+            submitForDeletionIfReady();
+        }
     }
     
     private void submitForDeletionIfReady() {
@@ -217,9 +443,8 @@ public class BreadSlice<T, W> implements Comparable<BreadSlice<T, W>> {
      * @param ex The exception which was thrown when trying to bake this bread
      */
     public void setException(BreadException ex) {
-        this.exception = ex; //Store the exception
-        markAsMouldy();      //and mark the bread slice as rotten.
-        latch.countDown();   //Then we can allow calls to getFileLocation()
+        markAsMouldy();           //Mark the bread slice as rotten.
+        future.setException(ex);  //Then we can allow calls to getBaked()
     }
     
     /**
@@ -228,9 +453,32 @@ public class BreadSlice<T, W> implements Comparable<BreadSlice<T, W>> {
      * @param output the pre baked content
      */
     public void setBaked(T output) {
+        setOutput(output);
+        serve();
+    }
+    
+    /**
+     * Sets the baked output and the time it was baked, without letting go of 
+     * the threads which are waiting for this slice. This lets the baker put 
+     * the slice in the bread bin, which needs to know when it was baked, before
+     * anything waiting for the slice is told that it has been baked.
+     * @param output the pre baked content
+     * @see #serve() 
+     */
+    public void setOutput(T output) {
+        this.bakedTime = clock.getTimeInMillis(); //set before publishing the baked output
+        this.staleAt = bakedTime + staleTime;
         this.baked = output;
-        this.bakedTime = clock.getTimeInMillis();
-        latch.countDown();
+    }
+    
+    /**
+     * Completes the future of this slice with the output which has been set,
+     * letting go of the threads which are waiting for it and running the 
+     * callbacks of the future.
+     * @see #setOutput(java.lang.Object) 
+     */
+    public void serve() {
+        future.setBaked(baked);
     }
 
     @Override
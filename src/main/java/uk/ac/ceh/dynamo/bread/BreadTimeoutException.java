@@ -0,0 +1,13 @@
+package uk.ac.ceh.dynamo.bread;
+
+/**
+ * An exception which is thrown when a slice of bread was not baked in time. 
+ * This may be because the bake was taking too long and was abandoned, or 
+ * because a request gave up waiting on a bake which is still going.
+ * @author Christopher Johnson
+ */
+public class BreadTimeoutException extends BreadException {
+    public BreadTimeoutException(String mess) {
+        super(mess);
+    }
+}
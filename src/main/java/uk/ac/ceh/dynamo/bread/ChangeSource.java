@@ -0,0 +1,22 @@
+package uk.ac.ceh.dynamo.bread;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * A source of events which say that the data behind a tag has changed, for
+ * example that a dataset has been reloaded in the database. Once started, the
+ * source invalidates the tagged slices of the bakery as events arrive, until 
+ * it is closed.
+ * @see DropFolderChangeSource
+ * @see Bakery#invalidate(String, boolean)
+ * @author Christopher Johnson
+ */
+public interface ChangeSource extends Closeable {
+    /**
+     * Start invalidating the given bakery as changes happen
+     * @param bakery to invalidate
+     * @throws IOException if the source could not be started
+     */
+    void start(Bakery<?, ?, ?> bakery) throws IOException;
+}
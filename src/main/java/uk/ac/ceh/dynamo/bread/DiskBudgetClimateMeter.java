@@ -0,0 +1,244 @@
+package uk.ac.ceh.dynamo.bread;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The following climate varies with the amount of bytes which the shapefiles
+ * of a shapefile generator take up on disk. Bytes are compared against a budget,
+ * which is shrunk if the volume the work surface lives on does not have enough
+ * usable space left to honour it (less some reserve which should always be kept
+ * free).
+ *
+ * Whilst usage of the budget is below the high watermark the climate is perfect.
+ * Above the high watermark, the climate ramps down linearly from 1 at the high
+ * watermark to 0 when the budget is full. Once the high watermark has been 
+ * reached the bakery is draining, and the climate only returns to perfect once
+ * usage has dropped back below the low watermark. Whilst draining, the climate 
+ * ramps back up linearly from the climate at the peak usage to 1 at the low 
+ * watermark. The gap between the two watermarks stops the bakery from flapping
+ * between keeping and throwing out its slices, and as the ramps meet at the 
+ * peak, the climate never jumps as usage crosses the high watermark.
+ *
+ * The byte count is maintained by the generator as slices are baked and
+ * deleted, and the usable space of the volume is only checked every so often,
+ * so this climate is cheap to calculate on every request.
+ *
+ * One climate meter can be shared by the bakeries of several generators whose
+ * work surfaces are on the same volume, giving them a global budget. Once the
+ * combined shapefiles reach the high watermark, all of the bakeries start to 
+ * throw out their oldest slices.
+ *
+ * Shapefiles which have been thrown out but are still waiting to be deleted by
+ * a reclaimer do not count towards usage, otherwise a slow reclaimer would keep
+ * the climate down until the bakery had thrown out every slice. They still take
+ * up space on the volume though, so whilst either the bakery is draining or the
+ * shapefiles on disk are above the high watermark the disk is critical, and the
+ * reclaimers of the generators are told to delete the shapefiles of mouldy 
+ * slices faster.
+ * @see ShapefileGenerator#getBytesOnWorkSurface()
+ * @author Christopher Johnson
+ */
+public class DiskBudgetClimateMeter implements ClimateMeter<String, String, File> {
+    public static final double DEFAULT_LOW_WATERMARK = 0.8;
+    public static final double DEFAULT_HIGH_WATERMARK = 0.95;
+    public static final long USABLE_SPACE_REFRESH_PERIOD = 1000;
+
+    private final List<ShapefileGenerator> generators;
+    private final FileStore fileStore;
+    private final long byteBudget, reservedBytes;
+    private final double lowWatermark, highWatermark;
+
+    private volatile long usableSpace = -1, usableSpaceCheckedAt;
+    private volatile double peakUsage; //since the high watermark was reached, 0 whilst not draining
+    private volatile boolean critical;
+
+    /**
+     * Create a climate meter for the shapefiles of the given generator using the
+     * default watermarks
+     * @param generator the generator whose shapefiles are to be measured
+     * @param workSurface a directory on the volume which the shapefiles live on
+     * @param byteBudget the maximum amount of bytes the shapefiles should use
+     * @param reservedBytes the amount of bytes to always leave free on the volume
+     * @throws IOException if the volume of the work surface can not be found
+     */
+    public DiskBudgetClimateMeter(ShapefileGenerator generator, File workSurface, long byteBudget, long reservedBytes) throws IOException {
+        this(Collections.singletonList(generator), workSurface, byteBudget, reservedBytes);
+    }
+
+    /**
+     * Create a climate meter for the combined shapefiles of the given 
+     * generators using the default watermarks
+     * @param generators the generators whose shapefiles are to be measured
+     * @param workSurface a directory on the volume which the shapefiles live on
+     * @param byteBudget the maximum amount of bytes all the shapefiles should use
+     * @param reservedBytes the amount of bytes to always leave free on the volume
+     * @throws IOException if the volume of the work surface can not be found
+     */
+    public DiskBudgetClimateMeter(Collection<? extends ShapefileGenerator> generators, File workSurface, long byteBudget, long reservedBytes) throws IOException {
+        this(generators, Files.getFileStore(workSurface.toPath()), byteBudget, reservedBytes, DEFAULT_LOW_WATERMARK, DEFAULT_HIGH_WATERMARK);
+    }
+
+    /**
+     * Create a climate meter for the shapefiles of the given generator
+     * @param generator the generator whose shapefiles are to be measured
+     * @param fileStore the volume which the shapefiles live on
+     * @param byteBudget the maximum amount of bytes the shapefiles should use
+     * @param reservedBytes the amount of bytes to always leave free on the volume
+     * @param lowWatermark the fraction of the budget which usage must drop
+     *  below before the climate returns to perfect
+     * @param highWatermark the fraction of the budget at which the climate
+     *  starts to deteriorate
+     */
+    public DiskBudgetClimateMeter(ShapefileGenerator generator, FileStore fileStore, long byteBudget, long reservedBytes, double lowWatermark, double highWatermark) {
+        this(Collections.singletonList(generator), fileStore, byteBudget, reservedBytes, lowWatermark, highWatermark);
+    }
+
+    /**
+     * Create a climate meter for the combined shapefiles of the given generators
+     * @param generators the generators whose shapefiles are to be measured
+     * @param fileStore the volume which the shapefiles live on
+     * @param byteBudget the maximum amount of bytes all the shapefiles should use
+     * @param reservedBytes the amount of bytes to always leave free on the volume
+     * @param lowWatermark the fraction of the budget which usage must drop
+     *  below before the climate returns to perfect
+     * @param highWatermark the fraction of the budget at which the climate
+     *  starts to deteriorate
+     */
+    public DiskBudgetClimateMeter(Collection<? extends ShapefileGenerator> generators, FileStore fileStore, long byteBudget, long reservedBytes, double lowWatermark, double highWatermark) {
+        if(byteBudget <= 0 || lowWatermark < 0 || lowWatermark > highWatermark || highWatermark >= 1) {
+            throw new IllegalArgumentException("The budget must be positive and 0 <= lowWatermark <= highWatermark < 1");
+        }
+        this.generators = new ArrayList<>(generators);
+        this.fileStore = fileStore;
+        this.byteBudget = byteBudget;
+        this.reservedBytes = reservedBytes;
+        this.lowWatermark = lowWatermark;
+        this.highWatermark = highWatermark;
+    }
+
+    /**
+     * Calculates a value between 1 and 0 based upon how much of the budget has
+     * been used up.
+     * @param bakery the bakery to calculate the climate of
+     * @return 1 until the high watermark is reached, then a value ramping down
+     *  to 0 as usage approaches the budget. Usage must fall below the low
+     *  watermark before 1 is returned again
+     */
+    @Override
+    public double getCurrentClimate(Bakery<String, String, File> bakery) {
+        long bytes = getBytesOnWorkSurface();
+        long budget = getBudget(bakery.getClock(), bytes);
+        double usage = getUsage(bytes - getBytesAwaitingReclaim(), budget);
+        double peak = peakUsage;
+        if(usage >= highWatermark) {
+            peak = peakUsage = Math.max(peak, Math.min(1, usage));
+        }
+        else if(usage < lowWatermark) {
+            peak = peakUsage = 0;
+        }
+        critical = peak > 0 || getUsage(bytes, budget) >= highWatermark;
+        for(ShapefileGenerator generator: generators) {
+            generator.setDiskCritical(critical);
+        }
+
+        if(peak > lowWatermark) {
+            double drained = Math.max(0, (peak - usage) / (peak - lowWatermark));
+            return Math.min(1, getRamp(peak) + (1 - getRamp(peak)) * drained);
+        }
+        return getRamp(usage);
+    }
+    
+    /**
+     * @return the climate whilst usage is rising, 1 below the high watermark
+     *  and ramping down to 0 when the budget is full
+     */
+    private double getRamp(double usage) {
+        return Math.min(1, Math.max(0, (1 - usage) / (1 - highWatermark)));
+    }
+
+    /**
+     * @return true from when usage reaches the high watermark until it drops
+     *  back below the low watermark, or whilst the shapefiles still on disk 
+     *  are above the high watermark, as of the last climate calculated
+     */
+    public boolean isCritical() {
+        return critical;
+    }
+
+    /**
+     * @return the fraction of the available budget which is currently used up
+     *  by shapefiles which are not waiting to be reclaimed. This may be greater
+     *  than 1 if the budget has been exceeded
+     */
+    protected double getUsage(Clock clock) {
+        long bytes = getBytesOnWorkSurface();
+        return getUsage(bytes - getBytesAwaitingReclaim(), getBudget(clock, bytes));
+    }
+
+    /**
+     * @return the byte budget, shrunk to what the volume can honour given the
+     *  bytes which are already on it
+     */
+    private long getBudget(Clock clock, long bytes) {
+        return Math.min(byteBudget, bytes + getUsableSpace(clock) - reservedBytes);
+    }
+
+    private static double getUsage(long bytes, long budget) {
+        if(budget <= 0) {
+            return Double.POSITIVE_INFINITY; //There is no space left at all
+        }
+        return (double)bytes / (double)budget;
+    }
+
+    /**
+     * @return the combined bytes of the shapefiles of all the generators
+     */
+    public long getBytesOnWorkSurface() {
+        long bytes = 0;
+        for(ShapefileGenerator generator: generators) {
+            bytes += generator.getBytesOnWorkSurface();
+        }
+        return bytes;
+    }
+
+    /**
+     * @return the combined bytes of the shapefiles of all the generators which
+     *  are waiting to be deleted by a reclaimer
+     */
+    public long getBytesAwaitingReclaim() {
+        long bytes = 0;
+        for(ShapefileGenerator generator: generators) {
+            bytes += generator.getBytesAwaitingReclaim();
+        }
+        return bytes;
+    }
+
+    /**
+     * Obtain the usable space on the volume. This is only read from the file
+     * store periodically, in between the last read value is used.
+     */
+    private long getUsableSpace(Clock clock) {
+        long now = clock.getTimeInMillis();
+        if(usableSpace < 0 || now - usableSpaceCheckedAt >= USABLE_SPACE_REFRESH_PERIOD) {
+            try {
+                usableSpace = fileStore.getUsableSpace();
+            }
+            catch(IOException io) {
+                //Keep the last known value, or if the volume has never been
+                //read just honour the budget. It will be checked again later
+                if(usableSpace < 0) {
+                    usableSpace = byteBudget + reservedBytes;
+                }
+            }
+            usableSpaceCheckedAt = now;
+        }
+        return usableSpace;
+    }
+}
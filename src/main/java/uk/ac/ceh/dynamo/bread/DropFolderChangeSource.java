@@ -0,0 +1,104 @@
+package uk.ac.ceh.dynamo.bread;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A change source which watches a folder for dropped files. A file named
+ * <tag>.stale makes the slices with that tag stale, a file named <tag>.mouldy
+ * throws them away. The file is deleted once the bakery has been invalidated,
+ * other files are left alone. For example, a database load script can finish
+ * with:
+ *
+ *  touch /var/dynamo/changes/taxon:nhmsys0001.stale
+ *
+ * Files which are already in the folder when the source is started are acted
+ * upon straight away. The folder is watched on a daemon thread.
+ * @author Christopher Johnson
+ */
+public class DropFolderChangeSource implements ChangeSource, Runnable {
+    public static final String STALE_SUFFIX = ".stale";
+    public static final String MOULDY_SUFFIX = ".mouldy";
+
+    private final File folder;
+    private final AtomicInteger invalidated = new AtomicInteger();
+    private volatile WatchService watcher;
+    private volatile Bakery<?, ?, ?> bakery;
+
+    /**
+     * Create a change source for the given folder, this does nothing until it
+     * is started
+     * @param folder to watch for dropped files
+     */
+    public DropFolderChangeSource(File folder) {
+        this.folder = folder;
+    }
+
+    @Override
+    public void start(Bakery<?, ?, ?> bakery) throws IOException {
+        this.bakery = bakery;
+        watcher = FileSystems.getDefault().newWatchService();
+        folder.toPath().register(watcher, StandardWatchEventKinds.ENTRY_CREATE);
+        for(File dropped: folder.listFiles()) {
+            process(dropped.getName()); //Dropped before we were watching
+        }
+        Thread thread = new Thread(this, "bread-change-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Wait for files to be dropped until the source is closed
+     */
+    @Override
+    public void run() {
+        try {
+            while(true) {
+                WatchKey key = watcher.take();
+                for(WatchEvent<?> event: key.pollEvents()) {
+                    if(event.context() instanceof Path) {
+                        process(((Path)event.context()).getFileName().toString());
+                    }
+                }
+                if(!key.reset()) {
+                    return; //The folder has gone
+                }
+            }
+        }
+        catch(InterruptedException | ClosedWatchServiceException ex) {
+            //Closed, stop watching
+        }
+    }
+
+    private void process(String fileName) {
+        boolean mouldy = fileName.endsWith(MOULDY_SUFFIX);
+        if(mouldy || fileName.endsWith(STALE_SUFFIX)) {
+            String tag = fileName.substring(0, fileName.lastIndexOf('.'));
+            invalidated.addAndGet(bakery.invalidate(tag, mouldy));
+            new File(folder, fileName).delete();
+        }
+    }
+
+    /**
+     * @return the amount of slices which this source has invalidated
+     */
+    public int getInvalidatedCount() {
+        return invalidated.get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        WatchService toClose = watcher;
+        if(toClose != null) {
+            toClose.close();
+        }
+    }
+}
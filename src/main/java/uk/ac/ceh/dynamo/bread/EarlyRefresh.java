@@ -0,0 +1,93 @@
+package uk.ac.ceh.dynamo.bread;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides when a slice of bread should be refreshed before it goes stale, using
+ * probabilistic early expiration (XFetch). Each request for a hot slice has a 
+ * chance of refreshing it early, which grows as the slice nears going stale 
+ * and with how long the slice took to bake. A request refreshes the slice if:
+ * 
+ *      now + beta * bake duration * -ln(random) >= the time the slice goes stale
+ * 
+ * Hot slices are requested often, so one request is likely to refresh the 
+ * slice a little before it goes stale. As each decision is random, slices which
+ * were baked together are refreshed at different times rather than all at once.
+ * Increasing beta refreshes earlier.
+ * 
+ * Slices which are eaten less than the minimum rate are cold, these are never
+ * refreshed early and will go stale as normal. Slices which were reloaded from
+ * the work surface do not know how long they took to bake, so also go stale as
+ * normal until they have been baked again.
+ * @see BreadSlice#getBakeDuration() 
+ * @author Christopher Johnson
+ */
+public class EarlyRefresh {
+    public static final double DEFAULT_BETA = 1;
+    public static final double DEFAULT_MINIMUM_RATE = 2;
+    
+    private final AtomicLong earlyRefreshes = new AtomicLong();
+    private final double beta, minimumRate;
+    
+    /**
+     * Create an early refresh with the default beta and minimum rate
+     */
+    public EarlyRefresh() {
+        this(DEFAULT_BETA, DEFAULT_MINIMUM_RATE);
+    }
+    
+    /**
+     * Create an early refresh
+     * @param beta how eagerly to refresh early, 1 is a good default
+     * @param minimumRate the amount of times per stale time a slice needs to be
+     *  eaten to be refreshed early
+     */
+    public EarlyRefresh(double beta, double minimumRate) {
+        if(beta <= 0 || minimumRate < 0) {
+            throw new IllegalArgumentException("Beta must be positive and the minimum rate can not be negative");
+        }
+        this.beta = beta;
+        this.minimumRate = minimumRate;
+    }
+    
+    /**
+     * Decide if a slice which has not yet gone stale should be refreshed now
+     * @param slice which has just been requested
+     * @param now the current time in milliseconds
+     * @return true if the slice should be refreshed
+     */
+    public boolean shouldRefresh(BreadSlice<?, ?> slice, long now) {
+        long staleAt = slice.getStaleAt();
+        long bakeDuration = slice.getBakeDuration();
+        if(!slice.isBaked() || bakeDuration <= 0 || now >= staleAt) {
+            return false; //Nothing to go on, or going stale as normal
+        }
+        
+        long staleTime = staleAt - slice.getTimeBaked();
+        long age = Math.max(1, now - slice.getTimeBaked());
+        if(slice.getTimesEaten() * (double)staleTime / age < minimumRate) {
+            return false; //Cold, let it go stale
+        }
+        
+        if(now - beta * bakeDuration * Math.log(random()) >= staleAt) {
+            earlyRefreshes.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+    
+    /**
+     * @return the amount of times a slice has been chosen to be refreshed early
+     */
+    public long getEarlyRefreshCount() {
+        return earlyRefreshes.get();
+    }
+    
+    /**
+     * @return a random number greater than 0 and no greater than 1
+     */
+    protected double random() {
+        return 1 - ThreadLocalRandom.current().nextDouble();
+    }
+}
@@ -0,0 +1,49 @@
+package uk.ac.ceh.dynamo.bread;
+
+import java.util.List;
+
+/**
+ * An eviction policy decides which slices of bread should be thrown out of a
+ * bread bin before they go mouldy, so that the bin never holds more than it
+ * should. Policies are told when slices are put into the bin, eaten and taken
+ * out of the bin, and are periodically asked which slices should be evicted.
+ * 
+ * The best before time (scaled by the climate) still applies on top of any
+ * eviction policy. A slice will always be thrown out once it goes mouldy, no
+ * matter how popular it is.
+ * 
+ * A bread bin only calls its eviction policy whilst the bakery holds the bread
+ * bin lock, so implementations do not need to be thread safe.
+ * @see BreadBin
+ * @author Christopher Johnson
+ */
+public interface EvictionPolicy<T, W> {
+    /**
+     * A freshly baked (or reloaded) slice has been put into the bread bin
+     * @param slice which is now in the bread bin
+     */
+    void baked(BreadSlice<T, W> slice);
+    
+    /**
+     * A slice has been requested. Eatings are recorded in a lossy buffer and
+     * handed over in batches, so this may be called some time after the slice
+     * was actually eaten and may not be called for every eating. The slice may
+     * not (yet or anymore) be in the bread bin.
+     * @param slice which was requested
+     */
+    void eaten(BreadSlice<T, W> slice);
+    
+    /**
+     * A slice has been taken out of the bread bin without the policy choosing
+     * it, e.g. it went mouldy or was replaced by a fresher slice
+     * @param slice which is no longer in the bread bin
+     */
+    void removed(BreadSlice<T, W> slice);
+    
+    /**
+     * Choose the slices which should be taken out of the bread bin. The 
+     * returned slices are considered to have been removed from the policy.
+     * @return the slices to evict, or an empty list if none need evicting
+     */
+    List<BreadSlice<T, W>> evict();
+}
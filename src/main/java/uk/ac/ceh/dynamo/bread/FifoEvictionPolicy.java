@@ -0,0 +1,63 @@
+package uk.ac.ceh.dynamo.bread;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/**
+ * Evicts slices in the order that they were put into the bread bin, regardless
+ * of how often they are eaten. This is how the bread bin has always behaved.
+ * 
+ * By default there is no limit on the amount of slices, so slices will only 
+ * ever leave the bread bin when they go mouldy.
+ * @author Christopher Johnson
+ */
+public class FifoEvictionPolicy<T, W> implements EvictionPolicy<T, W> {
+    private final LinkedHashSet<BreadSlice<T, W>> slices = new LinkedHashSet<>();
+    private final int maximumSlices;
+    
+    /**
+     * Create a fifo eviction policy which never evicts
+     */
+    public FifoEvictionPolicy() {
+        this(Integer.MAX_VALUE);
+    }
+    
+    /**
+     * Create a fifo eviction policy which evicts the earliest slices to be 
+     * put into the bread bin once there are more than maximumSlices
+     * @param maximumSlices the amount of slices to keep in the bread bin
+     */
+    public FifoEvictionPolicy(int maximumSlices) {
+        this.maximumSlices = maximumSlices;
+    }
+
+    @Override
+    public void baked(BreadSlice<T, W> slice) {
+        if(maximumSlices != Integer.MAX_VALUE) {
+            slices.add(slice);
+        }
+    }
+
+    @Override
+    public void eaten(BreadSlice<T, W> slice) {
+        //Being eaten makes no difference
+    }
+
+    @Override
+    public void removed(BreadSlice<T, W> slice) {
+        slices.remove(slice);
+    }
+
+    @Override
+    public List<BreadSlice<T, W>> evict() {
+        List<BreadSlice<T, W>> victims = new ArrayList<>();
+        Iterator<BreadSlice<T, W>> iterator = slices.iterator();
+        while(slices.size() > maximumSlices) {
+            victims.add(iterator.next());
+            iterator.remove();
+        }
+        return victims;
+    }
+}
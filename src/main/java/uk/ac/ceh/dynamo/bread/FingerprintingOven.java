@@ -0,0 +1,26 @@
+package uk.ac.ceh.dynamo.bread;
+
+/**
+ * An oven which can fingerprint what it has baked, so that a bakery can tell
+ * if a refresh actually changed anything. Two slices of the same mix should
+ * only have the same fingerprint if their outputs are interchangeable.
+ * @see AdaptiveStaleTime
+ * @author Christopher Johnson
+ */
+public interface FingerprintingOven<T, I, W> extends Oven<T, I, W> {
+    /**
+     * Fingerprint the output of the given baked slice
+     * @param slice which has been baked
+     * @return a fingerprint of the output, e.g. a hash of its content
+     * @throws BreadException if the output could not be read
+     */
+    String fingerprint(BreadSlice<T, W> slice) throws BreadException;
+    
+    /**
+     * Called once a baked slice has been renewed because a refresh found that
+     * nothing had changed. The slice now has a new baked time and stale time, 
+     * which the oven should record if it reloads slices.
+     * @param slice which has been renewed
+     */
+    void renewed(BreadSlice<T, W> slice);
+}
@@ -0,0 +1,147 @@
+package uk.ac.ceh.dynamo.bread;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * A GreedyDual-Size-Frequency eviction policy which keeps the slices of bread
+ * on the work surface within a byte budget, preferring to keep the slices which
+ * would be the most expensive to bake again.
+ *
+ * Each slice is given a priority of:
+ *
+ *      inflation + frequency * bake duration / size
+ *
+ * and the slice with the lowest priority is evicted first. The inflation value
+ * is raised to the priority of each evicted slice, so that slices which were
+ * popular a long time ago eventually lose out to slices eaten recently.
+ *
+ * Slices which were reloaded from the work surface were not timed when they
+ * were baked, these are assumed to take as long as the average bake measured
+ * so far (their priority is recalculated each time they are eaten).
+ * When a stale slice is replaced by a fresh bake, the fresh slice carries on
+ * with the frequency of the stale one.
+ * @see BreadSlice#getBakeDuration()
+ * @see BreadSlice#getSize()
+ * @author Christopher Johnson
+ */
+public class GdsfEvictionPolicy<T, W> implements EvictionPolicy<T, W> {
+    private final Map<BreadSlice<T, W>, Entry<T, W>> entries = new HashMap<>();
+    private final Map<String, Entry<T, W>> entriesByMix = new HashMap<>();
+    private final TreeSet<Entry<T, W>> queue = new TreeSet<>(new EntryComparator());
+    private final long maximumBytes;
+
+    private double inflation;
+    private long bytes, sequence, measuredBakes, measuredDuration;
+
+    /**
+     * Create a GreedyDual-Size-Frequency eviction policy
+     * @param maximumBytes the amount of bytes of slices to keep in the bread bin
+     */
+    public GdsfEvictionPolicy(long maximumBytes) {
+        this.maximumBytes = maximumBytes;
+    }
+
+    @Override
+    public void baked(BreadSlice<T, W> slice) {
+        if(slice.getBakeDuration() > 0) {
+            measuredBakes++;
+            measuredDuration += slice.getBakeDuration();
+        }
+
+        Entry<T, W> entry = new Entry<>(slice);
+        Entry<T, W> stale = entriesByMix.put(slice.getMixName(), entry);
+        if(stale != null) {
+            entry.frequency = stale.frequency;
+        }
+        entries.put(slice, entry);
+        bytes += entry.size;
+        prioritise(entry);
+    }
+
+    @Override
+    public void eaten(BreadSlice<T, W> slice) {
+        Entry<T, W> entry = entries.get(slice);
+        if(entry != null) {
+            queue.remove(entry);
+            entry.frequency++;
+            prioritise(entry);
+        }
+    }
+
+    @Override
+    public void removed(BreadSlice<T, W> slice) {
+        Entry<T, W> entry = entries.remove(slice);
+        if(entry != null) {
+            queue.remove(entry);
+            if(entriesByMix.get(slice.getMixName()) == entry) {
+                entriesByMix.remove(slice.getMixName());
+            }
+            bytes -= entry.size;
+        }
+    }
+
+    @Override
+    public List<BreadSlice<T, W>> evict() {
+        List<BreadSlice<T, W>> victims = new ArrayList<>();
+        while(bytes > maximumBytes) {
+            Entry<T, W> victim = queue.first();
+            inflation = victim.priority;
+            removed(victim.slice);
+            victims.add(victim.slice);
+        }
+        return victims;
+    }
+
+    /**
+     * @return the amount of bytes of the slices in the bread bin
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    //Sets the priority of an entry which is not in the queue and adds it
+    private void prioritise(Entry<T, W> entry) {
+        entry.priority = inflation + entry.frequency * (double)getCost(entry.slice) / entry.size;
+        entry.sequence = sequence++;
+        queue.add(entry);
+    }
+
+    private long getCost(BreadSlice<T, W> slice) {
+        if(slice.getBakeDuration() > 0) {
+            return slice.getBakeDuration();
+        }
+        return measuredBakes > 0 ? Math.max(1, measuredDuration / measuredBakes) : 1;
+    }
+
+    private static class Entry<T, W> {
+        private final BreadSlice<T, W> slice;
+        private final long size;
+        private long frequency = 1, sequence;
+        private double priority;
+
+        private Entry(BreadSlice<T, W> slice) {
+            this.slice = slice;
+            this.size = Math.max(1, slice.getSize());
+        }
+    }
+
+    /**
+     * Orders by lowest priority first, ties are broken by the entry which was
+     * prioritised first
+     */
+    private static class EntryComparator implements Comparator<Entry<?, ?>> {
+        @Override
+        public int compare(Entry<?, ?> o1, Entry<?, ?> o2) {
+            int priority = Double.compare(o1.priority, o2.priority);
+            if(priority != 0) {
+                return priority;
+            }
+            return o1.sequence < o2.sequence ? -1 : (o1.sequence > o2.sequence ? 1 : 0);
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package uk.ac.ceh.dynamo.bread;
+
+/**
+ * An optional stage which a bakery passes ingredients through before they are
+ * mixed. Ingredients which are written differently but would bake the same 
+ * bread should be normalised to the same ingredients, so that they share one
+ * slice of bread rather than each being baked separately.
+ * 
+ * The normalised ingredients are what get baked, so normalising must never 
+ * change what the ingredients mean.
+ * @see SqlNormaliser
+ * @author Christopher Johnson
+ */
+public interface IngredientNormaliser<I> {
+    /**
+     * @param ingredients as requested
+     * @return the normal form of the ingredients
+     */
+    I normalise(I ingredients);
+}
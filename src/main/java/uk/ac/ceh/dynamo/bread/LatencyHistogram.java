@@ -0,0 +1,105 @@
+package uk.ac.ceh.dynamo.bread;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock free histogram of latencies in the style of HdrHistogram. Values are
+ * counted in buckets which double in width, each split in to 16 sub buckets, so
+ * any recorded value is reported to within about 6% of its real value. This
+ * is plenty for working out percentiles of bake times, and it means that
+ * recording a value is just a couple of atomic increments.
+ *
+ * Values below 32 are counted exactly. Negative values are counted as 0.
+ * @author Christopher Johnson
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong(), total = new AtomicLong(), maximum = new AtomicLong();
+
+    /**
+     * Record a single value
+     * @param value the latency to record
+     */
+    public void record(long value) {
+        value = Math.max(0, value);
+        counts.incrementAndGet(indexOf(value));
+        count.incrementAndGet();
+        total.addAndGet(value);
+        long max;
+        do {
+            max = maximum.get();
+        } while(value > max && !maximum.compareAndSet(max, value));
+    }
+
+    /**
+     * @return the amount of values which have been recorded
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * @return the largest value recorded, or 0 if nothing has been recorded
+     */
+    public long getMaximum() {
+        return maximum.get();
+    }
+
+    /**
+     * @return the mean of the recorded values, or 0 if nothing has been recorded
+     */
+    public double getMean() {
+        long recorded = count.get();
+        return recorded > 0 ? (double)total.get() / recorded : 0;
+    }
+
+    /**
+     * Obtain the value which the given percentage of recorded values are at
+     * or below. Whilst values are being recorded this is an approximation.
+     * @param percentile between 0 and 100
+     * @return the highest value which would be counted in the same bucket as
+     *  the percentile (capped at the maximum), or 0 if nothing has been recorded
+     */
+    public long getPercentile(double percentile) {
+        long recorded = count.get();
+        if(recorded == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long)Math.ceil(recorded * Math.min(100, Math.max(0, percentile)) / 100));
+        long seen = 0;
+        for(int i=0; i<BUCKETS; i++) {
+            seen += counts.get(i);
+            if(seen >= target) {
+                return Math.min(highestValueAt(i), maximum.get());
+            }
+        }
+        return maximum.get();
+    }
+
+    /**
+     * Values below 2 * SUB_BUCKETS are their own index. Above that, each
+     * doubling of the value is shifted down in to the top half of the sub
+     * buckets, one set of SUB_BUCKETS after the last.
+     */
+    static int indexOf(long value) {
+        if(value < 2 * SUB_BUCKETS) {
+            return (int)value;
+        }
+        int shift = 64 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS - 1;
+        return shift * SUB_BUCKETS + (int)(value >>> shift);
+    }
+
+    static long highestValueAt(int index) {
+        if(index < 2 * SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long subBucket = index - shift * SUB_BUCKETS;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
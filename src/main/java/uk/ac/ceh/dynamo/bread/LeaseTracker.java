@@ -0,0 +1,92 @@
+package uk.ac.ceh.dynamo.bread;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps track of the open leases of a bakery, so that leases which are garbage
+ * collected without being closed can be detected. Each lease is watched by a
+ * phantom reference which remembers the slices the lease pinned. Once the 
+ * garbage collector has found a lease which was never closed, 
+ * #reclaimLeaked() counts it as leaked and lets its slices go, so that a leak
+ * only holds on to disk until the next collection.
+ * 
+ * The bakery's janitor reclaims leaked leases each time it cleans the bread 
+ * bin.
+ * @see BreadLease
+ * @author Christopher Johnson
+ */
+public class LeaseTracker {
+    private final ReferenceQueue<BreadLease<?>> collected = new ReferenceQueue<>();
+    private final Set<Tracked> open = Collections.newSetFromMap(new ConcurrentHashMap<Tracked, Boolean>());
+    private final AtomicLong leaked = new AtomicLong();
+    
+    /**
+     * Start tracking a lease
+     * @param lease which has just been taken
+     * @param pins of the lease
+     * @return the reference which the lease should tell when it is closed
+     */
+    Tracked track(BreadLease<?> lease, BreadLease.Pins pins) {
+        Tracked tracked = new Tracked(lease, pins);
+        open.add(tracked);
+        return tracked;
+    }
+    
+    /**
+     * Let go of the slices of any leases which have been garbage collected
+     * without being closed
+     * @return the amount of leaked leases which were found
+     */
+    public int reclaimLeaked() {
+        int found = 0;
+        Reference<? extends BreadLease<?>> reference;
+        while((reference = collected.poll()) != null) {
+            Tracked tracked = (Tracked)reference;
+            if(open.remove(tracked) && tracked.pins.release()) {
+                leaked.incrementAndGet();
+                found++;
+            }
+        }
+        return found;
+    }
+    
+    /**
+     * @return the amount of leases which have not been closed or reclaimed
+     */
+    public int getOpenCount() {
+        return open.size();
+    }
+    
+    /**
+     * @return the amount of leases which have been found to have leaked
+     */
+    public long getLeakedCount() {
+        return leaked.get();
+    }
+    
+    /**
+     * A phantom reference to a lease which holds on to its pins
+     */
+    class Tracked extends PhantomReference<BreadLease<?>> {
+        private final BreadLease.Pins pins;
+        
+        private Tracked(BreadLease<?> lease, BreadLease.Pins pins) {
+            super(lease, collected);
+            this.pins = pins;
+        }
+        
+        /**
+         * The lease was closed, so there is nothing to reclaim
+         */
+        void closed() {
+            open.remove(this);
+            clear();
+        }
+    }
+}
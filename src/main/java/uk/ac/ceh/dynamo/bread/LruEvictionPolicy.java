@@ -0,0 +1,50 @@
+package uk.ac.ceh.dynamo.bread;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Evicts the slices which have gone the longest without being eaten once there
+ * are more than a given amount of slices in the bread bin.
+ * @author Christopher Johnson
+ */
+public class LruEvictionPolicy<T, W> implements EvictionPolicy<T, W> {
+    private final LinkedHashMap<BreadSlice<T, W>, Boolean> slices = new LinkedHashMap<>(16, 0.75f, true);
+    private final int maximumSlices;
+    
+    /**
+     * Create a least recently used eviction policy
+     * @param maximumSlices the amount of slices to keep in the bread bin
+     */
+    public LruEvictionPolicy(int maximumSlices) {
+        this.maximumSlices = maximumSlices;
+    }
+
+    @Override
+    public void baked(BreadSlice<T, W> slice) {
+        slices.put(slice, Boolean.TRUE);
+    }
+
+    @Override
+    public void eaten(BreadSlice<T, W> slice) {
+        slices.get(slice); //move to the most recently used end, if present
+    }
+
+    @Override
+    public void removed(BreadSlice<T, W> slice) {
+        slices.remove(slice);
+    }
+
+    @Override
+    public List<BreadSlice<T, W>> evict() {
+        List<BreadSlice<T, W>> victims = new ArrayList<>();
+        Iterator<BreadSlice<T, W>> iterator = slices.keySet().iterator();
+        while(slices.size() > maximumSlices) {
+            victims.add(iterator.next());
+            iterator.remove();
+        }
+        return victims;
+    }
+}
@@ -0,0 +1,19 @@
+package uk.ac.ceh.dynamo.bread;
+
+/**
+ * A mixer decides the mix name of some ingredients. Ingredients which are the
+ * same must always get the same mix name, as the mix name is what the bakery
+ * looks up slices of bread by and what the oven may use to name its output.
+ * 
+ * Mix names should be short and safe to use as part of a file name.
+ * @see Sha1Mixer
+ * @see Murmur3Mixer
+ * @author Christopher Johnson
+ */
+public interface Mixer<I> {
+    /**
+     * @param ingredients to obtain the mix name of
+     * @return the mix name of the ingredients
+     */
+    String getMixName(I ingredients);
+}
@@ -0,0 +1,112 @@
+package uk.ac.ceh.dynamo.bread;
+
+/**
+ * A mixer which names ingredients with the 128 bit MurmurHash3 (x64 variant) 
+ * of their toString method. The characters are hashed directly, without first
+ * encoding them to bytes, which makes this much cheaper than the Sha1Mixer for 
+ * large ingredients such as long sql statements.
+ * 
+ * MurmurHash3 is not a cryptographic hash, the bakery checks that the 
+ * ingredients of a slice match the ones which were asked for before serving it.
+ * 
+ * If the ingredients are a Recipe, the mix name cached by the recipe is used.
+ * 
+ * Note that the mix names are different to those of the Sha1Mixer, so slices
+ * which were baked with the Sha1Mixer will not be found by this mixer.
+ * @see Recipe
+ * @author Christopher Johnson
+ */
+public class Murmur3Mixer<I> implements Mixer<I> {
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+    
+    @Override
+    public String getMixName(I ingredients) {
+        if(ingredients instanceof Recipe) {
+            return ((Recipe)ingredients).getMixName();
+        }
+        return hash(ingredients.toString());
+    }
+    
+    /**
+     * Calculate the 128 bit MurmurHash3 of some characters. Each character is
+     * hashed as its two utf-16 bytes in little endian order.
+     * @param chars to hash
+     * @return the hash as 32 hex characters
+     */
+    public static String hash(CharSequence chars) {
+        int length = chars.length();
+        long h1 = 0, h2 = 0;
+        
+        //Process the characters in 16 byte blocks
+        int i = 0;
+        for(; i + 8 <= length; i += 8) {
+            long k1 = getLong(chars, i, 4);
+            long k2 = getLong(chars, i + 4, 4);
+            
+            h1 ^= mixK1(k1);
+            h1 = Long.rotateLeft(h1, 27);
+            h1 += h2;
+            h1 = h1 * 5 + 0x52dce729;
+
+            h2 ^= mixK2(k2);
+            h2 = Long.rotateLeft(h2, 31);
+            h2 += h1;
+            h2 = h2 * 5 + 0x38495ab5;
+        }
+        
+        //Then the remaining characters
+        int remaining = length - i;
+        if(remaining > 4) {
+            h2 ^= mixK2(getLong(chars, i + 4, remaining - 4));
+        }
+        if(remaining > 0) {
+            h1 ^= mixK1(getLong(chars, i, Math.min(remaining, 4)));
+        }
+        
+        h1 ^= 2L * length;
+        h2 ^= 2L * length;
+        h1 += h2;
+        h2 += h1;
+        h1 = fmix(h1);
+        h2 = fmix(h2);
+        h1 += h2;
+        h2 += h1;
+        return toHex(h1) + toHex(h2);
+    }
+    
+    //Read up to 4 characters as a little endian long
+    private static long getLong(CharSequence chars, int offset, int amount) {
+        long value = 0;
+        for(int i=0; i<amount; i++) {
+            value |= (long)chars.charAt(offset + i) << (16 * i);
+        }
+        return value;
+    }
+    
+    private static long mixK1(long k1) {
+        k1 *= C1;
+        k1 = Long.rotateLeft(k1, 31);
+        return k1 * C2;
+    }
+    
+    private static long mixK2(long k2) {
+        k2 *= C2;
+        k2 = Long.rotateLeft(k2, 33);
+        return k2 * C1;
+    }
+    
+    private static long fmix(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+    
+    private static String toHex(long value) {
+        String hex = Long.toHexString(value);
+        return "0000000000000000".substring(hex.length()) + hex;
+    }
+}
@@ -0,0 +1,59 @@
+package uk.ac.ceh.dynamo.bread;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Tags ingredients by finding named patterns in their string form. Every match
+ * of a pattern gives the tag name:value, where the value is the first group of
+ * the pattern (or the whole match if it has no groups). For example:
+ * 
+ *  new PatternTagger()
+ *      .add("taxon", "taxon_key\\s*=\\s*'(\\w+)'")
+ *      .add("table", "\\bfrom\\s+(\\w+)")
+ * 
+ * tags sql selecting from the table occurrences for taxon NHMSYS0001 with 
+ * taxon:NHMSYS0001 and table:occurrences. Patterns are case insensitive and
+ * values are lower cased, as normalised sql is lower cased.
+ * @author Christopher Johnson
+ */
+public class PatternTagger implements Tagger<Object> {
+    private final List<String> names = new ArrayList<>();
+    private final List<Pattern> patterns = new ArrayList<>();
+    
+    /**
+     * Add a pattern to tag with
+     * @param name which prefixes the tags of this pattern
+     * @param regex to find in the ingredients
+     * @return this tagger
+     */
+    public PatternTagger add(String name, String regex) {
+        names.add(name);
+        patterns.add(Pattern.compile(regex, Pattern.CASE_INSENSITIVE));
+        return this;
+    }
+    
+    @Override
+    public Set<String> getTags(Object ingredients) {
+        if(ingredients == null) {
+            return Collections.emptySet();
+        }
+        String toTag = ingredients.toString();
+        Set<String> tags = new HashSet<>();
+        for(int i=0; i<patterns.size(); i++) {
+            Matcher matcher = patterns.get(i).matcher(toTag);
+            while(matcher.find()) {
+                String value = matcher.group(matcher.groupCount() > 0 ? 1 : 0);
+                if(value != null) {
+                    tags.add(names.get(i) + ":" + value.toLowerCase());
+                }
+            }
+        }
+        return tags;
+    }
+}
@@ -0,0 +1,93 @@
+package uk.ac.ceh.dynamo.bread;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Structured ingredients made up of a template (e.g. an sql statement with 
+ * placeholders) and the parameters which should be bound to it. Recipes are 
+ * immutable, their hash code and mix name are only calculated once so they are
+ * cheap to look up in a bakery no matter how long the template is.
+ * 
+ * Recipes are equal if their templates and parameters are equal. Parameters 
+ * should therefore be immutable values with sensible equals, hashCode and 
+ * toString methods, e.g. Strings and Numbers.
+ * 
+ * An oven which bakes recipes can keep the template prepared and just bind the
+ * parameters for each bake.
+ * @see Murmur3Mixer
+ * @author Christopher Johnson
+ */
+public final class Recipe {
+    private final String template;
+    private final List<Object> parameters;
+    private final int hashCode;
+    private volatile String mixName;
+    
+    /**
+     * Create a recipe
+     * @param template the template of the recipe, e.g. an sql statement
+     * @param parameters the parameters to bind to the template
+     */
+    public Recipe(String template, Object... parameters) {
+        if(template == null) {
+            throw new IllegalArgumentException("A recipe must have a template");
+        }
+        this.template = template;
+        this.parameters = Collections.unmodifiableList(new ArrayList<>(Arrays.asList(parameters)));
+        this.hashCode = 31 * template.hashCode() + this.parameters.hashCode();
+    }
+
+    public String getTemplate() {
+        return template;
+    }
+
+    public List<Object> getParameters() {
+        return parameters;
+    }
+    
+    /**
+     * @return the MurmurHash3 of the template and the types and values of the 
+     *  parameters. This is only calculated the first time it is requested
+     */
+    public String getMixName() {
+        String name = mixName;
+        if(name == null) {
+            StringBuilder mix = new StringBuilder(template);
+            for(Object parameter: parameters) {
+                mix.append('\u0000');
+                if(parameter != null) {
+                    mix.append(parameter.getClass().getName()).append(':').append(parameter);
+                }
+            }
+            mixName = name = Murmur3Mixer.hash(mix);
+        }
+        return name;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if(this == obj) {
+            return true;
+        }
+        if(!(obj instanceof Recipe)) {
+            return false;
+        }
+        Recipe other = (Recipe)obj;
+        return hashCode == other.hashCode
+                && template.equals(other.template)
+                && parameters.equals(other.parameters);
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+    @Override
+    public String toString() {
+        return template + " " + parameters;
+    }
+}
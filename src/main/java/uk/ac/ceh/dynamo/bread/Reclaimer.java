@@ -0,0 +1,216 @@
+package uk.ac.ceh.dynamo.bread;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import lombok.AllArgsConstructor;
+
+/**
+ * Carries out the deletions of a dust bin in the background at a limited rate.
+ * When the climate drops sharply thousands of slices can go mouldy at once.
+ * Deleting all of their files straight away would saturate the volume of the
+ * work surface, whilst ogr2ogr is writing to it and mapserver is reading from
+ * it.
+ *
+ * Deletions are queued up in a backlog and carried out in batches, one batch
+ * per period. Each batch is limited by a files per second and a bytes per
+ * second budget, but always contains at least one deletion so that the backlog
+ * keeps moving. Whilst the reclaimer is critical (e.g. the disk budget has run
+ * out) the budgets are multiplied by the critical speed up, so space is freed
+ * quickly when it is needed and trickled back otherwise.
+ *
+ * Batches are run one at a time on the given executor, the reclaimer sleeps on
+ * the executor's thread in between batches. An unlimited reclaimer never
+ * sleeps, it simply deletes in the background.
+ * @see DiskBudgetClimateMeter#isCritical()
+ * @author Christopher Johnson
+ */
+public class Reclaimer {
+    public static final long UNLIMITED = Long.MAX_VALUE;
+    public static final int DEFAULT_CRITICAL_SPEEDUP = 10;
+    public static final long DEFAULT_PERIOD = 100;
+
+    private final Queue<Reclamation> backlog = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger backlogCount = new AtomicInteger();
+    private final AtomicLong backlogBytes = new AtomicLong(), reclaimed = new AtomicLong();
+    private final AtomicBoolean draining = new AtomicBoolean();
+    private final ExecutorService executor;
+    private final long filesPerSecond, bytesPerSecond, period;
+    private final int criticalSpeedup;
+    private volatile boolean critical;
+    private long nextBatchAt; //only touched by the draining thread
+
+    /**
+     * Create a reclaimer which deletes as fast as it can on the given executor
+     * @param executor to delete on
+     */
+    public Reclaimer(ExecutorService executor) {
+        this(executor, UNLIMITED, UNLIMITED, DEFAULT_CRITICAL_SPEEDUP, DEFAULT_PERIOD);
+    }
+
+    /**
+     * Create a reclaimer which deletes on its own thread within the given
+     * budgets, or ten times them when critical
+     * @param filesPerSecond the amount of slices to delete each second, or
+     *  UNLIMITED
+     * @param bytesPerSecond the amount of bytes to delete each second, or
+     *  UNLIMITED
+     */
+    public Reclaimer(long filesPerSecond, long bytesPerSecond) {
+        this(Executors.newSingleThreadExecutor(), filesPerSecond, bytesPerSecond, DEFAULT_CRITICAL_SPEEDUP, DEFAULT_PERIOD);
+    }
+
+    /**
+     * Create a reclaimer
+     * @param executor to delete on
+     * @param filesPerSecond the amount of slices to delete each second, or
+     *  UNLIMITED
+     * @param bytesPerSecond the amount of bytes to delete each second, or
+     *  UNLIMITED
+     * @param criticalSpeedup what the budgets are multiplied by when critical
+     * @param period the time in milliseconds between batches
+     */
+    public Reclaimer(ExecutorService executor, long filesPerSecond, long bytesPerSecond, int criticalSpeedup, long period) {
+        if(filesPerSecond <= 0 || bytesPerSecond <= 0 || criticalSpeedup < 1 || period <= 0) {
+            throw new IllegalArgumentException("The budgets and period must be positive and the critical speed up at least 1");
+        }
+        this.executor = executor;
+        this.filesPerSecond = filesPerSecond;
+        this.bytesPerSecond = bytesPerSecond;
+        this.criticalSpeedup = criticalSpeedup;
+        this.period = period;
+    }
+
+    /**
+     * Add a deletion to the backlog
+     * @param deletion which deletes the files
+     * @param bytes the size of the files which will be deleted
+     */
+    public void reclaim(Runnable deletion, long bytes) {
+        backlog.add(new Reclamation(deletion, bytes));
+        backlogCount.incrementAndGet();
+        backlogBytes.addAndGet(bytes);
+        if(draining.compareAndSet(false, true)) {
+            executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    drain();
+                }
+            });
+        }
+    }
+
+    /**
+     * Run batches until the backlog is empty, waiting for a period in between
+     * each batch if there is a budget
+     */
+    private void drain() {
+        boolean limited = filesPerSecond != UNLIMITED || bytesPerSecond != UNLIMITED;
+        try {
+            while(true) {
+                if(limited) {
+                    long wait = nextBatchAt - System.nanoTime();
+                    if(wait > 0) {
+                        TimeUnit.NANOSECONDS.sleep(wait);
+                    }
+                    nextBatchAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(period);
+                }
+                runBatch();
+                if(backlog.isEmpty()) {
+                    draining.set(false);
+                    //Something may have been added after we looked
+                    if(backlog.isEmpty() || !draining.compareAndSet(false, true)) {
+                        return;
+                    }
+                }
+            }
+        }
+        catch(InterruptedException ie) {
+            draining.set(false); //The executor is being shut down
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void runBatch() {
+        long files = getAllowance(filesPerSecond), bytes = getAllowance(bytesPerSecond);
+        long batchFiles = 0, batchBytes = 0;
+        for(Reclamation next = backlog.peek(); next != null; next = backlog.peek()) {
+            if(batchFiles > 0 && (batchFiles >= files || batchBytes + next.bytes > bytes)) {
+                return; //Leave the rest for the next batch
+            }
+            backlog.poll();
+            batchFiles++;
+            batchBytes += next.bytes;
+            try {
+                next.deletion.run();
+            }
+            catch(RuntimeException ex) {
+                //A failed deletion must not hold up the rest of the backlog
+            }
+            finally {
+                backlogCount.decrementAndGet();
+                backlogBytes.addAndGet(-next.bytes);
+                reclaimed.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * @return how much of the given budget can be used in one batch
+     */
+    private long getAllowance(long perSecond) {
+        if(perSecond == UNLIMITED) {
+            return UNLIMITED;
+        }
+        double allowance = (double)perSecond * period / 1000 * (critical ? criticalSpeedup : 1);
+        return (long)Math.min(UNLIMITED, Math.max(1, allowance));
+    }
+
+    /**
+     * Set whether space is urgently needed, the budgets are multiplied by the
+     * critical speed up whilst it is
+     * @param critical true if space is urgently needed
+     */
+    public void setCritical(boolean critical) {
+        this.critical = critical;
+    }
+
+    /**
+     * @return true if the reclaimer is currently sped up
+     */
+    public boolean isCritical() {
+        return critical;
+    }
+
+    /**
+     * @return the amount of deletions waiting to be carried out
+     */
+    public int getBacklog() {
+        return backlogCount.get();
+    }
+
+    /**
+     * @return the bytes which the waiting deletions will free up
+     */
+    public long getBacklogBytes() {
+        return backlogBytes.get();
+    }
+
+    /**
+     * @return the amount of deletions which have been carried out
+     */
+    public long getReclaimedCount() {
+        return reclaimed.get();
+    }
+
+    @AllArgsConstructor
+    private static class Reclamation {
+        private final Runnable deletion;
+        private final long bytes;
+    }
+}
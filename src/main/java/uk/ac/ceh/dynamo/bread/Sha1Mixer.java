@@ -0,0 +1,34 @@
+package uk.ac.ceh.dynamo.bread;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import org.apache.commons.codec.binary.Hex;
+
+/**
+ * The default mixer of a bakery. The mix name is the hex encoded sha1 hash of
+ * the utf8 bytes of the ingredients toString method.
+ * 
+ * This is relatively expensive for large ingredients, but the mix names will 
+ * match those of slices baked by previous versions of the bakery.
+ * @author Christopher Johnson
+ */
+public class Sha1Mixer<I> implements Mixer<I> {
+    private static final Charset UTF8 = Charset.forName("utf8");
+    private static final ThreadLocal<MessageDigest> DIGESTS = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+            try {
+                return MessageDigest.getInstance("SHA-1");
+            }
+            catch(NoSuchAlgorithmException nsae) {
+                throw new RuntimeException("Sha-1 is not present as a message digest");
+            }
+        }
+    };
+    
+    @Override
+    public String getMixName(I ingredients) {
+        return Hex.encodeHexString(DIGESTS.get().digest(ingredients.toString().getBytes(UTF8)));
+    }
+}
@@ -1,6 +1,11 @@
 package uk.ac.ceh.dynamo.bread;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Once constructed calls to getData will return the location of a shapefile on 
@@ -8,10 +13,74 @@ import java.io.File;
  * same shape file instantly as long as the staleTime has not surpassed for that
  * sql statement (represented as a bread slice) and as long as the climate does
  * make that slice of bread mouldy.
+ * 
+ * The sql of the most popular slices can be saved before the bakery is shut 
+ * down, and read back to warm up the next bakery.
+ * @see Bakery#warmUp(Iterable, int, boolean) 
  * @author Christopher Johnson
  */
 public class ShapefileBakery extends Bakery<String, String, File> {
     public ShapefileBakery(File workSurface, ClimateMeter<String, String, File> climate, ShapefileGenerator generator, long staleTime, long rottenTime) {
         super(workSurface, climate, generator, generator, staleTime, rottenTime);
     }
+    
+    /**
+     * Creates a shapefile bakery which keeps its slices in the given bread bin,
+     * e.g. one with an eviction policy, and has the given optional 
+     * collaborators. You will want fewer background ovens than the generator's
+     * simultaneous processes so that first time bakes do not have to wait for
+     * refreshes to finish. To watch the bakery over JMX, give it a 
+     * BakeryRecorder of the generator's permit waits and register the recorder.
+     * Changing the mixer of an existing work surface means that the shapefiles
+     * already on it will not be found, these will be evicted as normal.
+     * @see BakeryOptions
+     * @see EvictionPolicy
+     */
+    public ShapefileBakery(File workSurface, ClimateMeter<String, String, File> climate, ShapefileGenerator generator, long staleTime, long rottenTime, BreadBin<String, File> breadBin, BakeryOptions<String, String, File> options) {
+        super(workSurface, climate, breadBin, generator, generator, new SystemClock(), staleTime, rottenTime, options);
+    }
+    
+    /**
+     * Save the sql of the most eaten slices to a file, one statement per line.
+     * Line breaks and backslashes in the sql are escaped so that the sql can 
+     * be read back exactly.
+     * @param file to write to
+     * @param amount the maximum amount of statements to save
+     * @throws IOException if the file could not be written
+     * @see #readSql(File) 
+     */
+    public void saveHottestSql(File file, int amount) throws IOException {
+        List<String> lines = new ArrayList<>();
+        for(String sql: getHottestIngredients(amount)) {
+            lines.add(sql.replace("\\", "\\\\").replace("\n", "\\n").replace("\r", "\\r"));
+        }
+        Files.write(file.toPath(), lines, StandardCharsets.UTF_8);
+    }
+    
+    /**
+     * Read back sql which was saved with #saveHottestSql(File, int)
+     * @param file to read from
+     * @return the sql statements in the file, in order
+     * @throws IOException if the file could not be read
+     */
+    public static List<String> readSql(File file) throws IOException {
+        List<String> statements = new ArrayList<>();
+        for(String line: Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+            if(!line.isEmpty()) {
+                StringBuilder sql = new StringBuilder(line.length());
+                for(int i=0; i<line.length(); i++) {
+                    char c = line.charAt(i);
+                    if(c == '\\' && i + 1 < line.length()) {
+                        char escaped = line.charAt(++i);
+                        sql.append(escaped == 'n' ? '\n' : escaped == 'r' ? '\r' : escaped);
+                    }
+                    else {
+                        sql.append(c);
+                    }
+                }
+                statements.add(sql.toString());
+            }
+        }
+        return statements;
+    }
 }
@@ -1,13 +1,36 @@
 package uk.ac.ceh.dynamo.bread;
 
 import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import lombok.AllArgsConstructor;
+import org.apache.commons.codec.binary.Hex;
 
 /**
  * A simple class for managing the ogr2ogr utility and submitting sql statements
@@ -17,12 +40,70 @@ import java.util.concurrent.Semaphore;
  * #cook(File, String). This simply limits the maximum amount of processes which
  * java will fork to create.
  * 
+ * A running total of the bytes taken up by the shapefiles on the work surface is
+ * kept. Each slice is measured once when baked or reloaded, and its size taken
+ * off of the total when it is deleted. This means the total can be read without
+ * ever having to walk the work surface directory.
+ * 
+ * A bake timeout can be given, this is the longest a bake can take from the 
+ * call to #cook(File, String), including any time spent waiting for a free 
+ * process. If a process is still running when the timeout passes it is 
+ * destroyed, the partially generated shapefile is deleted and the bake fails
+ * with a BreadTimeoutException.
+ * 
+ * The lifecycle of each slice is recorded in a SliceJournal on the work 
+ * surface. When the generator is reloaded, the slices are read back from the 
+ * journal rather than by scanning the work surface, and slices which were part
+ * way through baking or being deleted are cleaned up. The work surface is only
+ * scanned if there is no journal. If the journal can not be written to, it is
+ * removed so that the next reload falls back to scanning.
+ * 
+ * The generator can also be reloaded in the background by a bakery. In which
+ * case the slices are loaded on several threads and the slice of a particular 
+ * mix can be found on demand before the reload has got to it.
+ * 
+ * Baked shapefiles can be fingerprinted, so that a bakery with an 
+ * AdaptiveStaleTime can tell when a refresh has not changed anything.
+ * 
+ * The shapefiles of mouldy slices are deleted in the background by a 
+ * Reclaimer. By default this deletes them as quickly as it can, but it can be
+ * given a budget so that a sharp drop in the climate does not saturate the
+ * volume of the work surface. A DiskBudgetClimateMeter speeds the reclaimer up
+ * whilst the disk is critically short of space.
+ * 
+ * Refresh and warm up bakes (those run in the background by a BakeScheduler)
+ * may only use some of the simultaneous processes, by default all but one. The
+ * rest are kept free for foreground bakes, which have requests waiting on them,
+ * so a burst of refreshes can not hold up first time bakes.
+ * 
+ * Shapefiles are not kept in the work surface directory itself, but sharded
+ * into two levels of subdirectories named after the start of the mix name, 
+ * e.g. the slice 12 of the mix 3fa91c... lives at 3f/a9/12_3fa91c....shp. This
+ * keeps each directory small enough to list and update quickly. Shapefiles
+ * left in the work surface directory by older versions are moved into their
+ * shards when the generator is reloaded. Shards are left behind once empty.
+ * 
  * @author Christopher Johnson
  */
-public class ShapefileGenerator implements DustBin<File>, Oven<String, String, File> {
-    private final ExecutorService remover;
-    private final Semaphore semaphore;
+public class ShapefileGenerator implements DustBin<File>, StreamingOven<String, String, File>, FingerprintingOven<String, String, File> {
+    protected static final String[] SHAPEFILE_PARTS = { ".shp", ".shx", ".dbf", ".qix" };
+    private static final int RELOAD_THREADS = Math.max(2, Runtime.getRuntime().availableProcessors());
+    public static final long NO_TIMEOUT = 0;
+    protected static final long NO_DEADLINE = Long.MAX_VALUE;
+    private static final int DBF_DATE_OFFSET = 1, DBF_DATE_LENGTH = 3;
+    private static final int FINGERPRINT_BUFFER_SIZE = 64 * 1024;
+    private static final int SHARD_WIDTH = 2;
+    private static final Pattern FLAT_SHAPEFILE_PART = Pattern.compile("\\d+_(.+)\\.(shp|shx|dbf|qix)", Pattern.CASE_INSENSITIVE);
+    
+    private final AtomicLong bytesOnWorkSurface = new AtomicLong(), bytesAwaitingReclaim = new AtomicLong();
+    private final Reclaimer reclaimer;
+    private final ScheduledExecutorService watchdog;
+    private final long bakeTimeout;
+    private final Semaphore semaphore, backgroundSemaphore;
+    private final LatencyHistogram permitWaits = new LatencyHistogram();
     private final String ogr2ogr, shptree, connectionString;
+    private volatile SliceJournal journal;
+    private volatile Reload reloading;
     
     /**
      * Creates a shapefile generator based upon an installation of ogr2ogr
@@ -33,39 +114,130 @@ public class ShapefileGenerator implements DustBin<File>, Oven<String, String, F
      *  simultaneously
      */
     public ShapefileGenerator(String ogr2ogr, String shptree, String connectionString, int simultaneousProcesses) {
-        this(ogr2ogr, shptree, connectionString, new Semaphore(simultaneousProcesses, true), Executors.newSingleThreadExecutor());
+        this(ogr2ogr, shptree, connectionString, simultaneousProcesses, NO_TIMEOUT);
+    }
+    
+    /**
+     * Creates a shapefile generator based upon an installation of ogr2ogr which
+     * abandons bakes which take too long
+     * @param ogr2ogr the location to the ogr2ogr utility
+     * @param shptree the location to the shptree utility
+     * @param connectionString the connection string to supply in calls
+     * @param simultaneousProcesses the maximum amount of processes to perform
+     *  simultaneously
+     * @param bakeTimeout the time in milliseconds a bake may take before it is
+     *  abandoned, or NO_TIMEOUT
+     */
+    public ShapefileGenerator(String ogr2ogr, String shptree, String connectionString, int simultaneousProcesses, long bakeTimeout) {
+        this(ogr2ogr, shptree, connectionString, simultaneousProcesses, bakeTimeout, new Reclaimer(Executors.newSingleThreadExecutor()));
+    }
+    
+    /**
+     * Creates a shapefile generator based upon an installation of ogr2ogr which
+     * deletes mouldy shapefiles with the given reclaimer
+     * @param ogr2ogr the location to the ogr2ogr utility
+     * @param shptree the location to the shptree utility
+     * @param connectionString the connection string to supply in calls
+     * @param simultaneousProcesses the maximum amount of processes to perform
+     *  simultaneously
+     * @param bakeTimeout the time in milliseconds a bake may take before it is
+     *  abandoned, or NO_TIMEOUT
+     * @param reclaimer which deletes the shapefiles of mouldy slices
+     */
+    public ShapefileGenerator(String ogr2ogr, String shptree, String connectionString, int simultaneousProcesses, long bakeTimeout, Reclaimer reclaimer) {
+        this(ogr2ogr, shptree, connectionString, simultaneousProcesses, Math.max(1, simultaneousProcesses - 1), bakeTimeout, reclaimer);
+    }
+    
+    /**
+     * Creates a shapefile generator based upon an installation of ogr2ogr which
+     * keeps some of its processes free for foreground bakes
+     * @param ogr2ogr the location to the ogr2ogr utility
+     * @param shptree the location to the shptree utility
+     * @param connectionString the connection string to supply in calls
+     * @param simultaneousProcesses the maximum amount of processes to perform
+     *  simultaneously
+     * @param backgroundProcesses the maximum amount of processes which refresh
+     *  and warm up bakes may perform simultaneously, the rest are reserved for
+     *  foreground bakes
+     * @param bakeTimeout the time in milliseconds a bake may take before it is
+     *  abandoned, or NO_TIMEOUT
+     * @param reclaimer which deletes the shapefiles of mouldy slices
+     * @see BakeScheduler#isRunningBackgroundBake()
+     */
+    public ShapefileGenerator(String ogr2ogr, String shptree, String connectionString, int simultaneousProcesses, int backgroundProcesses, long bakeTimeout, Reclaimer reclaimer) {
+        this(ogr2ogr, shptree, connectionString, new Semaphore(simultaneousProcesses, true), createBackgroundSemaphore(simultaneousProcesses, backgroundProcesses), reclaimer, createWatchdog(), bakeTimeout);
     }
     
     /**
      * Dependency injection constructor
      */
     protected ShapefileGenerator(String ogr2ogr, String shptree, String connectionString, Semaphore semaphore, ExecutorService remover) {
+        this(ogr2ogr, shptree, connectionString, semaphore, remover, createWatchdog(), NO_TIMEOUT);
+    }
+    
+    /**
+     * Dependency injection constructor
+     */
+    protected ShapefileGenerator(String ogr2ogr, String shptree, String connectionString, Semaphore semaphore, ExecutorService remover, ScheduledExecutorService watchdog, long bakeTimeout) {
+        this(ogr2ogr, shptree, connectionString, semaphore, new Reclaimer(remover), watchdog, bakeTimeout);
+    }
+    
+    /**
+     * Dependency injection constructor
+     */
+    protected ShapefileGenerator(String ogr2ogr, String shptree, String connectionString, Semaphore semaphore, Reclaimer reclaimer, ScheduledExecutorService watchdog, long bakeTimeout) {
+        this(ogr2ogr, shptree, connectionString, semaphore, null, reclaimer, watchdog, bakeTimeout);
+    }
+    
+    /**
+     * Dependency injection constructor
+     * @param backgroundSemaphore limits the processes of background bakes, or 
+     *  null if they may use any of the processes
+     */
+    protected ShapefileGenerator(String ogr2ogr, String shptree, String connectionString, Semaphore semaphore, Semaphore backgroundSemaphore, Reclaimer reclaimer, ScheduledExecutorService watchdog, long bakeTimeout) {
         this.ogr2ogr = ogr2ogr;
         this.shptree = shptree;
         this.connectionString = connectionString;
         this.semaphore = semaphore;
-        this.remover = remover;
+        this.backgroundSemaphore = backgroundSemaphore;
+        this.reclaimer = reclaimer;
+        this.watchdog = watchdog;
+        this.bakeTimeout = bakeTimeout;
     }
 
     /**
-     * A slice of bread to delete from the work surface
+     * A slice of bread to delete from the work surface. The deletion is added
+     * to the backlog of the reclaimer
      * @param slice the slice to remove from disk
      */
     @Override
     public void delete(final BreadSlice<?, File> slice) {
-        remover.submit(new Runnable() {
+        journal(JournalEvent.MOULDY, slice, 0, 0);
+        bytesAwaitingReclaim.addAndGet(slice.getSize());
+        reclaimer.reclaim(new Runnable() {
             @Override
             public void run() {
-                deleteShapefile(slice);
-                // Clear out the qix index
-                new File(slice.getWorkSurface(), slice.getId() + "_" + slice.getMixName() + ".qix").delete();
+                try {
+                    deleteShapefile(slice);
+                    // Clear out the qix index
+                    getShapefilePart(slice, ".qix").delete();
+                    bytesOnWorkSurface.addAndGet(-slice.getSize());
+                    journal(JournalEvent.DELETED, slice, 0, 0);
+                    deleted(slice);
+                }
+                finally {
+                    bytesAwaitingReclaim.addAndGet(-slice.getSize());
+                }
             }
-        });
+        }, slice.getSize());
     }
 
     /**
-     * Scan through the work surface directory to find any existing shapefiles
-     * which can be reloaded as bread slices.
+     * Find the existing shapefiles on the work surface which can be reloaded as
+     * bread slices. These are read from the slice journal of the work surface,
+     * if there is no journal the shards of the work surface are scanned and a
+     * new journal is started. Any shapefiles which are not yet sharded are 
+     * migrated first.
      * @param clock The clock that each bread slice should use
      * @param workSurface the work surface each slice will live on and to read
      * @param bin the dust bin to give to each bread slice for deletion later
@@ -74,23 +246,269 @@ public class ShapefileGenerator implements DustBin<File>, Oven<String, String, F
      */
     @Override
     public List<BreadSlice<String, File>> reload(Clock clock, File workSurface, DustBin<File> bin, long staleTime) {
+        Reload reload = new Reload(clock, workSurface, bin, staleTime);
         List<BreadSlice<String, File>> slices = new ArrayList<>();
-        for(File shapefile: workSurface.listFiles(new ShapefileFilter())) {
-            String shapefileName = shapefile.getName();
-            String[] nameparts = shapefileName.substring(0, shapefileName.length()-4).split("_");
-             
-            slices.add(new BreadSlice<>(    shapefile.getAbsolutePath(), 
-                                            shapefile.lastModified(), 
-                                            Integer.parseInt(nameparts[0]), 
-                                            nameparts[1],
-                                            staleTime,
-                                            clock,
-                                            workSurface,
-                                            bin));
+        for(Found found: reload.found) {
+            slices.add(reload.load(found));
         }
         return slices;
     }
     
+    /**
+     * Find the existing shapefiles on the work surface in the same way as 
+     * #reload(Clock, File, DustBin, long), but hand them over to the collector
+     * as they are loaded. Only the names of the shapefiles are read up front,
+     * the slices are then loaded in parallel. Whilst this is going on a slice 
+     * which has not yet been loaded can be claimed by #find.
+     * 
+     * If there is more than one shapefile of the same mix on the work surface, 
+     * the one with the highest id is the one which can be found.
+     */
+    @Override
+    public void reload(Clock clock, File workSurface, DustBin<File> bin, long staleTime, final SliceCollector<String, File> collector) throws InterruptedException {
+        final Reload reload = new Reload(clock, workSurface, bin, staleTime);
+        reloading = reload; //the slices can be found as soon as ids are reserved
+        ExecutorService loaders = Executors.newFixedThreadPool(RELOAD_THREADS, new DaemonThreadFactory("shapefile-reloader"));
+        try {
+            collector.reserveIds(reload.maximumId);
+            for(final Found found: reload.found) {
+                loaders.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        if(reload.claim(found)) {
+                            collector.reloaded(reload.load(found));
+                        }
+                    }
+                });
+            }
+            loaders.shutdown();
+            loaders.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        }
+        finally {
+            loaders.shutdownNow();
+            reloading = null;
+        }
+    }
+    
+    /**
+     * Claim the slice of the given mix name if it is on the work surface and a
+     * streaming reload has not got round to it yet.
+     */
+    @Override
+    public BreadSlice<String, File> find(Clock clock, File workSurface, DustBin<File> bin, long staleTime, String mixName) {
+        Reload reload = reloading;
+        if(reload != null) {
+            Found found = reload.unclaimed.remove(mixName);
+            if(found != null) {
+                return reload.load(found);
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * The shapefiles which were found on a work surface and are being reloaded.
+     * Creating a reload reads the names of the shapefiles from the journal (or
+     * work surface if there is no journal) and cleans up any which were only 
+     * part way through baking or being deleted.
+     */
+    private class Reload {
+        private final List<Found> found = new ArrayList<>();
+        private final ConcurrentMap<String, Found> unclaimed = new ConcurrentHashMap<>();
+        private final Set<Found> superseded = new HashSet<>();
+        private final Clock clock;
+        private final File workSurface;
+        private final DustBin<File> bin;
+        private final long staleTime;
+        private int maximumId = -1;
+        
+        private Reload(Clock clock, File workSurface, DustBin<File> bin, long staleTime) {
+            this.clock = clock;
+            this.workSurface = workSurface;
+            this.bin = bin;
+            this.staleTime = staleTime;
+            
+            migrate(workSurface);
+            try {
+                journal = new SliceJournal(getJournalFile(workSurface));
+                if(journal.existed()) {
+                    indexJournal(journal);
+                    return;
+                }
+            }
+            catch(IOException io) {
+                journal = null; //Carry on without a journal
+            }
+            indexWorkSurface();
+        }
+        
+        private void indexJournal(SliceJournal journal) throws IOException {
+            //Anything which was part way through baking or being deleted can go
+            List<SliceJournal.Entry> unfinished = journal.getEntries(SliceJournal.State.BAKING);
+            unfinished.addAll(journal.getEntries(SliceJournal.State.MOULDY));
+            for(SliceJournal.Entry entry: unfinished) {
+                for(String part: SHAPEFILE_PARTS) {
+                    getShapefilePart(workSurface, entry.getId(), entry.getMixName(), part).delete();
+                }
+                journal.deleted(entry.getId());
+            }
+            
+            for(SliceJournal.Entry entry: journal.getEntries(SliceJournal.State.BAKED)) {
+                add(new Found(entry.getId(), entry.getMixName(), entry));
+            }
+        }
+        
+        private void indexWorkSurface() {
+            for(String shapefileName: listShapefiles(workSurface)) {
+                String[] nameparts = shapefileName.substring(0, shapefileName.length()-4).split("_");
+                add(new Found(Integer.parseInt(nameparts[0]), nameparts[1], null));
+            }
+        }
+        
+        private void add(Found shapefile) {
+            found.add(shapefile);
+            maximumId = Math.max(maximumId, shapefile.id);
+            Found other = unclaimed.get(shapefile.mixName);
+            if(other == null || other.id < shapefile.id) {
+                unclaimed.put(shapefile.mixName, shapefile);
+                if(other != null) {
+                    superseded.add(other);
+                }
+            }
+            else {
+                superseded.add(shapefile);
+            }
+        }
+        
+        /**
+         * Shapefiles which are not the latest of their mix are never claimed
+         * by #find, so can always be loaded
+         */
+        private boolean claim(Found shapefile) {
+            return superseded.contains(shapefile) || unclaimed.remove(shapefile.mixName, shapefile);
+        }
+        
+        private BreadSlice<String, File> load(Found shapefile) {
+            File file = getShapefilePart(workSurface, shapefile.id, shapefile.mixName, ".shp");
+            SliceJournal.Entry entry = shapefile.entry;
+            if(entry != null) {
+                long sliceStaleTime = entry.getStaleTime() > 0 ? entry.getStaleTime() : staleTime;
+                BreadSlice<String, File> slice = new BreadSlice<>(file.getAbsolutePath(), entry.getBakedTime(), entry.getId(), entry.getMixName(), sliceStaleTime, clock, workSurface, bin);
+                slice.setSize(entry.getSize());
+                slice.setBakeDuration(entry.getBakeDuration());
+                bytesOnWorkSurface.addAndGet(entry.getSize());
+                return slice;
+            }
+            else {
+                long lastModified = file.lastModified();
+                BreadSlice<String, File> slice = new BreadSlice<>(file.getAbsolutePath(), lastModified, shapefile.id, shapefile.mixName, staleTime, clock, workSurface, bin);
+                weigh(slice);
+                journal(JournalEvent.BAKED, slice, lastModified, 0);
+                return slice;
+            }
+        }
+    }
+    
+    /**
+     * A shapefile found on the work surface, along with its journal entry if it
+     * was found in the journal
+     */
+    @AllArgsConstructor
+    private static class Found {
+        private final int id;
+        private final String mixName;
+        private final SliceJournal.Entry entry;
+    }
+    
+    /**
+     * @return the slice journal of the given work surface
+     */
+    protected File getJournalFile(File workSurface) {
+        return new File(workSurface, SliceJournal.FILENAME);
+    }
+    
+    /**
+     * List the names of the shapefiles on the work surface, this is only done
+     * when the work surface has no journal
+     */
+    protected String[] listShapefiles(File workSurface) {
+        List<String> shapefiles = scanShapefiles(workSurface);
+        return shapefiles.toArray(new String[shapefiles.size()]);
+    }
+    
+    /**
+     * Move the parts of any shapefiles which are in the work surface directory
+     * itself into their shards. A part which can not be moved (e.g. another 
+     * node sharing the work surface has just moved it) is left where it is.
+     * @param workSurface to migrate
+     * @return the amount of parts which were moved
+     */
+    protected int migrate(File workSurface) {
+        int migrated = 0;
+        String[] names = workSurface.list();
+        if(names != null) {
+            for(String name: names) {
+                Matcher matcher = FLAT_SHAPEFILE_PART.matcher(name);
+                if(matcher.matches()) {
+                    File shard = getShard(workSurface, matcher.group(1));
+                    shard.mkdirs();
+                    try {
+                        Files.move(new File(workSurface, name).toPath(), new File(shard, name).toPath(), StandardCopyOption.ATOMIC_MOVE);
+                        migrated++;
+                    }
+                    catch(IOException io) {} //Try again on the next reload
+                }
+            }
+        }
+        return migrated;
+    }
+    
+    /**
+     * @return the names of the shapefiles in every shard of the work surface
+     */
+    protected static List<String> scanShapefiles(File workSurface) {
+        List<String> shapefiles = new ArrayList<>();
+        for(File shard: listShards(workSurface)) {
+            for(File subshard: listShards(shard)) {
+                String[] names = subshard.list(new ShapefileFilter());
+                if(names != null) {
+                    shapefiles.addAll(Arrays.asList(names));
+                }
+            }
+        }
+        return shapefiles;
+    }
+    
+    /**
+     * @return the directory of the work surface which shapefiles of the given
+     *  mix live in. Mix names shorter than the shard prefix are padded with _
+     */
+    protected static File getShard(File workSurface, String mixName) {
+        String prefix = (mixName + "____").substring(0, 2 * SHARD_WIDTH);
+        return new File(new File(workSurface, prefix.substring(0, SHARD_WIDTH)), prefix.substring(SHARD_WIDTH));
+    }
+    
+    /**
+     * @return the file of one part (e.g. .shp) of a shapefile on the work surface
+     */
+    protected static File getShapefilePart(File workSurface, int id, String mixName, String part) {
+        return new File(getShard(workSurface, mixName), id + "_" + mixName + part);
+    }
+    
+    private static File getShapefilePart(BreadSlice<?, File> slice, String part) {
+        return getShapefilePart(slice.getWorkSurface(), slice.getId(), slice.getMixName(), part);
+    }
+    
+    private static File[] listShards(File directory) {
+        File[] shards = directory.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.getName().length() == SHARD_WIDTH && file.isDirectory();
+            }
+        });
+        return shards != null ? shards : new File[0];
+    }
+    
     /**
      * Performs a call to the ogr2ogr command. This method will wait if the maximum
      * simultaneous calls are being performed. Once this is done, create a shptree
@@ -102,23 +520,143 @@ public class ShapefileGenerator implements DustBin<File>, Oven<String, String, F
      */
     @Override
     public String cook(BreadSlice<String, File> slice, String sql) throws BreadException {
-        File output = new File(slice.getWorkSurface(), slice.getId() + "_" + slice.getMixName() + ".shp");
+        File output = getShapefilePart(slice, ".shp");
+        output.getParentFile().mkdirs();
+        long deadline = bakeTimeout > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(bakeTimeout) : NO_DEADLINE;
         try {
-            semaphore.acquire();
-            try {
-                process(slice, output, sql);
-                return output.getAbsolutePath();
-            }
-            finally {
-                semaphore.release();
-            }
+            journal(JournalEvent.BAKING, slice, 0, 0);
+            long start = System.nanoTime();
+            bake(slice, output, sql, deadline);
+            weigh(slice);
+            journal(JournalEvent.BAKED, slice, System.currentTimeMillis(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            return output.getAbsolutePath();
         }
         catch(IOException | InterruptedException ex) {
             throw new BreadException("Failed to generate shapefile", ex);
         }
     }
     
-    protected void process(BreadSlice<String, File> slice, File output, String sql) throws IOException, InterruptedException, BreadException {
+    /**
+     * Get the shapefile of the given slice onto the work surface by waiting 
+     * for one of the simultaneous processes to become free and then processing
+     * it. Subclasses which can get hold of the shapefile some other way should
+     * do so before a process is waited for.
+     * @param deadline the System#nanoTime() by which the bake must complete or
+     *  NO_DEADLINE
+     */
+    protected void bake(BreadSlice<String, File> slice, File output, String sql, long deadline) throws IOException, InterruptedException, BreadException {
+        Semaphore background = backgroundSemaphore != null && BakeScheduler.isRunningBackgroundBake() ? backgroundSemaphore : null;
+        acquire(background, deadline);
+        try {
+            process(slice, output, sql, deadline);
+        }
+        catch(BreadTimeoutException te) {
+            //Don't leave a partially generated shapefile on the work surface
+            deleteShapefile(slice);
+            getShapefilePart(slice, ".qix").delete();
+            throw te;
+        }
+        finally {
+            semaphore.release();
+            if(background != null) {
+                background.release();
+            }
+        }
+    }
+    
+    /**
+     * Fingerprint a baked shapefile with a sha1 hash of its .shp and .dbf 
+     * parts, read in a stream. The .shx and .qix parts are derived from the 
+     * .shp part so are left out. The date of last update in the header of the 
+     * .dbf part (bytes 1 to 3) is skipped, so that two bakes of the same data
+     * on different days have the same fingerprint.
+     * @param slice the baked slice
+     * @return the hex encoded fingerprint
+     * @throws BreadException if the shapefile could not be read
+     */
+    @Override
+    public String fingerprint(BreadSlice<String, File> slice) throws BreadException {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            digestPart(digest, getShapefilePart(slice, ".shp"), 0, 0);
+            digestPart(digest, getShapefilePart(slice, ".dbf"), DBF_DATE_OFFSET, DBF_DATE_LENGTH);
+            return Hex.encodeHexString(digest.digest());
+        }
+        catch(IOException | NoSuchAlgorithmException ex) {
+            throw new BreadException("Failed to fingerprint shapefile", ex);
+        }
+    }
+    
+    /**
+     * Journal the new baked time and stale time of a renewed slice, so that it
+     * is reloaded as it is now rather than as it was first baked
+     * @param slice which has been renewed
+     */
+    @Override
+    public void renewed(BreadSlice<String, File> slice) {
+        journal(JournalEvent.RENEWED, slice, slice.getTimeBaked(), 0);
+    }
+    
+    /**
+     * Add the bytes of a file to the digest, with the given range of bytes
+     * zeroed out
+     */
+    private static void digestPart(MessageDigest digest, File part, int skipFrom, int skipLength) throws IOException {
+        try(InputStream in = new FileInputStream(part)) {
+            byte[] buffer = new byte[FINGERPRINT_BUFFER_SIZE];
+            long position = 0;
+            int read;
+            while((read = in.read(buffer)) != -1) {
+                for(long i=Math.max(position, skipFrom); i<Math.min(position + read, skipFrom + skipLength); i++) {
+                    buffer[(int)(i - position)] = 0;
+                }
+                digest.update(buffer, 0, read);
+                position += read;
+            }
+        }
+    }
+    
+    /**
+     * Wait for one of the simultaneous processes to become free, background 
+     * bakes first wait for one of the processes which they are allowed to use
+     * @param background the semaphore of the background processes, or null
+     *  for a foreground bake
+     * @throws BreadTimeoutException if none became free before the deadline
+     */
+    private void acquire(Semaphore background, long deadline) throws InterruptedException, BreadTimeoutException {
+        long started = System.nanoTime();
+        if(background != null) {
+            acquire(background, deadline, "No background process became free before the bake timed out");
+        }
+        try {
+            acquire(semaphore, deadline, "No process became free before the bake timed out");
+        }
+        catch(InterruptedException | BreadTimeoutException ex) {
+            if(background != null) {
+                background.release();
+            }
+            throw ex;
+        }
+        permitWaits.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+    }
+    
+    private static void acquire(Semaphore permits, long deadline, String timeoutMessage) throws InterruptedException, BreadTimeoutException {
+        if(deadline == NO_DEADLINE) {
+            permits.acquire();
+        }
+        else if(!permits.tryAcquire(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+            throw new BreadTimeoutException(timeoutMessage);
+        }
+    }
+    
+    private static Semaphore createBackgroundSemaphore(int simultaneousProcesses, int backgroundProcesses) {
+        if(backgroundProcesses < 1 || backgroundProcesses > simultaneousProcesses) {
+            throw new IllegalArgumentException("There must be at least one background process and no more than the simultaneous processes");
+        }
+        return new Semaphore(backgroundProcesses, true);
+    }
+    
+    protected void process(BreadSlice<String, File> slice, File output, String sql, long deadline) throws IOException, InterruptedException, BreadException {
         ProcessBuilder ogr2ogrBuilder = new ProcessBuilder(
                 ogr2ogr,
                 "-f",
@@ -135,12 +673,12 @@ public class ShapefileGenerator implements DustBin<File>, Oven<String, String, F
         shptreeBuilder.inheritIO();
 
         //Start the process and wait for it to end
-        if (waitForProcess(ogr2ogrBuilder) != 0) {
+        if (waitForProcess(ogr2ogrBuilder, deadline) != 0) {
             throw new BreadException("The ogr2ogr command failed to execute");
         }
         
         try {
-            if( waitForProcess(shptreeBuilder) != 0 ) {
+            if( waitForProcess(shptreeBuilder, deadline) != 0 ) {
                 deleteShapefile(slice);
                 throw new BreadException("The shptree command failed to execute. Deleted the shapefile generated");
             }
@@ -151,23 +689,151 @@ public class ShapefileGenerator implements DustBin<File>, Oven<String, String, F
         }
     }
     
+    /**
+     * @return the total amount of bytes taken up by the shapefiles which this
+     *  generator has baked or reloaded and not yet deleted
+     */
+    public long getBytesOnWorkSurface() {
+        return bytesOnWorkSurface.get();
+    }
+
+    /**
+     * @return the bytes of the shapefiles which have been thrown out of the 
+     *  bakery but are still waiting in the backlog of the reclaimer. These are
+     *  included in the bytes on the work surface
+     */
+    public long getBytesAwaitingReclaim() {
+        return bytesAwaitingReclaim.get();
+    }
+
+    /**
+     * @return the reclaimer which deletes the shapefiles of mouldy slices
+     */
+    public Reclaimer getReclaimer() {
+        return reclaimer;
+    }
+    
+    /**
+     * Tell the generator whether the volume of its work surface is critically
+     * short of space, its reclaimer is sped up whilst it is
+     * @param critical true if space is urgently needed
+     * @see DiskBudgetClimateMeter#isCritical()
+     */
+    public void setDiskCritical(boolean critical) {
+        reclaimer.setCritical(critical);
+    }
+    
+    /**
+     * @return the times in milliseconds which bakes have waited for one of the
+     *  simultaneous processes to become free
+     * @see BakeryRecorder#BakeryRecorder(LatencyHistogram)
+     */
+    public LatencyHistogram getPermitWaits() {
+        return permitWaits;
+    }
+    
+    /**
+     * Record an event in the slice journal, if there is one. If the journal can
+     * not be written to then it is thrown away, a journal which is missing 
+     * events would reload slices incorrectly.
+     */
+    private void journal(JournalEvent event, BreadSlice<?, File> slice, long bakedTime, long bakeDuration) {
+        SliceJournal current = journal;
+        if(current != null) {
+            try {
+                switch(event) {
+                    case BAKING:  current.baking(slice.getId(), slice.getMixName()); break;
+                    case BAKED:   current.baked(slice.getId(), slice.getMixName(), bakedTime, slice.getSize(), bakeDuration); break;
+                    case RENEWED: current.renewed(slice.getId(), bakedTime, slice.getStaleTime()); break;
+                    case MOULDY:  current.mouldy(slice.getId()); break;
+                    case DELETED: current.deleted(slice.getId()); break;
+                }
+            }
+            catch(IOException io) {
+                journal = null;
+                try {
+                    current.close();
+                }
+                catch(IOException ex) {} //Going to delete it anyway
+                current.getFile().delete();
+            }
+        }
+    }
+    
+    /**
+     * Measure the parts of the shapefile for the given slice, record the size
+     * on the slice and add it to the running total
+     */
+    private void weigh(BreadSlice<String, File> slice) {
+        long size = measure(slice);
+        slice.setSize(size);
+        bytesOnWorkSurface.addAndGet(size);
+    }
+    
+    /**
+     * @return the bytes which the parts of the shapefile of the given slice 
+     *  take up on the work surface
+     */
+    protected long measure(BreadSlice<String, File> slice) {
+        long size = 0;
+        for(String part: SHAPEFILE_PARTS) {
+            size += getShapefilePart(slice, part).length();
+        }
+        return size;
+    }
+    
     /**
      * The following method is only used so that we can unit test this generator.
-     * Actually triggers and waits for some processbuilder to complete
+     * Actually triggers and waits for some processbuilder to complete. If the
+     * process is still running at the deadline, the watchdog will destroy it.
+     * @param deadline the System#nanoTime() by which the process must complete
+     *  or NO_DEADLINE
+     * @throws BreadTimeoutException if the process was destroyed because it 
+     *  did not complete before the deadline
      */
-    protected int waitForProcess(ProcessBuilder builder) throws IOException, InterruptedException {
-        return builder.start().waitFor();
+    protected int waitForProcess(ProcessBuilder builder, long deadline) throws IOException, InterruptedException, BreadException {
+        final Process process = builder.start();
+        if(deadline == NO_DEADLINE) {
+            return process.waitFor();
+        }
+        
+        final AtomicBoolean destroyed = new AtomicBoolean();
+        Future<?> destroyer = watchdog.schedule(new Runnable() {
+            @Override
+            public void run() {
+                destroyed.set(true);
+                process.destroy();
+            }
+        }, deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        try {
+            int exitValue = process.waitFor();
+            if(destroyed.get()) {
+                throw new BreadTimeoutException("The process did not complete before the bake timed out");
+            }
+            return exitValue;
+        }
+        finally {
+            destroyer.cancel(false);
+        }
     }
     
     /**
      * Allow us to spy on when a shapefile has been requested to be deleted
      */
     protected void deleteShapefile(BreadSlice<?, File> slice) {
-        new File(slice.getWorkSurface(), slice.getId() + "_" + slice.getMixName() + ".shp").delete();
-        new File(slice.getWorkSurface(), slice.getId() + "_" + slice.getMixName() + ".shx").delete();
-        new File(slice.getWorkSurface(), slice.getId() + "_" + slice.getMixName() + ".dbf").delete();
+        getShapefilePart(slice, ".shp").delete();
+        getShapefilePart(slice, ".shx").delete();
+        getShapefilePart(slice, ".dbf").delete();
     }
     
+    /**
+     * Called by the reclaimer once the shapefile of a slice has been deleted,
+     * for subclasses which keep other files about the slice
+     */
+    protected void deleted(BreadSlice<?, File> slice) {}
+    
+    private enum JournalEvent { BAKING, BAKED, RENEWED, MOULDY, DELETED }
+    
     /**
     * A simple filename filter for locating shapefiles. Those files which have the 
     * extension .shp
@@ -186,4 +852,29 @@ public class ShapefileGenerator implements DustBin<File>, Oven<String, String, F
            return name.toLowerCase().endsWith(".shp");
        }
    }
+    
+    /**
+     * Creates the scheduler which destroys processes which run past their 
+     * deadline. This runs on a single daemon thread.
+     */
+    private static ScheduledExecutorService createWatchdog() {
+        ScheduledThreadPoolExecutor watchdog = new ScheduledThreadPoolExecutor(1, new DaemonThreadFactory("shapefile-watchdog"));
+        watchdog.setRemoveOnCancelPolicy(true); //Most processes finish in time
+        return watchdog;
+    }
+    
+    /**
+     * Creates the daemon threads which the generator uses in the background
+     */
+    @AllArgsConstructor
+    private static class DaemonThreadFactory implements ThreadFactory {
+        private final String name;
+        
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, name);
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
 }
@@ -0,0 +1,19 @@
+package uk.ac.ceh.dynamo.bread;
+
+/**
+ * An oven whose work surface is shared with other bakeries, which may be 
+ * running in other JVMs. The oven coordinates with the other bakeries so that
+ * a mix being baked by one of them is adopted by the rest rather than baked 
+ * again. As the bakeries share a work surface, the ids of new bread slices are
+ * allocated by the oven so that they do not clash.
+ * @author Christopher Johnson
+ */
+public interface SharedOven<T, I, W> extends Oven<T, I, W> {
+    /**
+     * Allocate an id for a new slice of bread which no other bakery sharing 
+     * the work surface will use
+     * @return a unique id
+     * @throws BreadException if the ids could not be allocated
+     */
+    int allocateId() throws BreadException;
+}
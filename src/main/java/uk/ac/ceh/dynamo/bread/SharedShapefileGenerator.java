@@ -0,0 +1,464 @@
+package uk.ac.ceh.dynamo.bread;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A shapefile generator for a work surface which is shared by several 
+ * applications (e.g. tomcat nodes), which may be running on different machines.
+ * 
+ * Only one generator will bake a given mix at a time. This is coordinated with
+ * a file lock for each mix in the shared directory of the work surface. Once a
+ * bake has finished it is published. Any generator which was waiting for the 
+ * lock then adopts the published shapefile, by hard linking it under the name 
+ * of its own slice, rather than baking it again. If the shapefile can not be 
+ * linked (e.g. the generator which published it has since deleted it) the mix 
+ * is baked as normal.
+ * 
+ * Slice ids are allocated in blocks from a counter in the shared directory, so
+ * that each generator names its shapefiles uniquely. Each generator keeps its
+ * own slice journal and only reloads the shapefiles which it baked or adopted,
+ * the rest are left for the generators which own them. A generator which does
+ * not have a journal yet starts with an empty work surface. Shapefiles which
+ * an older version left directly in the work surface are not migrated into 
+ * shards, as nodes which have not been upgraded yet may still be using them.
+ * 
+ * Every generator which shares a work surface must have a different node name.
+ * @author Christopher Johnson
+ */
+public class SharedShapefileGenerator extends ShapefileGenerator implements SharedOven<String, String, File> {
+    public static final String SHARED_DIRECTORY = ".shared";
+    public static final int ID_BLOCK_SIZE = 1000;
+    private static final long LOCK_POLL_INTERVAL = 50;
+    private static final int MANDATORY_PARTS = 3; //.shp, .shx and .dbf
+    
+    //File locks are held on behalf of the whole JVM, so threads of the same JVM
+    //need to queue on these before taking a file lock. There is one for each 
+    //lock file which is in use, it is removed once no thread is using it
+    private static final ConcurrentMap<String, MixLock> MIX_LOCKS = new ConcurrentHashMap<>();
+    private static final ReentrantLock ID_LOCK = new ReentrantLock();
+    
+    private final File workSurface, sharedDirectory;
+    private final String nodeName;
+    private final Set<BreadSlice<String, File>> adopted = Collections.newSetFromMap(new ConcurrentHashMap<BreadSlice<String, File>, Boolean>());
+    private int nextId, lastIdInBlock = -1;
+    
+    /**
+     * Creates a shapefile generator for a shared work surface
+     * @param ogr2ogr the location to the ogr2ogr utility
+     * @param shptree the location to the shptree utility
+     * @param connectionString the connection string to supply in calls
+     * @param simultaneousProcesses the maximum amount of processes to perform
+     *  simultaneously
+     * @param bakeTimeout the time in milliseconds a bake may take before it is
+     *  abandoned, or NO_TIMEOUT
+     * @param workSurface the work surface which is shared
+     * @param nodeName the name of this node, unique among the nodes which 
+     *  share the work surface
+     */
+    public SharedShapefileGenerator(String ogr2ogr, String shptree, String connectionString, int simultaneousProcesses, long bakeTimeout, File workSurface, String nodeName) {
+        super(ogr2ogr, shptree, connectionString, simultaneousProcesses, bakeTimeout);
+        this.workSurface = workSurface;
+        this.sharedDirectory = createSharedDirectory(workSurface);
+        this.nodeName = checkNodeName(nodeName);
+    }
+    
+    /**
+     * Creates a shapefile generator for a shared work surface which deletes 
+     * mouldy shapefiles with the given reclaimer
+     * @param ogr2ogr the location to the ogr2ogr utility
+     * @param shptree the location to the shptree utility
+     * @param connectionString the connection string to supply in calls
+     * @param simultaneousProcesses the maximum amount of processes to perform
+     *  simultaneously
+     * @param bakeTimeout the time in milliseconds a bake may take before it is
+     *  abandoned, or NO_TIMEOUT
+     * @param reclaimer which deletes the shapefiles of mouldy slices
+     * @param workSurface the work surface which is shared
+     * @param nodeName the name of this node, unique among the nodes which 
+     *  share the work surface
+     */
+    public SharedShapefileGenerator(String ogr2ogr, String shptree, String connectionString, int simultaneousProcesses, long bakeTimeout, Reclaimer reclaimer, File workSurface, String nodeName) {
+        super(ogr2ogr, shptree, connectionString, simultaneousProcesses, bakeTimeout, reclaimer);
+        this.workSurface = workSurface;
+        this.sharedDirectory = createSharedDirectory(workSurface);
+        this.nodeName = checkNodeName(nodeName);
+    }
+    
+    /**
+     * Dependency injection constructor
+     */
+    protected SharedShapefileGenerator(String ogr2ogr, String shptree, String connectionString, Semaphore semaphore, ExecutorService remover, ScheduledExecutorService watchdog, long bakeTimeout, File workSurface, String nodeName) {
+        super(ogr2ogr, shptree, connectionString, semaphore, remover, watchdog, bakeTimeout);
+        this.workSurface = workSurface;
+        this.sharedDirectory = createSharedDirectory(workSurface);
+        this.nodeName = checkNodeName(nodeName);
+    }
+    
+    /**
+     * Take the next id from this generator's block of ids. When the block runs
+     * out a new one is taken from the counter in the shared directory. The 
+     * first block starts after any shapefile already on the work surface.
+     */
+    @Override
+    public synchronized int allocateId() throws BreadException {
+        if(nextId > lastIdInBlock) {
+            ID_LOCK.lock();
+            try (FileChannel counter = FileChannel.open(new File(sharedDirectory, "ids").toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                FileLock lock = counter.lock();
+                try {
+                    ByteBuffer buffer = ByteBuffer.allocate(4);
+                    int start = counter.read(buffer, 0) == 4 ? buffer.getInt(0) : getFirstFreeId();
+                    buffer.clear();
+                    buffer.putInt(start + ID_BLOCK_SIZE).flip();
+                    counter.write(buffer, 0);
+                    counter.force(true);
+                    nextId = start;
+                    lastIdInBlock = start + ID_BLOCK_SIZE - 1;
+                }
+                finally {
+                    lock.release();
+                }
+            }
+            catch(IOException io) {
+                throw new BreadException("Failed to allocate a block of slice ids", io);
+            }
+            finally {
+                ID_LOCK.unlock();
+            }
+        }
+        return nextId++;
+    }
+    
+    /**
+     * Wait for any other node to finish baking the same mix, if one has 
+     * published it since this slice was requested, adopt it. Otherwise bake 
+     * and publish the shapefile. The locks of the mix are taken before waiting
+     * for a process, so that a slice which is only waiting to adopt a mix does
+     * not hold up the bakes of other mixes. If the lock file was deleted 
+     * whilst this node waited for it, the lock is taken again on a new one.
+     */
+    @Override
+    protected void bake(BreadSlice<String, File> slice, File output, String sql, long deadline) throws IOException, InterruptedException, BreadException {
+        long requested = getGeneration(slice);
+        File lockFile = getSharedFile(slice, ".lock");
+        MixLock mixLock = MixLock.lock(lockFile.getAbsolutePath(), deadline);
+        try {
+            while(true) {
+                try (FileChannel channel = FileChannel.open(lockFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                    FileLock lock = lock(channel, deadline);
+                    try {
+                        if(lockFile.exists()) {
+                            if(!adopt(slice, requested)) {
+                                super.bake(slice, output, sql, deadline);
+                                publish(slice, requested);
+                            }
+                            return;
+                        }
+                    }
+                    finally {
+                        lock.release();
+                    }
+                }
+            }
+        }
+        finally {
+            mixLock.unlock();
+        }
+    }
+    
+    /**
+     * Delete the lock file of the mix of a deleted slice, and the published 
+     * record if it is of the deleted slice, so that they do not pile up in the
+     * shared directory. This is only done whilst the lock file is held, if 
+     * another thread or node is using it the files are left for the next 
+     * slice of the mix to be deleted. A node which was waiting for the deleted 
+     * lock file will notice that it has gone and lock a new one.
+     */
+    @Override
+    protected void deleted(BreadSlice<?, File> slice) {
+        File lockFile = getSharedFile(slice, ".lock");
+        MixLock mixLock;
+        try {
+            mixLock = MixLock.lock(lockFile.getAbsolutePath(), System.nanoTime());
+        }
+        catch(InterruptedException | BreadTimeoutException ex) {
+            return; //This node is baking the mix
+        }
+        try (FileChannel channel = FileChannel.open(lockFile.toPath(), StandardOpenOption.WRITE)) {
+            FileLock lock = channel.tryLock();
+            if(lock != null) {
+                try {
+                    String[] published = readPublished(slice);
+                    if(Integer.parseInt(published[0]) == slice.getId()) {
+                        Files.deleteIfExists(getSharedFile(slice, ".published").toPath());
+                    }
+                }
+                catch(IOException | RuntimeException ex) {} //Nothing published
+                finally {
+                    lockFile.delete();
+                    lock.release();
+                }
+            }
+        }
+        catch(IOException io) {} //No lock file, or another node has it
+        finally {
+            mixLock.unlock();
+        }
+    }
+    
+    /**
+     * @return the name of this node
+     */
+    public String getNodeName() {
+        return nodeName;
+    }
+    
+    /**
+     * Each node keeps its own journal
+     */
+    @Override
+    protected File getJournalFile(File workSurface) {
+        return new File(workSurface, "slices-" + nodeName + ".journal");
+    }
+    
+    /**
+     * The shapefiles on a shared work surface may belong to other nodes, so 
+     * are never scanned for.
+     */
+    @Override
+    protected String[] listShapefiles(File workSurface) {
+        return new String[0];
+    }
+    
+    /**
+     * Shapefiles which are directly in a shared work surface may still be in 
+     * use by a node which has not been upgraded yet, so they are never moved
+     * into their shards. They are left for an unshared generator to migrate
+     * once every node has been upgraded.
+     * @return 0, nothing is ever moved
+     */
+    @Override
+    protected int migrate(File workSurface) {
+        return 0;
+    }
+    
+    /**
+     * The shapefile of an adopted slice is made of links to the shapefile of
+     * the node which baked it, whose bytes are already counted by that node.
+     * Adopted slices are weighed as 0 bytes, otherwise a climate meter would 
+     * count the same bytes once for every node which had adopted them.
+     */
+    @Override
+    protected long measure(BreadSlice<String, File> slice) {
+        return adopted.remove(slice) ? 0 : super.measure(slice);
+    }
+    
+    /**
+     * Wait for the file lock of a mix, polling so that the deadline of the bake
+     * is honoured
+     */
+    private FileLock lock(FileChannel channel, long deadline) throws IOException, InterruptedException, BreadTimeoutException {
+        while(true) {
+            FileLock lock = channel.tryLock();
+            if(lock != null) {
+                return lock;
+            }
+            if(System.nanoTime() >= deadline) {
+                throw new BreadTimeoutException("Another node was still baking the mix when the bake timed out");
+            }
+            Thread.sleep(LOCK_POLL_INTERVAL);
+        }
+    }
+    
+    /**
+     * Record that the shapefile of the given slice is complete, as the next 
+     * generation of the mix. Generations are counted rather than timed so that
+     * the clocks of the nodes do not have to agree. The record is moved into 
+     * place so that other nodes never see it half written.
+     * @param generation the generation of the mix which was published when 
+     *  the slice was requested, the lock of the mix has been held since 
+     *  checking that nothing newer has been published
+     */
+    private void publish(BreadSlice<String, File> slice, long generation) throws IOException {
+        Path publishing = getSharedFile(slice, ".publishing").toPath();
+        Files.write(publishing, (slice.getId() + " " + (generation + 1)).getBytes(StandardCharsets.US_ASCII));
+        Files.move(publishing, getSharedFile(slice, ".published").toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+    
+    /**
+     * @return the generation of the mix of the given slice which has most 
+     *  recently been published, or 0 if it never has been
+     */
+    private long getGeneration(BreadSlice<String, File> slice) {
+        try {
+            return Long.parseLong(readPublished(slice)[1]);
+        }
+        catch(IOException | RuntimeException ex) {
+            return 0; //Nothing published yet
+        }
+    }
+    
+    private String[] readPublished(BreadSlice<?, File> slice) throws IOException {
+        return new String(Files.readAllBytes(getSharedFile(slice, ".published").toPath()), StandardCharsets.US_ASCII).split(" ");
+    }
+    
+    /**
+     * @return the file in the shared directory with the given extension for 
+     *  the mix of the given slice
+     */
+    private File getSharedFile(BreadSlice<?, File> slice, String extension) {
+        return new File(sharedDirectory, slice.getMixName() + extension);
+    }
+    
+    /**
+     * Link the shapefile of the given slice to the one which another node has
+     * published, as long as it was published after the slice was requested.
+     * @param requested the generation which was published when the slice was
+     *  requested
+     * @return true if the shapefile was adopted
+     */
+    private boolean adopt(BreadSlice<String, File> slice, long requested) {
+        List<Path> links = new ArrayList<>();
+        try {
+            String[] published = readPublished(slice);
+            if(Long.parseLong(published[1]) <= requested) {
+                return false; //Published before the request, this slice should be fresher
+            }
+            for(int i=0; i<SHAPEFILE_PARTS.length; i++) {
+                File part = getShapefilePart(workSurface, Integer.parseInt(published[0]), slice.getMixName(), SHAPEFILE_PARTS[i]);
+                if(i < MANDATORY_PARTS || part.exists()) {
+                    links.add(Files.createLink(getShapefilePart(workSurface, slice.getId(), slice.getMixName(), SHAPEFILE_PARTS[i]).toPath(), part.toPath()));
+                }
+            }
+            adopted.add(slice); //until it is weighed
+            return true;
+        }
+        catch(IOException | RuntimeException ex) {
+            //Nothing published, or deleted whilst we were linking it. Bake instead
+            for(Path link: links) {
+                link.toFile().delete();
+            }
+            return false;
+        }
+    }
+    
+    /**
+     * @return the id after the highest id of the shapefiles already on the 
+     *  work surface, whether they have been sharded yet or not
+     */
+    private int getFirstFreeId() {
+        List<String> shapefileNames = scanShapefiles(workSurface);
+        shapefileNames.addAll(Arrays.asList(workSurface.list(new ShapefileFilter())));
+        int firstFreeId = 0;
+        for(String shapefileName: shapefileNames) {
+            try {
+                firstFreeId = Math.max(firstFreeId, Integer.parseInt(shapefileName.split("_")[0]) + 1);
+            }
+            catch(NumberFormatException nfe) {} //Not one of ours
+        }
+        return firstFreeId;
+    }
+    
+    private static File createSharedDirectory(File workSurface) {
+        File sharedDirectory = new File(workSurface, SHARED_DIRECTORY);
+        sharedDirectory.mkdirs();
+        return sharedDirectory;
+    }
+    
+    private static String checkNodeName(String nodeName) {
+        if(nodeName == null || !nodeName.matches("[\\w.-]+")) {
+            throw new IllegalArgumentException("The node name must only contain letters, digits, '_', '.' or '-'");
+        }
+        return nodeName;
+    }
+    
+    /**
+     * The lock which threads of this JVM queue on for a lock file. The lock 
+     * counts the threads which are using it, the last one out removes it from 
+     * MIX_LOCKS. A thread which finds a lock which has just been removed goes
+     * back for a new one.
+     */
+    private static class MixLock extends ReentrantLock {
+        private final String lockFile;
+        private int users;
+        private boolean removed;
+        
+        private MixLock(String lockFile) {
+            this.lockFile = lockFile;
+        }
+        
+        /**
+         * Obtain and lock the mix lock for the given lock file, waiting no 
+         * longer than the deadline
+         */
+        private static MixLock lock(String lockFile, long deadline) throws InterruptedException, BreadTimeoutException {
+            MixLock mixLock = use(lockFile);
+            boolean locked = false;
+            try {
+                locked = mixLock.tryLock(deadline == NO_DEADLINE ? Long.MAX_VALUE : deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            }
+            finally {
+                if(!locked) {
+                    mixLock.release();
+                }
+            }
+            if(!locked) {
+                throw new BreadTimeoutException("The mix was still being baked when the bake timed out");
+            }
+            return mixLock;
+        }
+        
+        private static MixLock use(String lockFile) {
+            while(true) {
+                MixLock mixLock = MIX_LOCKS.get(lockFile);
+                if(mixLock == null) {
+                    MixLock created = new MixLock(lockFile);
+                    mixLock = MIX_LOCKS.putIfAbsent(lockFile, created);
+                    if(mixLock == null) {
+                        mixLock = created;
+                    }
+                }
+                synchronized(mixLock) {
+                    if(!mixLock.removed) {
+                        mixLock.users++;
+                        return mixLock;
+                    }
+                }
+            }
+        }
+        
+        @Override
+        public void unlock() {
+            super.unlock();
+            release();
+        }
+        
+        private synchronized void release() {
+            if(--users == 0) {
+                removed = true;
+                MIX_LOCKS.remove(lockFile, this);
+            }
+        }
+    }
+}
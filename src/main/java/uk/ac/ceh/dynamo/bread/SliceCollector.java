@@ -0,0 +1,24 @@
+package uk.ac.ceh.dynamo.bread;
+
+/**
+ * Receives the slices of bread which a StreamingOven discovers on a work 
+ * surface as it finds them.
+ * @see StreamingOven
+ * @author Christopher Johnson
+ */
+public interface SliceCollector<T, W> {
+    /**
+     * Called once before any slices are handed over, and before the oven can
+     * be asked to find any slices. No slice which the oven hands over will have an id 
+     * greater than the given id, so new slices should be given higher ids.
+     * @param maximumId the highest id of any slice on the work surface
+     */
+    void reserveIds(int maximumId);
+    
+    /**
+     * Hand over a slice which was found on the work surface. This may be called
+     * from several threads at once.
+     * @param slice which was found
+     */
+    void reloaded(BreadSlice<T, W> slice);
+}
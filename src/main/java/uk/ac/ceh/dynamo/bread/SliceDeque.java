@@ -0,0 +1,270 @@
+package uk.ac.ceh.dynamo.bread;
+
+import java.util.AbstractCollection;
+import java.util.ConcurrentModificationException;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * An intrusive doubly linked deque of bread slices. The links are held by the
+ * slices themselves, so a slice can be removed from the middle of the deque in
+ * constant time, rather than the linear scan a LinkedList does to find it. No
+ * nodes are allocated when slices are added.
+ *
+ * A slice can only be in one SliceDeque at a time. Like a LinkedList, this is
+ * not thread safe, the bread bin guards it with the bread bin lock.
+ * @see BreadBin
+ * @author Christopher Johnson
+ */
+public class SliceDeque<T, W> extends AbstractCollection<BreadSlice<T, W>> implements Deque<BreadSlice<T, W>> {
+    private BreadSlice<T, W> first, last;
+    private int size, modifications;
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return o instanceof BreadSlice && ((BreadSlice)o).deque == this;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        if(!contains(o)) {
+            return false;
+        }
+        //Only slices which were added to this deque have it as their deque
+        @SuppressWarnings("unchecked")
+        BreadSlice<T, W> slice = (BreadSlice<T, W>)o;
+        unlink(slice);
+        return true;
+    }
+
+    @Override
+    public void addFirst(BreadSlice<T, W> slice) {
+        link(slice, null, first);
+    }
+
+    @Override
+    public void addLast(BreadSlice<T, W> slice) {
+        link(slice, last, null);
+    }
+
+    @Override
+    public boolean offerFirst(BreadSlice<T, W> slice) {
+        addFirst(slice);
+        return true;
+    }
+
+    @Override
+    public boolean offerLast(BreadSlice<T, W> slice) {
+        addLast(slice);
+        return true;
+    }
+
+    @Override
+    public BreadSlice<T, W> removeFirst() {
+        return unlink(getFirst());
+    }
+
+    @Override
+    public BreadSlice<T, W> removeLast() {
+        return unlink(getLast());
+    }
+
+    @Override
+    public BreadSlice<T, W> pollFirst() {
+        return first != null ? unlink(first) : null;
+    }
+
+    @Override
+    public BreadSlice<T, W> pollLast() {
+        return last != null ? unlink(last) : null;
+    }
+
+    @Override
+    public BreadSlice<T, W> getFirst() {
+        if(first == null) {
+            throw new NoSuchElementException();
+        }
+        return first;
+    }
+
+    @Override
+    public BreadSlice<T, W> getLast() {
+        if(last == null) {
+            throw new NoSuchElementException();
+        }
+        return last;
+    }
+
+    @Override
+    public BreadSlice<T, W> peekFirst() {
+        return first;
+    }
+
+    @Override
+    public BreadSlice<T, W> peekLast() {
+        return last;
+    }
+
+    @Override
+    public boolean removeFirstOccurrence(Object o) {
+        return remove(o); //a slice can only occur once
+    }
+
+    @Override
+    public boolean removeLastOccurrence(Object o) {
+        return remove(o);
+    }
+
+    @Override
+    public boolean add(BreadSlice<T, W> slice) {
+        addLast(slice);
+        return true;
+    }
+
+    @Override
+    public boolean offer(BreadSlice<T, W> slice) {
+        return offerLast(slice);
+    }
+
+    @Override
+    public BreadSlice<T, W> remove() {
+        return removeFirst();
+    }
+
+    @Override
+    public BreadSlice<T, W> poll() {
+        return pollFirst();
+    }
+
+    @Override
+    public BreadSlice<T, W> element() {
+        return getFirst();
+    }
+
+    @Override
+    public BreadSlice<T, W> peek() {
+        return peekFirst();
+    }
+
+    @Override
+    public void push(BreadSlice<T, W> slice) {
+        addFirst(slice);
+    }
+
+    @Override
+    public BreadSlice<T, W> pop() {
+        return removeFirst();
+    }
+
+    @Override
+    public void clear() {
+        while(first != null) {
+            unlink(first);
+        }
+    }
+
+    @Override
+    public Iterator<BreadSlice<T, W>> iterator() {
+        return new SliceIterator(true);
+    }
+
+    @Override
+    public Iterator<BreadSlice<T, W>> descendingIterator() {
+        return new SliceIterator(false);
+    }
+
+    private void link(BreadSlice<T, W> slice, BreadSlice<T, W> previous, BreadSlice<T, W> next) {
+        if(slice.deque != null) {
+            throw new IllegalArgumentException("The slice is already in a deque");
+        }
+        slice.deque = this;
+        slice.previousInDeque = previous;
+        slice.nextInDeque = next;
+        if(previous != null) {
+            previous.nextInDeque = slice;
+        }
+        else {
+            first = slice;
+        }
+        if(next != null) {
+            next.previousInDeque = slice;
+        }
+        else {
+            last = slice;
+        }
+        size++;
+        modifications++;
+    }
+
+    private BreadSlice<T, W> unlink(BreadSlice<T, W> slice) {
+        BreadSlice<T, W> previous = slice.previousInDeque, next = slice.nextInDeque;
+        if(previous != null) {
+            previous.nextInDeque = next;
+        }
+        else {
+            first = next;
+        }
+        if(next != null) {
+            next.previousInDeque = previous;
+        }
+        else {
+            last = previous;
+        }
+        slice.deque = null;
+        slice.previousInDeque = slice.nextInDeque = null;
+        size--;
+        modifications++;
+        return slice;
+    }
+
+    /**
+     * Walks the deque in either direction, removing slices as it goes if asked
+     */
+    private class SliceIterator implements Iterator<BreadSlice<T, W>> {
+        private final boolean ascending;
+        private BreadSlice<T, W> next, current;
+        private int expectedModifications = modifications;
+
+        private SliceIterator(boolean ascending) {
+            this.ascending = ascending;
+            this.next = ascending ? first : last;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public BreadSlice<T, W> next() {
+            if(expectedModifications != modifications) {
+                throw new ConcurrentModificationException();
+            }
+            if(next == null) {
+                throw new NoSuchElementException();
+            }
+            current = next;
+            next = ascending ? next.nextInDeque : next.previousInDeque;
+            return current;
+        }
+
+        @Override
+        public void remove() {
+            if(current == null) {
+                throw new IllegalStateException();
+            }
+            if(expectedModifications != modifications) {
+                throw new ConcurrentModificationException();
+            }
+            unlink(current);
+            current = null;
+            expectedModifications = modifications;
+        }
+    }
+}
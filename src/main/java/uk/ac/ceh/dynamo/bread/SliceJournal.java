@@ -0,0 +1,381 @@
+package uk.ac.ceh.dynamo.bread;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * An append only journal of the lifecycle of the slices of bread on a work 
+ * surface. Reading the journal back is a single sequential read of one file, 
+ * which is much quicker than scanning a work surface full of baked bread.
+ * 
+ * The journal is memory mapped and each record is protected by a crc32. If the
+ * process died whilst a record was being written, the journal is read up to the
+ * last complete record.
+ * 
+ * Each slice goes through the following states:
+ *  - Baking  - a bake has been started, anything on the work surface for this
+ *              slice may be only partially baked
+ *  - Baked   - the slice was baked successfully, or renewed since with a 
+ *              new baked time and stale time
+ *  - Mouldy  - the slice has been submitted for deletion
+ *  - Deleted - the slice has gone from the work surface
+ * 
+ * When the journal has grown to more than twice the size needed for the slices
+ * which have not been deleted, it is compacted by writing a new journal and 
+ * moving it over the old one.
+ * @author Christopher Johnson
+ */
+public class SliceJournal implements Closeable {
+    public static final String FILENAME = "slices.journal";
+    public enum State { BAKING, BAKED, MOULDY }
+    
+    private static final int MAGIC = 0x42524544, VERSION = 1;
+    private static final int HEADER_SIZE = 8, INITIAL_CAPACITY = 1024 * 1024;
+    private static final byte BAKING = 1, BAKED = 2, MOULDY = 3, DELETED = 4;
+    private static final Charset UTF8 = Charset.forName("utf8");
+    
+    private final File file;
+    private final Map<Integer, Entry> entries = new TreeMap<>();
+    private final boolean existed;
+    private RandomAccessFile raf;
+    private MappedByteBuffer buffer;
+    private long liveBytes;
+    private int compactions;
+    
+    /**
+     * Open the journal at the given location, creating it if it does not exist.
+     * Existing journals are read in to memory straight away.
+     * @param file the location of the journal
+     * @throws IOException if the journal could not be opened
+     */
+    public SliceJournal(File file) throws IOException {
+        this.file = file;
+        boolean exists = file.exists() && file.length() >= HEADER_SIZE;
+        map(Math.max(file.length(), INITIAL_CAPACITY));
+        if(exists && buffer.getInt(0) == MAGIC && buffer.getInt(4) == VERSION) {
+            replay();
+            this.existed = true;
+        }
+        else {
+            clear();
+            this.existed = false;
+        }
+    }
+    
+    /**
+     * @return the location of this journal
+     */
+    public File getFile() {
+        return file;
+    }
+    
+    /**
+     * @return true if the journal was read from an existing file, false if it 
+     *  was missing or unreadable and so has been started afresh
+     */
+    public boolean existed() {
+        return existed;
+    }
+    
+    /**
+     * @param state of the entries to get
+     * @return the entries of slices which are currently in the given state, in
+     *  the order of their ids
+     */
+    public synchronized List<Entry> getEntries(State state) {
+        List<Entry> toReturn = new ArrayList<>();
+        for(Entry entry: entries.values()) {
+            if(entry.state == state) {
+                toReturn.add(entry);
+            }
+        }
+        return toReturn;
+    }
+    
+    /**
+     * @return the amount of times this journal has been compacted since it
+     *  was opened
+     */
+    public synchronized int getCompactions() {
+        return compactions;
+    }
+    
+    /**
+     * Record that a slice has started to bake
+     */
+    public synchronized void baking(int id, String mixName) throws IOException {
+        update(new Entry(id, mixName, State.BAKING, 0, 0, 0, 0));
+    }
+    
+    /**
+     * Record that a slice has baked successfully
+     * @param bakedTime the time at which the slice was baked
+     * @param size the amount of bytes the slice takes up
+     * @param bakeDuration the time in milliseconds the bake took
+     */
+    public synchronized void baked(int id, String mixName, long bakedTime, long size, long bakeDuration) throws IOException {
+        update(new Entry(id, mixName, State.BAKED, bakedTime, size, bakeDuration, 0));
+    }
+    
+    /**
+     * Record that a baked slice has been renewed, it is now treated as if it 
+     * was baked at the given time
+     * @param bakedTime the time at which the slice was renewed
+     * @param staleTime the stale time the slice was renewed with
+     */
+    public synchronized void renewed(int id, long bakedTime, long staleTime) throws IOException {
+        Entry entry = entries.get(id);
+        if(entry != null && entry.state == State.BAKED) {
+            update(new Entry(id, entry.mixName, State.BAKED, bakedTime, entry.size, entry.bakeDuration, staleTime));
+        }
+    }
+    
+    /**
+     * Record that a slice has been submitted for deletion
+     */
+    public synchronized void mouldy(int id) throws IOException {
+        Entry entry = entries.get(id);
+        if(entry != null && entry.state != State.MOULDY) {
+            update(new Entry(id, entry.mixName, State.MOULDY, entry.bakedTime, entry.size, entry.bakeDuration, entry.staleTime));
+        }
+    }
+    
+    /**
+     * Record that a slice has been removed from the work surface
+     */
+    public synchronized void deleted(int id) throws IOException {
+        Entry entry = entries.remove(id);
+        if(entry != null) {
+            liveBytes -= entry.getRecordSize();
+            append(encode(DELETED, id, null, 0, 0, 0, 0));
+        }
+    }
+    
+    /**
+     * Write all the live entries to a new journal and replace this one with it.
+     */
+    public synchronized void compact() throws IOException {
+        File compacted = new File(file.getParentFile(), file.getName() + ".compacting");
+        try (RandomAccessFile out = new RandomAccessFile(compacted, "rw")) {
+            MappedByteBuffer newBuffer = out.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, Math.max(INITIAL_CAPACITY, 2 * (HEADER_SIZE + liveBytes)));
+            newBuffer.putInt(MAGIC).putInt(VERSION);
+            for(Entry entry: entries.values()) {
+                newBuffer.put(entry.encode());
+            }
+            newBuffer.force();
+        }
+        raf.close();
+        Files.move(compacted.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        map(file.length());
+        position(HEADER_SIZE + liveBytes);
+        compactions++;
+    }
+
+    /**
+     * Flush the journal to disk and close it
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        buffer.force();
+        raf.close();
+    }
+    
+    private void update(Entry entry) throws IOException {
+        Entry previous = entries.put(entry.id, entry);
+        if(previous != null) {
+            liveBytes -= previous.getRecordSize();
+        }
+        liveBytes += entry.getRecordSize();
+        append(entry.encode());
+    }
+    
+    private void append(byte[] record) throws IOException {
+        if(buffer.remaining() < record.length + 4) {
+            int position = buffer.position();
+            map(2 * ((long)buffer.capacity() + record.length));
+            buffer.position(position);
+        }
+        buffer.put(record);
+        buffer.putInt(buffer.position(), 0); //Mark the end of the journal
+        
+        if(buffer.position() > INITIAL_CAPACITY && buffer.position() > 2 * (HEADER_SIZE + liveBytes)) {
+            compact();
+        }
+    }
+    
+    private void map(long capacity) throws IOException {
+        if(raf == null || !raf.getChannel().isOpen()) {
+            raf = new RandomAccessFile(file, "rw");
+        }
+        if(capacity > Integer.MAX_VALUE) {
+            throw new IOException("The journal has grown too large to map");
+        }
+        buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+    }
+    
+    private void position(long position) {
+        buffer.position((int)position);
+    }
+    
+    private void clear() {
+        entries.clear();
+        liveBytes = 0;
+        buffer.putInt(0, MAGIC).putInt(4, VERSION).putInt(HEADER_SIZE, 0);
+        position(HEADER_SIZE);
+    }
+    
+    //Read each complete record. If a record is torn, everything after it is
+    //zeroed so that it can not be mistaken for a record later on
+    private void replay() {
+        position(HEADER_SIZE);
+        CRC32 crc = new CRC32();
+        while(true) {
+            int start = buffer.position();
+            try {
+                int length = buffer.getInt();
+                if(length <= 0 || length > buffer.remaining() - 4) {
+                    buffer.position(start);
+                    if(length != 0) {
+                        zeroFrom(start);
+                    }
+                    return;
+                }
+                byte[] payload = new byte[length];
+                buffer.get(payload);
+                crc.reset();
+                crc.update(payload);
+                if((int)crc.getValue() != buffer.getInt()) {
+                    buffer.position(start);
+                    zeroFrom(start);
+                    return;
+                }
+                apply(payload);
+            }
+            catch(BufferUnderflowException bue) {
+                buffer.position(start);
+                return;
+            }
+        }
+    }
+    
+    private void zeroFrom(int start) {
+        for(int i=start; i<buffer.capacity(); i++) {
+            buffer.put(i, (byte)0);
+        }
+    }
+    
+    private void apply(byte[] payload) {
+        ByteBuffer record = ByteBuffer.wrap(payload);
+        byte type = record.get();
+        int id = record.getInt();
+        if(type == DELETED) {
+            Entry removed = entries.remove(id);
+            if(removed != null) {
+                liveBytes -= removed.getRecordSize();
+            }
+            return;
+        }
+        byte[] mixName = new byte[record.getShort()];
+        record.get(mixName);
+        State state = type == BAKING ? State.BAKING : type == BAKED ? State.BAKED : State.MOULDY;
+        long bakedTime = record.getLong(), size = record.getLong(), bakeDuration = record.getLong();
+        long staleTime = record.remaining() >= 8 ? record.getLong() : 0; //Not written by older journals
+        Entry entry = new Entry(id, new String(mixName, UTF8), state, bakedTime, size, bakeDuration, staleTime);
+        Entry previous = entries.put(id, entry);
+        if(previous != null) {
+            liveBytes -= previous.getRecordSize();
+        }
+        liveBytes += entry.getRecordSize();
+    }
+    
+    private static byte[] encode(byte type, int id, String mixName, long bakedTime, long size, long bakeDuration, long staleTime) {
+        byte[] mix = mixName != null ? mixName.getBytes(UTF8) : null;
+        int length = mix != null ? 1 + 4 + 2 + mix.length + 32 : 1 + 4;
+        ByteBuffer record = ByteBuffer.allocate(4 + length + 4);
+        record.putInt(length).put(type).putInt(id);
+        if(mix != null) {
+            record.putShort((short)mix.length).put(mix).putLong(bakedTime).putLong(size).putLong(bakeDuration).putLong(staleTime);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 4, length);
+        record.putInt((int)crc.getValue());
+        return record.array();
+    }
+    
+    /**
+     * The state of a slice of bread as recorded in the journal
+     */
+    public static class Entry {
+        private final int id;
+        private final String mixName;
+        private final State state;
+        private final long bakedTime, size, bakeDuration, staleTime;
+        private final int recordSize;
+        
+        private Entry(int id, String mixName, State state, long bakedTime, long size, long bakeDuration, long staleTime) {
+            this.recordSize = 4 + 1 + 4 + 2 + mixName.getBytes(UTF8).length + 32 + 4;
+            this.id = id;
+            this.mixName = mixName;
+            this.state = state;
+            this.bakedTime = bakedTime;
+            this.size = size;
+            this.bakeDuration = bakeDuration;
+            this.staleTime = staleTime;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public String getMixName() {
+            return mixName;
+        }
+
+        public State getState() {
+            return state;
+        }
+
+        public long getBakedTime() {
+            return bakedTime;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getBakeDuration() {
+            return bakeDuration;
+        }
+        
+        /**
+         * @return the stale time the slice was last renewed with, or 0 if it
+         *  has not been renewed and so has the stale time of its bakery
+         */
+        public long getStaleTime() {
+            return staleTime;
+        }
+        
+        private byte[] encode() {
+            byte type = state == State.BAKING ? BAKING : state == State.BAKED ? BAKED : MOULDY;
+            return SliceJournal.encode(type, id, mixName, bakedTime, size, bakeDuration, staleTime);
+        }
+        
+        private int getRecordSize() {
+            return recordSize;
+        }
+    }
+}
@@ -0,0 +1,590 @@
+package uk.ac.ceh.dynamo.bread;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Normalises sql statements so that statements which only differ in how they 
+ * were written share one slice of bread. The sql is parsed just enough to:
+ * 
+ *  - drop comments and collapse whitespace
+ *  - lower case everything which is not a literal or a quoted identifier
+ *  - sort the operands of and/or chains and drop redundant parentheses around
+ *    them
+ *  - sort and de-duplicate IN lists of literals
+ *  - drop doubled parentheses, e.g. ((a)) becomes (a)
+ * 
+ * Unquoted identifiers are lower cased, as PostgreSQL does. If a statement can
+ * not be tokenised (e.g. an unterminated literal), it is left as it is.
+ * 
+ * The normaliser keeps track of how many different statements it has seen and
+ * how many different statements it turned them in to. The ratio of these is
+ * how many bakes normalising saved. Only the first MAXIMUM_TRACKED statements 
+ * are tracked.
+ * @author Christopher Johnson
+ */
+public class SqlNormaliser implements IngredientNormaliser<String> {
+    public static final int MAXIMUM_TRACKED = 10000;
+    
+    private static final Set<String> BOUNDARIES = new HashSet<>(Arrays.asList(
+        "select", "where", "group", "by", "having", "order", "limit",
+        "offset", "union", "intersect", "except", "join", "inner", "left", 
+        "right", "full", "outer", "cross", "natural", "on", "using", "as", 
+        "when", "then", "else", "into", "values", "set", "returning", "window",
+        "fetch", "for", "with"));
+    private static final String OPERATOR_CHARS = "+-*/<>=~!@#%^&|`?";
+    
+    private final Set<String> statements = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final Set<String> normalStatements = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final AtomicLong normalised = new AtomicLong(), rewritten = new AtomicLong();
+    
+    @Override
+    public String normalise(String sql) {
+        String normal;
+        try {
+            normal = render(normalise(parse(tokenise(sql))));
+        }
+        catch(IllegalArgumentException iae) {
+            normal = sql; //Can't understand it, so don't touch it
+        }
+        record(sql, normal);
+        return normal;
+    }
+    
+    /**
+     * @return the amount of statements which have been normalised
+     */
+    public long getNormalisedCount() {
+        return normalised.get();
+    }
+    
+    /**
+     * @return the amount of statements which were changed by normalising
+     */
+    public long getRewrittenCount() {
+        return rewritten.get();
+    }
+    
+    /**
+     * @return the amount of different statements divided by the amount of
+     *  different normalised statements. 1 means that normalising has not saved
+     *  any bakes, 2 means it has halved them
+     */
+    public double getDedupRatio() {
+        int normal = normalStatements.size();
+        return normal == 0 ? 1 : (double)statements.size() / normal;
+    }
+    
+    /**
+     * @return the amount of bakes which were saved because different
+     *  statements normalised to the same statement
+     */
+    public int getBakesSaved() {
+        return statements.size() - normalStatements.size();
+    }
+    
+    private void record(String sql, String normal) {
+        normalised.incrementAndGet();
+        if(!normal.equals(sql)) {
+            rewritten.incrementAndGet();
+        }
+        if(statements.size() < MAXIMUM_TRACKED && statements.add(Murmur3Mixer.hash(sql))) {
+            normalStatements.add(Murmur3Mixer.hash(normal));
+        }
+    }
+    
+    //Normalise the contents of parentheses and case statements, then sort what
+    //can be sorted at this level
+    private List<Node> normalise(List<Node> nodes) {
+        List<Node> result = new ArrayList<>();
+        for(Node node: nodes) {
+            if(node.children != null) {
+                List<Node> children = normalise(node.children);
+                while(node.kind == Node.GROUP && children.size() == 1 && isGroup(children.get(0)) && !containsComma(children.get(0).children)) {
+                    children = children.get(0).children; //Doubled parentheses
+                }
+                result.add(new Node(node.kind, node.text, children));
+            }
+            else {
+                result.add(node);
+            }
+        }
+        sortInLists(result);
+        return sortPredicates(result);
+    }
+    
+    private void sortInLists(List<Node> nodes) {
+        for(int i=1; i<nodes.size(); i++) {
+            Node list = nodes.get(i);
+            if(isWord(nodes.get(i-1), "in") && isGroup(list)) {
+                List<List<Node>> values = split(list.children, ",");
+                List<Node> literals = new ArrayList<>();
+                for(List<Node> value: values) {
+                    if(value.size() != 1 || !value.get(0).isLiteral()) {
+                        literals = null; break; //Not a list of literals
+                    }
+                    literals.add(value.get(0));
+                }
+                if(literals != null) {
+                    Collections.sort(literals, new LiteralComparator());
+                    List<Node> sorted = new ArrayList<>();
+                    for(Node literal: literals) {
+                        if(sorted.isEmpty() || !sorted.get(sorted.size() - 1).text.equals(literal.text)) {
+                            if(!sorted.isEmpty()) {
+                                sorted.add(new Node(Node.PUNCTUATION, ","));
+                            }
+                            sorted.add(literal);
+                        }
+                    }
+                    nodes.set(i, new Node(Node.GROUP, null, sorted));
+                }
+            }
+        }
+    }
+    
+    //Sort the and/or chains which lie between clause keywords and commas
+    private List<Node> sortPredicates(List<Node> nodes) {
+        List<Node> result = new ArrayList<>();
+        int start = 0;
+        for(int i=0; i<=nodes.size(); i++) {
+            if(i == nodes.size() || isBoundary(nodes, i)) {
+                result.addAll(sortBoolean(nodes.subList(start, i)));
+                if(i < nodes.size()) {
+                    result.add(nodes.get(i));
+                }
+                start = i + 1;
+            }
+        }
+        return result;
+    }
+    
+    private List<Node> sortBoolean(List<Node> segment) {
+        List<List<Node>> ors = split(segment, "or");
+        if(ors.size() == 1) {
+            return sortChain(segment);
+        }
+        List<List<Node>> operands = new ArrayList<>();
+        for(List<Node> or: ors) {
+            if(isParenthesised(or, "or")) {
+                operands.addAll(split(or.get(0).children, "or"));
+            }
+            else {
+                operands.add(sortChain(or));
+            }
+        }
+        return join(operands, "or");
+    }
+    
+    private List<Node> sortChain(List<Node> or) {
+        List<List<Node>> ands = split(or, "and");
+        if(ands.size() == 1) {
+            return or;
+        }
+        List<List<Node>> operands = new ArrayList<>();
+        for(List<Node> and: ands) {
+            if(isParenthesised(and, "and")) {
+                operands.addAll(split(and.get(0).children, "and"));
+            }
+            else {
+                operands.add(and);
+            }
+        }
+        return join(operands, "and");
+    }
+    
+    //Sort the operands and join them with the given operator. If any operand is
+    //empty, the statement is not understood so is left as it is
+    private List<Node> join(List<List<Node>> operands, String operator) {
+        for(List<Node> operand: operands) {
+            if(operand.isEmpty()) {
+                throw new IllegalArgumentException("Missing operand of " + operator);
+            }
+        }
+        Collections.sort(operands, new Comparator<List<Node>>() {
+            @Override
+            public int compare(List<Node> o1, List<Node> o2) {
+                return render(o1).compareTo(render(o2));
+            }
+        });
+        List<Node> joined = new ArrayList<>();
+        for(List<Node> operand: operands) {
+            if(!joined.isEmpty()) {
+                joined.add(new Node(Node.WORD, operator));
+            }
+            joined.addAll(operand);
+        }
+        return joined;
+    }
+    
+    //Is the operand just a parenthesised expression which can be merged in to 
+    //the chain of the given operator without changing its meaning. That is one
+    //without clause keywords or commas and, for an and chain, no top level or
+    private boolean isParenthesised(List<Node> operand, String operator) {
+        if(operand.size() != 1 || !isGroup(operand.get(0))) {
+            return false;
+        }
+        List<Node> children = operand.get(0).children;
+        for(int i=0; i<children.size(); i++) {
+            if(isBoundary(children, i)) {
+                return false;
+            }
+        }
+        return !children.isEmpty() && (operator.equals("or") || split(children, "or").size() == 1);
+    }
+    
+    //Split on a top level operator, the and of a between is not split on
+    private List<List<Node>> split(List<Node> nodes, String operator) {
+        List<List<Node>> operands = new ArrayList<>();
+        List<Node> operand = new ArrayList<>();
+        boolean between = false;
+        for(Node node: nodes) {
+            if(isWord(node, "between")) {
+                between = true;
+            }
+            else if(between && isWord(node, "and")) {
+                between = false;
+                operand.add(node);
+                continue;
+            }
+            if(isWord(node, operator)) {
+                operands.add(operand);
+                operand = new ArrayList<>();
+            }
+            else {
+                operand.add(node);
+            }
+        }
+        operands.add(operand);
+        return operands;
+    }
+    
+    private boolean isBoundary(List<Node> nodes, int index) {
+        Node node = nodes.get(index);
+        if(node.kind == Node.PUNCTUATION) {
+            return node.text.equals(",") || node.text.equals(";");
+        }
+        if(node.kind == Node.WORD && BOUNDARIES.contains(node.text)) {
+            return true;
+        }
+        //from is a boundary, unless it is part of is [not] distinct from
+        return isWord(node, "from") && (index == 0 || !isWord(nodes.get(index - 1), "distinct"));
+    }
+    
+    private static boolean isWord(Node node, String text) {
+        return node.children == null && node.text.equals(text) && (node.kind == Node.WORD || node.kind == Node.PUNCTUATION);
+    }
+    
+    private static boolean isGroup(Node node) {
+        return node.kind == Node.GROUP;
+    }
+    
+    private boolean containsComma(List<Node> nodes) {
+        for(Node node: nodes) {
+            if(isWord(node, ",")) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    //Build the tree of parentheses and case statements
+    private List<Node> parse(List<Node> tokens) {
+        List<List<Node>> stack = new ArrayList<>();
+        List<Integer> kinds = new ArrayList<>();
+        List<Node> current = new ArrayList<>();
+        for(Node token: tokens) {
+            if(isWord(token, "(") || isWord(token, "case")) {
+                stack.add(current);
+                kinds.add(token.text.equals("(") ? Node.GROUP : Node.CASE);
+                current = new ArrayList<>();
+            }
+            else if(isWord(token, ")") || isWord(token, "end")) {
+                int kind = token.text.equals(")") ? Node.GROUP : Node.CASE;
+                if(stack.isEmpty() || kinds.get(kinds.size() - 1) != kind) {
+                    throw new IllegalArgumentException("Unbalanced " + token.text);
+                }
+                Node node = new Node(kind, null, current);
+                current = stack.remove(stack.size() - 1);
+                kinds.remove(kinds.size() - 1);
+                current.add(node);
+            }
+            else {
+                current.add(token);
+            }
+        }
+        if(!stack.isEmpty()) {
+            throw new IllegalArgumentException("Unbalanced parentheses or case");
+        }
+        return current;
+    }
+    
+    private String render(List<Node> nodes) {
+        StringBuilder sql = new StringBuilder();
+        render(nodes, sql);
+        return sql.toString();
+    }
+    
+    private void render(List<Node> nodes, StringBuilder sql) {
+        for(Node node: nodes) {
+            if(node.kind == Node.GROUP) {
+                append(sql, "(");
+                render(node.children, sql);
+                append(sql, ")");
+            }
+            else if(node.kind == Node.CASE) {
+                append(sql, "case");
+                render(node.children, sql);
+                append(sql, "end");
+            }
+            else {
+                append(sql, node.text);
+            }
+        }
+    }
+    
+    private void append(StringBuilder sql, String token) {
+        if(sql.length() > 0) {
+            char last = sql.charAt(sql.length() - 1);
+            boolean noSpace = last == '(' || last == '.' || last == '[' 
+                    || token.equals(")") || token.equals(",") || token.equals(".") 
+                    || token.equals("[") || token.equals("]") || token.equals(";");
+            if(!noSpace) {
+                sql.append(' ');
+            }
+        }
+        sql.append(token);
+    }
+    
+    private List<Node> tokenise(String sql) {
+        List<Node> tokens = new ArrayList<>();
+        int length = sql.length();
+        int i = 0;
+        while(i < length) {
+            char c = sql.charAt(i);
+            char next = i + 1 < length ? sql.charAt(i + 1) : 0;
+            if(Character.isWhitespace(c)) {
+                i++;
+            }
+            else if(c == '-' && next == '-') {
+                int end = sql.indexOf('\n', i);
+                i = end < 0 ? length : end + 1;
+            }
+            else if(c == '/' && next == '*') {
+                i = skipBlockComment(sql, i);
+            }
+            else if(c == '\'') {
+                int end = endOfQuoted(sql, i, '\'', false);
+                tokens.add(new Node(Node.LITERAL, sql.substring(i, end)));
+                i = end;
+            }
+            else if(c == '"') {
+                int end = endOfQuoted(sql, i, '"', false);
+                tokens.add(new Node(Node.IDENTIFIER, sql.substring(i, end)));
+                i = end;
+            }
+            else if(Character.isLetter(c) || c == '_') {
+                int end = i;
+                while(end < length && isWordChar(sql.charAt(end))) {
+                    end++;
+                }
+                String word = sql.substring(i, end).toLowerCase(Locale.ROOT);
+                if(end - i == 1 && end < length && sql.charAt(end) == '\'' && "ebxn".indexOf(word.charAt(0)) >= 0) {
+                    //A prefixed string literal, e.g. E'escaped\'s'
+                    int literalEnd = endOfQuoted(sql, end, '\'', word.equals("e"));
+                    tokens.add(new Node(Node.LITERAL, word + sql.substring(end, literalEnd)));
+                    i = literalEnd;
+                }
+                else if(word.equals("u") && end + 1 < length && sql.charAt(end) == '&' && (sql.charAt(end + 1) == '\'' || sql.charAt(end + 1) == '"')) {
+                    //A unicode escaped literal or identifier, e.g. U&'d\0061t\+000061'
+                    char quote = sql.charAt(end + 1);
+                    int quotedEnd = endOfQuoted(sql, end + 1, quote, false);
+                    tokens.add(new Node(quote == '\'' ? Node.LITERAL : Node.IDENTIFIER, "u&" + sql.substring(end + 1, quotedEnd)));
+                    i = quotedEnd;
+                }
+                else {
+                    tokens.add(new Node(Node.WORD, word));
+                    i = end;
+                }
+            }
+            else if(c == '$') {
+                i = readDollar(sql, i, tokens);
+            }
+            else if(Character.isDigit(c) || (c == '.' && Character.isDigit(next))) {
+                int end = endOfNumber(sql, i);
+                tokens.add(new Node(Node.NUMBER, sql.substring(i, end).toLowerCase(Locale.ROOT)));
+                i = end;
+            }
+            else if(c == ':' && next == ':') {
+                tokens.add(new Node(Node.OPERATOR, "::"));
+                i += 2;
+            }
+            else if(OPERATOR_CHARS.indexOf(c) >= 0) {
+                int end = endOfOperator(sql, i);
+                tokens.add(new Node(Node.OPERATOR, sql.substring(i, end)));
+                i = end;
+            }
+            else {
+                tokens.add(new Node(Node.PUNCTUATION, String.valueOf(c)));
+                i++;
+            }
+        }
+        return tokens;
+    }
+    
+    private static boolean isWordChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '$';
+    }
+    
+    private static int skipBlockComment(String sql, int start) {
+        int depth = 0;
+        for(int i=start; i<sql.length() - 1; i++) {
+            if(sql.charAt(i) == '/' && sql.charAt(i + 1) == '*') {
+                depth++; i++;
+            }
+            else if(sql.charAt(i) == '*' && sql.charAt(i + 1) == '/') {
+                i++;
+                if(--depth == 0) {
+                    return i + 1;
+                }
+            }
+        }
+        throw new IllegalArgumentException("Unterminated comment");
+    }
+    
+    //Find the end of a quoted literal or identifier. Doubled quotes are escaped
+    //quotes, as are backslashed quotes if backslash escapes are enabled
+    private static int endOfQuoted(String sql, int start, char quote, boolean backslashEscapes) {
+        for(int i=start + 1; i<sql.length(); i++) {
+            char c = sql.charAt(i);
+            if(backslashEscapes && c == '\\') {
+                i++;
+            }
+            else if(c == quote) {
+                if(i + 1 < sql.length() && sql.charAt(i + 1) == quote) {
+                    i++;
+                }
+                else {
+                    return i + 1;
+                }
+            }
+        }
+        throw new IllegalArgumentException("Unterminated quoted text");
+    }
+    
+    //Reads either a positional parameter ($1) or a dollar quoted literal ($tag$..$tag$)
+    private static int readDollar(String sql, int start, List<Node> tokens) {
+        int end = start + 1;
+        if(end < sql.length() && Character.isDigit(sql.charAt(end))) {
+            while(end < sql.length() && Character.isDigit(sql.charAt(end))) {
+                end++;
+            }
+            tokens.add(new Node(Node.WORD, sql.substring(start, end)));
+            return end;
+        }
+        while(end < sql.length() && (Character.isLetterOrDigit(sql.charAt(end)) || sql.charAt(end) == '_')) {
+            end++;
+        }
+        if(end < sql.length() && sql.charAt(end) == '$') {
+            String tag = sql.substring(start, end + 1);
+            int close = sql.indexOf(tag, end + 1);
+            if(close < 0) {
+                throw new IllegalArgumentException("Unterminated dollar quoted text");
+            }
+            tokens.add(new Node(Node.LITERAL, sql.substring(start, close + tag.length())));
+            return close + tag.length();
+        }
+        tokens.add(new Node(Node.PUNCTUATION, "$"));
+        return start + 1;
+    }
+    
+    private static int endOfNumber(String sql, int start) {
+        int i = start;
+        while(i < sql.length() && (Character.isDigit(sql.charAt(i)) || sql.charAt(i) == '.')) {
+            i++;
+        }
+        if(i < sql.length() && (sql.charAt(i) == 'e' || sql.charAt(i) == 'E')) {
+            int exponent = i + 1;
+            if(exponent < sql.length() && (sql.charAt(exponent) == '+' || sql.charAt(exponent) == '-')) {
+                exponent++;
+            }
+            if(exponent < sql.length() && Character.isDigit(sql.charAt(exponent))) {
+                i = exponent;
+                while(i < sql.length() && Character.isDigit(sql.charAt(i))) {
+                    i++;
+                }
+            }
+        }
+        return i;
+    }
+    
+    //Operators are read the same way as PostgreSQL. A multiple character 
+    //operator can only end in + or - if it contains one of ~!@#%^&|`?
+    private static int endOfOperator(String sql, int start) {
+        int end = start;
+        while(end < sql.length() && OPERATOR_CHARS.indexOf(sql.charAt(end)) >= 0) {
+            if(end > start && ((sql.charAt(end) == '-' && sql.charAt(end - 1) == '-') || (sql.charAt(end) == '*' && sql.charAt(end - 1) == '/'))) {
+                end--; //The start of a comment
+                break;
+            }
+            end++;
+        }
+        String operator = sql.substring(start, end);
+        boolean canEndInSign = false;
+        for(char c: "~!@#%^&|`?".toCharArray()) {
+            canEndInSign |= operator.indexOf(c) >= 0;
+        }
+        while(!canEndInSign && end - start > 1 && (sql.charAt(end - 1) == '+' || sql.charAt(end - 1) == '-')) {
+            end--;
+        }
+        return end;
+    }
+    
+    private static class Node {
+        private static final int WORD = 0, LITERAL = 1, IDENTIFIER = 2, NUMBER = 3, 
+                OPERATOR = 4, PUNCTUATION = 5, GROUP = 6, CASE = 7;
+        
+        private final int kind;
+        private final String text;
+        private final List<Node> children;
+        
+        private Node(int kind, String text) {
+            this(kind, text, null);
+        }
+        
+        private Node(int kind, String text, List<Node> children) {
+            this.kind = kind;
+            this.text = text;
+            this.children = children;
+        }
+        
+        private boolean isLiteral() {
+            return kind == LITERAL || kind == NUMBER;
+        }
+    }
+    
+    /**
+     * Orders numbers numerically before string literals
+     */
+    private static class LiteralComparator implements Comparator<Node> {
+        @Override
+        public int compare(Node o1, Node o2) {
+            if(o1.kind == Node.NUMBER && o2.kind == Node.NUMBER) {
+                int compare = new BigDecimal(o1.text).compareTo(new BigDecimal(o2.text));
+                return compare != 0 ? compare : o1.text.compareTo(o2.text);
+            }
+            if(o1.kind != o2.kind) {
+                return o1.kind == Node.NUMBER ? -1 : 1;
+            }
+            return o1.text.compareTo(o2.text);
+        }
+    }
+}
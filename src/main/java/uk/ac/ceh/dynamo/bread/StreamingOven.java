@@ -0,0 +1,40 @@
+package uk.ac.ceh.dynamo.bread;
+
+/**
+ * An oven which can hand over the slices of bread on its work surface as it 
+ * finds them, rather than all at once. This allows a bakery to start serving 
+ * requests whilst it is still being reloaded.
+ * @see Bakery#isReloading() 
+ * @author Christopher Johnson
+ */
+public interface StreamingOven<T, I, W> extends Oven<T, I, W> {
+    /**
+     * Discover the slices which are already present on the work surface and 
+     * hand each one over to the collector. This method will return once every
+     * slice has been handed over.
+     * 
+     * Each slice is either handed over to the collector, or returned by 
+     * #find(Clock, Object, DustBin, long, String) but never both.
+     * @param clock The bakery's clock
+     * @param workSurface the work surface to scan
+     * @param bin the bakery's dustbin
+     * @param staleTime the time it takes bread slices to go stale
+     * @param collector to hand the discovered slices to
+     * @throws InterruptedException if the reload was interrupted
+     */
+    void reload(Clock clock, W workSurface, DustBin<W> bin, long staleTime, SliceCollector<T, W> collector) throws InterruptedException;
+    
+    /**
+     * Whilst a reload is in progress, look for a slice of the given mix on the
+     * work surface which has not yet been handed over. This is only called 
+     * once the reload has asked the collector to reserve ids.
+     * @param clock The bakery's clock
+     * @param workSurface the work surface to look on
+     * @param bin the bakery's dustbin
+     * @param staleTime the time it takes bread slices to go stale
+     * @param mixName of the slice to look for
+     * @return the slice of the given mix, or null if there is not one waiting
+     *  to be handed over
+     */
+    BreadSlice<T, W> find(Clock clock, W workSurface, DustBin<W> bin, long staleTime, String mixName);
+}
@@ -1,10 +1,9 @@
 package uk.ac.ceh.dynamo.bread;
 
-import java.util.Calendar;
-
 /**
  * The standard implementation of a clock, this is based on system time and
- * therefore useful in production systems
+ * therefore useful in production systems. Obtaining the time is cheap and does
+ * not create any objects.
  * @author Christopher Johnson
  */
 public class SystemClock implements Clock {
@@ -14,6 +13,6 @@ public class SystemClock implements Clock {
      */
     @Override
     public long getTimeInMillis() {
-        return Calendar.getInstance().getTimeInMillis();
+        return System.currentTimeMillis();
     }
 }
@@ -0,0 +1,72 @@
+package uk.ac.ceh.dynamo.bread;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A secondary index of bread slices by the tags of their ingredients. Slices 
+ * are indexed with the tags which they carry, and unindexed with the same 
+ * tags. The index is lock free, a tag whose last slice is removed is dropped
+ * from the index.
+ * @see Tagger
+ * @author Christopher Johnson
+ */
+public class TagIndex<T, W> {
+    private final ConcurrentMap<String, Set<BreadSlice<T, W>>> slices = new ConcurrentHashMap<>();
+    
+    /**
+     * Index the given slice by its tags
+     * @param slice which has been tagged
+     */
+    public void add(BreadSlice<T, W> slice) {
+        for(String tag: slice.getTags()) {
+            Set<BreadSlice<T, W>> tagged;
+            do {
+                tagged = slices.get(tag);
+                if(tagged == null) {
+                    Set<BreadSlice<T, W>> created = Collections.newSetFromMap(new ConcurrentHashMap<BreadSlice<T, W>, Boolean>());
+                    tagged = slices.putIfAbsent(tag, created);
+                    tagged = tagged != null ? tagged : created;
+                }
+                tagged.add(slice);
+                //The set may have emptied and left the index whilst adding
+            } while(slices.get(tag) != tagged);
+        }
+    }
+    
+    /**
+     * Remove the given slice from the index
+     * @param slice which was added to the index
+     */
+    public void remove(BreadSlice<T, W> slice) {
+        Set<String> tags = slice.getTags();
+        if(tags != null) {
+            for(String tag: tags) {
+                Set<BreadSlice<T, W>> tagged = slices.get(tag);
+                if(tagged != null && tagged.remove(slice) && tagged.isEmpty()) {
+                    slices.remove(tag, tagged);
+                }
+            }
+        }
+    }
+    
+    /**
+     * @param tag to look up
+     * @return a copy of the slices which have been indexed with the tag
+     */
+    public List<BreadSlice<T, W>> get(String tag) {
+        Set<BreadSlice<T, W>> tagged = slices.get(tag);
+        return tagged != null ? new ArrayList<>(tagged) : Collections.<BreadSlice<T, W>>emptyList();
+    }
+    
+    /**
+     * @return the amount of tags which have slices in the index
+     */
+    public int getTagCount() {
+        return slices.size();
+    }
+}
@@ -0,0 +1,20 @@
+package uk.ac.ceh.dynamo.bread;
+
+import java.util.Set;
+
+/**
+ * A tagger decides which tags some ingredients carry, for example the datasets
+ * which the bread is baked from. The bakery keeps an index of its slices by 
+ * tag, so that every slice with a given tag can be invalidated at once when 
+ * the data behind it changes.
+ * @see PatternTagger
+ * @see Bakery#invalidate(String, boolean)
+ * @author Christopher Johnson
+ */
+public interface Tagger<I> {
+    /**
+     * @param ingredients to obtain the tags of
+     * @return the tags of the ingredients, empty if it has none
+     */
+    Set<String> getTags(I ingredients);
+}
@@ -0,0 +1,176 @@
+package uk.ac.ceh.dynamo.bread;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * A W-TinyLFU style eviction policy. Slices which are only ever eaten once
+ * (e.g. one off queries) should not push out the slices which are eaten all
+ * the time.
+ *
+ * Freshly baked slices go into a small window (1% of the bread bin) which is
+ * managed as least recently used. When a slice falls out of the window it has
+ * to compete for a place in the main area of the bread bin against the slice
+ * which the main area would evict next. The winner is the slice whose mix has been eaten most often
+ * recently, as estimated by a frequency sketch. The main area is split in to a
+ * probation and protected segment, slices are promoted to the protected segment
+ * when they are eaten whilst on probation.
+ *
+ * The frequency sketch is keyed by mix name, so a popular mix keeps its
+ * popularity when its slice is replaced by a fresher bake. The sketch is aged
+ * periodically so that mixes which used to be popular eventually lose out.
+ * @author Christopher Johnson
+ */
+public class TinyLfuEvictionPolicy<T, W> implements EvictionPolicy<T, W> {
+    private final LinkedHashMap<BreadSlice<T, W>, Boolean> window, probation, protectedSlices;
+    private final FrequencySketch sketch;
+    private final int maximumSlices, maximumWindow, maximumProtected;
+
+    /**
+     * Create a W-TinyLFU eviction policy
+     * @param maximumSlices the amount of slices to keep in the bread bin
+     */
+    public TinyLfuEvictionPolicy(int maximumSlices) {
+        if(maximumSlices < 1) {
+            throw new IllegalArgumentException("There must be room for at least one slice");
+        }
+        this.maximumSlices = maximumSlices;
+        this.maximumWindow = maximumSlices / 100; //small bins have no window at all
+        this.maximumProtected = (int)((maximumSlices - maximumWindow) * 0.8);
+        this.window = new LinkedHashMap<>(16, 0.75f, true);
+        this.probation = new LinkedHashMap<>(16, 0.75f, true);
+        this.protectedSlices = new LinkedHashMap<>(16, 0.75f, true);
+        this.sketch = new FrequencySketch(maximumSlices);
+    }
+
+    @Override
+    public void baked(BreadSlice<T, W> slice) {
+        window.put(slice, Boolean.TRUE);
+    }
+
+    @Override
+    public void eaten(BreadSlice<T, W> slice) {
+        sketch.increment(slice.getMixName());
+        if(window.get(slice) == null && protectedSlices.get(slice) == null) {
+            if(probation.remove(slice) != null) {
+                protectedSlices.put(slice, Boolean.TRUE);
+                if(protectedSlices.size() > maximumProtected) {
+                    //Demote the least recently used protected slice back to probation
+                    probation.put(removeEldest(protectedSlices), Boolean.TRUE);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void removed(BreadSlice<T, W> slice) {
+        if(window.remove(slice) == null && probation.remove(slice) == null) {
+            protectedSlices.remove(slice);
+        }
+    }
+
+    @Override
+    public List<BreadSlice<T, W>> evict() {
+        List<BreadSlice<T, W>> victims = new ArrayList<>();
+        while(window.size() > maximumWindow) {
+            BreadSlice<T, W> candidate = removeEldest(window);
+            if(size() < maximumSlices) {
+                probation.put(candidate, Boolean.TRUE); //There is room, no need to compete
+            }
+            else {
+                BreadSlice<T, W> victim = eldest(probation.isEmpty() ? protectedSlices : probation);
+                if(victim != null && sketch.frequency(candidate.getMixName()) > sketch.frequency(victim.getMixName())) {
+                    removed(victim);
+                    victims.add(victim);
+                    probation.put(candidate, Boolean.TRUE);
+                }
+                else {
+                    victims.add(candidate);
+                }
+            }
+        }
+        //Only happens if more slices were reloaded than there is room for
+        while(size() > maximumSlices) {
+            victims.add(removeEldest(!probation.isEmpty() ? probation : !protectedSlices.isEmpty() ? protectedSlices : window));
+        }
+        return victims;
+    }
+
+    private int size() {
+        return window.size() + probation.size() + protectedSlices.size();
+    }
+
+    private BreadSlice<T, W> eldest(LinkedHashMap<BreadSlice<T, W>, Boolean> segment) {
+        Iterator<BreadSlice<T, W>> iterator = segment.keySet().iterator();
+        return iterator.hasNext() ? iterator.next() : null;
+    }
+
+    private BreadSlice<T, W> removeEldest(LinkedHashMap<BreadSlice<T, W>, Boolean> segment) {
+        Iterator<BreadSlice<T, W>> iterator = segment.keySet().iterator();
+        BreadSlice<T, W> eldest = iterator.next();
+        iterator.remove();
+        return eldest;
+    }
+
+    /**
+     * A count-min sketch of 4 bit counters which estimates how often a mix has
+     * been eaten. Once enough eatings have been recorded all the counters are
+     * halved, so that the sketch reflects recent popularity.
+     */
+    static class FrequencySketch {
+        private static final long[] SEEDS = { 0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+        private static final int MAXIMUM_COUNT = 15;
+
+        private final byte[][] table;
+        private final int mask, sampleSize;
+        private int additions;
+
+        FrequencySketch(int maximumSlices) {
+            int width = Integer.highestOneBit(Math.max(16, Math.min(maximumSlices, 1 << 24)) - 1) << 1;
+            this.table = new byte[SEEDS.length][width];
+            this.mask = width - 1;
+            this.sampleSize = (int)Math.min(10L * maximumSlices, Integer.MAX_VALUE);
+        }
+
+        void increment(String mixName) {
+            int hash = mixName.hashCode();
+            boolean added = false;
+            for(int i=0; i<SEEDS.length; i++) {
+                int index = indexOf(hash, i);
+                if(table[i][index] < MAXIMUM_COUNT) {
+                    table[i][index]++;
+                    added = true;
+                }
+            }
+            if(added && ++additions >= sampleSize) {
+                age();
+            }
+        }
+
+        int frequency(String mixName) {
+            int hash = mixName.hashCode();
+            int frequency = MAXIMUM_COUNT;
+            for(int i=0; i<SEEDS.length; i++) {
+                frequency = Math.min(frequency, table[i][indexOf(hash, i)]);
+            }
+            return frequency;
+        }
+
+        private void age() {
+            for(byte[] row: table) {
+                for(int i=0; i<row.length; i++) {
+                    row[i] >>= 1;
+                }
+            }
+            additions /= 2;
+        }
+
+        private int indexOf(int hash, int row) {
+            long h = (hash + SEEDS[row]) * SEEDS[row];
+            h += h >>> 32;
+            return (int)h & mask;
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package uk.ac.ceh.dynamo.bread;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The progress of warming up a bakery with a list of ingredients. Each of the
+ * ingredients is put into the bread ovens at WARMUP priority, so that the first
+ * requests for them do not have to wait for a bake.
+ * 
+ * Only a limited amount of a warm up's bakes are in the bread ovens at once, 
+ * the next ingredients are only read from the list as earlier bakes finish. 
+ * This means the list can be read lazily, and a long list does not fill up 
+ * the queue of the bread ovens.
+ * @see Bakery#warmUp(Iterable, int, boolean)
+ * @author Christopher Johnson
+ */
+public class WarmUp<I> {
+    public static final int UNKNOWN_TOTAL = -1;
+    
+    private final CountDownLatch done = new CountDownLatch(1);
+    private final Iterator<? extends I> ingredients;
+    private final Starter<I> starter;
+    private final int total, concurrency;
+    
+    private int started, inOven, baked, failed, skipped;
+    private boolean cancelled, starting;
+    
+    /**
+     * Decides if some ingredients need baking, and if so puts them into the
+     * bread ovens
+     */
+    interface Starter<I> {
+        /**
+         * @return true if a bake was submitted, which will report back with 
+         *  #finished(boolean). False if the ingredients did not need baking
+         */
+        boolean start(I ingredients, WarmUp<I> warmUp);
+    }
+    
+    WarmUp(Iterable<? extends I> ingredients, int concurrency, Starter<I> starter) {
+        if(concurrency < 1) {
+            throw new IllegalArgumentException("At least one bake must be allowed at once");
+        }
+        this.ingredients = ingredients.iterator();
+        this.total = ingredients instanceof Collection ? ((Collection<?>)ingredients).size() : UNKNOWN_TOTAL;
+        this.concurrency = concurrency;
+        this.starter = starter;
+    }
+    
+    /**
+     * Put ingredients into the bread ovens until the concurrency is used up or
+     * there are no more ingredients. A bake can finish (or be discarded) whilst
+     * it is being started, so only the outer call does the starting.
+     */
+    synchronized void start() {
+        if(!starting) {
+            starting = true;
+            try {
+                while(!cancelled && inOven < concurrency && ingredients.hasNext()) {
+                    I next = ingredients.next();
+                    started++;
+                    inOven++;
+                    if(!starter.start(next, this)) {
+                        inOven--;
+                        skipped++;
+                    }
+                }
+            }
+            finally {
+                starting = false;
+            }
+            if(inOven == 0 && (cancelled || !ingredients.hasNext())) {
+                done.countDown();
+            }
+        }
+    }
+    
+    /**
+     * Called once a bake which was started by this warm up has finished
+     * @param success if the slice was baked
+     */
+    synchronized void finished(boolean success) {
+        inOven--;
+        if(success) {
+            baked++;
+        }
+        else {
+            failed++;
+        }
+        start();
+    }
+    
+    /**
+     * Stop putting ingredients into the bread ovens. Bakes which have already
+     * been started will carry on.
+     */
+    public synchronized void cancel() {
+        cancelled = true;
+        if(inOven == 0) {
+            done.countDown();
+        }
+    }
+    
+    /**
+     * Wait for this warm up to finish
+     * @return true if the warm up finished, false if the timeout passed first
+     */
+    public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+        return done.await(timeout, unit);
+    }
+    
+    /**
+     * @return true once every bake of this warm up has finished
+     */
+    public boolean isDone() {
+        return done.getCount() == 0;
+    }
+    
+    /**
+     * @return the amount of ingredients in this warm up, or UNKNOWN_TOTAL if 
+     *  they were not given as a collection
+     */
+    public int getTotal() {
+        return total;
+    }
+    
+    /**
+     * @return the amount of ingredients which have been read so far
+     */
+    public synchronized int getStarted() {
+        return started;
+    }
+    
+    /**
+     * @return the amount of ingredients which were baked
+     */
+    public synchronized int getBaked() {
+        return baked;
+    }
+    
+    /**
+     * @return the amount of ingredients which failed to bake, or which the 
+     *  bread ovens were too busy to accept
+     */
+    public synchronized int getFailed() {
+        return failed;
+    }
+    
+    /**
+     * @return the amount of ingredients which did not need baking, as they were
+     *  already fresh or baking, or are backing off from a failure
+     */
+    public synchronized int getSkipped() {
+        return skipped;
+    }
+}
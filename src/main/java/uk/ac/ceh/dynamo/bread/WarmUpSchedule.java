@@ -0,0 +1,105 @@
+package uk.ac.ceh.dynamo.bread;
+
+import java.util.Date;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.springframework.scheduling.support.CronSequenceGenerator;
+
+/**
+ * Warms up a bakery on a cron schedule, e.g. to rebake the most popular 
+ * ingredients during the night so that the slices are fresh for the day. The 
+ * ingredients are obtained afresh each time the schedule fires, and every one
+ * of them is baked again even if its slice is still fresh.
+ * @see Bakery#scheduleWarmUp(String, Callable, int) 
+ * @author Christopher Johnson
+ */
+public class WarmUpSchedule<I> implements Runnable {
+    private final Bakery<?, I, ?> bakery;
+    private final CronSequenceGenerator cron;
+    private final Callable<? extends Iterable<? extends I>> ingredients;
+    private final int concurrency;
+    private final ScheduledExecutorService executor;
+    private final AtomicInteger failures = new AtomicInteger();
+    
+    private volatile ScheduledFuture<?> next;
+    private volatile WarmUp<I> lastWarmUp;
+    private volatile boolean cancelled;
+    
+    /**
+     * Create a warm up schedule, this will not fire until #schedule() is called
+     * @param bakery to warm up
+     * @param cronExpression a spring style cron expression, e.g. "0 0 3 * * *"
+     *  for 3am every day
+     * @param ingredients obtains the ingredients to bake each time
+     * @param concurrency the maximum amount of bakes to have in the bread ovens
+     *  at once
+     * @param executor which the warm ups are started on
+     * @throws IllegalArgumentException if the cron expression is not valid
+     */
+    public WarmUpSchedule(Bakery<?, I, ?> bakery, String cronExpression, Callable<? extends Iterable<? extends I>> ingredients, int concurrency, ScheduledExecutorService executor) {
+        this.bakery = bakery;
+        this.cron = new CronSequenceGenerator(cronExpression);
+        this.ingredients = ingredients;
+        this.concurrency = concurrency;
+        this.executor = executor;
+    }
+    
+    /**
+     * Schedule the next warm up according to the cron expression, using the 
+     * clock of the bakery
+     */
+    public void schedule() {
+        long now = bakery.getClock().getTimeInMillis();
+        next = executor.schedule(this, cron.next(new Date(now)).getTime() - now, TimeUnit.MILLISECONDS);
+        if(cancelled) {
+            next.cancel(false); //Cancelled whilst we were scheduling
+        }
+    }
+    
+    /**
+     * Start a warm up now and schedule the next one
+     */
+    @Override
+    public void run() {
+        try {
+            lastWarmUp = bakery.warmUp(ingredients.call(), concurrency, true);
+        }
+        catch(Exception ex) {
+            failures.incrementAndGet(); //Try again next time
+        }
+        finally {
+            if(!cancelled) {
+                schedule();
+            }
+        }
+    }
+    
+    /**
+     * Stop any more warm ups from starting. A warm up which is currently going
+     * on will carry on.
+     */
+    public void cancel() {
+        cancelled = true;
+        ScheduledFuture<?> scheduled = next;
+        if(scheduled != null) {
+            scheduled.cancel(false);
+        }
+    }
+    
+    /**
+     * @return the most recently started warm up, or null if none have started
+     */
+    public WarmUp<I> getLastWarmUp() {
+        return lastWarmUp;
+    }
+    
+    /**
+     * @return the amount of times the ingredients could not be obtained
+     */
+    public int getFailureCount() {
+        return failures.get();
+    }
+}
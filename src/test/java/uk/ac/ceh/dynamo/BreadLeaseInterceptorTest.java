@@ -0,0 +1,65 @@
+package uk.ac.ceh.dynamo;
+
+import java.util.Arrays;
+import java.util.List;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+import org.mockito.ArgumentCaptor;
+import uk.ac.ceh.dynamo.bread.BreadLease;
+
+/**
+ *
+ * @author Christopher Johnson
+ */
+public class BreadLeaseInterceptorTest {
+    @Test
+    public void checkThatHeldLeasesAreClosedWhenRequestCompletes() {
+        //Given
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        BreadLease first = mock(BreadLease.class);
+        BreadLease second = mock(BreadLease.class);
+        ArgumentCaptor<List> leases = ArgumentCaptor.forClass(List.class);
+        BreadLeaseInterceptor.hold(request, first);
+        verify(request).setAttribute(eq(BreadLeaseInterceptor.LEASES_ATTRIBUTE), leases.capture());
+        when(request.getAttribute(BreadLeaseInterceptor.LEASES_ATTRIBUTE)).thenReturn(leases.getValue());
+        BreadLeaseInterceptor.hold(request, second);
+        
+        //When
+        new BreadLeaseInterceptor().afterCompletion(request, mock(HttpServletResponse.class), null, new Exception());
+        
+        //Then
+        verify(first).close();
+        verify(second).close();
+        verify(request).removeAttribute(BreadLeaseInterceptor.LEASES_ATTRIBUTE);
+    }
+    
+    @Test
+    public void checkThatReleasedLeasesAreOnlyClosedOnce() {
+        //Given
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        BreadLease lease = mock(BreadLease.class);
+        when(request.getAttribute(BreadLeaseInterceptor.LEASES_ATTRIBUTE)).thenReturn(Arrays.asList(lease), null);
+        BreadLeaseInterceptor.release(request);
+        
+        //When
+        new BreadLeaseInterceptor().afterCompletion(request, mock(HttpServletResponse.class), null, null);
+        
+        //Then
+        verify(lease, times(1)).close();
+    }
+    
+    @Test
+    public void checkThatRequestWithoutLeasesCompletes() {
+        //Given
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        
+        //When
+        new BreadLeaseInterceptor().afterCompletion(request, mock(HttpServletResponse.class), null, null);
+        
+        //Then
+        verify(request).getAttribute(BreadLeaseInterceptor.LEASES_ATTRIBUTE);
+    }
+}
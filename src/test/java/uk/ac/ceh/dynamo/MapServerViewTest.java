@@ -7,6 +7,7 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import javax.servlet.ServletOutputStream;
@@ -24,6 +25,7 @@ import org.junit.rules.TemporaryFolder;
 import static org.mockito.Mockito.*;
 import static org.junit.Assert.*;
 import org.mockito.ArgumentCaptor;
+import uk.ac.ceh.dynamo.bread.BreadLease;
 import static org.mockito.Matchers.*;
 /**
  *
@@ -110,6 +112,26 @@ public class MapServerViewTest {
         assertEquals("Expected the output from mapserver to be sent to the http response", mapServerContent, mapViewOutputStream.toString());
     }
     
+    @Test
+    public void checkThatHeldLeasesAreClosedOnceRendered() throws Exception {
+        //Given
+        CloseableHttpClient httpClient = getURLWhichReturns("Any old gibberish", "image/png");
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        HttpServletResponse response = mock(HttpServletResponse.class);
+        ServletOutputStream mapViewOutputStream = mock(ServletOutputStream.class);
+        when(response.getOutputStream()).thenReturn(mapViewOutputStream);
+        BreadLease lease = mock(BreadLease.class);
+        when(request.getAttribute(BreadLeaseInterceptor.LEASES_ATTRIBUTE)).thenReturn(Arrays.asList(lease));
+        
+        //When
+        MapServerView view = new MapServerView(httpClient, null, mock(Template.class), testFolder.getRoot());
+        view.render(new HashMap<String, Object>(), request, response);
+        
+        //Then
+        verify(lease).close();
+        verify(request).removeAttribute(BreadLeaseInterceptor.LEASES_ATTRIBUTE);
+    }
+    
     private CloseableHttpClient getURLWhichReturns(String content, String type) throws IOException {
         CloseableHttpClient httpClient = mock(CloseableHttpClient.class);
         CloseableHttpResponse response = mock(CloseableHttpResponse.class);
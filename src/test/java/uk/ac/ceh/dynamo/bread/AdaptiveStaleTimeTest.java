@@ -0,0 +1,96 @@
+package uk.ac.ceh.dynamo.bread;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Christopher Johnson
+ */
+public class AdaptiveStaleTimeTest {
+    @Test
+    public void checkThatUnchangedStaleTimeGrows() {
+        //Given
+        AdaptiveStaleTime adaptive = new AdaptiveStaleTime(10000);
+
+        //When
+        long staleTime = adaptive.unchanged(1000);
+
+        //Then
+        assertEquals("Expected stale time to double", 2000, staleTime);
+        assertEquals("Expected one unchanged refresh", 1, adaptive.getUnchangedCount());
+    }
+
+    @Test
+    public void checkThatUnchangedStaleTimeIsCapped() {
+        //Given
+        AdaptiveStaleTime adaptive = new AdaptiveStaleTime(3, 10000);
+
+        //When
+        long staleTime = adaptive.unchanged(4000);
+
+        //Then
+        assertEquals("Expected stale time to be capped", 10000, staleTime);
+    }
+
+    @Test
+    public void checkThatStaleTimeAboveMaximumDoesNotShrinkWhenUnchanged() {
+        //Given
+        AdaptiveStaleTime adaptive = new AdaptiveStaleTime(1000);
+
+        //When
+        long staleTime = adaptive.unchanged(5000);
+
+        //Then
+        assertEquals("Expected stale time to stay the same", 5000, staleTime);
+    }
+
+    @Test
+    public void checkThatChangedStaleTimeShrinks() {
+        //Given
+        AdaptiveStaleTime adaptive = new AdaptiveStaleTime(10000);
+
+        //When
+        long staleTime = adaptive.changed(8000, 1000);
+
+        //Then
+        assertEquals("Expected stale time to halve", 4000, staleTime);
+        assertEquals("Expected one changed refresh", 1, adaptive.getChangedCount());
+    }
+
+    @Test
+    public void checkThatChangedStaleTimeIsNoLessThanTheMinimum() {
+        //Given
+        AdaptiveStaleTime adaptive = new AdaptiveStaleTime(10000);
+
+        //When
+        long staleTime = adaptive.changed(1500, 1000);
+
+        //Then
+        assertEquals("Expected the minimum stale time", 1000, staleTime);
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void checkThatGrowthMustBeGreaterThanOne() {
+        //Given
+        double growth = 1;
+
+        //When
+        new AdaptiveStaleTime(growth, 10000);
+
+        //Then
+        fail("Expected a growth of 1 to be rejected");
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void checkThatMaximumStaleTimeMustBePositive() {
+        //Given
+        long maximumStaleTime = 0;
+
+        //When
+        new AdaptiveStaleTime(maximumStaleTime);
+
+        //Then
+        fail("Expected a maximum stale time of 0 to be rejected");
+    }
+}
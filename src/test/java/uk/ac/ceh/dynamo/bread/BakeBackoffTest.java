@@ -0,0 +1,148 @@
+package uk.ac.ceh.dynamo.bread;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Christopher Johnson
+ */
+public class BakeBackoffTest {
+    
+    @Test
+    public void checkThatUnfailedMixCanBeBakedWithoutRetry() throws BreadException {
+        //Given
+        BakeBackoff backoff = new BakeBackoff(1000, 8000, 1);
+        
+        //When
+        boolean retrying = backoff.startBake("mix", 0);
+        
+        //Then
+        assertFalse("Expected not to be a retry", retrying);
+    }
+    
+    @Test
+    public void checkThatFailedMixBacksOff() {
+        //Given
+        BakeBackoff backoff = new BakeBackoff(1000, 8000, 1);
+        BreadException failure = new BreadException("burnt");
+        backoff.failed("mix", failure, 0);
+        
+        //When
+        try {
+            backoff.startBake("mix", 499);
+            fail("Expected to be backing off");
+        }
+        //Then
+        catch(BreadException ex) {
+            assertSame("Expected the cached failure", failure, ex);
+        }
+    }
+    
+    @Test
+    public void checkThatFailedMixCanBeRetriedAfterBackoff() throws BreadException {
+        //Given
+        BakeBackoff backoff = new BakeBackoff(1000, 8000, 1);
+        backoff.failed("mix", new BreadException("burnt"), 0);
+        
+        //When
+        boolean retrying = backoff.startBake("mix", 1000);
+        
+        //Then
+        assertTrue("Expected to be a retry", retrying);
+    }
+    
+    @Test
+    public void checkThatBackoffDoublesWithEachFailure() throws BreadException {
+        //Given
+        BakeBackoff backoff = new BakeBackoff(1000, 8000, 1);
+        backoff.failed("mix", new BreadException("burnt"), 0);
+        backoff.failed("mix", new BreadException("burnt"), 0);
+        backoff.failed("mix", new BreadException("burnt"), 0);
+        
+        //When
+        try {
+            backoff.startBake("mix", 1999); //third backoff is between 2000 and 4000
+            fail("Expected to be backing off");
+        }
+        catch(BreadException ex) {}
+        boolean retrying = backoff.startBake("mix", 4000);
+        
+        //Then
+        assertTrue("Expected to be a retry", retrying);
+    }
+    
+    @Test
+    public void checkThatBackoffIsCapped() throws BreadException {
+        //Given
+        BakeBackoff backoff = new BakeBackoff(1000, 8000, 1);
+        for(int i=0; i<100; i++) {
+            backoff.failed("mix", new BreadException("burnt"), 0);
+        }
+        
+        //When
+        boolean retrying = backoff.startBake("mix", 8000);
+        
+        //Then
+        assertTrue("Expected to be a retry", retrying);
+    }
+    
+    @Test(expected=BreadException.class)
+    public void checkThatRetriesAreLimited() throws BreadException {
+        //Given
+        BakeBackoff backoff = new BakeBackoff(1000, 8000, 1);
+        backoff.failed("mix", new BreadException("burnt"), 0);
+        backoff.failed("other mix", new BreadException("burnt"), 0);
+        backoff.startBake("mix", 1000);
+        
+        //When
+        backoff.startBake("other mix", 1000);
+        
+        //Then
+        fail("Expected the other mix to keep backing off");
+    }
+    
+    @Test
+    public void checkThatFinishedRetryCanBeReused() throws BreadException {
+        //Given
+        BakeBackoff backoff = new BakeBackoff(1000, 8000, 1);
+        backoff.failed("mix", new BreadException("burnt"), 0);
+        backoff.failed("other mix", new BreadException("burnt"), 0);
+        backoff.startBake("mix", 1000);
+        
+        //When
+        backoff.finishedRetry();
+        boolean retrying = backoff.startBake("other mix", 1000);
+        
+        //Then
+        assertTrue("Expected to be a retry", retrying);
+    }
+    
+    @Test
+    public void checkThatSuccessForgetsFailure() throws BreadException {
+        //Given
+        BakeBackoff backoff = new BakeBackoff(1000, 8000, 1);
+        backoff.failed("mix", new BreadException("burnt"), 0);
+        
+        //When
+        backoff.succeeded("mix");
+        
+        //Then
+        assertFalse("Expected not to be a retry", backoff.startBake("mix", 0));
+        assertEquals("Expected no failing mixes", 0, backoff.getFailingMixCount());
+    }
+    
+    @Test
+    public void checkThatOldFailuresAreCleanedUp() {
+        //Given
+        BakeBackoff backoff = new BakeBackoff(1000, 8000, 1);
+        backoff.failed("old mix", new BreadException("burnt"), 0);
+        backoff.failed("new mix", new BreadException("burnt"), 8000);
+        
+        //When
+        backoff.cleanUp(9001);
+        
+        //Then
+        assertEquals("Expected only the new mix to be remembered", 1, backoff.getFailingMixCount());
+    }
+}
@@ -0,0 +1,392 @@
+package uk.ac.ceh.dynamo.bread;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+import uk.ac.ceh.dynamo.bread.BakeScheduler.Bake;
+import uk.ac.ceh.dynamo.bread.BakeScheduler.Priority;
+import uk.ac.ceh.dynamo.bread.BakeScheduler.WhenSaturated;
+
+/**
+ *
+ * @author Christopher Johnson
+ */
+public class BakeSchedulerTest {
+    private final List<String> baked = Collections.synchronizedList(new ArrayList<String>());
+    private final CountDownLatch ovenDoor = new CountDownLatch(1);
+    private BakeScheduler scheduler;
+
+    @After
+    public void openOvenDoor() throws InterruptedException {
+        ovenDoor.countDown();
+        if(scheduler != null) {
+            scheduler.shutdown();
+            scheduler.awaitTermination(100, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Test(timeout=2000L)
+    public void checkThatForegroundBakesAreTakenBeforeRefreshes() throws InterruptedException {
+        //Given
+        scheduler = new BakeScheduler(1, 1, 10, WhenSaturated.DROP_NEWEST);
+        CountDownLatch blocking = blockOven(Priority.FOREGROUND);
+
+        //When
+        scheduler.submit(new RecordingBake("refresh"), Priority.REFRESH, 100);
+        scheduler.submit(new RecordingBake("warmup"), Priority.WARMUP, 100);
+        scheduler.submit(new RecordingBake("foreground"), Priority.FOREGROUND, 0);
+        blocking.await();
+        ovenDoor.countDown();
+        scheduler.shutdown();
+        scheduler.awaitTermination(1, TimeUnit.SECONDS);
+
+        //Then
+        assertEquals("Expected foreground, then refresh, then warmup", Arrays.asList("blocking", "foreground", "refresh", "warmup"), baked);
+    }
+
+    @Test(timeout=2000L)
+    public void checkThatOvensKnowWhenTheyAreRunningBackgroundBakes() throws InterruptedException {
+        //Given
+        scheduler = new BakeScheduler(1, 1, 10, WhenSaturated.DROP_NEWEST);
+        CountDownLatch blocking = blockOven(Priority.FOREGROUND);
+        scheduler.submit(new BackgroundCheckingBake("refresh"), Priority.REFRESH, 0);
+        scheduler.submit(new BackgroundCheckingBake("foreground"), Priority.FOREGROUND, 0);
+
+        //When
+        blocking.await();
+        ovenDoor.countDown();
+        scheduler.shutdown();
+        scheduler.awaitTermination(1, TimeUnit.SECONDS);
+
+        //Then
+        assertEquals("Expected only the refresh to run in the background", Arrays.asList("blocking", "foreground", "refresh in background"), baked);
+        assertFalse("Expected the calling thread not to be an oven", BakeScheduler.isRunningBackgroundBake());
+    }
+
+    @Test(timeout=2000L)
+    public void checkThatHotterRefreshesAreTakenFirst() throws InterruptedException {
+        //Given
+        scheduler = new BakeScheduler(1, 1, 10, WhenSaturated.DROP_NEWEST);
+        CountDownLatch blocking = blockOven(Priority.FOREGROUND);
+
+        //When
+        scheduler.submit(new RecordingBake("cold"), Priority.REFRESH, 1);
+        scheduler.submit(new RecordingBake("hot"), Priority.REFRESH, 50);
+        scheduler.submit(new RecordingBake("warm"), Priority.REFRESH, 10);
+        blocking.await();
+        ovenDoor.countDown();
+        scheduler.shutdown();
+        scheduler.awaitTermination(1, TimeUnit.SECONDS);
+
+        //Then
+        assertEquals("Expected hottest refresh first", Arrays.asList("blocking", "hot", "warm", "cold"), baked);
+    }
+
+    @Test(timeout=2000L)
+    public void checkThatBackgroundBakesCanNotTakeEveryOven() throws InterruptedException {
+        //Given
+        scheduler = new BakeScheduler(2, 1, 10, WhenSaturated.DROP_NEWEST);
+        CountDownLatch blocking = blockOven(Priority.REFRESH);
+        blocking.await();
+
+        //When
+        RecordingBake refresh = new RecordingBake("refresh");
+        RecordingBake foreground = new RecordingBake("foreground");
+        scheduler.submit(refresh, Priority.REFRESH, 0);
+        scheduler.submit(foreground, Priority.FOREGROUND, 0);
+        foreground.done.await();
+
+        //Then
+        assertEquals("Expected the refresh to still be queued", 1, scheduler.getQueueLength());
+        assertFalse("Expected refresh not to have been baked", baked.contains("refresh"));
+        ovenDoor.countDown();
+        refresh.done.await();
+    }
+
+    @Test(timeout=2000L)
+    public void checkThatBurstOfForegroundBakesIsNotQueuedOnAnIdleOven() throws InterruptedException {
+        //Given
+        scheduler = new BakeScheduler(4, 2, 10, WhenSaturated.DROP_NEWEST);
+        RecordingBake first = new RecordingBake("first");
+        scheduler.submit(first, Priority.FOREGROUND, 0);
+        first.done.await();
+        Thread.sleep(50); //Let the oven go idle
+        final CountDownLatch started = new CountDownLatch(3);
+
+        //When
+        for(int i=0; i<3; i++) {
+            scheduler.submit(new RecordingBake("burst") {
+                @Override
+                public void run() {
+                    started.countDown();
+                    try {
+                        ovenDoor.await();
+                    }
+                    catch(InterruptedException ie) {}
+                }
+            }, Priority.FOREGROUND, 0);
+        }
+
+        //Then
+        assertTrue("Expected the whole burst to be baking at once", started.await(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void checkThatNewBakeIsDroppedWhenSaturated() {
+        //Given
+        scheduler = new BakeScheduler(1, 0, 1, WhenSaturated.DROP_NEWEST);
+        Bake queued = mock(Bake.class);
+        Bake dropped = mock(Bake.class);
+        scheduler.submit(queued, Priority.REFRESH, 1);
+
+        //When
+        boolean accepted = scheduler.submit(dropped, Priority.REFRESH, 100);
+
+        //Then
+        assertFalse("Expected the bake not to be accepted", accepted);
+        verify(dropped, times(1)).discarded();
+        verify(queued, never()).discarded();
+        assertEquals("Expected one drop", 1, scheduler.getDroppedCount());
+    }
+
+    @Test
+    public void checkThatColdestBakeIsDroppedWhenSaturated() {
+        //Given
+        scheduler = new BakeScheduler(1, 0, 1, WhenSaturated.DROP_COLDEST);
+        Bake cold = mock(Bake.class);
+        Bake hot = mock(Bake.class);
+        scheduler.submit(cold, Priority.REFRESH, 1);
+
+        //When
+        boolean accepted = scheduler.submit(hot, Priority.REFRESH, 100);
+
+        //Then
+        assertTrue("Expected the hot bake to be accepted", accepted);
+        verify(cold, times(1)).discarded();
+        verify(hot, never()).discarded();
+    }
+
+    @Test
+    public void checkThatWarmupDoesNotDisplaceRefresh() {
+        //Given
+        scheduler = new BakeScheduler(1, 0, 1, WhenSaturated.DROP_COLDEST);
+        Bake refresh = mock(Bake.class);
+        Bake warmup = mock(Bake.class);
+        scheduler.submit(refresh, Priority.REFRESH, 1);
+
+        //When
+        boolean accepted = scheduler.submit(warmup, Priority.WARMUP, 100);
+
+        //Then
+        assertFalse("Expected the warmup not to be accepted", accepted);
+        verify(warmup, times(1)).discarded();
+    }
+
+    @Test
+    public void checkThatForegroundIsNeverDroppedWhenSaturated() {
+        //Given
+        scheduler = new BakeScheduler(1, 0, 0, WhenSaturated.DROP_NEWEST);
+        RecordingBake foreground = new RecordingBake("foreground");
+
+        //When
+        boolean accepted = scheduler.submit(foreground, Priority.FOREGROUND, 0);
+
+        //Then
+        assertTrue("Expected foreground bake to be accepted", accepted);
+    }
+
+    @Test
+    public void checkThatBakesAreDiscardedAfterShutdown() {
+        //Given
+        scheduler = new BakeScheduler();
+        Bake bake = mock(Bake.class);
+        scheduler.shutdown();
+
+        //When
+        boolean accepted = scheduler.submit(bake, Priority.FOREGROUND, 0);
+
+        //Then
+        assertFalse("Expected bake not to be accepted", accepted);
+        verify(bake, times(1)).discarded();
+        verify(bake, never()).run();
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void checkThatBackgroundOvensCanNotExceedOvens() {
+        //Given
+        //Nothing
+
+        //When
+        new BakeScheduler(1, 2, 10, WhenSaturated.DROP_NEWEST);
+
+        //Then
+        fail("Expected illegal argument exception");
+    }
+
+    @Test(timeout=2000L)
+    public void checkThatPartitionsTakeTurns() throws InterruptedException {
+        //Given
+        scheduler = new BakeScheduler(1, 1, 10, WhenSaturated.DROP_NEWEST);
+        BakeScheduler first = scheduler.partition(1);
+        BakeScheduler second = scheduler.partition(1);
+        CountDownLatch blocking = blockOven(first, Priority.FOREGROUND);
+        blocking.await();
+
+        //When
+        first.submit(new RecordingBake("first1"), Priority.FOREGROUND, 0);
+        first.submit(new RecordingBake("first2"), Priority.FOREGROUND, 0);
+        first.submit(new RecordingBake("first3"), Priority.FOREGROUND, 0);
+        second.submit(new RecordingBake("second1"), Priority.FOREGROUND, 0);
+        second.submit(new RecordingBake("second2"), Priority.FOREGROUND, 0);
+        ovenDoor.countDown();
+        scheduler.shutdown();
+        scheduler.awaitTermination(1, TimeUnit.SECONDS);
+
+        //Then
+        assertEquals("Expected the partitions to alternate", Arrays.asList("blocking", "second1", "first1", "second2", "first2", "first3"), baked);
+    }
+
+    @Test(timeout=2000L)
+    public void checkThatPartitionsTakeTurnsByWeight() throws InterruptedException {
+        //Given
+        scheduler = new BakeScheduler(1, 1, 10, WhenSaturated.DROP_NEWEST);
+        BakeScheduler heavy = scheduler.partition(2);
+        BakeScheduler light = scheduler.partition(1);
+        CountDownLatch blocking = blockOven(heavy, Priority.FOREGROUND);
+        blocking.await();
+
+        //When
+        for(int i=0; i<12; i++) {
+            heavy.submit(new RecordingBake("heavy"), Priority.REFRESH, 0);
+            light.submit(new RecordingBake("light"), Priority.REFRESH, 0);
+        }
+        ovenDoor.countDown();
+        scheduler.shutdown();
+        scheduler.awaitTermination(1, TimeUnit.SECONDS);
+
+        //Then
+        int heavyBakes = Collections.frequency(baked.subList(1, 13), "heavy");
+        assertTrue("Expected about twice as many heavy bakes, got " + heavyBakes + " of 12", heavyBakes >= 7 && heavyBakes <= 9);
+    }
+
+    @Test(timeout=2000L)
+    public void checkThatPartitionWithinShareGoesBeforeBorrowingPartition() throws InterruptedException {
+        //Given
+        scheduler = new BakeScheduler(2, 2, 10, WhenSaturated.DROP_NEWEST);
+        BakeScheduler borrowing = scheduler.partition(1);
+        BakeScheduler guaranteed = scheduler.partition(1);
+        CountDownLatch secondDoor = new CountDownLatch(1);
+        blockOven(borrowing, Priority.FOREGROUND).await();
+        blockOven(borrowing, Priority.FOREGROUND, secondDoor).await();
+
+        //When
+        RecordingBake foreground = new RecordingBake("foreground");
+        borrowing.submit(foreground, Priority.FOREGROUND, 0);
+        guaranteed.submit(new RecordingBake("refresh"), Priority.REFRESH, 0);
+        ovenDoor.countDown();
+        foreground.done.await();
+        secondDoor.countDown();
+
+        //Then
+        assertEquals("Expected the guaranteed refresh first", Arrays.asList("blocking", "refresh", "foreground"), baked.subList(0, 3));
+    }
+
+    @Test
+    public void checkThatPartitionsHaveTheirOwnQueueDepth() {
+        //Given
+        scheduler = new BakeScheduler(1, 0, 1, WhenSaturated.DROP_NEWEST);
+        BakeScheduler stormy = scheduler.partition(1);
+        BakeScheduler calm = scheduler.partition(1);
+        stormy.submit(mock(Bake.class), Priority.REFRESH, 1);
+
+        //When
+        boolean stormyAccepted = stormy.submit(mock(Bake.class), Priority.REFRESH, 1);
+        boolean calmAccepted = calm.submit(mock(Bake.class), Priority.REFRESH, 1);
+
+        //Then
+        assertFalse("Expected the stormy partition to be saturated", stormyAccepted);
+        assertTrue("Expected the calm partition to accept the bake", calmAccepted);
+        assertEquals("Expected one stormy drop", 1, stormy.getDroppedCount());
+        assertEquals("Expected no calm drops", 0, calm.getDroppedCount());
+        assertEquals("Expected one drop in total", 1, scheduler.getDroppedCount());
+        assertEquals("Expected both partitions queued", 2, scheduler.getQueueLength());
+        assertEquals("Expected one calm bake queued", 1, calm.getQueueLength());
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void checkThatPartitionMustHaveWeight() {
+        //Given
+        scheduler = new BakeScheduler();
+
+        //When
+        scheduler.partition(0);
+
+        //Then
+        fail("Expected illegal argument exception");
+    }
+
+    private CountDownLatch blockOven(Priority priority) {
+        return blockOven(scheduler, priority);
+    }
+
+    private CountDownLatch blockOven(BakeScheduler ovens, Priority priority) {
+        return blockOven(ovens, priority, ovenDoor);
+    }
+
+    private CountDownLatch blockOven(BakeScheduler ovens, Priority priority, final CountDownLatch door) {
+        final CountDownLatch started = new CountDownLatch(1);
+        ovens.submit(new RecordingBake("blocking") {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    door.await();
+                }
+                catch(InterruptedException ie) {}
+                super.run();
+            }
+        }, priority, 0);
+        return started;
+    }
+
+    private class BackgroundCheckingBake implements Bake {
+        private final String name;
+
+        private BackgroundCheckingBake(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public void run() {
+            baked.add(BakeScheduler.isRunningBackgroundBake() ? name + " in background" : name);
+        }
+
+        @Override
+        public void discarded() {}
+    }
+
+    private class RecordingBake implements Bake {
+        private final String name;
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        private RecordingBake(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public void run() {
+            baked.add(name);
+            done.countDown();
+        }
+
+        @Override
+        public void discarded() {}
+    }
+}
@@ -0,0 +1,161 @@
+package uk.ac.ceh.dynamo.bread;
+
+import java.lang.management.ManagementFactory;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ *
+ * @author Christopher Johnson
+ */
+public class BakeryRecorderTest {
+    @Test
+    public void checkThatHitRatioIncludesStaleHits() {
+        //Given
+        BakeryRecorder recorder = new BakeryRecorder();
+        BreadSlice slice = mock(BreadSlice.class);
+        
+        //When
+        recorder.hit(slice, false);
+        recorder.hit(slice, true);
+        recorder.hit(slice, false);
+        recorder.miss("mix");
+        
+        //Then
+        assertEquals("Expected two hits", 2, recorder.getHitCount());
+        assertEquals("Expected one stale hit", 1, recorder.getStaleHitCount());
+        assertEquals("Expected one miss", 1, recorder.getMissCount());
+        assertEquals("Expected 3 out of 4", 0.75, recorder.getHitRatio(), 0);
+    }
+    
+    @Test
+    public void checkThatBakeTimesAreRecorded() {
+        //Given
+        BakeryRecorder recorder = new BakeryRecorder();
+        BreadSlice slice = mock(BreadSlice.class);
+        when(slice.getBakeDuration()).thenReturn(20L);
+        
+        //When
+        recorder.baked(slice);
+        recorder.failed(slice, new BreadException("Failed"));
+        
+        //Then
+        assertEquals("Expected one bake", 1, recorder.getBakeCount());
+        assertEquals("Expected one failure", 1, recorder.getBakeFailureCount());
+        assertEquals("Expected 20ms", 20, recorder.getBakeTime99thPercentile());
+    }
+    
+    @Test
+    public void checkThatFailedRefreshIsCounted() {
+        //Given
+        BakeryRecorder recorder = new BakeryRecorder();
+        BreadSlice replacement = mock(BreadSlice.class);
+        when(replacement.isBaked()).thenReturn(false);
+        
+        //When
+        recorder.refreshStarted(mock(BreadSlice.class), replacement);
+        recorder.refreshFinished(replacement);
+        
+        //Then
+        assertEquals("Expected one refresh", 1, recorder.getRefreshCount());
+        assertEquals("Expected one failed refresh", 1, recorder.getFailedRefreshCount());
+    }
+    
+    @Test
+    public void checkThatPendingDeletionsAreMouldySlicesNotYetDeleted() {
+        //Given
+        BakeryRecorder recorder = new BakeryRecorder();
+        BreadSlice slice = mock(BreadSlice.class);
+        
+        //When
+        recorder.mouldy(slice);
+        recorder.mouldy(slice);
+        recorder.deleted(slice);
+        
+        //Then
+        assertEquals("Expected one pending deletion", 1, recorder.getPendingDeletionCount());
+    }
+    
+    @Test
+    public void checkThatGaugesAreReadFromAttachedBakery() {
+        //Given
+        BakeryRecorder recorder = new BakeryRecorder();
+        Bakery bakery = mock(Bakery.class);
+        BakeScheduler breadOvens = mock(BakeScheduler.class);
+        when(bakery.getBreadOvens()).thenReturn(breadOvens);
+        when(breadOvens.getQueueLength()).thenReturn(5);
+        when(bakery.getCurrentClimate()).thenReturn(0.4);
+        when(bakery.getBreadSliceCount()).thenReturn(12);
+        
+        //When
+        recorder.attached(bakery);
+        
+        //Then
+        assertEquals("Expected the queue length", 5, recorder.getQueueLength());
+        assertEquals("Expected the climate", 0.4, recorder.getCurrentClimate(), 0);
+        assertEquals("Expected the slice count", 12, recorder.getBreadSliceCount());
+    }
+    
+    @Test
+    public void checkThatOvenWaitsAreExposed() {
+        //Given
+        LatencyHistogram ovenWaits = new LatencyHistogram();
+        ovenWaits.record(7);
+        
+        //When
+        BakeryRecorder recorder = new BakeryRecorder(ovenWaits);
+        
+        //Then
+        assertEquals("Expected the oven wait", 7, recorder.getOvenWaitMaximum());
+    }
+    
+    @Test
+    public void checkThatReclaimBacklogIsExposed() {
+        //Given
+        Reclaimer reclaimer = mock(Reclaimer.class);
+        when(reclaimer.getBacklog()).thenReturn(3);
+        when(reclaimer.getBacklogBytes()).thenReturn(300L);
+        
+        //When
+        BakeryRecorder recorder = new BakeryRecorder(new LatencyHistogram(), reclaimer);
+        
+        //Then
+        assertEquals("Expected the backlog", 3, recorder.getReclaimBacklog());
+        assertEquals("Expected the backlog bytes", 300, recorder.getReclaimBacklogBytes());
+    }
+    
+    @Test
+    public void checkThatReclaimBacklogIsEmptyWithoutAReclaimer() {
+        //Given
+        BakeryRecorder recorder = new BakeryRecorder();
+        
+        //When
+        int backlog = recorder.getReclaimBacklog();
+        
+        //Then
+        assertEquals("Expected no backlog", 0, backlog);
+    }
+    
+    @Test
+    public void checkThatRecorderCanBeRegisteredAsMBean() throws JMException {
+        //Given
+        BakeryRecorder recorder = new BakeryRecorder();
+        recorder.miss("mix");
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        
+        //When
+        ObjectName name = recorder.register("test bakery");
+        try {
+            //Then
+            assertEquals("Expected the miss count over jmx", 1L, server.getAttribute(name, "MissCount"));
+        }
+        finally {
+            recorder.unregister();
+        }
+        assertFalse("Expected to be unregistered", server.isRegistered(name));
+    }
+}
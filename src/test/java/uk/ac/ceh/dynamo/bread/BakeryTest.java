@@ -2,23 +2,31 @@ package uk.ac.ceh.dynamo.bread;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import lombok.AllArgsConstructor;
 import org.junit.Test;
 import static org.junit.Assert.*;
 import org.junit.Before;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import static org.mockito.Mockito.*;
 import org.mockito.MockitoAnnotations;
 import org.mockito.Spy;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import uk.ac.ceh.dynamo.bread.BakeScheduler.Priority;
 import uk.ac.ceh.dynamo.bread.Bakery.Baker;
 
 /**
@@ -28,22 +36,30 @@ import uk.ac.ceh.dynamo.bread.Bakery.Baker;
 public class BakeryTest {
     final static long STALE_TIME = 100;
     final static long MOULDY_TIME = 1000;
+    final static long CLEANING_PERIOD = 500;
     
     Object workSurface;
     @Mock Clock clock;
     @Mock DustBin bin;
     @Mock Oven oven;
+    @Mock StreamingOven streamingOven;
+    @Mock FingerprintingOven fingerprintingOven;
     @Mock ClimateMeter climate;
     @Mock BreadBin breadBin;
-    @Spy Map cache, bakingCache;
-    @Spy ExecutorService breadOvens;
+    @Mock ScheduledExecutorService janitor;
+    @Spy ConcurrentMap cache, bakingCache;
+    @Spy BakeScheduler breadOvens;
+    @Spy BakeBackoff backoff;
+    @Spy Sha1Mixer mixer;
     
     @Before
     public void mockBakeryDependencies() {
         workSurface = new Object();
-        cache = new HashMap();
-        bakingCache = new HashMap();
-        breadOvens = Executors.newCachedThreadPool();
+        cache = new ConcurrentHashMap();
+        bakingCache = new ConcurrentHashMap();
+        breadOvens = new BakeScheduler();
+        backoff = new BakeBackoff();
+        mixer = new Sha1Mixer();
         MockitoAnnotations.initMocks(this);
     }
 
@@ -113,6 +129,7 @@ public class BakeryTest {
     public void checkThatBreadBinIsFilledWithExistingBreadSlices() {
         //Given
         BreadSlice slice = mock(BreadSlice.class);
+        when(slice.getMixName()).thenReturn("existing key");
         
         //When
         when(oven.reload(clock, workSurface, bin, STALE_TIME)).thenReturn(Arrays.asList(slice));
@@ -142,6 +159,7 @@ public class BakeryTest {
         
         //When
         when(slice.getId()).thenReturn(504);
+        when(slice.getMixName()).thenReturn("existing key");
         when(oven.reload(clock, workSurface, bin, STALE_TIME)).thenReturn(Arrays.asList(slice));
         Bakery bakery = createBakery();
 
@@ -149,6 +167,398 @@ public class BakeryTest {
         assertEquals("Expected the bread id to be one higher", bakery.getNextId(), 505);
     }
     
+    @Test(timeout=5000L)
+    public void checkThatWarmUpBakesMissingIngredientsInTheBackground() throws BreadException, InterruptedException {
+        //Given
+        when(oven.cook(any(BreadSlice.class), any())).thenReturn("baked");
+        Bakery bakery = createBakery();
+        
+        //When
+        WarmUp warmUp = bakery.warmUp(Arrays.asList("first", "second"), 1, false);
+        warmUp.await(5, TimeUnit.SECONDS);
+        
+        //Then
+        verify(breadOvens, times(2)).submit(any(BakeScheduler.Bake.class), eq(Priority.WARMUP), eq(0L));
+        assertEquals("Expected both to be baked", 2, warmUp.getBaked());
+        assertEquals("Expected the warm up to be served", "baked", bakery.getData("first"));
+        verify(oven, times(1)).cook(any(BreadSlice.class), eq("first"));
+    }
+    
+    @Test
+    public void checkThatWarmUpSkipsFreshSlices() throws BreadException {
+        //Given
+        when(oven.cook(any(BreadSlice.class), eq("fresh"))).thenReturn("baked");
+        Bakery bakery = createBakery();
+        bakery.getData("fresh");
+        
+        //When
+        WarmUp warmUp = bakery.warmUp(Arrays.asList("fresh"), 1, false);
+        
+        //Then
+        assertEquals("Expected the fresh slice to be skipped", 1, warmUp.getSkipped());
+        assertTrue("Expected the warm up to be done", warmUp.isDone());
+    }
+    
+    @Test(timeout=5000L)
+    public void checkThatRebakingWarmUpReplacesFreshSlices() throws BreadException, InterruptedException {
+        //Given
+        when(oven.cook(any(BreadSlice.class), eq("fresh"))).thenReturn("baked", "rebaked");
+        Bakery bakery = createBakery();
+        bakery.getData("fresh");
+        
+        //When
+        WarmUp warmUp = bakery.warmUp(Arrays.asList("fresh"), 1, true);
+        warmUp.await(5, TimeUnit.SECONDS);
+        
+        //Then
+        assertEquals("Expected the slice to be rebaked", 1, warmUp.getBaked());
+        assertEquals("Expected the rebaked slice to be served", "rebaked", bakery.getData("fresh"));
+    }
+    
+    @Test
+    public void checkThatHottestIngredientsAreTheMostEaten() throws BreadException {
+        //Given
+        when(oven.cook(any(BreadSlice.class), any())).thenReturn("baked");
+        Bakery bakery = createBakery();
+        bakery.getData("cold");
+        bakery.getData("hot");
+        bakery.getData("hot");
+        bakery.getData("warm");
+        bakery.getData("warm");
+        bakery.getData("hot");
+        
+        //When
+        List hottest = bakery.getHottestIngredients(2);
+        
+        //Then
+        assertEquals("Expected the two most eaten", Arrays.asList("hot", "warm"), hottest);
+    }
+    
+    @Test
+    public void checkThatFreshSliceIsRefreshedEarlyWhenChosen() throws BreadException {
+        //Given
+        EarlyRefresh earlyRefresh = mock(EarlyRefresh.class);
+        when(earlyRefresh.shouldRefresh(any(BreadSlice.class), anyLong())).thenReturn(true);
+        when(oven.cook(any(BreadSlice.class), eq("hot"))).thenReturn("baked");
+        Bakery bakery = new Bakery(workSurface, climate, breadBin, bin, oven, clock, STALE_TIME, MOULDY_TIME, cache, bakingCache, janitor, createOptions().earlyRefresh(earlyRefresh));
+        bakery.getData("hot");
+        
+        //When
+        bakery.getData("hot");
+        
+        //Then
+        verify(breadOvens).submit(any(BakeScheduler.Bake.class), eq(Priority.REFRESH), anyLong());
+    }
+    
+    @Test
+    public void checkThatListenerHearsOfMissThenHit() throws BreadException {
+        //Given
+        BakeryListener listener = mock(BakeryListener.class);
+        when(oven.cook(any(BreadSlice.class), eq("ingredients"))).thenReturn("baked");
+        Bakery bakery = createListenedBakery(listener);
+        
+        //When
+        bakery.getData("ingredients");
+        bakery.getData("ingredients");
+        
+        //Then
+        verify(listener).attached(bakery);
+        verify(listener).miss(mixer.getMixName("ingredients"));
+        verify(listener).baked(any(BreadSlice.class));
+        verify(listener).hit(any(BreadSlice.class), eq(false));
+    }
+    
+    @Test
+    public void checkThatListenerHearsOfStaleRefresh() throws BreadException, InterruptedException {
+        //Given
+        BakeryListener listener = mock(BakeryListener.class);
+        when(clock.getTimeInMillis()).thenReturn(0L);
+        when(oven.cook(any(BreadSlice.class), eq("ingredients"))).thenReturn("firstBake", "secondBake");
+        Bakery bakery = createListenedBakery(listener);
+        bakery.getData("ingredients");
+        
+        //When
+        when(clock.getTimeInMillis()).thenReturn(STALE_TIME + 1);
+        bakery.getData("ingredients");
+        breadOvens.shutdown();
+        breadOvens.awaitTermination(1, TimeUnit.SECONDS);
+        
+        //Then
+        verify(listener).hit(any(BreadSlice.class), eq(true));
+        verify(listener).refreshStarted(any(BreadSlice.class), any(BreadSlice.class));
+        verify(listener).refreshFinished(any(BreadSlice.class));
+        verify(listener, times(2)).baked(any(BreadSlice.class));
+        verify(listener).mouldy(any(BreadSlice.class)); //the stale slice
+    }
+    
+    @Test
+    public void checkThatListenerHearsOfFailure() throws BreadException {
+        //Given
+        BakeryListener listener = mock(BakeryListener.class);
+        BreadException failure = new BreadException("Forcing bake failure");
+        when(oven.cook(any(BreadSlice.class), eq("ingredients"))).thenThrow(failure);
+        Bakery bakery = createListenedBakery(listener);
+        
+        //When
+        try {
+            bakery.getData("ingredients");
+            fail("Expected the bake to fail");
+        }
+        catch(BreadException ex) {}
+        
+        //Then
+        verify(listener).failed(any(BreadSlice.class), eq(failure));
+        verify(listener, never()).baked(any(BreadSlice.class));
+    }
+    
+    @Test
+    public void checkThatListenerHearsOfMouldyAndDeletedSlices() throws BreadException {
+        //Given
+        BakeryListener listener = mock(BakeryListener.class);
+        when(oven.cook(any(BreadSlice.class), eq("ingredients"))).thenReturn("baked");
+        Bakery bakery = createListenedBakery(listener);
+        bakery.getData("ingredients");
+        BreadSlice slice = (BreadSlice)cache.get(mixer.getMixName("ingredients"));
+        BreadSlice.finishedEating();
+        
+        //When
+        when(breadBin.removeMouldy(anyLong())).thenReturn(Arrays.asList(slice));
+        bakery.cleanOutBreadBin();
+        
+        //Then
+        verify(listener).mouldy(slice);
+        verify(listener).deleted(slice);
+        verify(bin).delete(slice);
+    }
+    
+    @Test
+    public void checkThatBatchReturnsDataInOrder() throws BreadException {
+        //Given
+        when(oven.cook(any(BreadSlice.class), eq("species"))).thenReturn("species.shp");
+        when(oven.cook(any(BreadSlice.class), eq("coverage"))).thenReturn("coverage.shp");
+        when(oven.cook(any(BreadSlice.class), eq("feature"))).thenReturn("feature.shp");
+        Bakery bakery = createBakery();
+        bakery.getData("coverage");
+        
+        //When
+        List data = bakery.getData(Arrays.asList("species", "coverage", "feature"));
+        
+        //Then
+        assertEquals("Expected the data in order", Arrays.asList("species.shp", "coverage.shp", "feature.shp"), data);
+        verify(oven, times(1)).cook(any(BreadSlice.class), eq("coverage"));
+        verify(breadOvens, times(1)).submit(any(BakeScheduler.Bake.class), eq(Priority.FOREGROUND), anyLong());
+    }
+    
+    @Test
+    public void checkThatBatchBakesMissingSlicesConcurrently() throws BreadException {
+        //Given
+        oven = new LatchedOven(2);
+        Bakery bakery = createBakery();
+        
+        //When
+        List data = bakery.getData(Arrays.asList("species", "coverage"));
+        
+        //Then
+        assertEquals("Expected both to bake", Arrays.asList("species.shp", "coverage.shp"), data);
+    }
+    
+    @Test
+    public void checkThatBatchFailsIfAnySliceFails() throws BreadException {
+        //Given
+        BreadException failure = new BreadException("Forcing bake failure");
+        when(oven.cook(any(BreadSlice.class), eq("species"))).thenReturn("species.shp");
+        when(oven.cook(any(BreadSlice.class), eq("coverage"))).thenThrow(failure);
+        Bakery bakery = createBakery();
+        
+        try {
+            //When
+            bakery.getData(Arrays.asList("species", "coverage"), 1, TimeUnit.SECONDS);
+            fail("Expected the batch to fail");
+        }
+        catch(BreadException ex) {
+            //Then
+            assertSame("Expected the failure of the coverage", failure, ex);
+        }
+    }
+    
+    @Test
+    public void checkThatSharedOvenAllocatesIds() throws BreadException {
+        //Given
+        SharedOven sharedOven = mock(SharedOven.class);
+        when(sharedOven.allocateId()).thenReturn(7000);
+        when(sharedOven.cook(any(BreadSlice.class), eq("ingredients"))).thenReturn("baked");
+        Bakery bakery = new Bakery(workSurface, climate, breadBin, bin, sharedOven, clock, STALE_TIME, MOULDY_TIME, cache, bakingCache, janitor, createOptions());
+        
+        //When
+        bakery.getData("ingredients");
+        
+        //Then
+        ArgumentCaptor<BreadSlice> slice = ArgumentCaptor.forClass(BreadSlice.class);
+        verify(sharedOven).cook(slice.capture(), eq("ingredients"));
+        assertEquals("Expected the id from the shared oven", 7000, slice.getValue().getId());
+        assertEquals("Expected the next id to be after the allocated one", 7001, bakery.getNextId());
+    }
+    
+    @Test
+    public void checkThatFailureToAllocateIdFailsTheRequest() throws BreadException {
+        //Given
+        SharedOven sharedOven = mock(SharedOven.class);
+        BreadException failure = new BreadException("No ids");
+        when(sharedOven.allocateId()).thenThrow(failure);
+        Bakery bakery = new Bakery(workSurface, climate, breadBin, bin, sharedOven, clock, STALE_TIME, MOULDY_TIME, cache, bakingCache, janitor, createOptions());
+        
+        //When
+        try {
+            bakery.getData("ingredients");
+            fail("Expected the request to fail");
+        }
+        catch(BreadException ex) {
+            //Then
+            assertSame("Expected the allocation failure", failure, ex);
+            assertTrue("Expected nothing to be cached", cache.isEmpty());
+        }
+    }
+    
+    @Test
+    public void checkThatUnsetOptionsAreLeftAsTheDefaults() {
+        //Given
+        BakeryOptions options = new BakeryOptions();
+        
+        //When
+        Bakery bakery = new Bakery(workSurface, climate, breadBin, bin, oven, clock, STALE_TIME, MOULDY_TIME, cache, bakingCache, janitor, options);
+        
+        //Then
+        assertEquals("Expected ingredients to be mixed with sha1", new Sha1Mixer().getMixName("ingredients"), bakery.getMixName("ingredients"));
+        verify(janitor).scheduleWithFixedDelay(any(Runnable.class), eq(Bakery.DEFAULT_CLEANING_PERIOD), eq(Bakery.DEFAULT_CLEANING_PERIOD), eq(TimeUnit.MILLISECONDS));
+        assertNull("Expected the options to be left alone", options.mixer());
+    }
+    
+    @Test(expected=IllegalArgumentException.class)
+    public void checkThatStreamingReloadRequiresAStreamingOven() {
+        //Given
+        oven = mock(Oven.class);
+        
+        //When
+        new Bakery(workSurface, climate, breadBin, bin, oven, clock, STALE_TIME, MOULDY_TIME, cache, bakingCache, janitor, createOptions().streamingReload(true));
+        
+        //Then
+        fail("Expected only a streaming oven to be accepted");
+    }
+    
+    @Test(timeout=5000L)
+    public void checkThatStreamedSlicesAreAddedToTheBreadBin() throws InterruptedException {
+        //Given
+        final BreadSlice slice = new BreadSlice("PreBakedValue", 0, 41, "existing key", STALE_TIME, clock, workSurface, bin);
+        doAnswer(new Answer() {
+            @Override
+            public Object answer(InvocationOnMock invocation) {
+                SliceCollector collector = (SliceCollector)invocation.getArguments()[4];
+                collector.reserveIds(41);
+                collector.reloaded(slice);
+                return null;
+            }
+        }).when(streamingOven).reload(eq(clock), eq(workSurface), eq(bin), eq(STALE_TIME), any(SliceCollector.class));
+        
+        //When
+        Bakery bakery = createStreamingBakery();
+        while(bakery.isReloading()) {
+            Thread.sleep(10);
+        }
+        
+        //Then
+        verify(breadBin).restock(slice);
+        assertSame("Expected the slice to be cached", slice, cache.get("existing key"));
+        assertEquals("Expected one reloaded slice", 1, bakery.getReloadedSliceCount());
+        assertEquals("Expected ids after the reloaded slice", 42, bakery.getNextId());
+    }
+    
+    @Test(timeout=5000L)
+    public void checkThatSliceReloadedAfterLiveBakeIsKeptInBakedOrder() throws BreadException, InterruptedException {
+        //Given
+        final BreadSlice reloaded = new BreadSlice("PreBakedValue", 0, 41, "existing key", STALE_TIME, clock, workSurface, bin);
+        final CountDownLatch liveBakeDone = new CountDownLatch(1);
+        doAnswer(new Answer() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws InterruptedException {
+                SliceCollector collector = (SliceCollector)invocation.getArguments()[4];
+                collector.reserveIds(41);
+                liveBakeDone.await();
+                collector.reloaded(reloaded);
+                return null;
+            }
+        }).when(streamingOven).reload(eq(clock), eq(workSurface), eq(bin), eq(STALE_TIME), any(SliceCollector.class));
+        when(streamingOven.cook(any(BreadSlice.class), eq("new ingredients"))).thenReturn("baked");
+        when(clock.getTimeInMillis()).thenReturn(50L);
+        breadBin = new BreadBin();
+        Bakery bakery = createStreamingBakery();
+        bakery.getData("new ingredients");
+        
+        //When
+        liveBakeDone.countDown();
+        while(bakery.isReloading()) {
+            Thread.sleep(10);
+        }
+        
+        //Then
+        assertSame("Expected the reloaded slice to be cached", reloaded, cache.get("existing key"));
+        assertEquals("Expected one reloaded slice", 1, bakery.getReloadedSliceCount());
+        List mouldy = breadBin.removeMouldy(Long.MAX_VALUE);
+        assertEquals("Expected both slices in the bread bin", 2, mouldy.size());
+        assertSame("Expected the reloaded slice first", reloaded, mouldy.get(0));
+    }
+    
+    @Test(timeout=5000L)
+    public void checkThatMissDuringReloadFindsSliceOnWorkSurface() throws BreadException, InterruptedException {
+        //Given
+        String ingredients = "My Ingredients";
+        String ingredientsSha1 = "67c06865eafa56e744142175c8a19104a79e0ff0";
+        final CountDownLatch finishReload = new CountDownLatch(1);
+        doAnswer(new Answer() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws InterruptedException {
+                ((SliceCollector)invocation.getArguments()[4]).reserveIds(3);
+                finishReload.await();
+                return null;
+            }
+        }).when(streamingOven).reload(eq(clock), eq(workSurface), eq(bin), eq(STALE_TIME), any(SliceCollector.class));
+        BreadSlice slice = new BreadSlice("PreBakedValue", 0, 3, ingredientsSha1, STALE_TIME, clock, workSurface, bin);
+        when(streamingOven.find(clock, workSurface, bin, STALE_TIME, ingredientsSha1)).thenReturn(slice);
+        Bakery bakery = createStreamingBakery();
+        
+        //When
+        Object bakeryData = bakery.getData(ingredients);
+        
+        //Then
+        assertEquals("Expected to get the slice from the work surface", "PreBakedValue", bakeryData);
+        assertTrue("Expected the bakery to still be reloading", bakery.isReloading());
+        assertEquals("Expected one reloaded slice", 1, bakery.getReloadedSliceCount());
+        verify(streamingOven, never()).cook(any(BreadSlice.class), any());
+        finishReload.countDown();
+    }
+    
+    @Test(timeout=5000L)
+    public void checkThatMissDuringReloadBakesIfNotOnWorkSurface() throws BreadException, InterruptedException {
+        //Given
+        doAnswer(new Answer() {
+            @Override
+            public Object answer(InvocationOnMock invocation) {
+                ((SliceCollector)invocation.getArguments()[4]).reserveIds(9);
+                return null;
+            }
+        }).when(streamingOven).reload(eq(clock), eq(workSurface), eq(bin), eq(STALE_TIME), any(SliceCollector.class));
+        when(streamingOven.cook(any(BreadSlice.class), eq("new ingredients"))).thenReturn("baked");
+        Bakery bakery = createStreamingBakery();
+        
+        //When
+        Object bakeryData = bakery.getData("new ingredients");
+        
+        //Then
+        assertEquals("Expected a fresh bake", "baked", bakeryData);
+        ArgumentCaptor<BreadSlice> slice = ArgumentCaptor.forClass(BreadSlice.class);
+        verify(streamingOven).cook(slice.capture(), eq("new ingredients"));
+        assertTrue("Expected the bake not to reuse an id on the work surface", slice.getValue().getId() > 9);
+    }
+    
     @Test
     public void checkFreshIngredientsResultInNewBake() throws BreadException {
         //Given
@@ -174,7 +584,7 @@ public class BakeryTest {
         
         //Then
         verify(oven, times(1)).cook(any(BreadSlice.class), eq(ingredients));
-        verify(breadOvens, never()).submit(any(Baker.class));
+        verify(breadOvens, never()).submit(any(Baker.class), any(Priority.class), anyLong());
     }
     
     @Test
@@ -189,101 +599,445 @@ public class BakeryTest {
         bakery.getData(secondIngredients);
         
         //Then
-        verify(oven, times(1)).cook(any(BreadSlice.class), eq(firstIngredients));
-        verify(oven, times(1)).cook(any(BreadSlice.class), eq(secondIngredients));
+        verify(oven, times(1)).cook(any(BreadSlice.class), eq(firstIngredients));
+        verify(oven, times(1)).cook(any(BreadSlice.class), eq(secondIngredients));
+    }
+    
+    @Test
+    public void checkStaleDataResultsInReBake() throws BreadException, InterruptedException {
+        //Given
+        String ingredients = "My Ingredients";
+        
+        when(clock.getTimeInMillis()).thenReturn(0L);
+        when(oven.cook(any(BreadSlice.class), eq(ingredients)))
+                .thenReturn("firstBake")
+                .thenReturn("secondBake");
+        
+        Bakery bakery = createBakery();
+        
+        //When
+        Object firstRequest = bakery.getData(ingredients);
+        when(clock.getTimeInMillis()).thenReturn(STALE_TIME + 1);
+        Object secondRequest = bakery.getData(ingredients);
+        
+        //Then
+        assertSame("Expected the stale bake to yield the same as the fresh bake", firstRequest, secondRequest);
+        verify(breadOvens, times(1)).submit(any(Baker.class), eq(Priority.REFRESH), anyLong());
+        verify(bakingCache, times(1)).putIfAbsent(any(), any());
+    }
+    
+    @Test
+    public void checkStaleDataRequestIncreasesId() throws BreadException {
+        //Given
+        String ingredients = "My Ingredients";
+        
+        when(clock.getTimeInMillis()).thenReturn(0L);
+        when(oven.cook(any(BreadSlice.class), eq(ingredients)))
+                .thenReturn("firstBake")
+                .thenReturn("secondBake");
+        
+        Bakery bakery = createBakery();
+        int initialBakeryValue = bakery.getNextId();
+        
+        //When
+        bakery.getData(ingredients);
+        when(clock.getTimeInMillis()).thenReturn(STALE_TIME + 1); //first request is now stale
+        bakery.getData(ingredients);
+        
+        //Then
+        assertEquals("Expected the initial baked id to have gone up by two", initialBakeryValue + 2, bakery.getNextId());
+    }
+    
+    @Test
+    public void checkThatMoudlyDataIsRemoved() throws BreadException {
+        //Given                
+        Bakery bakery = createBakery();
+        
+        BreadSlice oldSlice = mock(BreadSlice.class);
+        when(oldSlice.getMixName()).thenReturn("old key");
+        
+        //When
+        when(clock.getTimeInMillis()).thenReturn(7000L);
+        when(breadBin.removeMouldy(7000L)).thenReturn(Arrays.asList(oldSlice));
+        bakery.cleanOutBreadBin();
+        
+        //Then
+        verify(cache, times(1)).remove("old key", oldSlice);
+        verify(oldSlice, times(1)).markAsMouldy();
+    }
+    
+    @Test
+    public void checkThatEvictedSlicesAreThrownAwayAfterBaking() throws BreadException {
+        //Given
+        Bakery bakery = createBakery();
+        BreadSlice evictedSlice = mock(BreadSlice.class);
+        when(evictedSlice.getMixName()).thenReturn("evicted key");
+        when(breadBin.removeEvicted()).thenReturn(Arrays.asList(evictedSlice));
+        
+        //When
+        bakery.getData("Some data");
+        
+        //Then
+        verify(cache, times(1)).remove("evicted key", evictedSlice);
+        verify(evictedSlice, times(1)).markAsMouldy();
+    }
+    
+    @Test
+    public void checkThatEatenSlicesAreRecordedInTheBreadBin() throws BreadException {
+        //Given
+        Bakery bakery = createBakery();
+        when(breadBin.eaten(any(BreadSlice.class))).thenReturn(false, true);
+        
+        //When
+        bakery.getData("Some data");
+        bakery.getData("Some data");
+        
+        //Then
+        verify(breadBin, times(2)).eaten(any(BreadSlice.class));
+        verify(breadBin, times(1)).drainEaten();
+    }
+    
+    @Test
+    public void checkThatBakeDurationIsRecorded() throws BreadException {
+        //Given
+        Bakery bakery = createBakery();
+        when(oven.cook(any(BreadSlice.class), eq("Some data"))).thenAnswer(new Answer() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws InterruptedException {
+                Thread.sleep(20);
+                return "baked";
+            }
+        });
+        
+        //When
+        bakery.getData("Some data");
+        
+        //Then
+        ArgumentCaptor<BreadSlice> slice = ArgumentCaptor.forClass(BreadSlice.class);
+        verify(breadBin, times(1)).add(slice.capture());
+        assertTrue("Expected the bake to have been timed", slice.getValue().getBakeDuration() >= 20);
+    }
+    
+    @Test
+    public void checkThatGettingDataDoesNotCleanTheBreadBin() throws BreadException {
+        //Given
+        Bakery bakery = createBakery();
+        reset(breadBin);
+        
+        //When
+        bakery.getData("Some data");
+        
+        //Then
+        verify(breadBin, never()).removeMouldy(anyLong());
+    }
+    
+    @Test
+    public void checkThatJanitorIsScheduledToCleanTheBreadBin() {
+        //Given
+        //Nothing
+        
+        //When
+        createBakery();
+        
+        //Then
+        verify(janitor, times(1)).scheduleWithFixedDelay(any(Runnable.class), eq(CLEANING_PERIOD), eq(CLEANING_PERIOD), eq(TimeUnit.MILLISECONDS));
+    }
+    
+    @Test
+    public void checkThatJanitorSurvivesAFailedCleanOut() {
+        //Given
+        createBakery();
+        ArgumentCaptor<Runnable> cleaner = ArgumentCaptor.forClass(Runnable.class);
+        verify(janitor).scheduleWithFixedDelay(cleaner.capture(), eq(CLEANING_PERIOD), eq(CLEANING_PERIOD), eq(TimeUnit.MILLISECONDS));
+        when(breadBin.removeMouldy(anyLong())).thenThrow(new IllegalStateException("Failed"));
+        
+        //When
+        cleaner.getValue().run();
+        
+        //Then
+        verify(breadBin, times(2)).removeMouldy(anyLong());
+    }
+    
+    @Test
+    public void checkThatClosingTheBakeryStopsTheJanitor() {
+        //Given
+        Bakery bakery = createBakery();
+        
+        //When
+        bakery.close();
+        
+        //Then
+        verify(janitor, times(1)).shutdownNow();
+    }
+    
+    @Test
+    public void checkThatMoudlyDataIsRemovedOnStartup() {
+        //Given
+        BreadSlice oldSlice = mock(BreadSlice.class);
+        when(clock.getTimeInMillis()).thenReturn(7000L);
+        when(oldSlice.getMixName()).thenReturn("old key");
+        when(breadBin.removeMouldy(7000L)).thenReturn(Arrays.asList(oldSlice));
+        
+        //When
+        createBakery();
+        
+        //Then
+        verify(cache, times(1)).remove("old key", oldSlice);
+        verify(oldSlice, times(1)).markAsMouldy();
+    }
+    
+    @Test
+    public void checkThatExistingDataInTheOvenIsAdded() {
+        //Given
+        BreadSlice existingSlice = mock(BreadSlice.class);
+        when(existingSlice.getMixName()).thenReturn("existing key");
+        when(oven.reload(clock, workSurface, bin, STALE_TIME)).thenReturn(Arrays.asList(existingSlice));
+        
+        //When
+        createBakery();
+        
+        //Then
+        verify(cache, times(1)).put("existing key", existingSlice);
+        verify(breadBin, times(1)).add(existingSlice);
+    }
+    
+    @Test(expected=IllegalArgumentException.class)
+    public void checkThatAdaptiveStaleTimeRequiresAFingerprintingOven() {
+        //Given
+        oven = mock(Oven.class);
+        
+        //When
+        new Bakery(workSurface, climate, breadBin, bin, oven, clock, STALE_TIME, MOULDY_TIME, cache, bakingCache, janitor, createOptions().adaptiveStaleTime(new AdaptiveStaleTime(MOULDY_TIME)));
+        
+        //Then
+        fail("Expected only a fingerprinting oven to be accepted");
+    }
+    
+    @Test
+    public void checkThatAnUnchangedRefreshRenewsTheStaleSlice() throws BreadException, InterruptedException {
+        //Given
+        String ingredients = "My Ingredients";
+        when(clock.getTimeInMillis()).thenReturn(0L);
+        when(fingerprintingOven.cook(any(BreadSlice.class), eq(ingredients))).thenReturn("firstBake", "secondBake");
+        when(fingerprintingOven.fingerprint(any(BreadSlice.class))).thenReturn("unchanged");
+        when(breadBin.renew(any(BreadSlice.class), anyLong())).thenReturn(true);
+        Bakery bakery = createFingerprintingBakery(new AdaptiveStaleTime(MOULDY_TIME));
+        bakery.getData(ingredients);
+        BreadSlice stale = (BreadSlice)cache.values().iterator().next();
+        
+        //When
+        when(clock.getTimeInMillis()).thenReturn(STALE_TIME + 1);
+        bakery.getData(ingredients);
+        breadOvens.shutdown();
+        breadOvens.awaitTermination(1, TimeUnit.SECONDS);
+        
+        //Then
+        ArgumentCaptor<BreadSlice> replacement = ArgumentCaptor.forClass(BreadSlice.class);
+        verify(breadBin).renew(stale, STALE_TIME * 2);
+        verify(fingerprintingOven).renewed(stale);
+        verify(breadBin).remove(replacement.capture());
+        verify(cache, never()).put(any(String.class), any(BreadSlice.class));
+        assertSame("Expected the stale slice to stay in action", stale, cache.get(stale.getMixName()));
+        assertFalse("Expected the replacement to be thrown away", replacement.getValue().tryStartEating());
+        assertTrue("Expected the baking cache to be cleaned up", bakingCache.isEmpty());
+    }
+    
+    @Test
+    public void checkThatAChangedRefreshReplacesTheStaleSlice() throws BreadException, InterruptedException {
+        //Given
+        String ingredients = "My Ingredients";
+        when(clock.getTimeInMillis()).thenReturn(0L);
+        when(fingerprintingOven.cook(any(BreadSlice.class), eq(ingredients))).thenReturn("firstBake", "secondBake");
+        when(fingerprintingOven.fingerprint(any(BreadSlice.class))).thenReturn("first", "second");
+        Bakery bakery = createFingerprintingBakery(new AdaptiveStaleTime(MOULDY_TIME));
+        bakery.getData(ingredients);
+        BreadSlice stale = (BreadSlice)cache.values().iterator().next();
+        stale.setStaleTime(STALE_TIME * 4);
+        
+        //When
+        when(clock.getTimeInMillis()).thenReturn(STALE_TIME * 4 + 1);
+        bakery.getData(ingredients);
+        breadOvens.shutdown();
+        breadOvens.awaitTermination(1, TimeUnit.SECONDS);
+        
+        //Then
+        BreadSlice replacement = (BreadSlice)cache.get(stale.getMixName());
+        verify(breadBin, never()).renew(any(BreadSlice.class), anyLong());
+        verify(breadBin).remove(stale);
+        assertNotSame("Expected the replacement to be in action", stale, replacement);
+        assertEquals("Expected the stale time to shrink", STALE_TIME * 2, replacement.getStaleTime());
+    }
+    
+    @Test
+    public void checkThatInvalidatedSliceIsRefreshedWhilstServedStale() throws BreadException, InterruptedException {
+        //Given
+        Tagger tagger = mock(Tagger.class);
+        when(tagger.getTags("ingredients")).thenReturn(Collections.singleton("taxon:a"));
+        when(clock.getTimeInMillis()).thenReturn(0L);
+        when(oven.cook(any(BreadSlice.class), eq("ingredients"))).thenReturn("firstBake", "secondBake");
+        Bakery bakery = createTaggedBakery(tagger);
+        bakery.getData("ingredients");
+        
+        //When
+        int invalidated = bakery.invalidate("taxon:a", false);
+        Object served = bakery.getData("ingredients");
+        breadOvens.shutdown();
+        breadOvens.awaitTermination(1, TimeUnit.SECONDS);
+        
+        //Then
+        assertEquals("Expected one slice to be invalidated", 1, invalidated);
+        assertEquals("Expected the stale slice to be served", "firstBake", served);
+        assertEquals("Expected the refresh to be served next", "secondBake", bakery.getData("ingredients"));
+    }
+    
+    @Test
+    public void checkThatMouldyInvalidationThrowsSlicesAway() throws BreadException {
+        //Given
+        Tagger tagger = mock(Tagger.class);
+        when(tagger.getTags("ingredients")).thenReturn(Collections.singleton("taxon:a"));
+        when(breadBin.remove(any(BreadSlice.class))).thenReturn(true);
+        when(oven.cook(any(BreadSlice.class), eq("ingredients"))).thenReturn("firstBake", "secondBake");
+        Bakery bakery = createTaggedBakery(tagger);
+        bakery.getData("ingredients");
+        BreadSlice slice = (BreadSlice)cache.values().iterator().next();
+        
+        //When
+        int invalidated = bakery.invalidate("taxon:a", true);
+        
+        //Then
+        assertEquals("Expected one slice to be invalidated", 1, invalidated);
+        assertFalse("Expected the slice to have left the cache", cache.containsValue(slice));
+        assertFalse("Expected the slice to be mouldy", slice.tryStartEating());
+        assertEquals("Expected a fresh bake", "secondBake", bakery.getData("ingredients"));
+    }
+    
+    @Test
+    public void checkThatOnlyTaggedSlicesAreInvalidated() throws BreadException {
+        //Given
+        Tagger tagger = mock(Tagger.class);
+        when(tagger.getTags("first")).thenReturn(Collections.singleton("taxon:a"));
+        when(tagger.getTags("second")).thenReturn(Collections.singleton("taxon:b"));
+        when(oven.cook(any(BreadSlice.class), any())).thenReturn("bake");
+        Bakery bakery = createTaggedBakery(tagger);
+        bakery.getData("first");
+        bakery.getData("second");
+        
+        //When
+        int invalidated = bakery.invalidate("taxon:b", false);
+        
+        //Then
+        assertEquals("Expected one slice to be invalidated", 1, invalidated);
+        assertFalse("Expected first to be fresh", ((BreadSlice)cache.get(mixer.getMixName("first"))).isStale());
+        assertTrue("Expected second to be stale", ((BreadSlice)cache.get(mixer.getMixName("second"))).isStale());
     }
     
     @Test
-    public void checkStaleDataResultsInReBake() throws BreadException, InterruptedException {
+    public void checkThatFailedSlicesLeaveTheTagIndex() throws BreadException {
         //Given
-        String ingredients = "My Ingredients";
+        Tagger tagger = mock(Tagger.class);
+        when(tagger.getTags("ingredients")).thenReturn(Collections.singleton("taxon:a"));
+        when(oven.cook(any(BreadSlice.class), eq("ingredients"))).thenThrow(new BreadException("Failed"));
+        Bakery bakery = createTaggedBakery(tagger);
+        try {
+            bakery.getData("ingredients");
+            fail("Expected bake to fail");
+        }
+        catch(BreadException ex) {}
         
-        when(clock.getTimeInMillis()).thenReturn(0L);
-        when(oven.cook(any(BreadSlice.class), eq(ingredients)))
-                .thenReturn("firstBake")
-                .thenReturn("secondBake");
+        //When
+        int invalidated = bakery.invalidate("taxon:a", true);
         
+        //Then
+        assertEquals("Expected nothing to invalidate", 0, invalidated);
+    }
+    
+    @Test(expected=IllegalStateException.class)
+    public void checkThatInvalidationRequiresATagger() {
+        //Given
         Bakery bakery = createBakery();
         
         //When
-        Object firstRequest = bakery.getData(ingredients);
-        when(clock.getTimeInMillis()).thenReturn(STALE_TIME + 1);
-        Object secondRequest = bakery.getData(ingredients);
+        bakery.invalidate("taxon:a", false);
         
         //Then
-        assertSame("Expected the stale bake to yield the same as the fresh bake", firstRequest, secondRequest);
-        verify(breadOvens, times(1)).submit(any(Baker.class));
-        verify(bakingCache, times(1)).put(any(), any());
+        fail("Expected a bakery without a tagger to refuse");
     }
     
     @Test
-    public void checkStaleDataRequestIncreasesId() throws BreadException {
+    public void checkThatLeasedSliceIsOnlyDeletedOnceLeaseIsClosed() throws BreadException {
         //Given
-        String ingredients = "My Ingredients";
-        
-        when(clock.getTimeInMillis()).thenReturn(0L);
-        when(oven.cook(any(BreadSlice.class), eq(ingredients)))
-                .thenReturn("firstBake")
-                .thenReturn("secondBake");
-        
+        when(oven.cook(any(BreadSlice.class), eq("ingredients"))).thenReturn("baked");
         Bakery bakery = createBakery();
-        int initialBakeryValue = bakery.getNextId();
+        BreadLease lease = bakery.lease("ingredients");
+        BreadSlice slice = (BreadSlice)cache.get(mixer.getMixName("ingredients"));
+        slice.markAsMouldy();
+        BreadSlice.finishedEating(); //The lease is not tied to the thread
+        verify(bin, never()).delete(slice);
         
         //When
-        bakery.getData(ingredients);
-        when(clock.getTimeInMillis()).thenReturn(STALE_TIME + 1); //first request is now stale
-        bakery.getData(ingredients);
+        lease.close();
         
         //Then
-        assertEquals("Expected the initial baked id to have gone up by two", initialBakeryValue + 2, bakery.getNextId());
+        assertEquals("Expected the leased data", "baked", lease.get());
+        verify(bin).delete(slice);
+        assertEquals("Expected no open leases", 0, bakery.getLeaseTracker().getOpenCount());
     }
     
     @Test
-    public void checkThatMoudlyDataIsRemoved() throws BreadException {
-        //Given                
+    public void checkThatFailedLeaseIsClosed() throws BreadException {
+        //Given
+        when(oven.cook(any(BreadSlice.class), eq("ingredients"))).thenThrow(new BreadException("Failed"));
         Bakery bakery = createBakery();
         
-        BreadSlice oldSlice = mock(BreadSlice.class);
-        when(oldSlice.getMixName()).thenReturn("old key");
-        
         //When
-        when(clock.getTimeInMillis()).thenReturn(7000L);
-        when(breadBin.removeMouldy(7000L)).thenReturn(Arrays.asList(oldSlice));
-        bakery.getData("Some data");
+        try {
+            bakery.lease("ingredients");
+            fail("Expected the lease to fail");
+        }
+        catch(BreadException ex) {}
         
         //Then
-        verify(cache, times(1)).remove("old key");
-        verify(oldSlice, times(1)).markAsMouldy();
+        assertEquals("Expected no open leases", 0, bakery.getLeaseTracker().getOpenCount());
     }
     
     @Test
-    public void checkThatMoudlyDataIsRemovedOnStartup() {
+    public void checkThatOneLeaseHoldsEverySliceOfABatch() throws BreadException {
         //Given
-        BreadSlice oldSlice = mock(BreadSlice.class);
-        when(clock.getTimeInMillis()).thenReturn(7000L);
-        when(oldSlice.getMixName()).thenReturn("old key");
-        when(breadBin.removeMouldy(7000L)).thenReturn(Arrays.asList(oldSlice));
+        when(oven.cook(any(BreadSlice.class), any())).thenReturn("first", "second");
+        Bakery bakery = createBakery();
         
         //When
-        createBakery();
+        BreadLease<List> lease = bakery.lease(Arrays.asList("a", "b"));
         
         //Then
-        verify(cache, times(1)).remove("old key");
-        verify(oldSlice, times(1)).markAsMouldy();
+        assertEquals("Expected data in order", 2, lease.get().size());
+        assertEquals("Expected one open lease", 1, bakery.getLeaseTracker().getOpenCount());
+        lease.close();
     }
     
     @Test
-    public void checkThatExistingDataInTheOvenIsAdded() {
+    public void checkThatAsyncLeaseCanBeClosedOnAnotherThread() throws BreadException, InterruptedException {
         //Given
-        BreadSlice existingSlice = mock(BreadSlice.class);
-        when(oven.reload(clock, workSurface, bin, STALE_TIME)).thenReturn(Arrays.asList(existingSlice));
+        when(oven.cook(any(BreadSlice.class), eq("ingredients"))).thenReturn("baked");
+        Bakery bakery = createBakery();
+        final BreadLease lease = bakery.leaseAsync("ingredients");
+        breadOvens.shutdown();
+        breadOvens.awaitTermination(1, TimeUnit.SECONDS);
+        BreadSlice slice = (BreadSlice)cache.get(mixer.getMixName("ingredients"));
+        slice.markAsMouldy();
         
         //When
-        createBakery();
+        Thread closer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                lease.close();
+            }
+        });
+        closer.start();
+        closer.join();
         
         //Then
-        verify(cache, times(1)).put(existingSlice.getMixName(), existingSlice);
-        verify(breadBin, times(1)).add(existingSlice);
+        verify(bin).delete(slice);
     }
     
     @Test
@@ -308,8 +1062,9 @@ public class BakeryTest {
         //Then
         verify(breadBin, times(2)).add(any(BreadSlice.class)); //Two slices have been addded
         verify(breadBin, times(1)).remove(any(BreadSlice.class)); //Old slice removed
-        verify(cache, times(2)).put(any(String.class), any(BreadSlice.class)); //cache has been updated
-        verify(bakingCache, times(1)).remove(any(String.class)); //Background baking cleaned up
+        verify(cache, times(1)).putIfAbsent(any(String.class), any(BreadSlice.class)); //cache has been populated
+        verify(cache, times(1)).put(any(String.class), any(BreadSlice.class)); //and then updated
+        verify(bakingCache, times(1)).remove(any(String.class), any(BreadSlice.class)); //Background baking cleaned up
     }
     
     @Test
@@ -328,12 +1083,83 @@ public class BakeryTest {
         catch(BreadException ex) {}
         
         //When
+        when(clock.getTimeInMillis()).thenReturn(BakeBackoff.DEFAULT_INITIAL_BACKOFF); //backed off for long enough
         Object data = bakery.getData(ingredients);
         
         //Then
         assertEquals("Expected to get a successful bake", "successful bake", data);        
     }
     
+    @Test
+    public void checkThatAFailedBakeIsNotRetriedWhilstBackingOff() throws BreadException {
+        //Given
+        String ingredients = "My Ingredients";
+        BreadException failure = new BreadException("Forcing bake failure");
+        when(oven.cook(any(BreadSlice.class), eq(ingredients)))                
+                .thenThrow(failure)
+                .thenReturn("successful bake");
+        Bakery bakery = createBakery();
+        
+        try { 
+            bakery.getData(ingredients);
+            fail("Expected first bake to fail");
+        }
+        catch(BreadException ex) {}
+        
+        //When
+        BreadFuture future = bakery.getDataAsync(ingredients);
+        
+        //Then
+        assertTrue("Expected the future to have already failed", future.isDone());
+        try {
+            future.getBaked();
+            fail("Expected the cached failure");
+        }
+        catch(BreadException ex) {
+            assertSame("Expected the cached failure", failure, ex);
+        }
+        verify(oven, times(1)).cook(any(BreadSlice.class), eq(ingredients));
+    }
+    
+    @Test
+    public void checkThatStaleSliceIsServedWhilstRefreshIsBackingOff() throws BreadException, InterruptedException {
+        //Given
+        String ingredients = "My Ingredients";
+        when(clock.getTimeInMillis()).thenReturn(0L);
+        when(oven.cook(any(BreadSlice.class), eq(ingredients)))
+                .thenReturn("firstBake")
+                .thenThrow(new BreadException("Forcing bake failure"));
+        Bakery bakery = createBakery();
+        bakery.getData(ingredients);
+        when(clock.getTimeInMillis()).thenReturn(STALE_TIME + 1);
+        bakery.getData(ingredients); //Triggers a failing refresh
+        breadOvens.shutdown();
+        breadOvens.awaitTermination(1, TimeUnit.SECONDS);
+        
+        //When
+        Object data = bakery.getData(ingredients);
+        
+        //Then
+        assertEquals("Expected the stale bake", "firstBake", data);
+        verify(oven, times(2)).cook(any(BreadSlice.class), eq(ingredients));
+        verify(breadOvens, times(1)).submit(any(Baker.class), eq(Priority.REFRESH), anyLong());
+    }
+    
+    @Test
+    public void checkThatSuccessfulBakeClearsTheBackoff() throws BreadException {
+        //Given
+        String ingredients = "My Ingredients";
+        Bakery bakery = createBakery();
+        backoff.failed(bakery.getMixName(ingredients), new BreadException("Earlier failure"), -BakeBackoff.DEFAULT_INITIAL_BACKOFF);
+        
+        //When
+        bakery.getData(ingredients);
+        
+        //Then
+        assertEquals("Expected no failing mixes", 0, backoff.getFailingMixCount());
+        verify(backoff, times(1)).finishedRetry();
+    }
+    
     @Test
     public void checkThatAFailedBackgroundBakeDoesNotReplaceStaleData() throws BreadException, InterruptedException {
         //Given
@@ -356,8 +1182,9 @@ public class BakeryTest {
         //Then
         verify(breadBin, times(1)).add(any(BreadSlice.class));                  //Only the first slice was added to the bread bin
         verify(breadBin, never()).remove(any(BreadSlice.class));                //Nothing was taken out
-        verify(cache, times(1)).put(any(String.class), any(BreadSlice.class));  //Only one element was put into the cache
-        verify(bakingCache, times(1)).remove(any(String.class));                //The Baking cache was cleaned up
+        verify(cache, times(1)).putIfAbsent(any(String.class), any(BreadSlice.class)); //Only one element was put into the cache
+        verify(cache, never()).put(any(String.class), any(BreadSlice.class));           //and it was never replaced
+        verify(bakingCache, times(1)).remove(any(String.class), any(BreadSlice.class)); //The Baking cache was cleaned up
     }
     
     @Test
@@ -446,6 +1273,260 @@ public class BakeryTest {
         verify(oven, times(1)).cook(any(BreadSlice.class), eq(ingredients2));
     }
     
+    @Test
+    public void checkThatADroppedRefreshLeavesStaleDataInAction() throws BreadException {
+        //Given
+        String ingredients = "My Ingredients";
+        when(clock.getTimeInMillis()).thenReturn(0L);
+        when(oven.cook(any(BreadSlice.class), eq(ingredients))).thenReturn("firstBake");
+        Bakery bakery = createBakery();
+        bakery.getData(ingredients);
+        breadOvens.shutdown(); //Ovens will no longer accept bakes
+        
+        //When
+        when(clock.getTimeInMillis()).thenReturn(STALE_TIME + 1);
+        Object data = bakery.getData(ingredients);
+        
+        //Then
+        assertEquals("Expected the stale bake", "firstBake", data);
+        assertTrue("Expected the baking cache to be cleaned up", bakingCache.isEmpty());
+        verify(oven, times(1)).cook(any(BreadSlice.class), eq(ingredients));
+    }
+    
+    @Test
+    public void checkThatAsyncMissIsBakedInABreadOven() throws BreadException, InterruptedException, ExecutionException {
+        //Given
+        String ingredients = "My Ingredients";
+        when(oven.cook(any(BreadSlice.class), eq(ingredients))).thenReturn("baked");
+        Bakery bakery = createBakery();
+        
+        //When
+        BreadFuture future = bakery.getDataAsync(ingredients);
+        
+        //Then
+        assertEquals("Expected the future to be baked", "baked", future.get());
+        verify(breadOvens, times(1)).submit(any(Baker.class), eq(Priority.FOREGROUND), anyLong());
+        verify(bakingCache, never()).putIfAbsent(any(), any());
+    }
+    
+    @Test
+    public void checkThatBakedCallbackRunsAfterSliceIsInTheBreadBinAndOutsideItsLock() throws BreadException, InterruptedException {
+        //Given
+        String ingredients = "My Ingredients";
+        final CountDownLatch callbackAdded = new CountDownLatch(1);
+        when(oven.cook(any(BreadSlice.class), eq(ingredients))).thenAnswer(new Answer() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                callbackAdded.await();
+                return "baked";
+            }
+        });
+        final AtomicBoolean inBreadBin = new AtomicBoolean();
+        doAnswer(new Answer() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                inBreadBin.set(true);
+                return null;
+            }
+        }).when(breadBin).add(any(BreadSlice.class));
+        Bakery bakery = createBakery();
+        ArgumentCaptor<Runnable> cleaner = ArgumentCaptor.forClass(Runnable.class);
+        verify(janitor).scheduleWithFixedDelay(cleaner.capture(), eq(CLEANING_PERIOD), eq(CLEANING_PERIOD), eq(TimeUnit.MILLISECONDS));
+        final Thread cleaning = new Thread(cleaner.getValue());
+        final AtomicBoolean inBreadBinWhenCalled = new AtomicBoolean();
+        final CountDownLatch called = new CountDownLatch(1);
+        
+        //When
+        BreadFuture future = bakery.getDataAsync(ingredients);
+        future.addCallback(new BreadCallback() {
+            @Override
+            public void baked(Object baked) {
+                inBreadBinWhenCalled.set(inBreadBin.get());
+                cleaning.start(); //Takes the bread bin lock
+                try {
+                    cleaning.join(1000);
+                }
+                catch(InterruptedException ex) {}
+                called.countDown();
+            }
+
+            @Override
+            public void failed(BreadException ex) {}
+        });
+        callbackAdded.countDown();
+        
+        //Then
+        assertTrue("Expected the callback to be called", called.await(5, TimeUnit.SECONDS));
+        assertTrue("Expected the slice to be in the bread bin", inBreadBinWhenCalled.get());
+        assertFalse("Expected the bread bin to be cleaned whilst the callback runs", cleaning.isAlive());
+    }
+    
+    @Test
+    public void checkThatAsyncHitIsAlreadyDone() throws BreadException {
+        //Given
+        String ingredients = "My Ingredients";
+        when(oven.cook(any(BreadSlice.class), eq(ingredients))).thenReturn("baked");
+        Bakery bakery = createBakery();
+        bakery.getData(ingredients);
+        
+        //When
+        BreadFuture future = bakery.getDataAsync(ingredients);
+        
+        //Then
+        assertTrue("Expected the future to be done", future.isDone());
+        assertEquals("Expected the baked value", "baked", future.getBaked());
+        verify(oven, times(1)).cook(any(BreadSlice.class), eq(ingredients));
+    }
+    
+    @Test(expected=BreadException.class)
+    public void checkThatAsyncFailureIsReportedByTheFuture() throws BreadException, InterruptedException {
+        //Given
+        String ingredients = "My Ingredients";
+        when(oven.cook(any(BreadSlice.class), eq(ingredients))).thenThrow(new BreadException("Forcing bake failure"));
+        Bakery bakery = createBakery();
+        
+        //When
+        BreadFuture future = bakery.getDataAsync(ingredients);
+        future.getBaked();
+        
+        //Then
+        fail("Expected the future to report the failure");
+    }
+    
+    @Test
+    public void checkThatIngredientsAreNamedByTheMixer() throws BreadException {
+        //Given
+        String ingredients = "My Ingredients";
+        when(oven.cook(any(BreadSlice.class), eq(ingredients))).thenReturn("baked");
+        Bakery bakery = createBakery();
+        
+        //When
+        bakery.getData(ingredients);
+        
+        //Then
+        verify(mixer).getMixName(ingredients);
+        assertTrue("Expected slice under the sha1 of the ingredients", cache.containsKey("67c06865eafa56e744142175c8a19104a79e0ff0"));
+    }
+    
+    @Test
+    public void checkThatCollidingIngredientsAreNotServedTheWrongSlice() throws BreadException {
+        //Given
+        doReturn("collision").when(mixer).getMixName(any());
+        when(oven.cook(any(BreadSlice.class), eq("first"))).thenReturn("first baked");
+        Bakery bakery = createBakery();
+        bakery.getData("first");
+        
+        //When
+        try {
+            bakery.getData("second");
+            fail("Expected the collision to be detected");
+        }
+        catch(BreadException ex) {}
+        
+        //Then
+        assertEquals("Expected the first slice to still be served", "first baked", bakery.getData("first"));
+        verify(oven, never()).cook(any(BreadSlice.class), eq("second"));
+    }
+    
+    @Test
+    public void checkThatNormalisedIngredientsShareABake() throws BreadException {
+        //Given
+        when(oven.cook(any(BreadSlice.class), eq("select * from grid"))).thenReturn("baked");
+        Bakery bakery = new Bakery(workSurface, climate, breadBin, bin, oven, clock, STALE_TIME, MOULDY_TIME, cache, bakingCache, janitor, createOptions().normaliser(new SqlNormaliser()));
+        bakery.getData("SELECT *\n  FROM grid");
+        
+        //When
+        Object baked = bakery.getData("select * from GRID");
+        
+        //Then
+        assertEquals("Expected the same bake", "baked", baked);
+        verify(oven, times(1)).cook(any(BreadSlice.class), eq("select * from grid"));
+    }
+    
+    @Test
+    public void checkThatTimedOutWaiterDoesNotStopTheBake() throws BreadException, InterruptedException, ExecutionException {
+        //Given
+        String ingredients = "My Ingredients";
+        final CountDownLatch ovenLatch = new CountDownLatch(1);
+        when(oven.cook(any(BreadSlice.class), eq(ingredients))).thenAnswer(new Answer<String>() {
+            @Override
+            public String answer(InvocationOnMock invocation) throws Throwable {
+                ovenLatch.await();
+                return "baked";
+            }
+        });
+        Bakery bakery = createBakery();
+        
+        //When
+        try {
+            bakery.getData(ingredients, 10, TimeUnit.MILLISECONDS);
+            fail("Expected the waiter to time out");
+        }
+        catch(BreadTimeoutException te) {}
+        BreadFuture future = bakery.getDataAsync(ingredients);
+        ovenLatch.countDown();
+        
+        //Then
+        assertEquals("Expected the bake to complete", "baked", future.get());
+        verify(oven, times(1)).cook(any(BreadSlice.class), eq(ingredients));
+    }
+    
+    @Test
+    public void checkThatSimultaneousStaleRequestsOnlySubmitOneRefresh() throws InterruptedException, ExecutionException, BreadException {
+        //Given
+        ExecutorService executor = Executors.newCachedThreadPool();
+        String ingredients = "data";
+        when(clock.getTimeInMillis()).thenReturn(0L);
+        when(oven.cook(any(BreadSlice.class), eq(ingredients))).thenReturn("firstBake");
+        Bakery bakery = createBakery();
+        bakery.getData(ingredients);
+        BreadSlice.finishedEating();
+        
+        //When
+        when(clock.getTimeInMillis()).thenReturn(STALE_TIME + 1);
+        List<Future> executed = new ArrayList<>();
+        for(int i=0; i<1000; i++) {
+            executed.add(executor.submit(new BreadSliceRequestThread(bakery, ingredients)));
+        }
+        
+        //Then
+        for(Future request: executed) {
+            assertNotNull("Expected the stale bake to be served", request.get());
+        }
+        verify(breadOvens, times(1)).submit(any(Baker.class), eq(Priority.REFRESH), anyLong());
+    }
+    
+    /**
+     * An oven which only finishes its bakes once the given amount of bakes are
+     * all in the oven at once
+     */
+    public static class LatchedOven implements Oven {
+        private final CountDownLatch allBaking;
+        
+        public LatchedOven(int bakes) {
+            allBaking = new CountDownLatch(bakes);
+        }
+        
+        @Override
+        public List reload(Clock clock, Object workSurface, DustBin bin, long staleTime) {
+            return new ArrayList();
+        }
+
+        @Override
+        public Object cook(BreadSlice slice, Object ingredients) throws BreadException {
+            allBaking.countDown();
+            try {
+                if(!allBaking.await(5, TimeUnit.SECONDS)) {
+                    throw new BreadException("The other bakes never started");
+                }
+            }
+            catch(InterruptedException ie) {
+                throw new BreadException("Interrupted", ie);
+            }
+            return ingredients + ".shp";
+        }
+    }
+    
     @AllArgsConstructor
     public static class BreadSliceRequestThread<T, I> implements Callable {
         private Bakery<T, I, ?> bakery;
@@ -462,7 +1543,27 @@ public class BakeryTest {
         }
     }
     
+    private Bakery createStreamingBakery() {
+        return new Bakery(workSurface, climate, breadBin, bin, streamingOven, clock, STALE_TIME, MOULDY_TIME, cache, bakingCache, janitor, createOptions().streamingReload(true));
+    }
+    
+    private Bakery createListenedBakery(BakeryListener listener) {
+        return new Bakery(workSurface, climate, breadBin, bin, oven, clock, STALE_TIME, MOULDY_TIME, cache, bakingCache, janitor, createOptions().listener(listener));
+    }
+    
+    private Bakery createFingerprintingBakery(AdaptiveStaleTime adaptiveStaleTime) {
+        return new Bakery(workSurface, climate, breadBin, bin, fingerprintingOven, clock, STALE_TIME, MOULDY_TIME, cache, bakingCache, janitor, createOptions().adaptiveStaleTime(adaptiveStaleTime));
+    }
+    
+    private Bakery createTaggedBakery(Tagger tagger) {
+        return new Bakery(workSurface, climate, breadBin, bin, oven, clock, STALE_TIME, MOULDY_TIME, cache, bakingCache, janitor, createOptions().tagger(tagger));
+    }
+    
     private Bakery createBakery() {
-        return new Bakery(workSurface, climate, breadBin, bin, oven, clock, STALE_TIME, MOULDY_TIME, cache, bakingCache, breadOvens);
+        return new Bakery(workSurface, climate, breadBin, bin, oven, clock, STALE_TIME, MOULDY_TIME, cache, bakingCache, janitor, createOptions());
+    }
+    
+    private BakeryOptions createOptions() {
+        return new BakeryOptions().breadOvens(breadOvens).cleaningPeriod(CLEANING_PERIOD).backoff(backoff).mixer(mixer);
     }
 }
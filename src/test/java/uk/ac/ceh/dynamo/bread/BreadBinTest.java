@@ -1,6 +1,7 @@
 package uk.ac.ceh.dynamo.bread;
 
 import java.util.ArrayDeque;
+import java.util.Arrays;
 import java.util.List;
 import org.junit.Before;
 import org.junit.Test;
@@ -14,11 +15,13 @@ import static org.mockito.Mockito.*;
 public class BreadBinTest {
     private BreadBin breadBin;
     private ArrayDeque<BreadSlice> backingList;
+    private EvictionPolicy evictionPolicy;
     
     @Before
     public void createArrayBackedBreadBin() {
         this.backingList = new ArrayDeque<>();
-        this.breadBin = new BreadBin(backingList);
+        this.evictionPolicy = mock(EvictionPolicy.class);
+        this.breadBin = new BreadBin(backingList, evictionPolicy);
     }
     
     @Test
@@ -67,6 +70,44 @@ public class BreadBinTest {
         fail("Expected to fail with illegal argument exception");
     }
     
+    @Test
+    public void checkThatOlderSliceIsRestockedInBakedOrder() {
+        //Given
+        BreadSlice oldSlice = mock(BreadSlice.class);
+        when(oldSlice.getTimeBaked()).thenReturn(1000L);
+        when(oldSlice.isBaked()).thenReturn(true);
+        
+        BreadSlice middleSlice = mock(BreadSlice.class);
+        when(middleSlice.getTimeBaked()).thenReturn(2000L);
+        when(middleSlice.isBaked()).thenReturn(true);
+        
+        BreadSlice newSlice = mock(BreadSlice.class);
+        when(newSlice.getTimeBaked()).thenReturn(3000L);
+        when(newSlice.isBaked()).thenReturn(true);
+        breadBin.add(oldSlice);
+        breadBin.add(newSlice);
+        
+        //When
+        breadBin.restock(middleSlice);
+        
+        //Then
+        assertEquals("Expected slices in baked order", Arrays.asList(oldSlice, middleSlice, newSlice), Arrays.asList(backingList.toArray()));
+        verify(evictionPolicy).baked(middleSlice);
+    }
+    
+    @Test(expected=IllegalArgumentException.class)
+    public void checkThatUnbakedSliceCantBeRestocked() {
+        //Given
+        BreadSlice slice = mock(BreadSlice.class);
+        when(slice.isBaked()).thenReturn(false);
+        
+        //When
+        breadBin.restock(slice);
+        
+        //Then
+        fail("Expected to fail with illegal argument exception");
+    }
+    
     @Test
     public void checkThatCanBeAddedInOrder() {
         //Given
@@ -145,4 +186,100 @@ public class BreadBinTest {
         assertSame("Expected two elements in mouldy list", 2, mouldy.size());
         assertTrue("Expected nothing in deque", backingList.isEmpty());
     }
+    
+    @Test
+    public void checkThatEvictionPolicyIsToldAboutMouldySlices() {
+        //Given
+        BreadSlice oldSlice = mock(BreadSlice.class);
+        when(oldSlice.getTimeBaked()).thenReturn(1000L);
+        when(oldSlice.isBaked()).thenReturn(true);
+        breadBin.add(oldSlice);
+        
+        //When
+        breadBin.removeMouldy(3000L);
+        
+        //Then
+        verify(evictionPolicy, times(1)).baked(oldSlice);
+        verify(evictionPolicy, times(1)).removed(oldSlice);
+    }
+    
+    @Test
+    public void checkThatEvictedSlicesAreRemoved() {
+        //Given
+        BreadSlice slice = mock(BreadSlice.class);
+        when(slice.isBaked()).thenReturn(true);
+        breadBin.add(slice);
+        when(evictionPolicy.evict()).thenReturn(Arrays.asList(slice));
+        
+        //When
+        List evicted = breadBin.removeEvicted();
+        
+        //Then
+        assertEquals("Expected the slice to be evicted", Arrays.asList(slice), evicted);
+        assertTrue("Expected nothing in deque", backingList.isEmpty());
+    }
+    
+    @Test
+    public void checkThatEatenSlicesAreHandedToEvictionPolicy() {
+        //Given
+        BreadSlice slice = mock(BreadSlice.class);
+        breadBin.eaten(slice);
+        
+        //When
+        breadBin.drainEaten();
+        breadBin.drainEaten();
+        
+        //Then
+        verify(evictionPolicy, times(1)).eaten(slice);
+    }
+    
+    @Test
+    public void checkThatEatenBufferAsksToBeDrainedWhenFull() {
+        //Given
+        BreadSlice slice = mock(BreadSlice.class);
+        for(int i=0; i<127; i++) {
+            assertFalse("Expected not to be full yet", breadBin.eaten(slice));
+        }
+        
+        //When
+        boolean full = breadBin.eaten(slice);
+        
+        //Then
+        assertTrue("Expected the buffer to need draining", full);
+    }
+    
+    @Test
+    public void checkThatRenewedSliceIsMovedToTheEnd() {
+        //Given
+        Clock clock = mock(Clock.class);
+        when(clock.getTimeInMillis()).thenReturn(500L);
+        BreadSlice older = new BreadSlice("older", 100, 1, "OLDER", 100, clock, null, mock(DustBin.class));
+        BreadSlice newer = new BreadSlice("newer", 200, 2, "NEWER", 100, clock, null, mock(DustBin.class));
+        breadBin.add(older);
+        breadBin.add(newer);
+        
+        //When
+        boolean renewed = breadBin.renew(older, 400);
+        
+        //Then
+        assertTrue("Expected the slice to be renewed", renewed);
+        assertSame("Expected the renewed slice at the end", older, backingList.getLast());
+        assertEquals("Expected the slice to go stale from now", 900, older.getStaleAt());
+        verify(evictionPolicy, times(2)).baked(any(BreadSlice.class)); //Only when added
+        verifyNoMoreInteractions(evictionPolicy);
+    }
+    
+    @Test
+    public void checkThatSliceNotInBinIsNotRenewed() {
+        //Given
+        Clock clock = mock(Clock.class);
+        BreadSlice slice = new BreadSlice("slice", 100, 1, "SLICE", 100, clock, null, mock(DustBin.class));
+        
+        //When
+        boolean renewed = breadBin.renew(slice, 400);
+        
+        //Then
+        assertFalse("Expected the slice not to be renewed", renewed);
+        assertEquals("Expected stale time to be unchanged", 100, slice.getStaleTime());
+    }
 }
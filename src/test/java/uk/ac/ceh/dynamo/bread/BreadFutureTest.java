@@ -0,0 +1,200 @@
+package uk.ac.ceh.dynamo.bread;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ *
+ * @author Christopher Johnson
+ */
+public class BreadFutureTest {
+
+    @Test(timeout=1000L)
+    public void checkThatPreBakedFutureIsDone() throws BreadException {
+        //Given
+        BreadFuture<String> future = new BreadFuture<>("prebaked");
+
+        //When
+        String baked = future.getBaked();
+
+        //Then
+        assertTrue("Expected the future to be done", future.isDone());
+        assertEquals("Expected the prebaked value", "prebaked", baked);
+    }
+
+    @Test
+    public void checkThatCallbackIsNotifiedWhenBaked() {
+        //Given
+        BreadFuture<String> future = new BreadFuture<>();
+        BreadCallback<String> callback = mock(BreadCallback.class);
+        future.addCallback(callback);
+
+        //When
+        future.setBaked("baked");
+
+        //Then
+        verify(callback, times(1)).baked("baked");
+        verify(callback, never()).failed(any(BreadException.class));
+    }
+
+    @Test
+    public void checkThatCallbackIsNotifiedWhenFailed() {
+        //Given
+        BreadFuture<String> future = new BreadFuture<>();
+        BreadCallback<String> callback = mock(BreadCallback.class);
+        BreadException ex = new BreadException("burnt");
+        future.addCallback(callback);
+
+        //When
+        future.setException(ex);
+
+        //Then
+        verify(callback, times(1)).failed(ex);
+        verify(callback, never()).baked(any(String.class));
+    }
+
+    @Test
+    public void checkThatCallbackAddedAfterCompletionIsCalledStraightAway() {
+        //Given
+        BreadFuture<String> future = new BreadFuture<>("baked");
+        BreadCallback<String> callback = mock(BreadCallback.class);
+
+        //When
+        future.addCallback(callback);
+
+        //Then
+        verify(callback, times(1)).baked("baked");
+    }
+
+    @Test
+    public void checkThatFutureCanOnlyBeCompletedOnce() throws BreadException {
+        //Given
+        BreadFuture<String> future = new BreadFuture<>();
+        future.setBaked("first");
+
+        //When
+        boolean secondBake = future.setBaked("second");
+        boolean failure = future.setException(new BreadException("burnt"));
+
+        //Then
+        assertFalse("Expected second bake to be ignored", secondBake);
+        assertFalse("Expected failure to be ignored", failure);
+        assertEquals("Expected the first bake", "first", future.getBaked());
+    }
+
+    @Test(expected=ExecutionException.class)
+    public void checkThatGetWrapsBreadException() throws InterruptedException, ExecutionException {
+        //Given
+        BreadFuture<String> future = new BreadFuture<>();
+        future.setException(new BreadException("burnt"));
+
+        //When
+        future.get();
+
+        //Then
+        fail("Expected an execution exception");
+    }
+
+    @Test(expected=TimeoutException.class)
+    public void checkThatGetTimesOutIfNotBaked() throws InterruptedException, ExecutionException, TimeoutException {
+        //Given
+        BreadFuture<String> future = new BreadFuture<>();
+
+        //When
+        future.get(10, TimeUnit.MILLISECONDS);
+
+        //Then
+        fail("Expected a timeout");
+    }
+
+    @Test(expected=BreadTimeoutException.class)
+    public void checkThatGetBakedTimesOutIfNotBaked() throws BreadException {
+        //Given
+        BreadFuture<String> future = new BreadFuture<>();
+
+        //When
+        future.getBaked(10, TimeUnit.MILLISECONDS);
+
+        //Then
+        fail("Expected a timeout");
+    }
+
+    @Test(timeout=1000L)
+    public void checkThatGetBakedWithTimeoutReturnsBakedValue() throws BreadException {
+        //Given
+        BreadFuture<String> future = new BreadFuture<>();
+        future.setBaked("baked");
+
+        //When
+        String baked = future.getBaked(10, TimeUnit.MILLISECONDS);
+
+        //Then
+        assertEquals("Expected the baked value", "baked", baked);
+    }
+
+    @Test
+    public void checkThatFutureCanNotBeCancelled() {
+        //Given
+        BreadFuture<String> future = new BreadFuture<>();
+
+        //When
+        boolean cancelled = future.cancel(true);
+
+        //Then
+        assertFalse("Expected not to cancel", cancelled);
+        assertFalse("Expected not to be cancelled", future.isCancelled());
+        assertFalse("Expected not to be done", future.isDone());
+    }
+
+    @Test
+    public void checkThatAllOfWaitsForEveryFuture() throws BreadException {
+        //Given
+        BreadFuture<String> first = new BreadFuture<>();
+        BreadFuture<String> second = new BreadFuture<>();
+
+        //When
+        BreadFuture<List<String>> all = BreadFuture.allOf(Arrays.asList(first, second));
+        second.setBaked("second");
+        boolean doneBeforeFirst = all.isDone();
+        first.setBaked("first");
+
+        //Then
+        assertFalse("Expected not to be done until all are baked", doneBeforeFirst);
+        assertEquals("Expected results in order", Arrays.asList("first", "second"), all.getBaked());
+    }
+
+    @Test(expected=BreadException.class)
+    public void checkThatAllOfFailsIfAnyFail() throws BreadException {
+        //Given
+        BreadFuture<String> first = new BreadFuture<>("first");
+        BreadFuture<String> second = new BreadFuture<>();
+
+        //When
+        BreadFuture<List<String>> all = BreadFuture.allOf(Arrays.asList(first, second));
+        second.setException(new BreadException("burnt"));
+        all.getBaked();
+
+        //Then
+        fail("Expected a bread exception");
+    }
+
+    @Test
+    public void checkThatAllOfNothingIsDone() throws BreadException {
+        //Given
+        List<BreadFuture<String>> nothing = Collections.emptyList();
+
+        //When
+        BreadFuture<List<String>> all = BreadFuture.allOf(nothing);
+
+        //Then
+        assertTrue("Expected to be done", all.isDone());
+        assertTrue("Expected empty results", all.getBaked().isEmpty());
+    }
+}
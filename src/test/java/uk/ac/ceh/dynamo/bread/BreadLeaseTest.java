@@ -0,0 +1,79 @@
+package uk.ac.ceh.dynamo.bread;
+
+import java.util.Arrays;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ *
+ * @author Christopher Johnson
+ */
+public class BreadLeaseTest {
+    @Test
+    public void checkThatMouldySliceIsDeletedWhenLeaseIsClosed() {
+        //Given
+        DustBin bin = mock(DustBin.class);
+        BreadSlice slice = new BreadSlice("baked", 0, 1, "HASH", 100, mock(Clock.class), null, bin);
+        slice.tryPin();
+        BreadLease lease = new BreadLease(new BreadFuture("baked"), Arrays.asList(slice), null);
+        slice.markAsMouldy();
+        verify(bin, never()).delete(slice);
+        
+        //When
+        lease.close();
+        
+        //Then
+        verify(bin).delete(slice);
+        assertTrue("Expected lease to be closed", lease.isClosed());
+    }
+    
+    @Test
+    public void checkThatClosingTwiceOnlyUnpinsOnce() {
+        //Given
+        BreadSlice slice = mock(BreadSlice.class);
+        BreadLease lease = new BreadLease(new BreadFuture("baked"), Arrays.asList(slice), null);
+        
+        //When
+        lease.close();
+        lease.close();
+        
+        //Then
+        verify(slice, times(1)).unpin();
+    }
+    
+    @Test
+    public void checkThatLeaseCanBeClosedOnAnotherThread() throws InterruptedException {
+        //Given
+        DustBin bin = mock(DustBin.class);
+        BreadSlice slice = new BreadSlice("baked", 0, 1, "HASH", 100, mock(Clock.class), null, bin);
+        slice.tryPin();
+        final BreadLease lease = new BreadLease(new BreadFuture("baked"), Arrays.asList(slice), null);
+        slice.markAsMouldy();
+        
+        //When
+        Thread closer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                lease.close();
+            }
+        });
+        closer.start();
+        closer.join();
+        
+        //Then
+        verify(bin).delete(slice);
+    }
+    
+    @Test
+    public void checkThatLeaseGivesTheBakedData() throws BreadException {
+        //Given
+        BreadLease lease = new BreadLease(new BreadFuture("baked"), Arrays.asList(), null);
+        
+        //When
+        Object data = lease.get();
+        
+        //Then
+        assertEquals("Expected the baked data", "baked", data);
+    }
+}
@@ -49,6 +49,32 @@ public class BreadSliceTest {
         assertSame("Expected to get the supplied string", content, backingContent);
     }
     
+    @Test
+    public void checkThatSliceIsOnlyMixOfItsOwnIngredients() {
+        //Given
+        BreadSlice<String, Void> slice = new BreadSlice<>(1, "SLICE-HASH", "select 1", 500, mock(Clock.class), null, mock(DustBin.class));
+        
+        //When
+        boolean same = slice.isMixOf(new String("select 1"));
+        boolean different = slice.isMixOf("select 2");
+        
+        //Then
+        assertTrue("Expected equal ingredients to match", same);
+        assertFalse("Expected different ingredients not to match", different);
+    }
+    
+    @Test
+    public void checkThatPreBakedSliceIsMixOfAnything() {
+        //Given
+        BreadSlice<String, Void> preBaked = new BreadSlice<>("prebaked data", 2000, 0, "SLICE-HASH", 500, mock(Clock.class), null, mock(DustBin.class));
+        
+        //When
+        boolean matches = preBaked.isMixOf("select 1");
+        
+        //Then
+        assertTrue("Expected pre baked slice to match any ingredients", matches);
+    }
+    
     @Test(timeout=1000L)
     public void checkThatBreadSliceCanBeSet() throws BreadException {
         //Given
@@ -219,6 +245,40 @@ public class BreadSliceTest {
         verify(bin, never()).delete(slice);
     }
     
+    @Test
+    public void checkThatMouldyBreadCanNotBeStartedOn() {
+        //Given
+        Clock clock = mock(Clock.class);
+        DustBin<Void> bin = mock(DustBin.class);
+        BreadSlice<String, Void> slice = new BreadSlice<>(1, "SLICE-HASH", 500, clock, null, bin);
+        slice.markAsMouldy();
+        
+        //When
+        boolean eating = slice.tryStartEating();
+        
+        //Then
+        assertFalse("Expected not to be able to eat mouldy bread", eating);
+        verify(bin, times(1)).delete(slice);
+    }
+    
+    @Test
+    public void checkThatFreshBreadCanBeStartedOn() {
+        //Given
+        Clock clock = mock(Clock.class);
+        DustBin<Void> bin = mock(DustBin.class);
+        BreadSlice<String, Void> slice = new BreadSlice<>(1, "SLICE-HASH", 500, clock, null, bin);
+        
+        //When
+        boolean eating = slice.tryStartEating();
+        slice.markAsMouldy();
+        
+        //Then
+        assertTrue("Expected to be able to eat fresh bread", eating);
+        verify(bin, never()).delete(slice);
+        BreadSlice.finishedEating();
+        verify(bin, times(1)).delete(slice);
+    }
+    
     @Test
     public void checkThatBreadSlicesAreThrownAwayWhenFinishedEating() {
         //Given
@@ -408,4 +468,96 @@ public class BreadSliceTest {
         //Then
         assertEquals("Expected the baked content to have been set", bakedContent, "Baked Content");
     }
+    
+    @Test
+    public void checkThatChangingStaleTimeMovesStaleAt() {
+        //Given
+        Clock clock = mock(Clock.class);
+        DustBin<Void> bin = mock(DustBin.class);
+        BreadSlice<String, Void> preBaked = new BreadSlice<>("prebaked data", 2000, 0, "SLICE-HASH", 500, clock, null, bin);
+        
+        //When
+        preBaked.setStaleTime(1000);
+        
+        //Then
+        assertEquals("Expected new stale time", 1000, preBaked.getStaleTime());
+        assertEquals("Expected to go stale relative to the bake", 3000, preBaked.getStaleAt());
+    }
+    
+    @Test
+    public void checkThatRenewedSliceIsNoLongerStale() {
+        //Given
+        Clock clock = mock(Clock.class);
+        DustBin<Void> bin = mock(DustBin.class);
+        BreadSlice<String, Void> preBaked = new BreadSlice<>("prebaked data", 2000, 0, "SLICE-HASH", 500, clock, null, bin);
+        when(clock.getTimeInMillis()).thenReturn(2700L);
+        
+        //When
+        preBaked.renew(1000);
+        
+        //Then
+        assertFalse("Expected bread not to be stale once renewed", preBaked.isStale());
+        assertEquals("Expected renewed bake time", 2700, preBaked.getTimeBaked());
+        assertEquals("Expected to go stale relative to the renewal", 3700, preBaked.getStaleAt());
+    }
+    
+    @Test
+    public void checkThatExpiredSliceIsStale() {
+        //Given
+        Clock clock = mock(Clock.class);
+        DustBin<Void> bin = mock(DustBin.class);
+        BreadSlice<String, Void> preBaked = new BreadSlice<>("prebaked data", 2000, 0, "SLICE-HASH", 500, clock, null, bin);
+        when(clock.getTimeInMillis()).thenReturn(2100L);
+        
+        //When
+        preBaked.expire();
+        
+        //Then
+        assertTrue("Expected bread to be stale once expired", preBaked.isStale());
+    }
+    
+    @Test
+    public void checkThatUnbakedExpiredSliceIsNotStale() {
+        //Given
+        Clock clock = mock(Clock.class);
+        DustBin<Void> bin = mock(DustBin.class);
+        BreadSlice<String, Void> slice = new BreadSlice<>(0, "SLICE-HASH", 500, clock, null, bin);
+        
+        //When
+        slice.expire();
+        
+        //Then
+        assertFalse("Expected bread not to be stale until baked", slice.isStale());
+    }
+    
+    @Test
+    public void checkThatPinnedSliceIsNotThrownAwayUntilUnpinned() {
+        //Given
+        DustBin<Void> bin = mock(DustBin.class);
+        BreadSlice<String, Void> slice = new BreadSlice<>("prebaked data", 2000, 0, "SLICE-HASH", 500, mock(Clock.class), null, bin);
+        slice.tryPin();
+        slice.markAsMouldy();
+        BreadSlice.finishedEating(); //Pins are not tied to the thread
+        verify(bin, never()).delete(slice);
+        
+        //When
+        slice.unpin();
+        
+        //Then
+        verify(bin).delete(slice);
+    }
+    
+    @Test
+    public void checkThatMouldySliceCanNotBePinned() {
+        //Given
+        DustBin<Void> bin = mock(DustBin.class);
+        BreadSlice<String, Void> slice = new BreadSlice<>("prebaked data", 2000, 0, "SLICE-HASH", 500, mock(Clock.class), null, bin);
+        slice.markAsMouldy();
+        
+        //When
+        boolean pinned = slice.tryPin();
+        
+        //Then
+        assertFalse("Expected a mouldy slice not to be pinned", pinned);
+    }
 }
@@ -0,0 +1,245 @@
+package uk.ac.ceh.dynamo.bread;
+
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.util.Arrays;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ *
+ * @author Christopher Johnson
+ */
+public class DiskBudgetClimateMeterTest {
+    @Mock Bakery bakery;
+    @Mock Clock clock;
+    @Mock ShapefileGenerator generator;
+    @Mock FileStore fileStore;
+    DiskBudgetClimateMeter climate;
+    
+    @Before
+    public void createClimateMeter() throws IOException {
+        MockitoAnnotations.initMocks(this);
+        when(bakery.getClock()).thenReturn(clock);
+        when(fileStore.getUsableSpace()).thenReturn(1000000L);
+        climate = new DiskBudgetClimateMeter(generator, fileStore, 1000, 0, 0.5, 0.9);
+    }
+    
+    @Test
+    public void checkThatClimateIsPerfectBelowHighWatermark() {
+        //Given
+        when(generator.getBytesOnWorkSurface()).thenReturn(800L);
+        
+        //When
+        double climateVal = climate.getCurrentClimate(bakery);
+        
+        //Then
+        assertEquals("Expected the perfect climate", 1, climateVal, 0);
+    }
+    
+    @Test
+    public void checkThatClimateRampsDownAboveHighWatermark() {
+        //Given
+        when(generator.getBytesOnWorkSurface()).thenReturn(950L);
+        
+        //When
+        double climateVal = climate.getCurrentClimate(bakery);
+        
+        //Then
+        assertEquals("Expected the climate to have ramped half way down", 0.5, climateVal, 0.0001);
+    }
+    
+    @Test
+    public void checkThatClimateRampsDownFromPerfectAtHighWatermark() {
+        //Given
+        when(generator.getBytesOnWorkSurface()).thenReturn(899L, 900L, 901L);
+        
+        //When
+        double belowHighWatermark = climate.getCurrentClimate(bakery);
+        double atHighWatermark = climate.getCurrentClimate(bakery);
+        double aboveHighWatermark = climate.getCurrentClimate(bakery);
+        
+        //Then
+        assertEquals("Expected the perfect climate below", 1, belowHighWatermark, 0);
+        assertEquals("Expected the perfect climate at the watermark", 1, atHighWatermark, 0.0001);
+        assertEquals("Expected the climate to have only just ramped down", 0.99, aboveHighWatermark, 0.0001);
+        assertTrue("Expected the disk to be critical", climate.isCritical());
+    }
+    
+    @Test
+    public void checkThatClimateIsPoorWhenBudgetIsExceeded() {
+        //Given
+        when(generator.getBytesOnWorkSurface()).thenReturn(2000L);
+        
+        //When
+        double climateVal = climate.getCurrentClimate(bakery);
+        
+        //Then
+        assertEquals("Expected the poor climate", 0, climateVal, 0);
+    }
+    
+    @Test
+    public void checkThatClimateStaysRampedDownBetweenWatermarksAfterExceedingHighWatermark() {
+        //Given
+        when(generator.getBytesOnWorkSurface()).thenReturn(950L, 600L);
+        climate.getCurrentClimate(bakery);
+        
+        //When
+        double betweenWatermarks = climate.getCurrentClimate(bakery);
+        
+        //Then
+        assertEquals("Expected the climate to be ramping back up from the peak", 1 - 0.5 * 100 / 450, betweenWatermarks, 0.0001);
+    }
+    
+    @Test
+    public void checkThatClimateIsNotRampedDownWhenRisingBetweenWatermarks() {
+        //Given
+        when(generator.getBytesOnWorkSurface()).thenReturn(950L, 600L, 400L, 600L);
+        climate.getCurrentClimate(bakery);
+        double draining = climate.getCurrentClimate(bakery);
+        climate.getCurrentClimate(bakery);
+        
+        //When
+        double rising = climate.getCurrentClimate(bakery);
+        
+        //Then
+        assertTrue("Expected the climate to be ramped down whilst draining", draining < 1);
+        assertEquals("Expected the perfect climate once below the low watermark", 1, rising, 0);
+    }
+    
+    @Test
+    public void checkThatClimateDoesNotJumpWhenDrainingBelowHighWatermark() {
+        //Given
+        when(generator.getBytesOnWorkSurface()).thenReturn(901L, 899L);
+        double aboveHighWatermark = climate.getCurrentClimate(bakery);
+        
+        //When
+        double belowHighWatermark = climate.getCurrentClimate(bakery);
+        
+        //Then
+        assertEquals("Expected the climate to have only just ramped down", 0.99, aboveHighWatermark, 0.0001);
+        assertEquals("Expected the climate to have only just ramped back up", 0.99, belowHighWatermark, 0.0001);
+        assertTrue("Expected the climate to still be ramped down", belowHighWatermark < 1);
+    }
+    
+    @Test
+    public void checkThatBudgetShrinksWhenVolumeIsNearlyFull() throws IOException {
+        //Given
+        when(fileStore.getUsableSpace()).thenReturn(75L);
+        climate = new DiskBudgetClimateMeter(generator, fileStore, 1000, 50, 0.5, 0.9);
+        when(generator.getBytesOnWorkSurface()).thenReturn(475L);
+        
+        //When
+        double climateVal = climate.getCurrentClimate(bakery);
+        
+        //Then
+        assertEquals("Expected 475 of 500 available bytes to be poor", 0.5, climateVal, 0.0001);
+    }
+    
+    @Test
+    public void checkThatUsableSpaceIsNotReadOnEveryCall() throws IOException {
+        //Given
+        when(generator.getBytesOnWorkSurface()).thenReturn(100L);
+        when(clock.getTimeInMillis()).thenReturn(0L, 10L, DiskBudgetClimateMeter.USABLE_SPACE_REFRESH_PERIOD);
+        
+        //When
+        climate.getCurrentClimate(bakery);
+        climate.getCurrentClimate(bakery);
+        climate.getCurrentClimate(bakery);
+        
+        //Then
+        verify(fileStore, times(2)).getUsableSpace();
+    }
+    
+    @Test
+    public void checkThatBudgetIsHonouredIfVolumeCanNotBeRead() throws IOException {
+        //Given
+        when(fileStore.getUsableSpace()).thenThrow(new IOException("Volume unavailable"));
+        when(generator.getBytesOnWorkSurface()).thenReturn(100L);
+        
+        //When
+        double climateVal = climate.getCurrentClimate(bakery);
+        
+        //Then
+        assertEquals("Expected the perfect climate", 1, climateVal, 0);
+    }
+    
+    @Test
+    public void checkThatGeneratorIsToldWhenDiskIsCritical() {
+        //Given
+        when(generator.getBytesOnWorkSurface()).thenReturn(950L);
+        
+        //When
+        climate.getCurrentClimate(bakery);
+        
+        //Then
+        assertTrue("Expected the disk to be critical", climate.isCritical());
+        verify(generator).setDiskCritical(true);
+    }
+    
+    @Test
+    public void checkThatDiskStaysCriticalUntilBelowLowWatermark() {
+        //Given
+        when(generator.getBytesOnWorkSurface()).thenReturn(950L, 600L, 400L);
+        climate.getCurrentClimate(bakery);
+        climate.getCurrentClimate(bakery);
+        boolean betweenWatermarks = climate.isCritical();
+        
+        //When
+        climate.getCurrentClimate(bakery);
+        
+        //Then
+        assertTrue("Expected the disk to still be critical", betweenWatermarks);
+        assertFalse("Expected the disk to no longer be critical", climate.isCritical());
+        verify(generator).setDiskCritical(false);
+    }
+    
+    @Test
+    public void checkThatBytesAwaitingReclaimDoNotKeepClimateDown() {
+        //Given
+        when(generator.getBytesOnWorkSurface()).thenReturn(950L);
+        when(generator.getBytesAwaitingReclaim()).thenReturn(0L, 500L);
+        double critical = climate.getCurrentClimate(bakery);
+        
+        //When
+        double reclaiming = climate.getCurrentClimate(bakery);
+        
+        //Then
+        assertTrue("Expected the climate to have ramped down", critical < 1);
+        assertEquals("Expected the climate to recover whilst the reclaimer catches up", 1, reclaiming, 0);
+        assertTrue("Expected the disk to still be critical", climate.isCritical());
+        verify(generator, times(2)).setDiskCritical(true);
+    }
+    
+    @Test(expected=IllegalArgumentException.class)
+    public void checkThatWatermarksMustBeOrdered() {
+        //Given
+        //Nothing
+        
+        //When
+        new DiskBudgetClimateMeter(generator, fileStore, 1000, 0, 0.9, 0.5);
+        
+        //Then
+        fail("Expected illegal argument exception");
+    }
+    
+    @Test
+    public void checkThatSharedBudgetCombinesGenerators() {
+        //Given
+        ShapefileGenerator other = mock(ShapefileGenerator.class);
+        when(generator.getBytesOnWorkSurface()).thenReturn(450L);
+        when(other.getBytesOnWorkSurface()).thenReturn(500L);
+        DiskBudgetClimateMeter shared = new DiskBudgetClimateMeter(Arrays.asList(generator, other), fileStore, 1000, 0, 0.5, 0.9);
+        
+        //When
+        double climateVal = shared.getCurrentClimate(bakery);
+        
+        //Then
+        assertEquals("Expected the combined bytes", 950, shared.getBytesOnWorkSurface());
+        assertEquals("Expected the climate to have ramped down", 0.5, climateVal, 0.0001);
+    }
+}
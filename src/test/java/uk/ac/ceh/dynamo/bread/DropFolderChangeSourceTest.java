@@ -0,0 +1,79 @@
+package uk.ac.ceh.dynamo.bread;
+
+import java.io.File;
+import java.io.IOException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ *
+ * @author Christopher Johnson
+ */
+public class DropFolderChangeSourceTest {
+    public @Rule TemporaryFolder folder = new TemporaryFolder();
+    private DropFolderChangeSource source;
+    private Bakery bakery;
+    
+    @Before
+    public void createChangeSource() {
+        source = new DropFolderChangeSource(folder.getRoot());
+        bakery = mock(Bakery.class);
+        when(bakery.invalidate(anyString(), anyBoolean())).thenReturn(2);
+    }
+    
+    @After
+    public void closeChangeSource() throws IOException {
+        source.close();
+    }
+    
+    @Test(timeout=10000L)
+    public void checkThatDroppedStaleFileInvalidatesTag() throws IOException, InterruptedException {
+        //Given
+        source.start(bakery);
+        
+        //When
+        File dropped = folder.newFile("taxon:a.stale");
+        awaitDeletion(dropped);
+        
+        //Then
+        verify(bakery).invalidate("taxon:a", false);
+        assertEquals("Expected invalidated slices to be counted", 2, source.getInvalidatedCount());
+    }
+    
+    @Test(timeout=10000L)
+    public void checkThatFileDroppedBeforeStartingIsActedUpon() throws IOException, InterruptedException {
+        //Given
+        File dropped = folder.newFile("taxon:a.mouldy");
+        
+        //When
+        source.start(bakery);
+        awaitDeletion(dropped);
+        
+        //Then
+        verify(bakery).invalidate("taxon:a", true);
+    }
+    
+    @Test
+    public void checkThatOtherFilesAreIgnored() throws IOException {
+        //Given
+        File other = folder.newFile("readme.txt");
+        
+        //When
+        source.start(bakery);
+        
+        //Then
+        verify(bakery, never()).invalidate(anyString(), anyBoolean());
+        assertTrue("Expected other file to be left alone", other.exists());
+    }
+    
+    private static void awaitDeletion(File dropped) throws InterruptedException {
+        while(dropped.exists()) {
+            Thread.sleep(10); //The file is deleted once it has been acted upon
+        }
+    }
+}
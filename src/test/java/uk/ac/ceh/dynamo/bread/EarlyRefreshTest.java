@@ -0,0 +1,120 @@
+package uk.ac.ceh.dynamo.bread;
+
+import java.util.HashSet;
+import java.util.Set;
+import org.junit.After;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ *
+ * @author Christopher Johnson
+ */
+public class EarlyRefreshTest {
+    private static final long STALE_TIME = 10000;
+    
+    @After
+    public void finishEating() {
+        BreadSlice.finishedEating();
+    }
+    
+    @Test
+    public void checkThatHotSliceNearGoingStaleIsRefreshed() {
+        //Given
+        EarlyRefresh earlyRefresh = spy(new EarlyRefresh());
+        doReturn(0.5).when(earlyRefresh).random();
+        BreadSlice slice = createSlice(1000, 100);
+        
+        //When
+        boolean refresh = earlyRefresh.shouldRefresh(slice, 9500);
+        
+        //Then
+        assertTrue("Expected the slice to be refreshed", refresh);
+        assertEquals("Expected an early refresh to be counted", 1, earlyRefresh.getEarlyRefreshCount());
+    }
+    
+    @Test
+    public void checkThatHotSliceFarFromGoingStaleIsNotRefreshed() {
+        //Given
+        EarlyRefresh earlyRefresh = spy(new EarlyRefresh());
+        doReturn(0.5).when(earlyRefresh).random();
+        BreadSlice slice = createSlice(1000, 100);
+        
+        //When
+        boolean refresh = earlyRefresh.shouldRefresh(slice, 5000);
+        
+        //Then
+        assertFalse("Expected the slice not to be refreshed yet", refresh);
+    }
+    
+    @Test
+    public void checkThatColdSliceIsNotRefreshedEarly() {
+        //Given
+        EarlyRefresh earlyRefresh = spy(new EarlyRefresh());
+        doReturn(0.0001).when(earlyRefresh).random();
+        BreadSlice slice = createSlice(1000, 1);
+        
+        //When
+        boolean refresh = earlyRefresh.shouldRefresh(slice, 9500);
+        
+        //Then
+        assertFalse("Expected the cold slice to go stale as normal", refresh);
+    }
+    
+    @Test
+    public void checkThatSliceWithoutBakeDurationIsNotRefreshedEarly() {
+        //Given
+        EarlyRefresh earlyRefresh = spy(new EarlyRefresh());
+        doReturn(0.0001).when(earlyRefresh).random();
+        BreadSlice slice = createSlice(0, 100);
+        
+        //When
+        boolean refresh = earlyRefresh.shouldRefresh(slice, 9500);
+        
+        //Then
+        assertFalse("Expected the reloaded slice to go stale as normal", refresh);
+    }
+    
+    @Test
+    public void checkThatSlicesBakedTogetherAreRefreshedAtDifferentTimes() {
+        //Given
+        EarlyRefresh earlyRefresh = new EarlyRefresh();
+        Set<Long> refreshedAt = new HashSet<>();
+        
+        //When
+        for(int i=0; i<100; i++) {
+            BreadSlice slice = createSlice(1000, 100);
+            for(long now=0; now<STALE_TIME; now+=50) {
+                if(earlyRefresh.shouldRefresh(slice, now)) {
+                    refreshedAt.add(now);
+                    break;
+                }
+            }
+        }
+        
+        //Then
+        assertTrue("Expected the refreshes to be spread out", refreshedAt.size() > 10);
+    }
+    
+    @Test(expected=IllegalArgumentException.class)
+    public void checkThatBetaMustBePositive() {
+        //Given
+        double beta = 0;
+        
+        //When
+        new EarlyRefresh(beta, 1);
+        
+        //Then
+        fail("Expected beta to be rejected");
+    }
+    
+    private static BreadSlice createSlice(long bakeDuration, int timesEaten) {
+        BreadSlice slice = new BreadSlice("baked", 0, 0, "mix", STALE_TIME, mock(Clock.class), new Object(), mock(DustBin.class));
+        slice.setBakeDuration(bakeDuration);
+        for(int i=0; i<timesEaten; i++) {
+            slice.startEating();
+        }
+        return slice;
+    }
+}
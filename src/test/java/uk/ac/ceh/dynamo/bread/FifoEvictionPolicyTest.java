@@ -0,0 +1,46 @@
+package uk.ac.ceh.dynamo.bread;
+
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ *
+ * @author Christopher Johnson
+ */
+public class FifoEvictionPolicyTest {
+    
+    @Test
+    public void checkThatEarliestBakedIsEvictedEvenIfEaten() {
+        //Given
+        FifoEvictionPolicy policy = new FifoEvictionPolicy(1);
+        BreadSlice first = mock(BreadSlice.class);
+        BreadSlice second = mock(BreadSlice.class);
+        policy.baked(first);
+        policy.eaten(first);
+        policy.baked(second);
+        
+        //When
+        List evicted = policy.evict();
+        
+        //Then
+        assertEquals("Expected the first slice to be evicted", Arrays.asList(first), evicted);
+    }
+    
+    @Test
+    public void checkThatDefaultPolicyNeverEvicts() {
+        //Given
+        FifoEvictionPolicy policy = new FifoEvictionPolicy();
+        for(int i=0; i<100; i++) {
+            policy.baked(mock(BreadSlice.class));
+        }
+        
+        //When
+        List evicted = policy.evict();
+        
+        //Then
+        assertTrue("Expected nothing to be evicted", evicted.isEmpty());
+    }
+}
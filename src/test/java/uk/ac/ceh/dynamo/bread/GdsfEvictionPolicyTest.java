@@ -0,0 +1,180 @@
+package uk.ac.ceh.dynamo.bread;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ *
+ * @author Christopher Johnson
+ */
+public class GdsfEvictionPolicyTest {
+    private static final Clock CLOCK = mock(Clock.class);
+    private static final DustBin DUST_BIN = mock(DustBin.class);
+
+    @Test
+    public void checkThatNothingIsEvictedWithinBudget() {
+        //Given
+        GdsfEvictionPolicy policy = new GdsfEvictionPolicy(100);
+        policy.baked(createSlice("first", 50, 10));
+        policy.baked(createSlice("second", 50, 10));
+
+        //When
+        List evicted = policy.evict();
+
+        //Then
+        assertTrue("Expected nothing to be evicted", evicted.isEmpty());
+        assertEquals("Expected 100 bytes", 100, policy.getBytes());
+    }
+
+    @Test
+    public void checkThatCheapSliceIsEvictedBeforeExpensiveSlice() {
+        //Given
+        GdsfEvictionPolicy policy = new GdsfEvictionPolicy(100);
+        BreadSlice expensive = createSlice("expensive", 50, 40000);
+        BreadSlice cheap = createSlice("cheap", 50, 200);
+        policy.baked(expensive);
+        policy.baked(cheap);
+        policy.baked(createSlice("new", 50, 1000));
+
+        //When
+        List evicted = policy.evict();
+
+        //Then
+        assertEquals("Expected the cheap slice to be evicted", Arrays.asList(cheap), evicted);
+    }
+
+    @Test
+    public void checkThatLargeSliceIsEvictedBeforeSmallSlice() {
+        //Given
+        GdsfEvictionPolicy policy = new GdsfEvictionPolicy(100);
+        BreadSlice large = createSlice("large", 80, 1000);
+        BreadSlice small = createSlice("small", 10, 1000);
+        policy.baked(large);
+        policy.baked(small);
+        policy.baked(createSlice("new", 20, 1000));
+
+        //When
+        List evicted = policy.evict();
+
+        //Then
+        assertEquals("Expected the large slice to be evicted", Arrays.asList(large), evicted);
+    }
+
+    @Test
+    public void checkThatFrequentlyEatenSliceIsKept() {
+        //Given
+        GdsfEvictionPolicy policy = new GdsfEvictionPolicy(100);
+        BreadSlice popular = createSlice("popular", 50, 1000);
+        BreadSlice unpopular = createSlice("unpopular", 50, 1000);
+        policy.baked(popular);
+        policy.baked(unpopular);
+        policy.eaten(popular);
+        policy.eaten(popular);
+        policy.baked(createSlice("new", 50, 1000));
+
+        //When
+        List evicted = policy.evict();
+
+        //Then
+        assertEquals("Expected the unpopular slice to be evicted", Arrays.asList(unpopular), evicted);
+    }
+
+    @Test
+    public void checkThatFreshSliceKeepsFrequencyOfStaleSlice() {
+        //Given
+        GdsfEvictionPolicy policy = new GdsfEvictionPolicy(100);
+        BreadSlice stale = createSlice("popular", 50, 1000);
+        BreadSlice other = createSlice("other", 50, 1000);
+        policy.baked(stale);
+        policy.baked(other);
+        policy.eaten(stale);
+        policy.eaten(stale);
+        BreadSlice fresh = createSlice("popular", 50, 1000);
+        policy.baked(fresh);
+        policy.removed(stale);
+        policy.baked(createSlice("new", 50, 1000));
+
+        //When
+        List evicted = policy.evict();
+
+        //Then
+        assertEquals("Expected the other slice to be evicted", Arrays.asList(other), evicted);
+    }
+
+    @Test
+    public void checkThatUnmeasuredSlicesCostTheAverageBake() {
+        //Given
+        GdsfEvictionPolicy policy = new GdsfEvictionPolicy(100);
+        BreadSlice cheap = createSlice("cheap", 25, 10);
+        policy.baked(cheap);
+        policy.baked(createSlice("expensive", 25, 10000));
+        policy.baked(createSlice("reloaded", 50, 0));
+        policy.baked(createSlice("new", 25, 10000));
+
+        //When
+        List evicted = policy.evict();
+
+        //Then
+        assertEquals("Expected the cheap slice to be evicted", Arrays.asList(cheap), evicted);
+    }
+
+    @Test
+    public void checkThatLessRebakingIsDoneThanLruOnReplayedTrace() {
+        //Given
+        Random random = new Random(7);
+        Map<String, long[]> mixes = new HashMap<>();
+        for(int i=0; i<500; i++) {
+            //sizes of 1KB - 1MB, bakes of 200ms - 40s
+            mixes.put("mix" + i, new long[] { 1024 + random.nextInt(1024 * 1024), 200 + random.nextInt(40000) });
+        }
+        String[] trace = new String[20000];
+        for(int i=0; i<trace.length; i++) {
+            trace[i] = "mix" + random.nextInt(mixes.size());
+        }
+
+        //When
+        long lru = replay(new LruEvictionPolicy(50), mixes, trace);
+        long gdsf = replay(new GdsfEvictionPolicy(50L * 512 * 1024), mixes, trace);
+
+        //Then
+        assertTrue("Expected gdsf (" + gdsf + "ms) to rebake less than lru (" + lru + "ms)", gdsf < lru);
+    }
+
+    /**
+     * Replay a trace of mix names against an eviction policy in the same way as
+     * a bakery would
+     * @return the total time in milliseconds spent baking
+     */
+    private static long replay(EvictionPolicy policy, Map<String, long[]> mixes, String[] trace) {
+        Map<String, BreadSlice> breadBin = new HashMap<>();
+        long bakingTime = 0;
+        for(String mixName: trace) {
+            BreadSlice slice = breadBin.get(mixName);
+            if(slice == null) {
+                long[] mix = mixes.get(mixName);
+                slice = createSlice(mixName, mix[0], mix[1]);
+                bakingTime += mix[1];
+                policy.baked(slice);
+                breadBin.put(mixName, slice);
+                for(Object evicted: policy.evict()) {
+                    breadBin.remove(((BreadSlice)evicted).getMixName());
+                }
+            }
+            policy.eaten(slice);
+        }
+        return bakingTime;
+    }
+
+    private static BreadSlice createSlice(String mixName, long size, long bakeDuration) {
+        BreadSlice slice = new BreadSlice<>("baked", 0, 0, mixName, 1000, CLOCK, new Object(), DUST_BIN);
+        slice.setSize(size);
+        slice.setBakeDuration(bakeDuration);
+        return slice;
+    }
+}
@@ -0,0 +1,97 @@
+package uk.ac.ceh.dynamo.bread;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Christopher Johnson
+ */
+public class LatencyHistogramTest {
+    @Test
+    public void checkThatEmptyHistogramReportsZero() {
+        //Given
+        LatencyHistogram histogram = new LatencyHistogram();
+        
+        //When
+        long percentile = histogram.getPercentile(99);
+        
+        //Then
+        assertEquals("Expected 0", 0, percentile);
+        assertEquals("Expected no values", 0, histogram.getCount());
+        assertEquals("Expected no mean", 0, histogram.getMean(), 0);
+    }
+    
+    @Test
+    public void checkThatSmallValuesAreExact() {
+        //Given
+        LatencyHistogram histogram = new LatencyHistogram();
+        for(int i=1; i<=20; i++) {
+            histogram.record(i);
+        }
+        
+        //When
+        long median = histogram.getPercentile(50);
+        
+        //Then
+        assertEquals("Expected the exact median", 10, median);
+        assertEquals("Expected the maximum", 20, histogram.getMaximum());
+        assertEquals("Expected the mean", 10.5, histogram.getMean(), 0.0001);
+    }
+    
+    @Test
+    public void checkThatLargeValuesAreWithinPrecision() {
+        //Given
+        LatencyHistogram histogram = new LatencyHistogram();
+        for(int i=1; i<=1000; i++) {
+            histogram.record(i * 1000L);
+        }
+        
+        //When
+        long percentile = histogram.getPercentile(99);
+        
+        //Then
+        assertTrue("Expected about 990000 but was " + percentile, Math.abs(percentile - 990000) <= 990000 * 0.07);
+    }
+    
+    @Test
+    public void checkThatPercentileDoesNotExceedMaximum() {
+        //Given
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(1000);
+        
+        //When
+        long percentile = histogram.getPercentile(100);
+        
+        //Then
+        assertEquals("Expected the maximum", 1000, percentile);
+    }
+    
+    @Test
+    public void checkThatBucketsCoverEveryValue() {
+        //Given
+        long[] values = { 0, 31, 32, 33, 63, 64, 1000, 123456789L, Long.MAX_VALUE };
+        
+        //When
+        for(long value: values) {
+            int index = LatencyHistogram.indexOf(value);
+            
+            //Then
+            assertTrue("Expected " + value + " to be at or below the top of its bucket", value <= LatencyHistogram.highestValueAt(index));
+            assertTrue("Expected " + value + " to be above the previous bucket", index == 0 || value > LatencyHistogram.highestValueAt(index - 1));
+        }
+    }
+    
+    @Test
+    public void checkThatNegativeValuesAreRecordedAsZero() {
+        //Given
+        LatencyHistogram histogram = new LatencyHistogram();
+        
+        //When
+        histogram.record(-5);
+        
+        //Then
+        assertEquals("Expected zero", 0, histogram.getPercentile(50));
+        assertEquals("Expected one value", 1, histogram.getCount());
+    }
+}
@@ -0,0 +1,59 @@
+package uk.ac.ceh.dynamo.bread;
+
+import java.util.Arrays;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ *
+ * @author Christopher Johnson
+ */
+public class LeaseTrackerTest {
+    @Test
+    public void checkThatOpenLeaseIsTracked() {
+        //Given
+        LeaseTracker tracker = new LeaseTracker();
+        
+        //When
+        BreadLease lease = new BreadLease(new BreadFuture("baked"), Arrays.asList(), tracker);
+        
+        //Then
+        assertEquals("Expected one open lease", 1, tracker.getOpenCount());
+    }
+    
+    @Test
+    public void checkThatClosedLeaseIsNotTracked() {
+        //Given
+        LeaseTracker tracker = new LeaseTracker();
+        BreadLease lease = new BreadLease(new BreadFuture("baked"), Arrays.asList(), tracker);
+        
+        //When
+        lease.close();
+        
+        //Then
+        assertEquals("Expected no open leases", 0, tracker.getOpenCount());
+        assertEquals("Expected nothing leaked", 0, tracker.reclaimLeaked());
+    }
+    
+    @Test(timeout=10000L)
+    public void checkThatCollectedLeaseIsReclaimed() throws InterruptedException {
+        //Given
+        LeaseTracker tracker = new LeaseTracker();
+        BreadSlice slice = mock(BreadSlice.class);
+        new BreadLease(new BreadFuture("baked"), Arrays.asList(slice), tracker); //never closed
+        
+        //When
+        int reclaimed = 0;
+        while(reclaimed == 0) {
+            System.gc();
+            Thread.sleep(10);
+            reclaimed = tracker.reclaimLeaked();
+        }
+        
+        //Then
+        verify(slice).unpin();
+        assertEquals("Expected one leaked lease", 1, tracker.getLeakedCount());
+        assertEquals("Expected no open leases", 0, tracker.getOpenCount());
+    }
+}
@@ -0,0 +1,79 @@
+package uk.ac.ceh.dynamo.bread;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ *
+ * @author Christopher Johnson
+ */
+public class LruEvictionPolicyTest {
+    
+    @Test
+    public void checkThatNothingIsEvictedWithinCapacity() {
+        //Given
+        LruEvictionPolicy policy = new LruEvictionPolicy(2);
+        policy.baked(mock(BreadSlice.class));
+        policy.baked(mock(BreadSlice.class));
+        
+        //When
+        List evicted = policy.evict();
+        
+        //Then
+        assertTrue("Expected nothing to be evicted", evicted.isEmpty());
+    }
+    
+    @Test
+    public void checkThatLeastRecentlyEatenIsEvicted() {
+        //Given
+        LruEvictionPolicy policy = new LruEvictionPolicy(2);
+        BreadSlice first = mock(BreadSlice.class);
+        BreadSlice second = mock(BreadSlice.class);
+        BreadSlice third = mock(BreadSlice.class);
+        policy.baked(first);
+        policy.baked(second);
+        policy.eaten(first);
+        policy.baked(third);
+        
+        //When
+        List evicted = policy.evict();
+        
+        //Then
+        assertEquals("Expected the second slice to be evicted", Arrays.asList(second), evicted);
+    }
+    
+    @Test
+    public void checkThatRemovedSlicesAreNotEvicted() {
+        //Given
+        LruEvictionPolicy policy = new LruEvictionPolicy(1);
+        BreadSlice first = mock(BreadSlice.class);
+        BreadSlice second = mock(BreadSlice.class);
+        policy.baked(first);
+        policy.baked(second);
+        policy.removed(first);
+        
+        //When
+        List evicted = policy.evict();
+        
+        //Then
+        assertEquals("Expected nothing to be evicted", Collections.emptyList(), evicted);
+    }
+    
+    @Test
+    public void checkThatEatingAnUnknownSliceDoesNotAddIt() {
+        //Given
+        LruEvictionPolicy policy = new LruEvictionPolicy(1);
+        BreadSlice slice = mock(BreadSlice.class);
+        policy.baked(slice);
+        
+        //When
+        policy.eaten(mock(BreadSlice.class));
+        
+        //Then
+        assertTrue("Expected nothing to be evicted", policy.evict().isEmpty());
+    }
+}
@@ -0,0 +1,89 @@
+package uk.ac.ceh.dynamo.bread;
+
+import java.util.HashSet;
+import java.util.Set;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Christopher Johnson
+ */
+public class Murmur3MixerTest {
+    @Test
+    public void checkThatHashMatchesMurmur3OfUtf16Bytes() {
+        //Given
+        String sql = "select * from grid";
+        
+        //When
+        String hash = Murmur3Mixer.hash(sql);
+        
+        //Then
+        assertEquals("Expected the murmur3 hash", "c9f257519dbbd31d56211ffa91521956", hash);
+    }
+    
+    @Test
+    public void checkThatHashOfLongerStringMatchesMurmur3() {
+        //Given
+        String sentence = "The quick brown fox jumps over the lazy dog";
+        
+        //When
+        String hash = Murmur3Mixer.hash(sentence);
+        
+        //Then
+        assertEquals("Expected the murmur3 hash", "c0026631b551ae4ce75f3e8442567c1c", hash);
+    }
+    
+    @Test
+    public void checkThatHashOfNothingIsZero() {
+        //Given
+        String nothing = "";
+        
+        //When
+        String hash = Murmur3Mixer.hash(nothing);
+        
+        //Then
+        assertEquals("Expected zero hash", "00000000000000000000000000000000", hash);
+    }
+    
+    @Test
+    public void checkThatEveryTailLengthHashesDifferently() {
+        //Given
+        Set<String> hashes = new HashSet<>();
+        StringBuilder sql = new StringBuilder();
+        
+        //When
+        for(int i=0; i<20; i++) {
+            hashes.add(Murmur3Mixer.hash(sql));
+            sql.append('a');
+        }
+        
+        //Then
+        assertEquals("Expected 20 different hashes", 20, hashes.size());
+    }
+    
+    @Test
+    public void checkThatMixNameIsHashOfToString() {
+        //Given
+        Murmur3Mixer<StringBuilder> mixer = new Murmur3Mixer<>();
+        
+        //When
+        String mixName = mixer.getMixName(new StringBuilder("select * from grid"));
+        
+        //Then
+        assertEquals("Expected the murmur3 hash", "c9f257519dbbd31d56211ffa91521956", mixName);
+    }
+    
+    @Test
+    public void checkThatRecipeMixNameIsUsed() {
+        //Given
+        Murmur3Mixer<Object> mixer = new Murmur3Mixer<>();
+        Recipe recipe = new Recipe("select * from grid where id = ?", 5);
+        
+        //When
+        String mixName = mixer.getMixName(recipe);
+        
+        //Then
+        assertEquals("Expected the recipes mix name", recipe.getMixName(), mixName);
+    }
+}
@@ -0,0 +1,52 @@
+package uk.ac.ceh.dynamo.bread;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Christopher Johnson
+ */
+public class PatternTaggerTest {
+    @Test
+    public void checkThatEveryMatchIsTagged() {
+        //Given
+        PatternTagger tagger = new PatternTagger()
+                .add("taxon", "taxon_key\\s*=\\s*'(\\w+)'")
+                .add("table", "\\bfrom\\s+(\\w+)");
+        
+        //When
+        Set<String> tags = tagger.getTags("SELECT * FROM Occurrences WHERE taxon_key = 'NHMSYS1' OR taxon_key='NHMSYS2'");
+        
+        //Then
+        assertEquals("Expected tags for both taxa and the table", 
+                new HashSet<>(Arrays.asList("taxon:nhmsys1", "taxon:nhmsys2", "table:occurrences")), tags);
+    }
+    
+    @Test
+    public void checkThatPatternWithoutGroupTagsWholeMatch() {
+        //Given
+        PatternTagger tagger = new PatternTagger().add("grid", "10km");
+        
+        //When
+        Set<String> tags = tagger.getTags("select * from grid_10km");
+        
+        //Then
+        assertEquals("Expected whole match", new HashSet<>(Arrays.asList("grid:10km")), tags);
+    }
+    
+    @Test
+    public void checkThatUnmatchedIngredientsHaveNoTags() {
+        //Given
+        PatternTagger tagger = new PatternTagger().add("taxon", "taxon_key\\s*=\\s*'(\\w+)'");
+        
+        //When
+        Set<String> tags = tagger.getTags("select * from sites");
+        
+        //Then
+        assertTrue("Expected no tags", tags.isEmpty());
+    }
+}
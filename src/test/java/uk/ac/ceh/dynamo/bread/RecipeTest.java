@@ -0,0 +1,93 @@
+package uk.ac.ceh.dynamo.bread;
+
+import java.util.Arrays;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Christopher Johnson
+ */
+public class RecipeTest {
+    @Test
+    public void checkThatRecipesWithSameTemplateAndParametersAreEqual() {
+        //Given
+        Recipe recipe = new Recipe("select * from grid where id = ?", 5);
+        Recipe other = new Recipe("select * from grid where id = ?", 5);
+        
+        //When
+        boolean equal = recipe.equals(other);
+        
+        //Then
+        assertTrue("Expected recipes to be equal", equal);
+        assertEquals("Expected same hash code", recipe.hashCode(), other.hashCode());
+        assertEquals("Expected same mix name", recipe.getMixName(), other.getMixName());
+    }
+    
+    @Test
+    public void checkThatDifferentParametersMakeDifferentRecipes() {
+        //Given
+        Recipe recipe = new Recipe("select * from grid where id = ?", 5);
+        Recipe other = new Recipe("select * from grid where id = ?", 6);
+        
+        //When
+        boolean equal = recipe.equals(other);
+        
+        //Then
+        assertFalse("Expected recipes to be different", equal);
+        assertFalse("Expected different mix names", recipe.getMixName().equals(other.getMixName()));
+    }
+    
+    @Test
+    public void checkThatParameterTypesMakeDifferentMixNames() {
+        //Given
+        Recipe number = new Recipe("select * from grid where id = ?", 5);
+        Recipe string = new Recipe("select * from grid where id = ?", "5");
+        
+        //When
+        String numberMix = number.getMixName();
+        String stringMix = string.getMixName();
+        
+        //Then
+        assertFalse("Expected different recipes", number.equals(string));
+        assertFalse("Expected different mix names", numberMix.equals(stringMix));
+    }
+    
+    @Test
+    public void checkThatMixNameIsCached() {
+        //Given
+        Recipe recipe = new Recipe("select * from grid where id = ?", 5);
+        
+        //When
+        String first = recipe.getMixName();
+        String second = recipe.getMixName();
+        
+        //Then
+        assertSame("Expected the same mix name instance", first, second);
+    }
+    
+    @Test
+    public void checkThatParametersAreCopied() {
+        //Given
+        Object[] parameters = { 1, 2 };
+        Recipe recipe = new Recipe("select ?, ?", parameters);
+        
+        //When
+        parameters[0] = 3;
+        
+        //Then
+        assertEquals("Expected the original parameters", Arrays.<Object>asList(1, 2), recipe.getParameters());
+    }
+    
+    @Test(expected=UnsupportedOperationException.class)
+    public void checkThatParametersCanNotBeChanged() {
+        //Given
+        Recipe recipe = new Recipe("select ?", 1);
+        
+        //When
+        recipe.getParameters().add(2);
+        
+        //Then
+        fail("Expected parameters to be immutable");
+    }
+}
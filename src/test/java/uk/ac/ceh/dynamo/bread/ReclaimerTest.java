@@ -0,0 +1,182 @@
+package uk.ac.ceh.dynamo.bread;
+
+import java.util.concurrent.ExecutorService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ *
+ * @author Christopher Johnson
+ */
+public class ReclaimerTest {
+    private ExecutorService executor;
+    private Runnable deletion, interrupter;
+
+    @Before
+    public void createMocks() {
+        executor = mock(ExecutorService.class);
+        deletion = mock(Runnable.class);
+        interrupter = new Runnable() {
+            @Override
+            public void run() {
+                Thread.currentThread().interrupt(); //stops the drain at its next wait
+            }
+        };
+    }
+
+    @After
+    public void clearInterrupt() {
+        Thread.interrupted();
+    }
+
+    @Test
+    public void checkThatBacklogIsCountedUntilDrained() {
+        //Given
+        Reclaimer reclaimer = new Reclaimer(executor);
+        reclaimer.reclaim(deletion, 10);
+        reclaimer.reclaim(deletion, 20);
+        int backlog = reclaimer.getBacklog();
+        long backlogBytes = reclaimer.getBacklogBytes();
+
+        //When
+        getDrain().run();
+
+        //Then
+        assertEquals("Expected two deletions waiting", 2, backlog);
+        assertEquals("Expected thirty bytes waiting", 30, backlogBytes);
+        verify(deletion, times(2)).run();
+        assertEquals("Expected no backlog", 0, reclaimer.getBacklog());
+        assertEquals("Expected no bytes waiting", 0, reclaimer.getBacklogBytes());
+        assertEquals("Expected two deletions", 2, reclaimer.getReclaimedCount());
+    }
+
+    @Test
+    public void checkThatOnlyOneDrainIsSubmittedAtATime() {
+        //Given
+        Reclaimer reclaimer = new Reclaimer(executor);
+
+        //When
+        reclaimer.reclaim(deletion, 10);
+        reclaimer.reclaim(deletion, 10);
+        reclaimer.reclaim(deletion, 10);
+
+        //Then
+        verify(executor, times(1)).submit(any(Runnable.class));
+    }
+
+    @Test
+    public void checkThatNewDrainIsSubmittedOnceDrained() {
+        //Given
+        Reclaimer reclaimer = new Reclaimer(executor);
+        reclaimer.reclaim(deletion, 10);
+        getDrain().run();
+
+        //When
+        reclaimer.reclaim(deletion, 10);
+
+        //Then
+        verify(executor, times(2)).submit(any(Runnable.class));
+    }
+
+    @Test
+    public void checkThatBatchIsLimitedByFilesBudget() {
+        //Given
+        Reclaimer reclaimer = new Reclaimer(executor, 20, Reclaimer.UNLIMITED, 10, 50); //one file per batch
+        reclaimer.reclaim(interrupter, 10);
+        reclaimer.reclaim(deletion, 10);
+        reclaimer.reclaim(deletion, 10);
+
+        //When
+        getDrain().run();
+
+        //Then
+        verify(deletion, never()).run();
+        assertEquals("Expected the rest to wait for the next batch", 2, reclaimer.getBacklog());
+    }
+
+    @Test
+    public void checkThatBatchIsLimitedByBytesBudget() {
+        //Given
+        Reclaimer reclaimer = new Reclaimer(executor, Reclaimer.UNLIMITED, 400, 10, 50); //twenty bytes per batch
+        reclaimer.reclaim(interrupter, 10);
+        reclaimer.reclaim(deletion, 10);
+        reclaimer.reclaim(deletion, 10);
+
+        //When
+        getDrain().run();
+
+        //Then
+        verify(deletion, times(1)).run();
+        assertEquals("Expected one to wait for the next batch", 10, reclaimer.getBacklogBytes());
+    }
+
+    @Test
+    public void checkThatOversizedDeletionIsStillRun() {
+        //Given
+        Reclaimer reclaimer = new Reclaimer(executor, Reclaimer.UNLIMITED, 400, 10, 50);
+        reclaimer.reclaim(deletion, 1000);
+
+        //When
+        getDrain().run();
+
+        //Then
+        verify(deletion).run();
+        assertEquals("Expected no backlog", 0, reclaimer.getBacklog());
+    }
+
+    @Test
+    public void checkThatCriticalReclaimerSpeedsUp() {
+        //Given
+        Reclaimer reclaimer = new Reclaimer(executor, 20, Reclaimer.UNLIMITED, 10, 50); //ten files per batch when critical
+        reclaimer.setCritical(true);
+        reclaimer.reclaim(interrupter, 10);
+        reclaimer.reclaim(deletion, 10);
+        reclaimer.reclaim(deletion, 10);
+
+        //When
+        getDrain().run();
+
+        //Then
+        verify(deletion, times(2)).run();
+        assertEquals("Expected no backlog", 0, reclaimer.getBacklog());
+    }
+
+    @Test
+    public void checkThatFailedDeletionDoesNotHoldUpBacklog() {
+        //Given
+        Reclaimer reclaimer = new Reclaimer(executor);
+        Runnable failure = mock(Runnable.class);
+        doThrow(new IllegalStateException("Failed")).when(failure).run();
+        reclaimer.reclaim(failure, 10);
+        reclaimer.reclaim(deletion, 10);
+
+        //When
+        getDrain().run();
+
+        //Then
+        verify(deletion).run();
+        assertEquals("Expected both to be reclaimed", 2, reclaimer.getReclaimedCount());
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void checkThatBudgetMustBePositive() {
+        //Given
+        long filesPerSecond = 0;
+
+        //When
+        new Reclaimer(executor, filesPerSecond, Reclaimer.UNLIMITED, 10, 50);
+
+        //Then
+        fail("Expected a budget of 0 to be rejected");
+    }
+
+    private Runnable getDrain() {
+        ArgumentCaptor<Runnable> drain = ArgumentCaptor.forClass(Runnable.class);
+        verify(executor, atLeastOnce()).submit(drain.capture());
+        return drain.getValue();
+    }
+}
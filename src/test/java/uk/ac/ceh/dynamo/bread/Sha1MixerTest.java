@@ -0,0 +1,35 @@
+package uk.ac.ceh.dynamo.bread;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Christopher Johnson
+ */
+public class Sha1MixerTest {
+    @Test
+    public void checkThatMixNameIsSha1OfToString() {
+        //Given
+        Sha1Mixer<String> mixer = new Sha1Mixer<>();
+        
+        //When
+        String mixName = mixer.getMixName("abc");
+        
+        //Then
+        assertEquals("Expected the sha1 of abc", "a9993e364706816aba3e25717850c26c9cd0d89d", mixName);
+    }
+    
+    @Test
+    public void checkThatMixerCanBeReused() {
+        //Given
+        Sha1Mixer<String> mixer = new Sha1Mixer<>();
+        mixer.getMixName("something else");
+        
+        //When
+        String mixName = mixer.getMixName("abc");
+        
+        //Then
+        assertEquals("Expected the digest to have been reset", "a9993e364706816aba3e25717850c26c9cd0d89d", mixName);
+    }
+}
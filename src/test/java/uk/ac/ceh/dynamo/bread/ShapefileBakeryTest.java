@@ -0,0 +1,40 @@
+package uk.ac.ceh.dynamo.bread;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ *
+ * @author Christopher Johnson
+ */
+public class ShapefileBakeryTest {
+    public @Rule TemporaryFolder folder = new TemporaryFolder();
+    
+    @Test
+    public void checkThatSavedSqlIsReadBackExactly() throws IOException, BreadException {
+        //Given
+        ShapefileGenerator generator = mock(ShapefileGenerator.class);
+        when(generator.cook(any(BreadSlice.class), anyString())).thenReturn("shapefile");
+        ShapefileBakery bakery = new ShapefileBakery(folder.getRoot(), mock(ClimateMeter.class), generator, 1000, 10000);
+        String multiline = "SELECT *\n FROM grid\r\n WHERE name = 'back\\slash'";
+        bakery.getData(multiline);
+        bakery.getData(multiline);
+        bakery.getData("select 1");
+        File saved = folder.newFile("hottest.sql");
+        
+        //When
+        bakery.saveHottestSql(saved, 10);
+        List<String> sql = ShapefileBakery.readSql(saved);
+        
+        //Then
+        assertEquals("Expected the sql to be read back", Arrays.asList(multiline, "select 1"), sql);
+        bakery.close();
+    }
+}
@@ -1,13 +1,20 @@
 package uk.ac.ceh.dynamo.bread;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import lombok.AllArgsConstructor;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.rules.TemporaryFolder;
@@ -15,6 +22,8 @@ import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
 import org.mockito.MockitoAnnotations;
 import org.mockito.Spy;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 /**
  *
@@ -37,7 +46,7 @@ public class ShapefileGeneratorTest {
         generator = new ShapefileGenerator(OGR2OGR, SHPTREE, CONNECTION_STRING, semaphore, remover);
         MockitoAnnotations.initMocks(this);
         
-        doReturn(0).when(generator).waitForProcess(any(ProcessBuilder.class));
+        doReturn(0).when(generator).waitForProcess(any(ProcessBuilder.class), anyLong());
     }
 
     @Test
@@ -56,16 +65,135 @@ public class ShapefileGeneratorTest {
         //Then
         verify(semaphore, times(1)).acquire(); //Semaphore went down
         verify(semaphore, times(1)).release();//Semaphore went up
-        verify(generator, times(1)).process(eq(slice), eq(new File(workSurface, "0_HASH.shp")), eq(sql));
+        verify(generator, times(1)).process(eq(slice), eq(new File(workSurface, "HA/SH/0_HASH.shp")), eq(sql), anyLong());
+    }
+    
+    @Test(timeout=5000L)
+    public void checkThatForegroundBakeIsNotHeldUpByRefreshes() throws BreadException, InterruptedException {
+        //Given
+        final CountDownLatch refreshing = new CountDownLatch(1), finishRefresh = new CountDownLatch(1);
+        //Not a spy, mockito only lets one thread into a spy at a time
+        final ShapefileGenerator generator = new ShapefileGenerator(OGR2OGR, SHPTREE, CONNECTION_STRING, new Semaphore(2), new Semaphore(1), new Reclaimer(remover), mock(ScheduledExecutorService.class), ShapefileGenerator.NO_TIMEOUT) {
+            @Override
+            protected int waitForProcess(ProcessBuilder builder, long deadline) throws InterruptedException {
+                if(BakeScheduler.isRunningBackgroundBake()) {
+                    refreshing.countDown();
+                    finishRefresh.await();
+                }
+                return 0;
+            }
+        };
+        BakeScheduler ovens = new BakeScheduler(3, 2, 10, BakeScheduler.WhenSaturated.DROP_NEWEST);
+        ovens.submit(new CookingBake(generator, new BreadSlice<String, File>(0, "FIRST", 1000, mock(Clock.class), folder.getRoot(), generator)), BakeScheduler.Priority.REFRESH, 0);
+        ovens.submit(new CookingBake(generator, new BreadSlice<String, File>(1, "SECOND", 1000, mock(Clock.class), folder.getRoot(), generator)), BakeScheduler.Priority.REFRESH, 0);
+        refreshing.await();
+        Thread.sleep(100); //let the second refresh queue up for a process
+        
+        //When
+        String baked = generator.cook(new BreadSlice<String, File>(2, "FOREGROUND", 1000, mock(Clock.class), folder.getRoot(), generator), "select 1");
+        
+        //Then
+        assertNotNull("Expected the foreground bake to get a process", baked);
+        finishRefresh.countDown();
+        ovens.shutdown();
+        assertTrue("Expected the refreshes to finish", ovens.awaitTermination(1, TimeUnit.SECONDS));
+    }
+    
+    @Test
+    public void checkThatBakedShapefileIsWeighed() throws BreadException, IOException, InterruptedException {
+        //Given
+        File workSurface = folder.newFolder("folder");
+        BreadSlice<String, File> slice = new BreadSlice<>(0, "HASH", 1000, mock(Clock.class), workSurface, generator);
+        doAnswer(new Answer() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws IOException {
+                writeBytes(new File(invocation.getArguments()[1].toString()), 100);
+                return null;
+            }
+        }).when(generator).process(any(BreadSlice.class), any(File.class), anyString(), anyLong());
+        
+        //When
+        generator.cook(slice, "my sql statement");
+        
+        //Then
+        assertEquals("Expected the slice to be weighed", 100, slice.getSize());
+        assertEquals("Expected the work surface to be weighed", 100, generator.getBytesOnWorkSurface());
+    }
+    
+    @Test
+    public void checkThatReloadedShapefilesAreWeighed() throws IOException {
+        //Given
+        writeBytes(folder.newFile("0_HASH.shp"), 100);
+        writeBytes(folder.newFile("0_HASH.dbf"), 20);
+        writeBytes(folder.newFile("0_HASH.qix"), 3);
+        
+        //When
+        List<BreadSlice<String, File>> slices = generator.reload(mock(Clock.class), folder.getRoot(), generator, 2000);
+        
+        //Then
+        assertEquals("Expected all the parts to be weighed", 123, slices.get(0).getSize());
+        assertEquals("Expected the work surface to be weighed", 123, generator.getBytesOnWorkSurface());
+    }
+    
+    @Test
+    public void checkThatDeletedShapefilesAreTakenOffTheWorkSurface() throws IOException, InterruptedException {
+        //Given
+        writeBytes(folder.newFile("0_HASH.shp"), 100);
+        remover = Executors.newCachedThreadPool();
+        generator = new ShapefileGenerator(OGR2OGR, SHPTREE, CONNECTION_STRING, semaphore, remover);
+        BreadSlice<String, File> slice = generator.reload(mock(Clock.class), folder.getRoot(), generator, 2000).get(0);
+        
+        //When
+        generator.delete(slice);
+        remover.shutdown();
+        remover.awaitTermination(1, TimeUnit.SECONDS);
+        
+        //Then
+        assertEquals("Expected nothing on the work surface", 0, generator.getBytesOnWorkSurface());
+    }
+    
+    @Test
+    public void checkThatDeletionIsAddedToTheReclaimBacklog() {
+        //Given
+        Reclaimer reclaimer = mock(Reclaimer.class);
+        generator = new ShapefileGenerator(OGR2OGR, SHPTREE, CONNECTION_STRING, semaphore, reclaimer, mock(ScheduledExecutorService.class), ShapefileGenerator.NO_TIMEOUT);
+        BreadSlice<String, File> slice = new BreadSlice<>(0, "HASH", 1000, mock(Clock.class), folder.getRoot(), generator);
+        slice.setSize(123);
+        
+        //When
+        generator.delete(slice);
+        
+        //Then
+        verify(reclaimer).reclaim(any(Runnable.class), eq(123L));
+    }
+    
+    @Test
+    public void checkThatBytesAwaitReclaimUntilDeleted() {
+        //Given
+        Reclaimer reclaimer = mock(Reclaimer.class);
+        generator = new ShapefileGenerator(OGR2OGR, SHPTREE, CONNECTION_STRING, semaphore, reclaimer, mock(ScheduledExecutorService.class), ShapefileGenerator.NO_TIMEOUT);
+        BreadSlice<String, File> slice = new BreadSlice<>(0, "HASH", 1000, mock(Clock.class), folder.getRoot(), generator);
+        slice.setSize(123);
+        generator.delete(slice);
+        long awaiting = generator.getBytesAwaitingReclaim();
+        ArgumentCaptor<Runnable> deletion = ArgumentCaptor.forClass(Runnable.class);
+        verify(reclaimer).reclaim(deletion.capture(), eq(123L));
+        
+        //When
+        deletion.getValue().run();
+        
+        //Then
+        assertEquals("Expected the bytes to await reclaim", 123, awaiting);
+        assertEquals("Expected nothing awaiting reclaim", 0, generator.getBytesAwaitingReclaim());
     }
     
     @Test
     public void checkThatCanDeleteBreadSlice() throws IOException, InterruptedException {
         //Given
-        File shpFile = folder.newFile("0_HASH.shp");
-        File shxFile = folder.newFile("0_HASH.shx");
-        File dbfFile = folder.newFile("0_HASH.dbf");
-        File qixFile = folder.newFile("0_HASH.qix");
+        File shpFile = newShardedFile("0_HASH.shp");
+        File shxFile = newShardedFile("0_HASH.shx");
+        File dbfFile = newShardedFile("0_HASH.dbf");
+        File qixFile = newShardedFile("0_HASH.qix");
         
         BreadSlice<String, File> slice = mock(BreadSlice.class);
         when(slice.getWorkSurface()).thenReturn(folder.getRoot());
@@ -98,7 +226,7 @@ public class ShapefileGeneratorTest {
         when(slice.getMixName()).thenReturn("HASH");
         
         doReturn(0).doThrow(new IOException("Failed on io exception"))
-                   .when(generator).waitForProcess(any(ProcessBuilder.class));
+                   .when(generator).waitForProcess(any(ProcessBuilder.class), anyLong());
         
         String sql = "my sql statement";
         
@@ -115,7 +243,7 @@ public class ShapefileGeneratorTest {
     }
     
     @Test
-    public void checkShapefileRemovedIfFailedToIndexBecauseOfFailedTask() throws IOException, InterruptedException {
+    public void checkShapefileRemovedIfFailedToIndexBecauseOfFailedTask() throws IOException, InterruptedException, BreadException {
         //Given        
         BreadSlice<String, File> slice = mock(BreadSlice.class);
         when(slice.getWorkSurface()).thenReturn(folder.getRoot());
@@ -123,7 +251,7 @@ public class ShapefileGeneratorTest {
         when(slice.getMixName()).thenReturn("HASH");
         
         doReturn(0).doReturn(-1)
-                   .when(generator).waitForProcess(any(ProcessBuilder.class));
+                   .when(generator).waitForProcess(any(ProcessBuilder.class), anyLong());
         
         String sql = "my sql statement";
         
@@ -173,7 +301,7 @@ public class ShapefileGeneratorTest {
         //Given
         Clock clock = mock(Clock.class);
         long staleTime = 2000;
-        File shapeFile = folder.newFile("2_HASH-WHATEVER.shp");
+        File shapeFile = newShardedFile("2_HASH-WHATEVER.shp");
         
         //When
         BreadSlice<String, File> slice = generator.reload(clock, folder.getRoot(), generator, staleTime).get(0);
@@ -184,4 +312,387 @@ public class ShapefileGeneratorTest {
         assertEquals("Expected slice to have the correct hash", "HASH-WHATEVER", slice.getMixName());
         assertEquals("Expected to get the correct workSurface", folder.getRoot(), slice.getWorkSurface());
     }
+    
+    @Test
+    public void checkThatTimedOutBakeRemovesPartialShapefile() throws IOException, InterruptedException, BreadException {
+        //Given
+        generator = spy(new ShapefileGenerator(OGR2OGR, SHPTREE, CONNECTION_STRING, semaphore, remover, mock(ScheduledExecutorService.class), 1000));
+        when(semaphore.tryAcquire(anyLong(), any(TimeUnit.class))).thenReturn(true);
+        doReturn(0).doThrow(new BreadTimeoutException("Took too long"))
+                   .when(generator).waitForProcess(any(ProcessBuilder.class), anyLong());
+        BreadSlice<String, File> slice = mock(BreadSlice.class);
+        when(slice.getWorkSurface()).thenReturn(folder.getRoot());
+        when(slice.getId()).thenReturn(0);
+        when(slice.getMixName()).thenReturn("HASH");
+        File shpFile = newShardedFile("0_HASH.shp");
+        File qixFile = newShardedFile("0_HASH.qix");
+        
+        //When
+        try {
+            generator.cook(slice, "my sql statement");
+        
+        //Then
+            fail("Expected to catch a BreadTimeoutException");
+        }
+        catch(BreadTimeoutException te) {
+            assertFalse("Expected shape file to be deleted", shpFile.exists());
+            assertFalse("Expected index to be deleted", qixFile.exists());
+            verify(semaphore).release();
+        }
+    }
+    
+    @Test
+    public void checkThatBakeTimesOutIfNoProcessBecomesFree() throws IOException, InterruptedException, BreadException {
+        //Given
+        generator = spy(new ShapefileGenerator(OGR2OGR, SHPTREE, CONNECTION_STRING, semaphore, remover, mock(ScheduledExecutorService.class), 1000));
+        when(semaphore.tryAcquire(anyLong(), any(TimeUnit.class))).thenReturn(false);
+        BreadSlice<String, File> slice = mock(BreadSlice.class);
+        when(slice.getWorkSurface()).thenReturn(folder.getRoot());
+        
+        //When
+        try {
+            generator.cook(slice, "my sql statement");
+        
+        //Then
+            fail("Expected to catch a BreadTimeoutException");
+        }
+        catch(BreadTimeoutException te) {
+            verify(generator, never()).process(any(BreadSlice.class), any(File.class), anyString(), anyLong());
+            verify(semaphore, never()).release();
+        }
+    }
+    
+    @Test(timeout=5000L, expected=BreadTimeoutException.class)
+    public void checkThatProcessIsDestroyedAtDeadline() throws IOException, InterruptedException, BreadException {
+        //Given
+        ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor();
+        generator = new ShapefileGenerator(OGR2OGR, SHPTREE, CONNECTION_STRING, semaphore, remover, watchdog, 100);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+        
+        //When
+        try {
+            generator.waitForProcess(new ProcessBuilder("sleep", "60"), deadline);
+        }
+        finally {
+            watchdog.shutdownNow();
+        }
+        
+        //Then
+        fail("Expected the process to be destroyed");
+    }
+    
+    @Test(timeout=5000L)
+    public void checkThatProcessWhichCompletesInTimeIsNotDestroyed() throws IOException, InterruptedException, BreadException {
+        //Given
+        ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor();
+        generator = new ShapefileGenerator(OGR2OGR, SHPTREE, CONNECTION_STRING, semaphore, remover, watchdog, 2000);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(2000);
+        
+        //When
+        int exitValue = generator.waitForProcess(new ProcessBuilder("true"), deadline);
+        watchdog.shutdownNow();
+        
+        //Then
+        assertEquals("Expected the process to complete", 0, exitValue);
+    }
+    
+    @Test
+    public void checkThatSlicesAreReloadedFromJournal() throws IOException {
+        //Given
+        SliceJournal journal = new SliceJournal(new File(folder.getRoot(), SliceJournal.FILENAME));
+        journal.baked(4, "HASH", 1000, 2048, 300);
+        journal.close();
+        
+        //When
+        List<BreadSlice<String, File>> slices = generator.reload(mock(Clock.class), folder.getRoot(), generator, 2000);
+        
+        //Then
+        assertEquals("Expected one slice", 1, slices.size());
+        assertEquals("Expected the id from the journal", 4, slices.get(0).getId());
+        assertEquals("Expected the size from the journal", 2048, slices.get(0).getSize());
+        assertEquals("Expected the bake duration from the journal", 300, slices.get(0).getBakeDuration());
+        assertEquals("Expected bytes on work surface", 2048, generator.getBytesOnWorkSurface());
+    }
+    
+    @Test
+    public void checkThatRenewedSliceIsReloadedAsRenewed() throws IOException {
+        //Given
+        SliceJournal journal = new SliceJournal(new File(folder.getRoot(), SliceJournal.FILENAME));
+        journal.baked(4, "HASH", 1000, 2048, 300);
+        journal.close();
+        Clock clock = mock(Clock.class);
+        when(clock.getTimeInMillis()).thenReturn(5000L);
+        BreadSlice<String, File> slice = generator.reload(clock, folder.getRoot(), generator, 2000).get(0);
+        slice.renew(8000);
+        
+        //When
+        generator.renewed(slice);
+        List<BreadSlice<String, File>> slices = generator.reload(clock, folder.getRoot(), generator, 2000);
+        
+        //Then
+        assertEquals("Expected the renewed baked time", 5000, slices.get(0).getTimeBaked());
+        assertEquals("Expected the renewed stale time", 8000, slices.get(0).getStaleTime());
+    }
+    
+    @Test
+    public void checkThatJournalIsUsedInsteadOfScanning() throws IOException {
+        //Given
+        folder.newFile("0_HASH.shp");
+        generator.reload(mock(Clock.class), folder.getRoot(), generator, 2000);
+        folder.newFile("1_UNJOURNALED.shp");
+        
+        //When
+        List<BreadSlice<String, File>> slices = generator.reload(mock(Clock.class), folder.getRoot(), generator, 2000);
+        
+        //Then
+        assertEquals("Expected only the journaled slice", 1, slices.size());
+        assertEquals("Expected the journaled slice", "HASH", slices.get(0).getMixName());
+    }
+    
+    @Test
+    public void checkThatUnfinishedBakeIsCleanedUpOnReload() throws IOException {
+        //Given
+        SliceJournal journal = new SliceJournal(new File(folder.getRoot(), SliceJournal.FILENAME));
+        journal.baking(0, "HALFBAKED");
+        journal.close();
+        File partial = folder.newFile("0_HALFBAKED.shp");
+        
+        //When
+        List<BreadSlice<String, File>> slices = generator.reload(mock(Clock.class), folder.getRoot(), generator, 2000);
+        
+        //Then
+        assertTrue("Expected no slices", slices.isEmpty());
+        assertFalse("Expected partial shapefile to be deleted", partial.exists());
+    }
+    
+    @Test
+    public void checkThatBakeAndDeleteAreJournaled() throws IOException, BreadException, InterruptedException {
+        //Given
+        ExecutorService remover = Executors.newSingleThreadExecutor();
+        generator = spy(new ShapefileGenerator(OGR2OGR, SHPTREE, CONNECTION_STRING, semaphore, remover));
+        doReturn(0).when(generator).waitForProcess(any(ProcessBuilder.class), anyLong());
+        generator.reload(mock(Clock.class), folder.getRoot(), generator, 2000);
+        BreadSlice<String, File> baked = new BreadSlice<>(0, "BAKED", 2000, mock(Clock.class), folder.getRoot(), generator);
+        BreadSlice<String, File> deleted = new BreadSlice<>(1, "DELETED", 2000, mock(Clock.class), folder.getRoot(), generator);
+        
+        //When
+        generator.cook(baked, "select 1");
+        generator.cook(deleted, "select 2");
+        deleted.markAsMouldy();
+        remover.shutdown();
+        remover.awaitTermination(1, TimeUnit.SECONDS);
+        
+        //Then
+        SliceJournal journal = new SliceJournal(new File(folder.getRoot(), SliceJournal.FILENAME));
+        List<SliceJournal.Entry> slices = journal.getEntries(SliceJournal.State.BAKED);
+        assertEquals("Expected one baked slice", 1, slices.size());
+        assertEquals("Expected the baked slice", "BAKED", slices.get(0).getMixName());
+        assertTrue("Expected the deleted slice to be gone", journal.getEntries(SliceJournal.State.MOULDY).isEmpty());
+        journal.close();
+    }
+    
+    @Test
+    public void checkThatStreamingReloadHandsOverEverySlice() throws IOException, InterruptedException {
+        //Given
+        folder.newFile("0_FIRST.shp");
+        folder.newFile("1_SECOND.shp");
+        folder.newFile("5_THIRD.shp");
+        SliceCollector<String, File> collector = mock(SliceCollector.class);
+        
+        //When
+        generator.reload(mock(Clock.class), folder.getRoot(), generator, 2000, collector);
+        
+        //Then
+        verify(collector).reserveIds(5);
+        verify(collector, times(3)).reloaded(any(BreadSlice.class));
+    }
+    
+    @Test
+    public void checkThatSliceCanBeFoundBeforeItIsReloaded() throws IOException, InterruptedException {
+        //Given
+        folder.newFile("0_FIRST.shp");
+        folder.newFile("1_SECOND.shp");
+        final List<BreadSlice<String, File>> found = new ArrayList<>();
+        final List<BreadSlice<String, File>> reloaded = Collections.synchronizedList(new ArrayList<BreadSlice<String, File>>());
+        final Clock clock = mock(Clock.class);
+        
+        //When
+        generator.reload(clock, folder.getRoot(), generator, 2000, new SliceCollector<String, File>() {
+            @Override
+            public void reserveIds(int maximumId) {
+                found.add(generator.find(clock, folder.getRoot(), generator, 2000, "SECOND"));
+            }
+
+            @Override
+            public void reloaded(BreadSlice<String, File> slice) {
+                reloaded.add(slice);
+            }
+        });
+        
+        //Then
+        assertEquals("Expected the slice to be found", 1, found.get(0).getId());
+        assertEquals("Expected only the other slice to be reloaded", 1, reloaded.size());
+        assertEquals("Expected the other slice to be reloaded", "FIRST", reloaded.get(0).getMixName());
+    }
+    
+    @Test
+    public void checkThatNothingIsFoundOutsideOfAReload() throws IOException {
+        //Given
+        folder.newFile("0_FIRST.shp");
+        
+        //When
+        BreadSlice<String, File> slice = generator.find(mock(Clock.class), folder.getRoot(), generator, 2000, "FIRST");
+        
+        //Then
+        assertNull("Expected nothing to be found", slice);
+    }
+    
+    @AllArgsConstructor
+    private static class CookingBake implements BakeScheduler.Bake {
+        private final ShapefileGenerator generator;
+        private final BreadSlice<String, File> slice;
+        
+        @Override
+        public void run() {
+            try {
+                generator.cook(slice, "select 1");
+            }
+            catch(BreadException be) {
+                throw new RuntimeException(be);
+            }
+        }
+        
+        @Override
+        public void discarded() {}
+    }
+    
+    private static void writeBytes(File file, int amount) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(new byte[amount]);
+        }
+    }
+    
+    @Test
+    public void checkThatFingerprintIgnoresTheDbfDate() throws IOException, BreadException {
+        //Given
+        BreadSlice<String, File> first = new BreadSlice<>(1, "HASH", 100, mock(Clock.class), folder.getRoot(), generator);
+        BreadSlice<String, File> second = new BreadSlice<>(2, "HASH", 100, mock(Clock.class), folder.getRoot(), generator);
+        writeFile("1_HASH.shp", new byte[]{1, 2, 3, 4});
+        writeFile("1_HASH.dbf", new byte[]{3, 113, 1, 1, 9, 9});
+        writeFile("2_HASH.shp", new byte[]{1, 2, 3, 4});
+        writeFile("2_HASH.dbf", new byte[]{3, 114, 2, 2, 9, 9});
+        
+        //When
+        String firstFingerprint = generator.fingerprint(first);
+        String secondFingerprint = generator.fingerprint(second);
+        
+        //Then
+        assertEquals("Expected the same fingerprint", firstFingerprint, secondFingerprint);
+    }
+    
+    @Test
+    public void checkThatFingerprintChangesWithTheData() throws IOException, BreadException {
+        //Given
+        BreadSlice<String, File> first = new BreadSlice<>(1, "HASH", 100, mock(Clock.class), folder.getRoot(), generator);
+        BreadSlice<String, File> second = new BreadSlice<>(2, "HASH", 100, mock(Clock.class), folder.getRoot(), generator);
+        writeFile("1_HASH.shp", new byte[]{1, 2, 3, 4});
+        writeFile("1_HASH.dbf", new byte[]{3, 113, 1, 1, 9, 9});
+        writeFile("2_HASH.shp", new byte[]{1, 2, 3, 4});
+        writeFile("2_HASH.dbf", new byte[]{3, 113, 1, 1, 9, 8});
+        
+        //When
+        String firstFingerprint = generator.fingerprint(first);
+        String secondFingerprint = generator.fingerprint(second);
+        
+        //Then
+        assertFalse("Expected different fingerprints", firstFingerprint.equals(secondFingerprint));
+    }
+    
+    @Test(expected=BreadException.class)
+    public void checkThatMissingShapefileCantBeFingerprinted() throws BreadException {
+        //Given
+        BreadSlice<String, File> slice = new BreadSlice<>(1, "HASH", 100, mock(Clock.class), folder.getRoot(), generator);
+        
+        //When
+        generator.fingerprint(slice);
+        
+        //Then
+        fail("Expected fingerprinting to fail");
+    }
+    
+    @Test
+    public void checkThatFlatShapefilesAreMigratedIntoShards() throws IOException {
+        //Given
+        folder.newFile("0_3fa91c.shp");
+        folder.newFile("0_3fa91c.dbf");
+        folder.newFile("1_HASH.qix");
+        
+        //When
+        int migrated = generator.migrate(folder.getRoot());
+        
+        //Then
+        assertEquals("Expected three parts to be moved", 3, migrated);
+        assertTrue("Expected the shp in its shard", new File(folder.getRoot(), "3f/a9/0_3fa91c.shp").exists());
+        assertTrue("Expected the dbf in its shard", new File(folder.getRoot(), "3f/a9/0_3fa91c.dbf").exists());
+        assertTrue("Expected the qix in its shard", new File(folder.getRoot(), "HA/SH/1_HASH.qix").exists());
+        assertFalse("Expected the flat shp to be gone", new File(folder.getRoot(), "0_3fa91c.shp").exists());
+    }
+    
+    @Test
+    public void checkThatOtherFilesAreNotMigrated() throws IOException {
+        //Given
+        File other = folder.newFile("AnyoldFile.db");
+        File journal = folder.newFile(SliceJournal.FILENAME);
+        
+        //When
+        int migrated = generator.migrate(folder.getRoot());
+        
+        //Then
+        assertEquals("Expected nothing to be moved", 0, migrated);
+        assertTrue("Expected the other file to stay put", other.exists());
+        assertTrue("Expected the journal to stay put", journal.exists());
+    }
+    
+    @Test
+    public void checkThatReloadMigratesAndLoadsFromShards() throws IOException {
+        //Given
+        folder.newFile("0_FIRST.shp");
+        newShardedFile("1_HASH.shp");
+        
+        //When
+        List<BreadSlice<String, File>> slices = generator.reload(mock(Clock.class), folder.getRoot(), generator, 2000);
+        
+        //Then
+        assertEquals("Expected both slices", 2, slices.size());
+        assertTrue("Expected the flat shapefile to be sharded", new File(folder.getRoot(), "FI/RS/0_FIRST.shp").exists());
+    }
+    
+    @Test
+    public void checkThatShortMixNamesArePadded() {
+        //Given
+        String mixName = "ABC";
+        
+        //When
+        File shard = ShapefileGenerator.getShard(folder.getRoot(), mixName);
+        
+        //Then
+        assertEquals("Expected a padded shard", new File(folder.getRoot(), "AB/C_"), shard);
+    }
+    
+    private void writeFile(String name, byte[] content) throws IOException {
+        try(FileOutputStream out = new FileOutputStream(newShardedFile(name))) {
+            out.write(content);
+        }
+    }
+    
+    /**
+     * Create a file in the shard of the mix name HASH
+     */
+    private File newShardedFile(String name) throws IOException {
+        File shard = new File(folder.getRoot(), "HA/SH");
+        shard.mkdirs();
+        File file = new File(shard, name);
+        assertTrue("Expected to create " + name, file.createNewFile());
+        return file;
+    }
 }
@@ -0,0 +1,434 @@
+package uk.ac.ceh.dynamo.bread;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+/**
+ *
+ * @author Christopher Johnson
+ */
+public class SharedShapefileGeneratorTest {
+    private static final String[] PARTS = { ".shp", ".shx", ".dbf", ".qix" };
+    
+    public @Rule TemporaryFolder folder = new TemporaryFolder();
+    SharedShapefileGenerator first, second;
+    
+    @Before
+    public void createNodes() throws IOException, InterruptedException, BreadException {
+        first = createNode("first");
+        second = createNode("second");
+    }
+    
+    @Test(expected=IllegalArgumentException.class)
+    public void checkThatNodeNameMustBeUsableInAFileName() {
+        //Given
+        String nodeName = "../elsewhere";
+        
+        //When
+        new SharedShapefileGenerator("", "", "", 1, ShapefileGenerator.NO_TIMEOUT, folder.getRoot(), nodeName);
+        
+        //Then
+        fail("Expected the node name to be rejected");
+    }
+    
+    @Test
+    public void checkThatUnshardedShapefilesAreNotMigrated() throws IOException {
+        //Given
+        folder.newFile("3_4a5e.shp");
+        
+        //When
+        first.reload(mock(Clock.class), folder.getRoot(), first, 2000);
+        
+        //Then
+        assertTrue("Expected the shapefile to be left for older nodes", new File(folder.getRoot(), "3_4a5e.shp").exists());
+        assertFalse("Expected no shard to be made", new File(folder.getRoot(), "4a").exists());
+    }
+    
+    @Test
+    public void checkThatNodesAllocateDifferentIds() throws BreadException {
+        //Given
+        Set<Integer> ids = new HashSet<>();
+        
+        //When
+        for(int i=0; i<SharedShapefileGenerator.ID_BLOCK_SIZE * 2; i++) {
+            ids.add(first.allocateId());
+            ids.add(second.allocateId());
+        }
+        
+        //Then
+        assertEquals("Expected every id to be unique", SharedShapefileGenerator.ID_BLOCK_SIZE * 4, ids.size());
+    }
+    
+    @Test
+    public void checkThatIdsStartAfterExistingShapefiles() throws IOException, BreadException {
+        //Given
+        folder.newFile("41_HASH.shp");
+        
+        //When
+        int id = first.allocateId();
+        
+        //Then
+        assertEquals("Expected the id after the existing shapefile", 42, id);
+    }
+    
+    @Test
+    public void checkThatPublishedBakeIsAdopted() throws BreadException, IOException, InterruptedException {
+        //Given
+        BreadSlice<String, File> baked = createSlice(first, "HASH");
+        BreadSlice<String, File> adopted = createSlice(second, "HASH");
+        final CountDownLatch baking = new CountDownLatch(1);
+        final CountDownLatch finishBake = new CountDownLatch(1);
+        doAnswer(new Answer() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                baking.countDown();
+                finishBake.await();
+                return writeShapefile(invocation);
+            }
+        }).when(first).waitForProcess(any(ProcessBuilder.class), anyLong());
+        
+        //When
+        Future<String> firstBake = bakeInBackground(first, baked);
+        baking.await();
+        Future<String> secondBake = bakeInBackground(second, adopted);
+        Thread.sleep(100); //let the second node queue up on the lock
+        finishBake.countDown();
+        
+        //Then
+        assertNotNull("Expected the first node to bake", get(firstBake));
+        assertNotNull("Expected the second node to adopt", get(secondBake));
+        verify(second, never()).waitForProcess(any(ProcessBuilder.class), anyLong());
+        File shapefile = new File(folder.getRoot(), "HA/SH/" + adopted.getId() + "_HASH.shp");
+        assertTrue("Expected the adopted shapefile", shapefile.exists());
+        assertEquals("Expected the baked shapefile to be counted", 4 * 10, first.getBytesOnWorkSurface());
+        assertEquals("Expected the adopted links not to be counted again", 0, second.getBytesOnWorkSurface());
+    }
+    
+    @Test
+    public void checkThatOldBakeIsNotAdopted() throws BreadException, IOException, InterruptedException {
+        //Given
+        first.cook(createSlice(first, "HASH"), "select 1");
+        
+        //When
+        second.cook(createSlice(second, "HASH"), "select 1");
+        
+        //Then
+        verify(second, atLeastOnce()).waitForProcess(any(ProcessBuilder.class), anyLong());
+    }
+    
+    @Test
+    public void checkThatBakePublishedAheadOfTheClockIsNotAdopted() throws BreadException, IOException, InterruptedException {
+        //Given
+        BreadSlice<String, File> baked = createSlice(first, "HASH");
+        first.cook(baked, "select 1");
+        long fastClock = System.currentTimeMillis() + TimeUnit.HOURS.toMillis(1);
+        Files.write(new File(folder.getRoot(), ".shared/HASH.published").toPath(), (baked.getId() + " " + fastClock).getBytes(StandardCharsets.US_ASCII));
+        
+        //When
+        second.cook(createSlice(second, "HASH"), "select 1");
+        
+        //Then
+        verify(second, atLeastOnce()).waitForProcess(any(ProcessBuilder.class), anyLong());
+    }
+    
+    @Test
+    public void checkThatSliceWaitingToAdoptDoesNotHoldAProcess() throws BreadException, IOException, InterruptedException {
+        //Given
+        final CountDownLatch baking = new CountDownLatch(1);
+        final CountDownLatch finishBake = new CountDownLatch(1);
+        //Not a spy, mockito only lets one thread into a spy at a time
+        SharedShapefileGenerator node = new SharedShapefileGenerator("", "", "", new Semaphore(2), mock(ExecutorService.class), mock(ScheduledExecutorService.class), ShapefileGenerator.NO_TIMEOUT, folder.getRoot(), "busy") {
+            @Override
+            protected int waitForProcess(ProcessBuilder builder, long deadline) throws IOException, InterruptedException {
+                if(builder.command().size() > 2 && builder.command().get(3).endsWith("_HASH.shp")) {
+                    baking.countDown();
+                    finishBake.await();
+                }
+                return writeShapefile(builder);
+            }
+        };
+        Future<String> firstBake = bakeInBackground(node, createSlice(node, "HASH"));
+        baking.await();
+        Future<String> waitingBake = bakeInBackground(node, createSlice(node, "HASH"));
+        Thread.sleep(100); //let the second slice queue up on the lock
+        
+        //When
+        Future<String> otherBake = bakeInBackground(node, createSlice(node, "OTHER"));
+        
+        //Then
+        assertNotNull("Expected the other mix to bake whilst the first is still baking", get(otherBake));
+        assertFalse("Expected the first bake to still be going", firstBake.isDone());
+        finishBake.countDown();
+        assertNotNull("Expected the first slice to bake", get(firstBake));
+        assertNotNull("Expected the waiting slice to adopt", get(waitingBake));
+    }
+    
+    @Test
+    public void checkThatDeletedBakeIsNotAdopted() throws BreadException, IOException, InterruptedException {
+        //Given
+        BreadSlice<String, File> baked = createSlice(first, "HASH");
+        first.cook(baked, "select 1");
+        for(String part: PARTS) {
+            new File(folder.getRoot(), "HA/SH/" + baked.getId() + "_HASH" + part).delete();
+        }
+        SharedShapefileGenerator lateNode = spy(new SharedShapefileGenerator("", "", "", new Semaphore(1), mock(ExecutorService.class), mock(ScheduledExecutorService.class), ShapefileGenerator.NO_TIMEOUT, folder.getRoot(), "late"));
+        doAnswer(new ShapefileWriter()).when(lateNode).waitForProcess(any(ProcessBuilder.class), anyLong());
+        
+        //When
+        BreadSlice<String, File> slice = createSlice(lateNode, "HASH");
+        lateNode.cook(slice, "select 1");
+        
+        //Then
+        verify(lateNode, atLeastOnce()).waitForProcess(any(ProcessBuilder.class), anyLong());
+        assertTrue("Expected the shapefile to be baked", new File(folder.getRoot(), "HA/SH/" + slice.getId() + "_HASH.shp").exists());
+    }
+    
+    @Test
+    public void checkThatSharedFilesOfDeletedSliceAreDeleted() throws BreadException {
+        //Given
+        BreadSlice<String, File> baked = createSlice(first, "HASH");
+        first.cook(baked, "select 1");
+        
+        //When
+        first.deleted(baked);
+        
+        //Then
+        assertFalse("Expected the lock file to be deleted", new File(folder.getRoot(), ".shared/HASH.lock").exists());
+        assertFalse("Expected the published record to be deleted", new File(folder.getRoot(), ".shared/HASH.published").exists());
+    }
+    
+    @Test
+    public void checkThatRecordPublishedByAnotherSliceIsKept() throws BreadException {
+        //Given
+        BreadSlice<String, File> older = createSlice(first, "HASH");
+        first.cook(older, "select 1");
+        second.cook(createSlice(second, "HASH"), "select 1");
+        
+        //When
+        first.deleted(older);
+        
+        //Then
+        assertTrue("Expected the newer published record to be kept", new File(folder.getRoot(), ".shared/HASH.published").exists());
+    }
+    
+    @Test
+    public void checkThatMixCanBeBakedAfterItsSharedFilesAreDeleted() throws BreadException {
+        //Given
+        BreadSlice<String, File> baked = createSlice(first, "HASH");
+        first.cook(baked, "select 1");
+        first.deleted(baked);
+        
+        //When
+        BreadSlice<String, File> rebaked = createSlice(second, "HASH");
+        second.cook(rebaked, "select 1");
+        
+        //Then
+        assertTrue("Expected the shapefile to be baked", new File(folder.getRoot(), "HA/SH/" + rebaked.getId() + "_HASH.shp").exists());
+        assertTrue("Expected a new lock file", new File(folder.getRoot(), ".shared/HASH.lock").exists());
+    }
+    
+    @Test
+    public void checkThatEachNodeKeepsItsOwnJournal() throws BreadException {
+        //Given
+        first.reload(mock(Clock.class), folder.getRoot(), first, 2000);
+        second.reload(mock(Clock.class), folder.getRoot(), second, 2000);
+        
+        //When
+        first.cook(createSlice(first, "HASH"), "select 1");
+        
+        //Then
+        assertEquals("Expected the slice to be reloaded by the first node", 1, createNode("first").reload(mock(Clock.class), folder.getRoot(), first, 2000).size());
+        assertTrue("Expected nothing for the second node", createNode("second").reload(mock(Clock.class), folder.getRoot(), second, 2000).isEmpty());
+    }
+    
+    @Test
+    public void checkThatNodesInSeparateJvmsBakeOnceAndAdopt() throws IOException, InterruptedException {
+        //Given
+        File release = new File(folder.getRoot(), "release");
+        List<Process> nodes = new ArrayList<>();
+        List<File> outputs = new ArrayList<>();
+        for(int i=0; i<3; i++) {
+            File output = new File(folder.getRoot(), "node" + i + ".out");
+            nodes.add(new ProcessBuilder(new File(System.getProperty("java.home"), "bin/java").getPath(),
+                        "-cp", System.getProperty("java.class.path"), 
+                        ForkedNode.class.getName(), folder.getRoot().getPath(), "node" + i, release.getPath())
+                    .redirectErrorStream(true)
+                    .redirectOutput(output)
+                    .start());
+            outputs.add(output);
+        }
+        
+        //When
+        try {
+            awaitLines(outputs, "COOKING", nodes.size());
+            awaitLines(outputs, "BAKING", 1);
+            Thread.sleep(500); //let the other nodes queue up on the lock file
+            assertEquals("Expected only one node to be baking", 1, countLines(outputs, "BAKING"));
+            release.createNewFile();
+            for(Process node: nodes) {
+                assertEquals("Expected the node to finish", 0, node.waitFor());
+            }
+        }
+        finally {
+            for(Process node: nodes) {
+                node.destroy();
+            }
+        }
+        
+        //Then
+        assertEquals("Expected one node to bake", 1, countLines(outputs, "BAKED"));
+        assertEquals("Expected the other nodes to adopt", nodes.size() - 1, countLines(outputs, "ADOPTED"));
+        Set<String> ids = new HashSet<>();
+        for(File output: outputs) {
+            for(String line: Files.readAllLines(output.toPath(), StandardCharsets.US_ASCII)) {
+                if(line.startsWith("BAKED") || line.startsWith("ADOPTED")) {
+                    String id = line.split(" ")[1];
+                    ids.add(id);
+                    assertTrue("Expected the shapefile of each node", new File(folder.getRoot(), "HA/SH/" + id + "_HASH.shp").exists());
+                }
+            }
+        }
+        assertEquals("Expected each node to allocate a different id", nodes.size(), ids.size());
+    }
+    
+    private SharedShapefileGenerator createNode(String nodeName) throws BreadException {
+        SharedShapefileGenerator node = spy(new SharedShapefileGenerator("", "", "", new Semaphore(1), mock(ExecutorService.class), mock(ScheduledExecutorService.class), ShapefileGenerator.NO_TIMEOUT, folder.getRoot(), nodeName));
+        try {
+            doAnswer(new ShapefileWriter()).when(node).waitForProcess(any(ProcessBuilder.class), anyLong());
+        }
+        catch(IOException | InterruptedException ex) {
+            throw new BreadException("Failed to stub the node", ex);
+        }
+        return node;
+    }
+    
+    private BreadSlice<String, File> createSlice(SharedShapefileGenerator node, String mixName) throws BreadException {
+        return new BreadSlice<>(node.allocateId(), mixName, 2000, mock(Clock.class), folder.getRoot(), node);
+    }
+    
+    private static Future<String> bakeInBackground(final SharedShapefileGenerator node, final BreadSlice<String, File> slice) {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            return executor.submit(new Callable<String>() {
+                @Override
+                public String call() throws BreadException {
+                    return node.cook(slice, "select 1");
+                }
+            });
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+    
+    private static String get(Future<String> future) throws InterruptedException {
+        try {
+            return future.get(5, TimeUnit.SECONDS);
+        }
+        catch(Exception ex) {
+            throw new AssertionError(ex);
+        }
+    }
+    
+    /**
+     * Writes each part of the shapefile when ogr2ogr is called, as if it had 
+     * really run
+     */
+    private static int writeShapefile(InvocationOnMock invocation) throws IOException {
+        return writeShapefile((ProcessBuilder)invocation.getArguments()[0]);
+    }
+    
+    private static int writeShapefile(ProcessBuilder builder) throws IOException {
+        if(builder.command().size() > 2) {
+            String shapefile = builder.command().get(3);
+            String base = shapefile.substring(0, shapefile.length() - 4);
+            for(String part: PARTS) {
+                Files.write(new File(base + part).toPath(), new byte[10]);
+            }
+        }
+        return 0;
+    }
+    
+    private static int countLines(List<File> outputs, String prefix) throws IOException {
+        int count = 0;
+        for(File output: outputs) {
+            for(String line: Files.readAllLines(output.toPath(), StandardCharsets.US_ASCII)) {
+                if(line.startsWith(prefix)) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+    
+    private static void awaitLines(List<File> outputs, String prefix, int count) throws IOException, InterruptedException {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(20);
+        while(countLines(outputs, prefix) < count) {
+            if(System.currentTimeMillis() > deadline) {
+                fail("Expected " + count + " nodes to print " + prefix + " but got " + countLines(outputs, prefix));
+            }
+            Thread.sleep(50);
+        }
+    }
+    
+    /**
+     * A node which runs in its own JVM, so that the locking of the shared work
+     * surface is tested between processes rather than threads. It bakes the 
+     * HASH mix, holding the bake until the release file exists, and prints 
+     * whether it BAKED or ADOPTED the shapefile.
+     */
+    public static class ForkedNode {
+        public static void main(String[] args) throws Exception {
+            final File release = new File(args[2]);
+            final AtomicBoolean baked = new AtomicBoolean();
+            SharedShapefileGenerator node = new SharedShapefileGenerator("", "", "", 1, ShapefileGenerator.NO_TIMEOUT, new File(args[0]), args[1]) {
+                @Override
+                protected int waitForProcess(ProcessBuilder builder, long deadline) throws IOException, InterruptedException {
+                    if(builder.command().size() > 2) {
+                        baked.set(true);
+                        System.out.println("BAKING");
+                        while(!release.exists()) {
+                            Thread.sleep(50);
+                        }
+                    }
+                    return writeShapefile(builder);
+                }
+            };
+            BreadSlice<String, File> slice = new BreadSlice<>(node.allocateId(), "HASH", 2000, new SystemClock(), new File(args[0]), node);
+            System.out.println("COOKING");
+            node.cook(slice, "select 1");
+            System.out.println((baked.get() ? "BAKED " : "ADOPTED ") + slice.getId());
+            System.exit(0);
+        }
+    }
+    
+    private static class ShapefileWriter implements Answer {
+        @Override
+        public Object answer(InvocationOnMock invocation) throws Throwable {
+            return writeShapefile(invocation);
+        }
+    }
+}
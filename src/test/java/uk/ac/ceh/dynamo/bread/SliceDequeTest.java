@@ -0,0 +1,195 @@
+package uk.ac.ceh.dynamo.bread;
+
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ *
+ * @author Christopher Johnson
+ */
+public class SliceDequeTest {
+    private SliceDeque deque;
+    private BreadSlice first, middle, last;
+
+    @Before
+    public void createDequeOfThreeSlices() {
+        deque = new SliceDeque();
+        first = mock(BreadSlice.class);
+        middle = mock(BreadSlice.class);
+        last = mock(BreadSlice.class);
+        deque.add(first);
+        deque.add(middle);
+        deque.add(last);
+    }
+
+    @Test
+    public void checkThatSlicesAreKeptInOrder() {
+        //Given
+        SliceDeque deque = this.deque;
+
+        //When
+        Object[] slices = deque.toArray();
+
+        //Then
+        assertArrayEquals("Expected slices in the order added", new Object[]{first, middle, last}, slices);
+        assertEquals("Expected three slices", 3, deque.size());
+        assertSame("Expected first slice at the head", first, deque.peekFirst());
+        assertSame("Expected last slice at the tail", last, deque.peekLast());
+    }
+
+    @Test
+    public void checkThatMiddleSliceCanBeRemoved() {
+        //Given
+        BreadSlice slice = middle;
+
+        //When
+        boolean removed = deque.remove(slice);
+
+        //Then
+        assertTrue("Expected the slice to be removed", removed);
+        assertEquals("Expected the neighbours to be joined", Arrays.asList(first, last), Arrays.asList(deque.toArray()));
+        assertFalse("Expected the slice to have left the deque", deque.contains(slice));
+    }
+
+    @Test
+    public void checkThatRemovingHeadAndTailUpdatesEnds() {
+        //Given
+        deque.remove(first);
+
+        //When
+        deque.remove(last);
+
+        //Then
+        assertSame("Expected middle at the head", middle, deque.peekFirst());
+        assertSame("Expected middle at the tail", middle, deque.peekLast());
+        assertEquals("Expected one slice", 1, deque.size());
+    }
+
+    @Test
+    public void checkThatSliceNotInDequeIsNotRemoved() {
+        //Given
+        BreadSlice stranger = mock(BreadSlice.class);
+
+        //When
+        boolean removed = deque.remove(stranger);
+
+        //Then
+        assertFalse("Expected nothing to be removed", removed);
+        assertEquals("Expected three slices", 3, deque.size());
+    }
+
+    @Test
+    public void checkThatSliceInAnotherDequeIsNotRemoved() {
+        //Given
+        SliceDeque other = new SliceDeque();
+        BreadSlice slice = mock(BreadSlice.class);
+        other.add(slice);
+
+        //When
+        boolean removed = deque.remove(slice);
+
+        //Then
+        assertFalse("Expected nothing to be removed", removed);
+        assertTrue("Expected the slice to stay in the other deque", other.contains(slice));
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void checkThatSliceCantBeAddedTwice() {
+        //Given
+        BreadSlice slice = middle;
+
+        //When
+        deque.add(slice);
+
+        //Then
+        fail("Expected the slice to be rejected");
+    }
+
+    @Test
+    public void checkThatRemovedSliceCanBeAddedToTail() {
+        //Given
+        deque.remove(first);
+
+        //When
+        deque.add(first);
+
+        //Then
+        assertEquals("Expected first at the tail", Arrays.asList(middle, last, first), Arrays.asList(deque.toArray()));
+    }
+
+    @Test
+    public void checkThatIteratorCanRemoveSlices() {
+        //Given
+        Iterator iterator = deque.iterator();
+
+        //When
+        iterator.next();
+        iterator.remove();
+        iterator.next();
+
+        //Then
+        assertSame("Expected middle at the head", middle, deque.peekFirst());
+        assertEquals("Expected two slices", 2, deque.size());
+        assertTrue("Expected last still to come", iterator.hasNext());
+    }
+
+    @Test
+    public void checkThatDescendingIteratorWalksBackwards() {
+        //Given
+        Iterator iterator = deque.descendingIterator();
+
+        //When
+        Object walked = Arrays.asList(iterator.next(), iterator.next(), iterator.next());
+
+        //Then
+        assertEquals("Expected slices in reverse", Arrays.asList(last, middle, first), walked);
+        assertFalse("Expected no more slices", iterator.hasNext());
+    }
+
+    @Test(expected=ConcurrentModificationException.class)
+    public void checkThatIteratorFailsFastWhenDequeIsModified() {
+        //Given
+        Iterator iterator = deque.iterator();
+        iterator.next();
+
+        //When
+        deque.remove(last);
+        iterator.next();
+
+        //Then
+        fail("Expected a concurrent modification");
+    }
+
+    @Test
+    public void checkThatPollingEmptiesTheDeque() {
+        //Given
+        deque.pollFirst();
+        deque.pollLast();
+
+        //When
+        Object remaining = deque.poll();
+
+        //Then
+        assertSame("Expected the middle slice", middle, remaining);
+        assertTrue("Expected the deque to be empty", deque.isEmpty());
+        assertNull("Expected nothing to poll", deque.poll());
+    }
+
+    @Test(expected=NoSuchElementException.class)
+    public void checkThatEmptyDequeHasNoFirst() {
+        //Given
+        deque.clear();
+
+        //When
+        deque.getFirst();
+
+        //Then
+        fail("Expected no first slice");
+    }
+}
@@ -0,0 +1,208 @@
+package uk.ac.ceh.dynamo.bread;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+import uk.ac.ceh.dynamo.bread.SliceJournal.Entry;
+import uk.ac.ceh.dynamo.bread.SliceJournal.State;
+
+/**
+ *
+ * @author Christopher Johnson
+ */
+public class SliceJournalTest {
+    public @Rule TemporaryFolder folder = new TemporaryFolder();
+    
+    @Test
+    public void checkThatMissingJournalIsStartedAfresh() throws IOException {
+        //Given
+        File file = new File(folder.getRoot(), SliceJournal.FILENAME);
+        
+        //When
+        SliceJournal journal = new SliceJournal(file);
+        
+        //Then
+        assertFalse("Expected journal not to have existed", journal.existed());
+        assertTrue("Expected journal file to be created", file.exists());
+        journal.close();
+    }
+    
+    @Test
+    public void checkThatUnreadableJournalIsStartedAfresh() throws IOException {
+        //Given
+        File file = folder.newFile(SliceJournal.FILENAME);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.writeBytes("this is not a journal");
+        }
+        
+        //When
+        SliceJournal journal = new SliceJournal(file);
+        
+        //Then
+        assertFalse("Expected journal not to have existed", journal.existed());
+        assertTrue("Expected no entries", journal.getEntries(State.BAKED).isEmpty());
+        journal.close();
+    }
+    
+    @Test
+    public void checkThatBakedSliceIsReplayed() throws IOException {
+        //Given
+        File file = new File(folder.getRoot(), SliceJournal.FILENAME);
+        SliceJournal journal = new SliceJournal(file);
+        journal.baking(3, "HASH");
+        journal.baked(3, "HASH", 1000, 2048, 500);
+        journal.close();
+        
+        //When
+        SliceJournal reopened = new SliceJournal(file);
+        List<Entry> baked = reopened.getEntries(State.BAKED);
+        
+        //Then
+        assertTrue("Expected journal to have existed", reopened.existed());
+        assertEquals("Expected one baked slice", 1, baked.size());
+        assertEquals("Expected id", 3, baked.get(0).getId());
+        assertEquals("Expected mix name", "HASH", baked.get(0).getMixName());
+        assertEquals("Expected baked time", 1000, baked.get(0).getBakedTime());
+        assertEquals("Expected size", 2048, baked.get(0).getSize());
+        assertEquals("Expected bake duration", 500, baked.get(0).getBakeDuration());
+        reopened.close();
+    }
+    
+    @Test
+    public void checkThatRenewedSliceIsReplayed() throws IOException {
+        //Given
+        File file = new File(folder.getRoot(), SliceJournal.FILENAME);
+        SliceJournal journal = new SliceJournal(file);
+        journal.baked(3, "HASH", 1000, 2048, 500);
+        journal.renewed(3, 5000, 4000);
+        journal.close();
+        
+        //When
+        SliceJournal reopened = new SliceJournal(file);
+        Entry entry = reopened.getEntries(State.BAKED).get(0);
+        
+        //Then
+        assertEquals("Expected renewed baked time", 5000, entry.getBakedTime());
+        assertEquals("Expected renewed stale time", 4000, entry.getStaleTime());
+        assertEquals("Expected size to be kept", 2048, entry.getSize());
+        assertEquals("Expected bake duration to be kept", 500, entry.getBakeDuration());
+        reopened.close();
+    }
+    
+    @Test
+    public void checkThatUnfinishedSlicesAreReplayed() throws IOException {
+        //Given
+        File file = new File(folder.getRoot(), SliceJournal.FILENAME);
+        SliceJournal journal = new SliceJournal(file);
+        journal.baking(1, "BAKING");
+        journal.baked(2, "MOULDY", 1000, 10, 10);
+        journal.mouldy(2);
+        journal.close();
+        
+        //When
+        SliceJournal reopened = new SliceJournal(file);
+        
+        //Then
+        assertEquals("Expected one baking slice", 1, reopened.getEntries(State.BAKING).size());
+        assertEquals("Expected one mouldy slice", "MOULDY", reopened.getEntries(State.MOULDY).get(0).getMixName());
+        assertTrue("Expected no baked slices", reopened.getEntries(State.BAKED).isEmpty());
+        reopened.close();
+    }
+    
+    @Test
+    public void checkThatDeletedSliceIsNotReplayed() throws IOException {
+        //Given
+        File file = new File(folder.getRoot(), SliceJournal.FILENAME);
+        SliceJournal journal = new SliceJournal(file);
+        journal.baked(1, "HASH", 1000, 10, 10);
+        journal.baked(2, "OTHER", 1000, 10, 10);
+        journal.mouldy(1);
+        journal.deleted(1);
+        journal.close();
+        
+        //When
+        SliceJournal reopened = new SliceJournal(file);
+        List<Entry> baked = reopened.getEntries(State.BAKED);
+        
+        //Then
+        assertEquals("Expected one baked slice", 1, baked.size());
+        assertEquals("Expected the other slice", 2, baked.get(0).getId());
+        assertTrue("Expected no mouldy slices", reopened.getEntries(State.MOULDY).isEmpty());
+        reopened.close();
+    }
+    
+    @Test
+    public void checkThatTornRecordIsIgnored() throws IOException {
+        //Given
+        File file = new File(folder.getRoot(), SliceJournal.FILENAME);
+        SliceJournal journal = new SliceJournal(file);
+        journal.baked(1, "HASH", 1000, 10, 10);
+        journal.baked(2, "HASH", 1000, 10, 10);
+        journal.close();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(8 + 51 + 20); //Somewhere in the middle of the second record
+            raf.write(0xFF);
+        }
+        
+        //When
+        SliceJournal reopened = new SliceJournal(file);
+        reopened.baked(3, "NEW", 1000, 10, 10);
+        reopened.close();
+        SliceJournal reopenedAgain = new SliceJournal(file);
+        List<Entry> baked = reopenedAgain.getEntries(State.BAKED);
+        
+        //Then
+        assertEquals("Expected two slices", 2, baked.size());
+        assertEquals("Expected the first slice", 1, baked.get(0).getId());
+        assertEquals("Expected the slice written after the torn one", 3, baked.get(1).getId());
+        reopenedAgain.close();
+    }
+    
+    @Test
+    public void checkThatJournalIsCompacted() throws IOException {
+        //Given
+        File file = new File(folder.getRoot(), SliceJournal.FILENAME);
+        SliceJournal journal = new SliceJournal(file);
+        journal.baked(0, "KEEP", 1000, 10, 10);
+        
+        //When
+        for(int i=1; i<50000; i++) {
+            journal.baking(i, "HASH");
+            journal.baked(i, "HASH", 1000, 10, 10);
+            journal.mouldy(i);
+            journal.deleted(i);
+        }
+        
+        //Then
+        assertTrue("Expected the journal to have been compacted", journal.getCompactions() > 0);
+        assertTrue("Expected the journal to stay small", file.length() <= 4 * 1024 * 1024);
+        journal.close();
+        SliceJournal reopened = new SliceJournal(file);
+        assertEquals("Expected only the kept slice", 1, reopened.getEntries(State.BAKED).size());
+        assertEquals("Expected the kept slice", "KEEP", reopened.getEntries(State.BAKED).get(0).getMixName());
+        reopened.close();
+    }
+    
+    @Test
+    public void checkThatJournalGrowsBeyondInitialCapacity() throws IOException {
+        //Given
+        File file = new File(folder.getRoot(), SliceJournal.FILENAME);
+        SliceJournal journal = new SliceJournal(file);
+        
+        //When
+        for(int i=0; i<50000; i++) {
+            journal.baked(i, "HASH", 1000, 10, 10);
+        }
+        journal.close();
+        
+        //Then
+        SliceJournal reopened = new SliceJournal(file);
+        assertEquals("Expected all the slices", 50000, reopened.getEntries(State.BAKED).size());
+        reopened.close();
+    }
+}
@@ -0,0 +1,248 @@
+package uk.ac.ceh.dynamo.bread;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Christopher Johnson
+ */
+public class SqlNormaliserTest {
+    @Test
+    public void checkThatWhitespaceAndCaseAreNormalised() {
+        //Given
+        SqlNormaliser normaliser = new SqlNormaliser();
+        
+        //When
+        String sql = normaliser.normalise("SELECT  the_geom,\n\tID FROM Grid");
+        
+        //Then
+        assertEquals("Expected normal sql", "select the_geom, id from grid", sql);
+    }
+    
+    @Test
+    public void checkThatLiteralsAndQuotedIdentifiersKeepTheirCase() {
+        //Given
+        SqlNormaliser normaliser = new SqlNormaliser();
+        
+        //When
+        String sql = normaliser.normalise("SELECT \"Name\" FROM grid WHERE name = 'It''s  HERE'");
+        
+        //Then
+        assertEquals("Expected literals untouched", "select \"Name\" from grid where name = 'It''s  HERE'", sql);
+    }
+    
+    @Test
+    public void checkThatUnicodeEscapedLiteralsAndIdentifiersAreKeptWhole() {
+        //Given
+        SqlNormaliser normaliser = new SqlNormaliser();
+        
+        //When
+        String sql = normaliser.normalise("SELECT U&\"D\\0061ta\" FROM grid WHERE name = U&'It''s \\0041  HERE'");
+        
+        //Then
+        assertEquals("Expected unicode escapes untouched", "select u&\"D\\0061ta\" from grid where name = u&'It''s \\0041  HERE'", sql);
+    }
+    
+    @Test
+    public void checkThatAndPredicatesAreSorted() {
+        //Given
+        SqlNormaliser normaliser = new SqlNormaliser();
+        
+        //When
+        String first = normaliser.normalise("select * from grid where year = 2010 and species = 'bee'");
+        String second = normaliser.normalise("select * from grid where species = 'bee' and year = 2010");
+        
+        //Then
+        assertEquals("Expected the same sql", first, second);
+        assertEquals("Expected sorted predicates", "select * from grid where species = 'bee' and year = 2010", first);
+    }
+    
+    @Test
+    public void checkThatPredicatesAreOnlySortedWithinTheirClause() {
+        //Given
+        SqlNormaliser normaliser = new SqlNormaliser();
+        
+        //When
+        String sql = normaliser.normalise("select * from grid where z = 1 and a = 2 order by z limit 10");
+        
+        //Then
+        assertEquals("Expected only the where clause sorted", "select * from grid where a = 2 and z = 1 order by z limit 10", sql);
+    }
+    
+    @Test
+    public void checkThatOrIsNotMixedWithAnd() {
+        //Given
+        SqlNormaliser normaliser = new SqlNormaliser();
+        
+        //When
+        String sql = normaliser.normalise("select * from grid where z = 1 and y = 1 or b = 1");
+        
+        //Then
+        assertEquals("Expected and chains sorted within or", "select * from grid where b = 1 or y = 1 and z = 1", sql);
+    }
+    
+    @Test
+    public void checkThatRedundantParenthesesAreRemoved() {
+        //Given
+        SqlNormaliser normaliser = new SqlNormaliser();
+        
+        //When
+        String first = normaliser.normalise("select * from grid where (b = 1 and (c = 1)) and a = 1");
+        String second = normaliser.normalise("select * from grid where a = 1 and b = 1 and c = 1");
+        
+        //Then
+        assertEquals("Expected the same sql", second, first);
+    }
+    
+    @Test
+    public void checkThatNeededParenthesesAreKept() {
+        //Given
+        SqlNormaliser normaliser = new SqlNormaliser();
+        
+        //When
+        String sql = normaliser.normalise("select * from grid where (b = 1 or a = 1) and c = 1");
+        
+        //Then
+        assertEquals("Expected or to stay in parentheses", "select * from grid where (a = 1 or b = 1) and c = 1", sql);
+    }
+    
+    @Test
+    public void checkThatDoubledParenthesesAreRemoved() {
+        //Given
+        SqlNormaliser normaliser = new SqlNormaliser();
+        
+        //When
+        String sql = normaliser.normalise("select * from grid where ((a = 1))");
+        
+        //Then
+        assertEquals("Expected one set of parentheses", "select * from grid where (a = 1)", sql);
+    }
+    
+    @Test
+    public void checkThatBetweenIsNotSplit() {
+        //Given
+        SqlNormaliser normaliser = new SqlNormaliser();
+        
+        //When
+        String sql = normaliser.normalise("select * from grid where z = 1 and year between 2000 and 2010");
+        
+        //Then
+        assertEquals("Expected between kept together", "select * from grid where year between 2000 and 2010 and z = 1", sql);
+    }
+    
+    @Test
+    public void checkThatInListsAreSorted() {
+        //Given
+        SqlNormaliser normaliser = new SqlNormaliser();
+        
+        //When
+        String sql = normaliser.normalise("select * from grid where id in (10, 9, 'b', 'a', 9)");
+        
+        //Then
+        assertEquals("Expected sorted in list", "select * from grid where id in (9, 10, 'a', 'b')", sql);
+    }
+    
+    @Test
+    public void checkThatSubqueryInListIsNotSorted() {
+        //Given
+        SqlNormaliser normaliser = new SqlNormaliser();
+        
+        //When
+        String sql = normaliser.normalise("select * from grid where id in (select id from other where b = 1 and a = 1)");
+        
+        //Then
+        assertEquals("Expected the subquery predicates sorted", "select * from grid where id in (select id from other where a = 1 and b = 1)", sql);
+    }
+    
+    @Test
+    public void checkThatCaseStatementsAreKeptTogether() {
+        //Given
+        SqlNormaliser normaliser = new SqlNormaliser();
+        
+        //When
+        String sql = normaliser.normalise("select * from grid where case when b and a then 1 else 2 end = 2 and x");
+        
+        //Then
+        assertEquals("Expected case kept together", "select * from grid where case when a and b then 1 else 2 end = 2 and x", sql);
+    }
+    
+    @Test
+    public void checkThatIsDistinctFromIsNotAClause() {
+        //Given
+        SqlNormaliser normaliser = new SqlNormaliser();
+        
+        //When
+        String sql = normaliser.normalise("select * from grid where z is not distinct from y and a = 1");
+        
+        //Then
+        assertEquals("Expected distinct from kept together", "select * from grid where a = 1 and z is not distinct from y", sql);
+    }
+    
+    @Test
+    public void checkThatCommentsAreDropped() {
+        //Given
+        SqlNormaliser normaliser = new SqlNormaliser();
+        
+        //When
+        String sql = normaliser.normalise("select * /* everything */ from grid -- the grid\nwhere a = 1");
+        
+        //Then
+        assertEquals("Expected no comments", "select * from grid where a = 1", sql);
+    }
+    
+    @Test
+    public void checkThatOperatorsAreReadLikePostgres() {
+        //Given
+        SqlNormaliser normaliser = new SqlNormaliser();
+        
+        //When
+        String sql = normaliser.normalise("select * from grid where a=-1 and the_geom&&box");
+        
+        //Then
+        assertEquals("Expected operators split", "select * from grid where a = - 1 and the_geom && box", sql);
+    }
+    
+    @Test
+    public void checkThatQualifiedNamesAndCastsAreKept() {
+        //Given
+        SqlNormaliser normaliser = new SqlNormaliser();
+        
+        //When
+        String sql = normaliser.normalise("SELECT g.the_geom, count(*)::int FROM public.grid g");
+        
+        //Then
+        assertEquals("Expected qualified names kept", "select g.the_geom, count (*) :: int from public.grid g", sql);
+    }
+    
+    @Test
+    public void checkThatUnterminatedSqlIsLeftAlone() {
+        //Given
+        SqlNormaliser normaliser = new SqlNormaliser();
+        String broken = "SELECT * FROM grid WHERE name = 'oops";
+        
+        //When
+        String sql = normaliser.normalise(broken);
+        
+        //Then
+        assertSame("Expected sql untouched", broken, sql);
+    }
+    
+    @Test
+    public void checkThatDedupRatioIsReported() {
+        //Given
+        SqlNormaliser normaliser = new SqlNormaliser();
+        
+        //When
+        normaliser.normalise("select * from grid where a = 1 and b = 2");
+        normaliser.normalise("SELECT * FROM grid WHERE b = 2 AND a = 1");
+        normaliser.normalise("select * from grid where a = 1 and b = 2");
+        normaliser.normalise("select * from other");
+        
+        //Then
+        assertEquals("Expected 4 normalised", 4, normaliser.getNormalisedCount());
+        assertEquals("Expected 1 rewritten", 1, normaliser.getRewrittenCount());
+        assertEquals("Expected 1 bake saved", 1, normaliser.getBakesSaved());
+        assertEquals("Expected 3 statements for 2 bakes", 1.5, normaliser.getDedupRatio(), 0.0001);
+    }
+}
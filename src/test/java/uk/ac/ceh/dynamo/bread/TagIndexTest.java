@@ -0,0 +1,73 @@
+package uk.ac.ceh.dynamo.bread;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ *
+ * @author Christopher Johnson
+ */
+public class TagIndexTest {
+    @Test
+    public void checkThatSliceIsIndexedByEachTag() {
+        //Given
+        TagIndex index = new TagIndex();
+        BreadSlice slice = mock(BreadSlice.class);
+        when(slice.getTags()).thenReturn(new HashSet<>(Arrays.asList("taxon:a", "table:b")));
+        
+        //When
+        index.add(slice);
+        
+        //Then
+        assertEquals("Expected slice under first tag", Arrays.asList(slice), index.get("taxon:a"));
+        assertEquals("Expected slice under second tag", Arrays.asList(slice), index.get("table:b"));
+        assertEquals("Expected two tags", 2, index.getTagCount());
+    }
+    
+    @Test
+    public void checkThatUnknownTagHasNoSlices() {
+        //Given
+        TagIndex index = new TagIndex();
+        
+        //When
+        int found = index.get("taxon:a").size();
+        
+        //Then
+        assertEquals("Expected no slices", 0, found);
+    }
+    
+    @Test
+    public void checkThatRemovedSliceLeavesOthersIndexed() {
+        //Given
+        TagIndex index = new TagIndex();
+        BreadSlice first = mock(BreadSlice.class);
+        BreadSlice second = mock(BreadSlice.class);
+        when(first.getTags()).thenReturn(new HashSet<>(Arrays.asList("taxon:a")));
+        when(second.getTags()).thenReturn(new HashSet<>(Arrays.asList("taxon:a", "table:b")));
+        index.add(first);
+        index.add(second);
+        
+        //When
+        index.remove(second);
+        
+        //Then
+        assertEquals("Expected first to remain", Arrays.asList(first), index.get("taxon:a"));
+        assertEquals("Expected the empty tag to be dropped", 1, index.getTagCount());
+    }
+    
+    @Test
+    public void checkThatUntaggedSliceCanBeRemoved() {
+        //Given
+        TagIndex index = new TagIndex();
+        BreadSlice slice = mock(BreadSlice.class);
+        
+        //When
+        index.remove(slice);
+        
+        //Then
+        assertEquals("Expected no tags", 0, index.getTagCount());
+    }
+}
@@ -0,0 +1,158 @@
+package uk.ac.ceh.dynamo.bread;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ *
+ * @author Christopher Johnson
+ */
+public class TinyLfuEvictionPolicyTest {
+    private static final int CAPACITY = 100;
+    private static final Clock CLOCK = mock(Clock.class);
+    private static final DustBin DUST_BIN = mock(DustBin.class);
+    
+    @Test
+    public void checkThatPopularSliceSurvivesOneOffSlices() {
+        //Given
+        TinyLfuEvictionPolicy policy = new TinyLfuEvictionPolicy(2);
+        BreadSlice popular = createSlice("popular");
+        policy.baked(popular);
+        for(int i=0; i<5; i++) {
+            policy.eaten(popular);
+        }
+        
+        //When
+        List<BreadSlice> evicted = new ArrayList<>();
+        for(int i=0; i<10; i++) {
+            BreadSlice oneOff = createSlice("oneoff" + i);
+            policy.eaten(oneOff);
+            policy.baked(oneOff);
+            evicted.addAll(policy.evict());
+        }
+        
+        //Then
+        assertFalse("Expected the popular slice to survive", evicted.contains(popular));
+        assertEquals("Expected all but one of the one off slices to be evicted", 9, evicted.size());
+    }
+    
+    @Test
+    public void checkThatPopularityIsKeptByMixName() {
+        //Given
+        TinyLfuEvictionPolicy policy = new TinyLfuEvictionPolicy(1);
+        BreadSlice stale = createSlice("popular");
+        policy.baked(stale);
+        for(int i=0; i<5; i++) {
+            policy.eaten(stale);
+        }
+        policy.removed(stale);
+        
+        //When
+        BreadSlice fresh = createSlice("popular");
+        BreadSlice oneOff = createSlice("oneoff");
+        policy.baked(fresh);
+        policy.evict();
+        policy.eaten(oneOff);
+        policy.baked(oneOff);
+        List evicted = policy.evict();
+        
+        //Then
+        assertEquals("Expected the one off slice to lose out", Arrays.asList(oneOff), evicted);
+    }
+    
+    @Test
+    public void checkThatReloadedSlicesAreCutDownToCapacity() {
+        //Given
+        TinyLfuEvictionPolicy policy = new TinyLfuEvictionPolicy(3);
+        for(int i=0; i<10; i++) {
+            policy.baked(createSlice("reloaded" + i));
+        }
+        
+        //When
+        List evicted = policy.evict();
+        
+        //Then
+        assertEquals("Expected seven slices to be evicted", 7, evicted.size());
+    }
+    
+    @Test
+    public void checkThatHitRatioBeatsFifoAndLruOnReplayedTrace() {
+        //Given
+        List<String> trace = createTrace(new Random(42), 50000);
+        
+        //When
+        double fifo = replay(new FifoEvictionPolicy(CAPACITY), trace);
+        double lru = replay(new LruEvictionPolicy(CAPACITY), trace);
+        double tinyLfu = replay(new TinyLfuEvictionPolicy(CAPACITY), trace);
+        
+        //Then
+        assertTrue("Expected lru (" + lru + ") to beat fifo (" + fifo + ")", lru > fifo);
+        assertTrue("Expected tinylfu (" + tinyLfu + ") to beat lru (" + lru + ")", tinyLfu > lru);
+    }
+    
+    /**
+     * A trace of mix names in which a few thousand popular species maps are 
+     * requested with a zipf like distribution. Every so often a burst of one
+     * off queries is made.
+     */
+    private static List<String> createTrace(Random random, int length) {
+        int popularMixes = 2000;
+        double[] cumulative = new double[popularMixes];
+        double total = 0;
+        for(int i=0; i<popularMixes; i++) {
+            total += 1 / Math.pow(i + 1, 0.9);
+            cumulative[i] = total;
+        }
+        
+        List<String> trace = new ArrayList<>(length);
+        int oneOffs = 0;
+        while(trace.size() < length) {
+            if(random.nextInt(100) == 0) {
+                for(int i=0; i<50; i++) {
+                    trace.add("oneoff" + oneOffs++);
+                }
+            }
+            int index = Arrays.binarySearch(cumulative, random.nextDouble() * total);
+            trace.add("species" + (index < 0 ? -index - 1 : index));
+        }
+        return trace;
+    }
+    
+    /**
+     * Replay a trace of mix names against an eviction policy in the same way as
+     * a bakery would, i.e. every request is eaten and misses are baked
+     * @return the proportion of requests which were served from the bread bin
+     */
+    private static double replay(EvictionPolicy policy, List<String> trace) {
+        Map<String, BreadSlice> breadBin = new HashMap<>();
+        int hits = 0;
+        for(String mixName: trace) {
+            BreadSlice slice = breadBin.get(mixName);
+            if(slice != null) {
+                hits++;
+                policy.eaten(slice);
+            }
+            else {
+                slice = createSlice(mixName);
+                policy.eaten(slice);
+                policy.baked(slice);
+                breadBin.put(mixName, slice);
+                for(Object evicted: policy.evict()) {
+                    breadBin.remove(((BreadSlice)evicted).getMixName());
+                }
+            }
+        }
+        return (double)hits / trace.size();
+    }
+    
+    private static BreadSlice createSlice(String mixName) {
+        return new BreadSlice<>("baked", 0, 0, mixName, 1000, CLOCK, new Object(), DUST_BIN);
+    }
+}
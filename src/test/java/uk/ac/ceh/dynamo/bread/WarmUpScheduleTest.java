@@ -0,0 +1,107 @@
+package uk.ac.ceh.dynamo.bread;
+
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import org.mockito.Mock;
+import static org.mockito.Mockito.*;
+import org.mockito.MockitoAnnotations;
+
+/**
+ *
+ * @author Christopher Johnson
+ */
+public class WarmUpScheduleTest {
+    @Mock Bakery<Object, String, Object> bakery;
+    @Mock Clock clock;
+    @Mock ScheduledExecutorService executor;
+    @Mock ScheduledFuture future;
+    @Mock Callable<List<String>> ingredients;
+    
+    @Before
+    public void mockBakery() {
+        MockitoAnnotations.initMocks(this);
+        when(bakery.getClock()).thenReturn(clock);
+        Calendar twoAm = Calendar.getInstance();
+        twoAm.set(2014, Calendar.JANUARY, 1, 2, 0, 0);
+        twoAm.set(Calendar.MILLISECOND, 0);
+        when(clock.getTimeInMillis()).thenReturn(twoAm.getTimeInMillis());
+        when(executor.schedule(any(Runnable.class), anyLong(), any(TimeUnit.class))).thenReturn(future);
+    }
+    
+    @Test
+    public void checkThatWarmUpIsScheduledForNextCronTime() {
+        //Given
+        WarmUpSchedule<String> schedule = new WarmUpSchedule<>(bakery, "0 0 3 * * *", ingredients, 2, executor);
+        
+        //When
+        schedule.schedule();
+        
+        //Then
+        verify(executor).schedule(schedule, TimeUnit.HOURS.toMillis(1), TimeUnit.MILLISECONDS);
+    }
+    
+    @Test
+    public void checkThatRunningWarmsUpAndSchedulesTheNext() throws Exception {
+        //Given
+        List<String> hottest = Arrays.asList("a", "b");
+        when(ingredients.call()).thenReturn(hottest);
+        WarmUpSchedule<String> schedule = new WarmUpSchedule<>(bakery, "0 0 3 * * *", ingredients, 2, executor);
+        
+        //When
+        schedule.run();
+        
+        //Then
+        verify(bakery).warmUp(hottest, 2, true);
+        verify(executor).schedule(schedule, TimeUnit.HOURS.toMillis(1), TimeUnit.MILLISECONDS);
+    }
+    
+    @Test
+    public void checkThatFailureToObtainIngredientsIsCountedAndRescheduled() throws Exception {
+        //Given
+        when(ingredients.call()).thenThrow(new IllegalStateException("No ingredients"));
+        WarmUpSchedule<String> schedule = new WarmUpSchedule<>(bakery, "0 0 3 * * *", ingredients, 2, executor);
+        
+        //When
+        schedule.run();
+        
+        //Then
+        assertEquals("Expected one failure", 1, schedule.getFailureCount());
+        verify(executor).schedule(schedule, TimeUnit.HOURS.toMillis(1), TimeUnit.MILLISECONDS);
+    }
+    
+    @Test
+    public void checkThatCancelledScheduleIsNotRescheduled() throws Exception {
+        //Given
+        when(ingredients.call()).thenReturn(Arrays.asList("a"));
+        WarmUpSchedule<String> schedule = new WarmUpSchedule<>(bakery, "0 0 3 * * *", ingredients, 2, executor);
+        schedule.schedule();
+        
+        //When
+        schedule.cancel();
+        schedule.run();
+        
+        //Then
+        verify(future).cancel(false);
+        verify(executor, times(1)).schedule(schedule, TimeUnit.HOURS.toMillis(1), TimeUnit.MILLISECONDS);
+    }
+    
+    @Test(expected=IllegalArgumentException.class)
+    public void checkThatInvalidCronExpressionIsRejected() {
+        //Given
+        String cronExpression = "every night";
+        
+        //When
+        new WarmUpSchedule<>(bakery, cronExpression, ingredients, 2, executor);
+        
+        //Then
+        fail("Expected the cron expression to be rejected");
+    }
+}
@@ -0,0 +1,139 @@
+package uk.ac.ceh.dynamo.bread;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Christopher Johnson
+ */
+public class WarmUpTest {
+    private final List<WarmUp<String>> inOven = new ArrayList<>();
+    
+    @Test
+    public void checkThatOnlyConcurrencyBakesAreStartedAtOnce() {
+        //Given
+        WarmUp<String> warmUp = new WarmUp<>(Arrays.asList("a", "b", "c", "d"), 2, new OvenStarter());
+        
+        //When
+        warmUp.start();
+        
+        //Then
+        assertEquals("Expected two bakes in the oven", 2, inOven.size());
+        assertEquals("Expected two ingredients to be read", 2, warmUp.getStarted());
+        assertFalse("Expected the warm up to be going on", warmUp.isDone());
+    }
+    
+    @Test
+    public void checkThatNextBakeIsStartedWhenOneFinishes() {
+        //Given
+        WarmUp<String> warmUp = new WarmUp<>(Arrays.asList("a", "b", "c"), 2, new OvenStarter());
+        warmUp.start();
+        
+        //When
+        inOven.remove(0).finished(true);
+        
+        //Then
+        assertEquals("Expected three ingredients to be read", 3, warmUp.getStarted());
+        assertEquals("Expected one baked", 1, warmUp.getBaked());
+    }
+    
+    @Test
+    public void checkThatWarmUpIsDoneOnceEverythingHasFinished() throws InterruptedException {
+        //Given
+        WarmUp<String> warmUp = new WarmUp<>(Arrays.asList("a", "b"), 2, new OvenStarter());
+        warmUp.start();
+        
+        //When
+        inOven.remove(0).finished(true);
+        inOven.remove(0).finished(false);
+        
+        //Then
+        assertTrue("Expected the warm up to be done", warmUp.await(1, TimeUnit.SECONDS));
+        assertEquals("Expected one baked", 1, warmUp.getBaked());
+        assertEquals("Expected one failed", 1, warmUp.getFailed());
+    }
+    
+    @Test
+    public void checkThatSkippedIngredientsDoNotUseUpConcurrency() {
+        //Given
+        WarmUp<String> warmUp = new WarmUp<>(Arrays.asList("fresh", "fresh", "a"), 1, new OvenStarter());
+        
+        //When
+        warmUp.start();
+        
+        //Then
+        assertEquals("Expected the fresh ingredients to be skipped", 2, warmUp.getSkipped());
+        assertEquals("Expected one bake in the oven", 1, inOven.size());
+    }
+    
+    @Test
+    public void checkThatBakeWhichFinishesWhilstStartingIsCounted() {
+        //Given
+        WarmUp<String> warmUp = new WarmUp<>(Arrays.asList("a", "b", "c"), 1, new WarmUp.Starter<String>() {
+            @Override
+            public boolean start(String ingredients, WarmUp<String> warmUp) {
+                warmUp.finished(false); //as if the bread ovens discarded it
+                return true;
+            }
+        });
+        
+        //When
+        warmUp.start();
+        
+        //Then
+        assertEquals("Expected every bake to fail", 3, warmUp.getFailed());
+        assertTrue("Expected the warm up to be done", warmUp.isDone());
+    }
+    
+    @Test
+    public void checkThatCancelledWarmUpStopsStartingBakes() {
+        //Given
+        WarmUp<String> warmUp = new WarmUp<>(Arrays.asList("a", "b", "c"), 1, new OvenStarter());
+        warmUp.start();
+        
+        //When
+        warmUp.cancel();
+        inOven.remove(0).finished(true);
+        
+        //Then
+        assertEquals("Expected only the first ingredients to be read", 1, warmUp.getStarted());
+        assertTrue("Expected the warm up to be done", warmUp.isDone());
+    }
+    
+    @Test
+    public void checkThatTotalIsUnknownForIterable() {
+        //Given
+        Iterable<String> ingredients = new Iterable<String>() {
+            @Override
+            public Iterator<String> iterator() {
+                return Arrays.asList("a").iterator();
+            }
+        };
+        
+        //When
+        WarmUp<String> warmUp = new WarmUp<>(ingredients, 1, new OvenStarter());
+        
+        //Then
+        assertEquals("Expected unknown total", WarmUp.UNKNOWN_TOTAL, warmUp.getTotal());
+    }
+    
+    /**
+     * Puts everything except "fresh" ingredients into the oven
+     */
+    private class OvenStarter implements WarmUp.Starter<String> {
+        @Override
+        public boolean start(String ingredients, WarmUp<String> warmUp) {
+            if(ingredients.equals("fresh")) {
+                return false;
+            }
+            inOven.add(warmUp);
+            return true;
+        }
+    }
+}